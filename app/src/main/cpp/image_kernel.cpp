@@ -0,0 +1,147 @@
+#include "image_kernel.h"
+
+#include <string.h>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define IMAGE_KERNEL_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define IMAGE_KERNEL_SSE2 1
+#endif
+
+void image_grey_to_rgba_row_scalar(const uint8_t *src, uint8_t *dst, size_t count) {
+    for (size_t i = 0; i < count; i++) {
+        uint8_t grey = src[i];
+        dst[4 * i] = grey;
+        dst[4 * i + 1] = grey;
+        dst[4 * i + 2] = grey;
+        dst[4 * i + 3] = 0xff;
+    }
+}
+
+void image_grey_to_rgba_row(const uint8_t *src, uint8_t *dst, size_t count) {
+    size_t i = 0;
+#if defined(IMAGE_KERNEL_NEON)
+    const uint8x16_t alpha = vdupq_n_u8(0xff);
+    for (; i + 16 <= count; i += 16) {
+        uint8x16_t grey = vld1q_u8(src + i);
+        uint8x16x4_t rgba;
+        rgba.val[0] = grey;
+        rgba.val[1] = grey;
+        rgba.val[2] = grey;
+        rgba.val[3] = alpha;
+        vst4q_u8(dst + 4 * i, rgba);
+    }
+#elif defined(IMAGE_KERNEL_SSE2)
+    const __m128i alpha = _mm_set1_epi8((char) 0xff);
+    for (; i + 16 <= count; i += 16) {
+        __m128i grey = _mm_loadu_si128((const __m128i *) (src + i));
+        __m128i gg_lo = _mm_unpacklo_epi8(grey, grey);
+        __m128i gg_hi = _mm_unpackhi_epi8(grey, grey);
+        __m128i ga_lo = _mm_unpacklo_epi8(grey, alpha);
+        __m128i ga_hi = _mm_unpackhi_epi8(grey, alpha);
+        __m128i *out = (__m128i *) (dst + 4 * i);
+        _mm_storeu_si128(out, _mm_unpacklo_epi16(gg_lo, ga_lo));
+        _mm_storeu_si128(out + 1, _mm_unpackhi_epi16(gg_lo, ga_lo));
+        _mm_storeu_si128(out + 2, _mm_unpacklo_epi16(gg_hi, ga_hi));
+        _mm_storeu_si128(out + 3, _mm_unpackhi_epi16(gg_hi, ga_hi));
+    }
+#endif
+    image_grey_to_rgba_row_scalar(src + i, dst + 4 * i, count - i);
+}
+
+void image_grey_to_rgba(const uint8_t *src, uint32_t width, uint32_t height, uint8_t *dst, uint32_t dstStride) {
+    if (dstStride == width * 4) {
+        image_grey_to_rgba_row(src, dst, (size_t) width * height);
+        return;
+    }
+    for (uint32_t y = 0; y < height; y++) {
+        image_grey_to_rgba_row(src + (size_t) y * width, dst + (size_t) y * dstStride, width);
+    }
+}
+
+void image_compute_stats(const uint8_t *src, size_t count, uint32_t *histogram, struct ImageStatsSums *sums) {
+    // Four interleaved sub-histograms avoid stalling on repeated increments of the same bin
+    uint32_t sub[4][IMAGE_HISTOGRAM_SIZE];
+    memset(sub, 0, sizeof(sub));
+    
+    uint64_t sum = 0;
+    uint64_t sumOfSquares = 0;
+    size_t i = 0;
+#if defined(IMAGE_KERNEL_NEON)
+    uint64x2_t vsum = vdupq_n_u64(0);
+    uint64x2_t vsumsq = vdupq_n_u64(0);
+    for (; i + 16 <= count; i += 16) {
+        uint8x16_t v = vld1q_u8(src + i);
+        vsum = vpadalq_u32(vsum, vpaddlq_u16(vpaddlq_u8(v)));
+        uint16x8_t sq_lo = vmull_u8(vget_low_u8(v), vget_low_u8(v));
+        uint16x8_t sq_hi = vmull_u8(vget_high_u8(v), vget_high_u8(v));
+        vsumsq = vpadalq_u32(vsumsq, vaddq_u32(vpaddlq_u16(sq_lo), vpaddlq_u16(sq_hi)));
+    }
+    sum = vgetq_lane_u64(vsum, 0) + vgetq_lane_u64(vsum, 1);
+    sumOfSquares = vgetq_lane_u64(vsumsq, 0) + vgetq_lane_u64(vsumsq, 1);
+#elif defined(IMAGE_KERNEL_SSE2)
+    const __m128i zero = _mm_setzero_si128();
+    __m128i vsum = _mm_setzero_si128();
+    __m128i vsumsq = _mm_setzero_si128();
+    for (; i + 16 <= count; i += 16) {
+        __m128i v = _mm_loadu_si128((const __m128i *) (src + i));
+        vsum = _mm_add_epi64(vsum, _mm_sad_epu8(v, zero));
+        __m128i lo = _mm_unpacklo_epi8(v, zero);
+        __m128i hi = _mm_unpackhi_epi8(v, zero);
+        // 2 * 255^2 fits in a signed 32-bit lane, widen to 64 bits before accumulating
+        __m128i sq = _mm_add_epi32(_mm_madd_epi16(lo, lo), _mm_madd_epi16(hi, hi));
+        vsumsq = _mm_add_epi64(vsumsq, _mm_unpacklo_epi32(sq, zero));
+        vsumsq = _mm_add_epi64(vsumsq, _mm_unpackhi_epi32(sq, zero));
+    }
+    uint64_t lanes[2];
+    _mm_storeu_si128((__m128i *) lanes, vsum);
+    sum = lanes[0] + lanes[1];
+    _mm_storeu_si128((__m128i *) lanes, vsumsq);
+    sumOfSquares = lanes[0] + lanes[1];
+#endif
+    for (size_t j = i; j < count; j++) {
+        uint32_t grey = src[j];
+        sum += grey;
+        sumOfSquares += grey * grey;
+    }
+    
+    size_t k = 0;
+    for (; k + 4 <= count; k += 4) {
+        sub[0][src[k]]++;
+        sub[1][src[k + 1]]++;
+        sub[2][src[k + 2]]++;
+        sub[3][src[k + 3]]++;
+    }
+    for (; k < count; k++) {
+        sub[0][src[k]]++;
+    }
+    
+    uint32_t min = IMAGE_HISTOGRAM_SIZE;
+    uint32_t max = 0;
+    for (uint32_t bin = 0; bin < IMAGE_HISTOGRAM_SIZE; bin++) {
+        uint32_t n = sub[0][bin] + sub[1][bin] + sub[2][bin] + sub[3][bin];
+        histogram[bin] = n;
+        if (n != 0) {
+            if (bin < min) min = bin;
+            max = bin;
+        }
+    }
+    
+    sums->count = count;
+    sums->sum = sum;
+    sums->sumOfSquares = sumOfSquares;
+    sums->min = count == 0 ? 0 : min;
+    sums->max = max;
+}
+
+const char *image_kernel_isa(void) {
+#if defined(IMAGE_KERNEL_NEON)
+    return "neon";
+#elif defined(IMAGE_KERNEL_SSE2)
+    return "sse2";
+#else
+    return "scalar";
+#endif
+}
@@ -0,0 +1,36 @@
+// Raw 8-bit fingerprint image kernels shared by the JNI binding and the host tests.
+// Nothing in here depends on JNI or the Android NDK.
+
+#ifndef SAMPLE_IMAGE_KERNEL_H
+#define SAMPLE_IMAGE_KERNEL_H
+
+#include <stddef.h>
+#include <stdint.h>
+
+#define IMAGE_HISTOGRAM_SIZE 256
+
+struct ImageStatsSums {
+    uint64_t count;
+    uint64_t sum;
+    uint64_t sumOfSquares;
+    uint32_t min;
+    uint32_t max;
+};
+
+// Expands a row-major grey image into RGBA_8888 pixels (R = G = B = grey, A = 255).
+// dstStride is the byte distance between destination rows, as reported by AndroidBitmap_getInfo.
+void image_grey_to_rgba(const uint8_t *src, uint32_t width, uint32_t height, uint8_t *dst, uint32_t dstStride);
+
+// Expands count grey pixels into count RGBA_8888 pixels using the vectorized path when available.
+void image_grey_to_rgba_row(const uint8_t *src, uint8_t *dst, size_t count);
+
+// Plain scalar version of image_grey_to_rgba_row, used as the reference by the host tests.
+void image_grey_to_rgba_row_scalar(const uint8_t *src, uint8_t *dst, size_t count);
+
+// Fills histogram (IMAGE_HISTOGRAM_SIZE bins) and the integer sums from which mean and contrast are derived.
+void image_compute_stats(const uint8_t *src, size_t count, uint32_t *histogram, struct ImageStatsSums *sums);
+
+// Name of the vector extension compiled into the kernels ("neon", "sse2" or "scalar").
+const char *image_kernel_isa(void);
+
+#endif // SAMPLE_IMAGE_KERNEL_H
@@ -1,17 +1,57 @@
-// Write C++ code here.
-//
-// Do not forget to dynamically load the C++ library into your application.
-//
-// For instance,
-//
-// In MainActivity.java:
-//    static {
-//       System.loadLibrary("sample");
-//    }
-//
-// Or, in MainActivity.kt:
-//    companion object {
-//      init {
-//         System.loadLibrary("sample")
-//      }
-//    }
\ No newline at end of file
+// JNI binding of the native image stage, see com.nextbiometrics.sample.NativeImage.
+
+#include <jni.h>
+#include <android/bitmap.h>
+#include <android/log.h>
+
+#include "image_kernel.h"
+
+#define LOG_TAG "NativeImage"
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_nextbiometrics_sample_NativeImage_nativeGreyToRgba(JNIEnv *env, jclass, jbyteArray image, jint width, jint height, jobject bitmap) {
+    AndroidBitmapInfo info;
+    if (AndroidBitmap_getInfo(env, bitmap, &info) != ANDROID_BITMAP_RESULT_SUCCESS)
+        return JNI_FALSE;
+    if (info.format != ANDROID_BITMAP_FORMAT_RGBA_8888 || info.width != (uint32_t) width || info.height != (uint32_t) height)
+        return JNI_FALSE;
+    if (env->GetArrayLength(image) < width * height)
+        return JNI_FALSE;
+    
+    void *pixels = nullptr;
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        __android_log_print(ANDROID_LOG_WARN, LOG_TAG, "AndroidBitmap_lockPixels failed");
+        return JNI_FALSE;
+    }
+    jbyte *src = (jbyte *) env->GetPrimitiveArrayCritical(image, nullptr);
+    if (src != nullptr) {
+        image_grey_to_rgba((const uint8_t *) src, info.width, info.height, (uint8_t *) pixels, info.stride);
+        env->ReleasePrimitiveArrayCritical(image, src, JNI_ABORT);
+    }
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return src != nullptr ? JNI_TRUE : JNI_FALSE;
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_nextbiometrics_sample_NativeImage_nativeComputeStats(JNIEnv *env, jclass, jbyteArray image, jint count, jintArray histogram, jlongArray sums) {
+    if (count < 0 || env->GetArrayLength(image) < count || env->GetArrayLength(histogram) < IMAGE_HISTOGRAM_SIZE || env->GetArrayLength(sums) < 5)
+        return JNI_FALSE;
+    
+    uint32_t bins[IMAGE_HISTOGRAM_SIZE];
+    ImageStatsSums result;
+    jbyte *src = (jbyte *) env->GetPrimitiveArrayCritical(image, nullptr);
+    if (src == nullptr)
+        return JNI_FALSE;
+    image_compute_stats((const uint8_t *) src, (size_t) count, bins, &result);
+    env->ReleasePrimitiveArrayCritical(image, src, JNI_ABORT);
+    
+    env->SetIntArrayRegion(histogram, 0, IMAGE_HISTOGRAM_SIZE, (const jint *) bins);
+    jlong values[5] = { (jlong) result.count, (jlong) result.sum, (jlong) result.sumOfSquares, (jlong) result.min, (jlong) result.max };
+    env->SetLongArrayRegion(sums, 0, 5, values);
+    return JNI_TRUE;
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_com_nextbiometrics_sample_NativeImage_nativeIsa(JNIEnv *env, jclass) {
+    return env->NewStringUTF(image_kernel_isa());
+}
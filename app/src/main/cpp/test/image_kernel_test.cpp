@@ -0,0 +1,104 @@
+// Host unit test for image_kernel.cpp, build it on a plain Linux box with:
+//   cmake -S app/src/main/cpp -B build/native-test && cmake --build build/native-test && ctest --test-dir build/native-test
+
+#include "../image_kernel.h"
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+
+static int failures = 0;
+
+#define CHECK(cond, ...) do { if (!(cond)) { failures++; fprintf(stderr, "FAIL %s:%d: ", __FILE__, __LINE__); fprintf(stderr, __VA_ARGS__); fputc('\n', stderr); } } while (0)
+
+static std::vector<uint8_t> random_image(size_t count, unsigned seed) {
+    std::vector<uint8_t> image(count);
+    srand(seed);
+    for (size_t i = 0; i < count; i++)
+        image[i] = (uint8_t) (rand() & 0xff);
+    return image;
+}
+
+static void test_rgba_matches_scalar(size_t count) {
+    std::vector<uint8_t> image = random_image(count, (unsigned) count);
+    std::vector<uint8_t> expected(count * 4), actual(count * 4);
+    image_grey_to_rgba_row_scalar(image.data(), expected.data(), count);
+    image_grey_to_rgba_row(image.data(), actual.data(), count);
+    CHECK(memcmp(expected.data(), actual.data(), count * 4) == 0, "vector rgba differs from scalar for %zu pixels", count);
+    for (size_t i = 0; i < count; i++) {
+        CHECK(actual[4 * i] == image[i] && actual[4 * i + 1] == image[i] && actual[4 * i + 2] == image[i] && actual[4 * i + 3] == 0xff,
+              "pixel %zu of %zu", i, count);
+    }
+}
+
+static void test_rgba_honours_stride() {
+    const uint32_t width = 37, height = 5, stride = width * 4 + 12;
+    std::vector<uint8_t> image = random_image(width * height, 7);
+    std::vector<uint8_t> dst(stride * height, 0xcd);
+    image_grey_to_rgba(image.data(), width, height, dst.data(), stride);
+    for (uint32_t y = 0; y < height; y++) {
+        for (uint32_t x = 0; x < width; x++) {
+            const uint8_t *p = &dst[y * stride + x * 4];
+            uint8_t grey = image[y * width + x];
+            CHECK(p[0] == grey && p[1] == grey && p[2] == grey && p[3] == 0xff, "pixel %u,%u", x, y);
+        }
+        for (uint32_t pad = width * 4; pad < stride; pad++)
+            CHECK(dst[y * stride + pad] == 0xcd, "row padding %u of row %u was written", pad, y);
+    }
+}
+
+static void test_stats_match_reference(size_t count) {
+    std::vector<uint8_t> image = random_image(count, (unsigned) count + 11);
+    uint32_t histogram[IMAGE_HISTOGRAM_SIZE];
+    ImageStatsSums sums;
+    image_compute_stats(image.data(), count, histogram, &sums);
+    
+    uint32_t expected[IMAGE_HISTOGRAM_SIZE] = {0};
+    uint64_t sum = 0, sumOfSquares = 0;
+    uint32_t min = 255, max = 0;
+    for (size_t i = 0; i < count; i++) {
+        expected[image[i]]++;
+        sum += image[i];
+        sumOfSquares += (uint64_t) image[i] * image[i];
+        if (image[i] < min) min = image[i];
+        if (image[i] > max) max = image[i];
+    }
+    CHECK(memcmp(expected, histogram, sizeof(expected)) == 0, "histogram differs for %zu pixels", count);
+    CHECK(sums.count == count, "count %llu", (unsigned long long) sums.count);
+    CHECK(sums.sum == sum, "sum %llu != %llu", (unsigned long long) sums.sum, (unsigned long long) sum);
+    CHECK(sums.sumOfSquares == sumOfSquares, "sumOfSquares %llu != %llu", (unsigned long long) sums.sumOfSquares, (unsigned long long) sumOfSquares);
+    if (count > 0) {
+        CHECK(sums.min == min && sums.max == max, "min/max %u/%u != %u/%u", sums.min, sums.max, min, max);
+    }
+}
+
+static void test_stats_constant_image() {
+    std::vector<uint8_t> image(180 * 256, 200);
+    uint32_t histogram[IMAGE_HISTOGRAM_SIZE];
+    ImageStatsSums sums;
+    image_compute_stats(image.data(), image.size(), histogram, &sums);
+    double mean = (double) sums.sum / sums.count;
+    double variance = (double) sums.sumOfSquares / sums.count - mean * mean;
+    CHECK(mean == 200.0, "mean %f", mean);
+    CHECK(fabs(variance) < 1e-9, "variance %f", variance);
+    CHECK(histogram[200] == image.size() && sums.min == 200 && sums.max == 200, "histogram/min/max of constant image");
+}
+
+int main() {
+    const size_t sizes[] = {0, 1, 15, 16, 17, 63, 180 * 256, 256 * 360 + 3};
+    for (size_t size : sizes) {
+        test_rgba_matches_scalar(size);
+        test_stats_match_reference(size);
+    }
+    test_rgba_honours_stride();
+    test_stats_constant_image();
+    
+    if (failures != 0) {
+        fprintf(stderr, "%d check(s) failed (%s kernels)\n", failures, image_kernel_isa());
+        return 1;
+    }
+    printf("image_kernel_test passed (%s kernels)\n", image_kernel_isa());
+    return 0;
+}
@@ -0,0 +1,256 @@
+package com.nextbiometrics.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process startup in stages run one after the other off the UI thread, with a trace
+ * of how long the terminal takes from process start until it can be used.
+ * <p>
+ * The stages (loading the native libraries, initializing NBDevices, enumerating the
+ * devices) are added before {@link #start}, which runs them on the given executor.
+ * {@link #getReady()} completes after the last of them, or fails with the error of the
+ * first one that throws; the stages after it are skipped.
+ * <p>
+ * Besides the stages the trace holds two milestones reported by the UI: the first
+ * frame drawn ({@link #firstFrame}) and the first attempt to open the device after the
+ * library was ready ({@link #deviceReady}). Once all three are known the
+ * {@link Listener} gets the {@link Trace}, once per process. All times are taken
+ * against the origin given to the constructor, normally when the process started.
+ */
+public class AppStartup {
+    
+    public interface Stage {
+        void run() throws Exception;
+    }
+    
+    public interface Listener {
+        /**
+         * The startup is complete, called on the thread that reported the last milestone.
+         */
+        void onTraced(Trace trace);
+    }
+    
+    /**
+     * Durations of one startup, in milliseconds since the origin unless stated otherwise.
+     */
+    public static final class Trace {
+        private final String[]  stages;
+        private final long[]    stageMillis;
+        private final long      libraryReadyMillis;
+        private final long      firstFrameMillis;
+        private final long      deviceReadyMillis;
+        private final boolean   deviceFound;
+        
+        Trace(String[] stages, long[] stageMillis, long libraryReadyMillis, long firstFrameMillis, long deviceReadyMillis, boolean deviceFound) {
+            this.stages = stages;
+            this.stageMillis = stageMillis;
+            this.libraryReadyMillis = libraryReadyMillis;
+            this.firstFrameMillis = firstFrameMillis;
+            this.deviceReadyMillis = deviceReadyMillis;
+            this.deviceFound = deviceFound;
+        }
+        
+        public int getStageCount() {
+            return stages.length;
+        }
+        
+        public String getStageName(int stage) {
+            return stages[stage];
+        }
+        
+        /**
+         * Time the stage took by itself, -1 if it did not run.
+         */
+        public long getStageMillis(int stage) {
+            return stageMillis[stage];
+        }
+        
+        /**
+         * -1 if a stage failed.
+         */
+        public long getLibraryReadyMillis() {
+            return libraryReadyMillis;
+        }
+        
+        public long getFirstFrameMillis() {
+            return firstFrameMillis;
+        }
+        
+        public long getDeviceReadyMillis() {
+            return deviceReadyMillis;
+        }
+        
+        public boolean isDeviceFound() {
+            return deviceFound;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "first frame %d ms, library ready %d ms (", firstFrameMillis, libraryReadyMillis));
+            for (int i = 0; i < stages.length; i++) {
+                if (i > 0)
+                    builder.append(", ");
+                builder.append(stages[i]).append(' ').append(stageMillis[i]);
+            }
+            builder.append(String.format(Locale.US, "), device %s %d ms", deviceFound ? "ready" : "missing", deviceReadyMillis));
+            return builder.toString();
+        }
+    }
+    
+    private final long                  originNanos;
+    private final List<String>          stageNames = new ArrayList<String>();
+    private final List<Stage>           stages = new ArrayList<Stage>();
+    private final DeviceFuture<Void>    ready = new DeviceFuture<Void>();
+    private Listener                    listener;
+    private long[]                      stageNanos;
+    private boolean                     started;
+    private long                        readyNanos = -1;
+    private long                        firstFrameNanos = -1;
+    private long                        deviceReadyNanos = -1;
+    private boolean                     deviceFound;
+    private boolean                     stagesDone;
+    private boolean                     traced;
+    
+    /**
+     * @param originNanos {@link System#nanoTime} of the start of the process
+     */
+    public AppStartup(long originNanos) {
+        this.originNanos = originNanos;
+    }
+    
+    public synchronized AppStartup addStage(String name, Stage stage) {
+        if (started)
+            throw new IllegalStateException("Already started");
+        stageNames.add(name);
+        stages.add(stage);
+        return this;
+    }
+    
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Runs the stages in order as one task of the executor.
+     */
+    public void start(Executor executor) {
+        synchronized (this) {
+            if (started)
+                throw new IllegalStateException("Already started");
+            started = true;
+            stageNanos = new long[stages.size()];
+            for (int i = 0; i < stageNanos.length; i++)
+                stageNanos[i] = -1;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runStages();
+            }
+        });
+    }
+    
+    private void runStages() {
+        for (int i = 0; i < stages.size(); i++) {
+            long start = System.nanoTime();
+            try {
+                stages.get(i).run();
+            }
+            catch (Throwable e) {
+                finishStages(false);
+                ready.fail(e);
+                return;
+            }
+            synchronized (this) {
+                stageNanos[i] = System.nanoTime() - start;
+            }
+        }
+        finishStages(true);
+        ready.complete(null);
+    }
+    
+    private void finishStages(boolean succeeded) {
+        Trace trace;
+        synchronized (this) {
+            if (succeeded)
+                readyNanos = System.nanoTime();
+            stagesDone = true;
+            trace = takeTrace();
+        }
+        report(trace);
+    }
+    
+    /**
+     * Completes once all stages ran, callbacks can assume NBDevices is initialized.
+     */
+    public DeviceFuture<Void> getReady() {
+        return ready;
+    }
+    
+    public synchronized boolean isReady() {
+        return readyNanos >= 0;
+    }
+    
+    /**
+     * The first frame of the UI was drawn, later calls are ignored.
+     */
+    public void firstFrame() {
+        Trace trace;
+        synchronized (this) {
+            if (firstFrameNanos >= 0)
+                return;
+            firstFrameNanos = System.nanoTime();
+            trace = takeTrace();
+        }
+        report(trace);
+    }
+    
+    /**
+     * The UI looked for the device after the library was ready, later calls are ignored.
+     *
+     * @param found whether a device was opened
+     */
+    public void deviceReady(boolean found) {
+        Trace trace;
+        synchronized (this) {
+            if (deviceReadyNanos >= 0)
+                return;
+            deviceReadyNanos = System.nanoTime();
+            deviceFound = found;
+            trace = takeTrace();
+        }
+        report(trace);
+    }
+    
+    /**
+     * @return the trace if all milestones are known and it was not taken before
+     */
+    private Trace takeTrace() {
+        if (traced || !stagesDone || firstFrameNanos < 0 || deviceReadyNanos < 0)
+            return null;
+        traced = true;
+        String[] names = stageNames.toArray(new String[0]);
+        long[] millis = new long[stageNanos.length];
+        for (int i = 0; i < millis.length; i++)
+            millis[i] = stageNanos[i] < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(stageNanos[i]);
+        return new Trace(names, millis, sinceOrigin(readyNanos), sinceOrigin(firstFrameNanos), sinceOrigin(deviceReadyNanos), deviceFound);
+    }
+    
+    private long sinceOrigin(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos - originNanos);
+    }
+    
+    private void report(Trace trace) {
+        Listener listener;
+        synchronized (this) {
+            listener = this.listener;
+        }
+        if (trace != null && listener != null)
+            listener.onTraced(trace);
+    }
+}
@@ -0,0 +1,584 @@
+package com.nextbiometrics.sample;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+
+/**
+ * Decodes QR codes and barcodes in 8 bit greyscale frames, one byte per pixel row
+ * after row like the scans of the fingerprint path, with the ZXing core library.
+ * <p>
+ * A frame is tried in up to {@value #ATTEMPTS} ways at once on a small
+ * {@link ForkJoinPool}: the whole frame turned by 90 degrees, as the ZXing 1D readers
+ * only find bars standing upright, its centre half and the whole frame upright. 2D
+ * codes are found in any orientation, so the turned attempt only runs the 1D readers.
+ * The first attempt that decodes wins, attempts that did not start yet are skipped.
+ * With a parallelism of one the attempts run on the calling thread, cheapest first.
+ * <p>
+ * The region of a decoded barcode, with a margin around it, is kept and tried first
+ * on the calling thread with the next frame: a customer holding a code in front of
+ * the camera is found again without the fan-out, and a miss falls back to it.
+ * <p>
+ * Every attempt keeps its {@link LuminanceSource}, {@link Binarizer} and reader from
+ * frame to frame, they are only replaced when the size of the region changes. The
+ * binarizer is ZXing's {@code HybridBinarizer} binarizing into the same bit matrix
+ * and row buffers every time. Only the {@link BinaryBitmap} wrapping it is new for
+ * every frame: it holds on to the first matrix it gets, and the matrix is only
+ * filled when a 2D reader asks for it, the 1D readers binarize the few rows they scan.
+ */
+public class BarcodeDecoder {
+    
+    public static final Collection<BarcodeFormat> DEFAULT_FORMATS = EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128,
+      BarcodeFormat.EAN_13, BarcodeFormat.EAN_8, BarcodeFormat.UPC_A);
+    
+    // Whole frame turned, centre half and whole frame upright
+    static final int ATTEMPTS = 3;
+    // Formats ZXing finds whichever way they are turned
+    static final Collection<BarcodeFormat> ROTATION_INVARIANT = EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.DATA_MATRIX,
+      BarcodeFormat.AZTEC, BarcodeFormat.MAXICODE);
+    // Smallest region the local thresholding works on
+    static final int MINIMUM_DIMENSION = 40;
+    
+    private static BarcodeDecoder instance;
+    
+    /**
+     * A decoded barcode.
+     */
+    public static final class Decoded {
+        private final String        text;
+        private final BarcodeFormat format;
+        private final Region        region;
+        private final boolean       cached;
+        private final long          elapsedNanos;
+        
+        Decoded(String text, BarcodeFormat format, Region region, boolean cached, long elapsedNanos) {
+            this.text = text;
+            this.format = format;
+            this.region = region;
+            this.cached = cached;
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        public BarcodeFormat getFormat() {
+            return format;
+        }
+        
+        /**
+         * The part of the frame the barcode was decoded in.
+         */
+        public Region getRegion() {
+            return region;
+        }
+        
+        /**
+         * Whether it was found in the region kept from the previous frame.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+        
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+        
+        @Override
+        public String toString() {
+            return format + " \"" + text + "\" in " + region + (cached ? " (cached)" : "");
+        }
+    }
+    
+    /**
+     * A rectangle of a frame, read upright or turned by 90 degrees.
+     */
+    public static final class Region {
+        final int       left;
+        final int       top;
+        final int       width;
+        final int       height;
+        final boolean   turned;
+        
+        Region(int left, int top, int width, int height, boolean turned) {
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.turned = turned;
+        }
+        
+        public int getLeft() {
+            return left;
+        }
+        
+        public int getTop() {
+            return top;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+        
+        public boolean isTurned() {
+            return turned;
+        }
+        
+        @Override
+        public String toString() {
+            return width + "x" + height + "+" + left + "+" + top + (turned ? " turned" : "");
+        }
+    }
+    
+    private final Map<DecodeHintType, Object>   uprightHints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+    // null if all formats are rotation invariant
+    private final Map<DecodeHintType, Object>   turnedHints;
+    // null for a parallelism of one
+    private final ForkJoinPool                  pool;
+    private final Slot[]                        slots = new Slot[ATTEMPTS];
+    private final Slot                          cacheSlot;
+    // Region of the last barcode and the size of the frame it was found in, guarded by this
+    private Region                              cachedRegion;
+    private int                                 cachedFrameWidth;
+    private int                                 cachedFrameHeight;
+    
+    public static synchronized BarcodeDecoder getInstance() {
+        if (instance == null) {
+            instance = new BarcodeDecoder(DEFAULT_FORMATS, Math.min(ATTEMPTS, Runtime.getRuntime().availableProcessors()));
+        }
+        return instance;
+    }
+    
+    /**
+     * @param formats     barcode formats to look for
+     * @param parallelism threads trying the attempts of a frame
+     */
+    public BarcodeDecoder(Collection<BarcodeFormat> formats, int parallelism) {
+        uprightHints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.copyOf(formats));
+        EnumSet<BarcodeFormat> turnedFormats = EnumSet.copyOf(formats);
+        turnedFormats.removeAll(ROTATION_INVARIANT);
+        if (turnedFormats.isEmpty()) {
+            turnedHints = null;
+        }
+        else {
+            turnedHints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+            turnedHints.put(DecodeHintType.POSSIBLE_FORMATS, turnedFormats);
+        }
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++)
+            slots[attempt] = new Slot();
+        cacheSlot = new Slot();
+    }
+    
+    /**
+     * Decodes the first barcode found in the frame.
+     *
+     * @param frame  {@code width * height} pixels, row after row
+     * @return the barcode, {@code null} if none was found
+     */
+    public Decoded decode(byte[] frame, int width, int height) {
+        if (frame.length < width * height)
+            throw new IllegalArgumentException("Frame of " + frame.length + " bytes is smaller than " + width + "x" + height);
+        long start = System.nanoTime();
+        try {
+            Region cached = getCachedRegion(width, height);
+            if (cached != null) {
+                Decoded decoded = cacheSlot.decode(frame, width, cached, true, start);
+                if (decoded != null)
+                    return decoded;
+                clearCache();
+            }
+            Decoded decoded = search(frame, width, height, start);
+            if (decoded != null)
+                setCachedRegion(surrounding(decoded.region, width, height), width, height);
+            return decoded;
+        }
+        finally {
+            CaptureMetrics.getInstance().record(CaptureMetrics.Phase.BARCODE_DECODE, start);
+        }
+    }
+    
+    private Decoded search(final byte[] frame, final int width, int height, final long start) {
+        List<Region> regions = regions(width, height, turnedHints != null);
+        if (pool == null) {
+            for (int attempt = 0; attempt < regions.size(); attempt++) {
+                Decoded decoded = slots[attempt].decode(frame, width, regions.get(attempt), false, start);
+                if (decoded != null)
+                    return decoded;
+            }
+            return null;
+        }
+        final AtomicBoolean found = new AtomicBoolean();
+        CompletionService<Decoded> attempts = new ExecutorCompletionService<Decoded>(pool);
+        for (int attempt = 0; attempt < regions.size(); attempt++) {
+            final Slot slot = slots[attempt];
+            final Region region = regions.get(attempt);
+            attempts.submit(new Callable<Decoded>() {
+                @Override
+                public Decoded call() {
+                    // The frame is already decoded, no need to start this one
+                    if (found.get())
+                        return null;
+                    Decoded decoded = slot.decode(frame, width, region, false, start);
+                    if (decoded != null)
+                        found.set(true);
+                    return decoded;
+                }
+            });
+        }
+        try {
+            for (int attempt = 0; attempt < regions.size(); attempt++) {
+                Decoded decoded = attempts.take().get();
+                if (decoded != null)
+                    return decoded;
+            }
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Barcode decoding failed", e.getCause());
+        }
+        finally {
+            // Attempts still running finish on their own, their slots stay locked until then
+            found.set(true);
+        }
+    }
+    
+    /**
+     * The regions tried on a frame without a cached region, cheapest first, the ones too
+     * small for the binarizer left out.
+     *
+     * @param turned whether to try the frame turned
+     */
+    static List<Region> regions(int width, int height, boolean turned) {
+        List<Region> regions = new ArrayList<Region>(ATTEMPTS);
+        if (width < MINIMUM_DIMENSION || height < MINIMUM_DIMENSION)
+            return regions;
+        // Only the rows the 1D readers scan are binarized
+        if (turned)
+            regions.add(new Region(0, 0, width, height, true));
+        int centreWidth = width / 2;
+        int centreHeight = height / 2;
+        if (centreWidth >= MINIMUM_DIMENSION && centreHeight >= MINIMUM_DIMENSION)
+            regions.add(new Region(width / 4, height / 4, centreWidth, centreHeight, false));
+        regions.add(new Region(0, 0, width, height, false));
+        return regions;
+    }
+    
+    /**
+     * The region around a decoded barcode kept for the next frame: half the size of the
+     * barcode on every side, within the frame.
+     */
+    static Region surrounding(Region found, int frameWidth, int frameHeight) {
+        int margin = Math.max(found.width, found.height) / 2;
+        int left = Math.max(0, found.left - margin);
+        int top = Math.max(0, found.top - margin);
+        int right = Math.min(frameWidth, found.left + found.width + margin);
+        int bottom = Math.min(frameHeight, found.top + found.height + margin);
+        // Grown to the smallest size the binarizer works on, the frame is at least that large
+        if (right - left < MINIMUM_DIMENSION) {
+            left = Math.max(0, Math.min(left, frameWidth - MINIMUM_DIMENSION));
+            right = left + MINIMUM_DIMENSION;
+        }
+        if (bottom - top < MINIMUM_DIMENSION) {
+            top = Math.max(0, Math.min(top, frameHeight - MINIMUM_DIMENSION));
+            bottom = top + MINIMUM_DIMENSION;
+        }
+        return new Region(left, top, right - left, bottom - top, found.turned);
+    }
+    
+    /**
+     * The region kept from the last decoded frame, {@code null} if there is none for frames of this size.
+     */
+    synchronized Region getCachedRegion(int frameWidth, int frameHeight) {
+        return cachedFrameWidth == frameWidth && cachedFrameHeight == frameHeight ? cachedRegion : null;
+    }
+    
+    private synchronized void setCachedRegion(Region region, int frameWidth, int frameHeight) {
+        cachedRegion = region;
+        cachedFrameWidth = frameWidth;
+        cachedFrameHeight = frameHeight;
+    }
+    
+    /**
+     * Forgets the region of the last barcode, the next frame is searched as a whole.
+     */
+    public synchronized void clearCache() {
+        cachedRegion = null;
+        cachedFrameWidth = 0;
+        cachedFrameHeight = 0;
+    }
+    
+    /**
+     * Stops the decoding threads, no frame can be decoded afterwards.
+     */
+    public void shutdown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+    
+    /**
+     * The reused ZXing objects of one attempt, guarded by the monitor of the slot.
+     */
+    private final class Slot {
+        private FrameLuminanceSource    source;
+        private FrameBinarizer          binarizer;
+        private final MultiFormatReader uprightReader = new MultiFormatReader();
+        private final MultiFormatReader turnedReader = new MultiFormatReader();
+        
+        Slot() {
+            uprightReader.setHints(uprightHints);
+            turnedReader.setHints(turnedHints != null ? turnedHints : uprightHints);
+        }
+        
+        synchronized Decoded decode(byte[] frame, int frameWidth, Region region, boolean cached, long start) {
+            int width = region.turned ? region.height : region.width;
+            int height = region.turned ? region.width : region.height;
+            if (source == null || source.getWidth() != width || source.getHeight() != height) {
+                source = new FrameLuminanceSource(width, height);
+                binarizer = new FrameBinarizer(source);
+            }
+            source.setFrame(frame, frameWidth, region);
+            binarizer.update();
+            Result result;
+            try {
+                result = (region.turned ? turnedReader : uprightReader).decodeWithState(new BinaryBitmap(binarizer));
+            }
+            catch (NotFoundException e) {
+                return null;
+            }
+            return new Decoded(result.getText(), result.getBarcodeFormat(), bounds(result.getResultPoints(), region), cached,
+              System.nanoTime() - start);
+        }
+        
+        /**
+         * The box around the result points in frame coordinates, the whole region without points.
+         */
+        private Region bounds(ResultPoint[] points, Region region) {
+            if (points == null || points.length == 0)
+                return region;
+            float minX = Float.MAX_VALUE;
+            float minY = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE;
+            float maxY = -Float.MAX_VALUE;
+            for (ResultPoint point : points) {
+                if (point == null)
+                    continue;
+                // Back from the turned region, see FrameLuminanceSource
+                float x = region.turned ? region.left + region.width - 1 - point.getY() : region.left + point.getX();
+                float y = region.turned ? region.top + point.getX() : region.top + point.getY();
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            if (minX > maxX)
+                return region;
+            int left = Math.max(region.left, (int) minX);
+            int top = Math.max(region.top, (int) minY);
+            return new Region(left, top, Math.min(region.left + region.width, (int) maxX + 1) - left,
+              Math.min(region.top + region.height, (int) maxY + 1) - top, region.turned);
+        }
+    }
+    
+    /**
+     * A region of a frame as ZXing luminance, turned counter-clockwise if the region is.
+     * The size is fixed, the frame and the position change from decode to decode.
+     */
+    static final class FrameLuminanceSource extends LuminanceSource {
+        
+        private final byte[]    copy;
+        private byte[]          luminances;
+        
+        FrameLuminanceSource(int width, int height) {
+            super(width, height);
+            copy = new byte[width * height];
+        }
+        
+        void setFrame(byte[] frame, int frameWidth, Region region) {
+            int width = getWidth();
+            int height = getHeight();
+            if (!region.turned && region.left == 0 && region.top == 0 && frameWidth == width && frame.length >= width * height) {
+                // The whole frame as it is
+                luminances = frame;
+                return;
+            }
+            if (!region.turned) {
+                for (int y = 0; y < height; y++)
+                    System.arraycopy(frame, (region.top + y) * frameWidth + region.left, copy, y * width, width);
+            }
+            else {
+                // Column x of the region is row width - 1 - x of the turned region
+                for (int y = 0; y < height; y++) {
+                    int column = region.left + region.width - 1 - y;
+                    int offset = y * width;
+                    int source = region.top * frameWidth + column;
+                    for (int x = 0; x < width; x++, source += frameWidth)
+                        copy[offset + x] = frame[source];
+                }
+            }
+            luminances = copy;
+        }
+        
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            int width = getWidth();
+            if (row == null || row.length < width)
+                row = new byte[width];
+            System.arraycopy(luminances, y * width, row, 0, width);
+            return row;
+        }
+        
+        @Override
+        public byte[] getMatrix() {
+            return luminances;
+        }
+    }
+    
+    /**
+     * ZXing's {@code HybridBinarizer} into a bit matrix that is reused: rows by the global
+     * histogram of each row, the matrix by the black point of every 8x8 block averaged
+     * over the 5x5 blocks around it. After {@link #update} the matrix is binarized again
+     * when it is asked for.
+     */
+    static final class FrameBinarizer extends GlobalHistogramBinarizer {
+        
+        private static final int BLOCK_SIZE_POWER = 3;
+        private static final int BLOCK_SIZE = 1 << BLOCK_SIZE_POWER;
+        private static final int MIN_DYNAMIC_RANGE = 24;
+        
+        private final int       blocksX;
+        private final int       blocksY;
+        private final int[]     blackPoints;
+        private final BitMatrix matrix;
+        private boolean         binarized;
+        
+        FrameBinarizer(LuminanceSource source) {
+            super(source);
+            int width = source.getWidth();
+            int height = source.getHeight();
+            if (width < MINIMUM_DIMENSION || height < MINIMUM_DIMENSION)
+                throw new IllegalArgumentException("Region of " + width + "x" + height + " is too small");
+            blocksX = (width + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER;
+            blocksY = (height + BLOCK_SIZE - 1) >> BLOCK_SIZE_POWER;
+            blackPoints = new int[blocksX * blocksY];
+            matrix = new BitMatrix(width, height);
+        }
+        
+        /**
+         * Takes the content of the source as changed.
+         */
+        void update() {
+            binarized = false;
+        }
+        
+        private void calculateBlackPoints(byte[] luminances) {
+            int width = getWidth();
+            int maxXOffset = width - BLOCK_SIZE;
+            int maxYOffset = getHeight() - BLOCK_SIZE;
+            for (int y = 0; y < blocksY; y++) {
+                int yOffset = Math.min(y << BLOCK_SIZE_POWER, maxYOffset);
+                for (int x = 0; x < blocksX; x++) {
+                    int xOffset = Math.min(x << BLOCK_SIZE_POWER, maxXOffset);
+                    int sum = 0;
+                    int min = 0xFF;
+                    int max = 0;
+                    for (int yy = 0, offset = yOffset * width + xOffset; yy < BLOCK_SIZE; yy++, offset += width) {
+                        for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                            int pixel = luminances[offset + xx] & 0xFF;
+                            sum += pixel;
+                            if (pixel < min)
+                                min = pixel;
+                            if (pixel > max)
+                                max = pixel;
+                        }
+                    }
+                    int average = sum >> (BLOCK_SIZE_POWER * 2);
+                    if (max - min <= MIN_DYNAMIC_RANGE) {
+                        // A flat block is taken as background, unless its neighbours say it is darker than theirs
+                        average = min / 2;
+                        if (y > 0 && x > 0) {
+                            int above = (y - 1) * blocksX + x;
+                            int neighbours = (blackPoints[above] + 2 * blackPoints[y * blocksX + x - 1] + blackPoints[above - 1]) / 4;
+                            if (min < neighbours)
+                                average = neighbours;
+                        }
+                    }
+                    blackPoints[y * blocksX + x] = average;
+                }
+            }
+        }
+        
+        private void threshold(byte[] luminances) {
+            int width = getWidth();
+            int maxXOffset = width - BLOCK_SIZE;
+            int maxYOffset = getHeight() - BLOCK_SIZE;
+            for (int y = 0; y < blocksY; y++) {
+                int yOffset = Math.min(y << BLOCK_SIZE_POWER, maxYOffset);
+                int top = Math.max(2, Math.min(y, blocksY - 3));
+                for (int x = 0; x < blocksX; x++) {
+                    int xOffset = Math.min(x << BLOCK_SIZE_POWER, maxXOffset);
+                    int left = Math.max(2, Math.min(x, blocksX - 3));
+                    int sum = 0;
+                    for (int z = -2; z <= 2; z++) {
+                        int row = (top + z) * blocksX + left;
+                        sum += blackPoints[row - 2] + blackPoints[row - 1] + blackPoints[row] + blackPoints[row + 1] + blackPoints[row + 2];
+                    }
+                    int average = sum / 25;
+                    for (int yy = 0, offset = yOffset * width + xOffset; yy < BLOCK_SIZE; yy++, offset += width) {
+                        for (int xx = 0; xx < BLOCK_SIZE; xx++) {
+                            if ((luminances[offset + xx] & 0xFF) <= average)
+                                matrix.set(xOffset + xx, yOffset + yy);
+                        }
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public BitMatrix getBlackMatrix() {
+            if (!binarized) {
+                byte[] luminances = getLuminanceSource().getMatrix();
+                matrix.clear();
+                calculateBlackPoints(luminances);
+                threshold(luminances);
+                binarized = true;
+            }
+            return matrix;
+        }
+        
+        @Override
+        public Binarizer createBinarizer(LuminanceSource source) {
+            return new FrameBinarizer(source);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+import com.nextbiometrics.devices.NBDeviceSecurityModel;
+import com.nextbiometrics.devices.NBDeviceState;
+
+/**
+ * The fingerprint sensor operations the sample uses.
+ * <p>
+ * {@link NBBiometricDevice} forwards them to an {@code NBDevice}, while
+ * {@link SimulatedBiometricDevice} replays recorded frames so the capture, preview
+ * and calibration paths can run without a sensor attached.
+ */
+public interface BiometricDevice {
+    
+    /**
+     * Receives the preview frames of {@link #scanEx}, called on the scanning thread.
+     */
+    interface PreviewListener {
+        void preview(NBDeviceScanStatus status, int fingerDetectValue, NBDeviceScanFormatInfo format, byte[] image);
+    }
+    
+    String getId();
+    
+    String getSerialNumber();
+    
+    NBDeviceState getState();
+    
+    NBDeviceSecurityModel getSecurityModel();
+    
+    boolean requiresExternalCalibrationData();
+    
+    NBDeviceScanFormatInfo[] getSupportedScanFormats();
+    
+    ScanResult scan(NBDeviceScanFormatInfo format);
+    
+    /**
+     * @param listener receives the preview frames, {@code null} for none
+     */
+    ScanResult scanEx(NBDeviceScanFormatInfo format, int timeout, PreviewListener listener);
+    
+    boolean isScanRunning();
+    
+    void cancelScan();
+    
+    int getFingerDetectValue();
+    
+    boolean isSessionOpen();
+    
+    void openSession(byte[] keyId, byte[] key);
+    
+    void closeSession();
+    
+    void setBlobParameter(int parameter, byte[] data);
+    
+    byte[] generateCalibrationData();
+    
+    void reset();
+    
+    void dispose();
+}
@@ -0,0 +1,17 @@
+package com.nextbiometrics.sample;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Starts the background pre-calibration once the terminal has booted.
+ */
+public class BootReceiver extends BroadcastReceiver {
+    
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()))
+            CalibrationService.start(context);
+    }
+}
@@ -0,0 +1,145 @@
+package com.nextbiometrics.sample;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * One run of {@code GenerateCalibrationData} managed by {@link CalibrationJobs}.
+ * <p>
+ * The native call gives no progress information, progress is estimated from the
+ * time the previous successful calibration of the same device took.
+ */
+public class CalibrationJob {
+    
+    public enum State {
+        PENDING,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED;
+        
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+    
+    public interface Listener {
+        void onProgress(CalibrationJob job);
+        
+        void onFinished(CalibrationJob job);
+    }
+    
+    private final CalibrationJobs   owner;
+    private final String            serialNumber;
+    private final long              expectedMillis;
+    private volatile State          state = State.PENDING;
+    private volatile long           startedNanos;
+    private volatile long           finishedNanos;
+    private volatile Throwable      error;
+    private final List<Listener>    listeners = new CopyOnWriteArrayList<Listener>();
+    
+    CalibrationJob(CalibrationJobs owner, String serialNumber, long expectedMillis, Listener listener) {
+        this.owner = owner;
+        this.serialNumber = serialNumber;
+        this.expectedMillis = expectedMillis;
+        addListener(listener);
+    }
+    
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+    
+    public State getState() {
+        return state;
+    }
+    
+    public Throwable getError() {
+        return error;
+    }
+    
+    public void addListener(Listener listener) {
+        if (listener != null)
+            listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    List<Listener> getListeners() {
+        return listeners;
+    }
+    
+    /**
+     * Requests cancellation. The native calibration cannot be interrupted: the device
+     * stays busy until it returns, but its result is discarded. Listeners of a running
+     * job are only told it finished once the native call has returned.
+     *
+     * @return {@code false} if the job had already finished
+     */
+    public boolean cancel() {
+        boolean running;
+        synchronized (this) {
+            running = state == State.RUNNING;
+            if (!finish(State.CANCELLED, null))
+                return false;
+        }
+        if (!running)
+            owner.finished(this);
+        return true;
+    }
+    
+    public long getElapsedMillis() {
+        long started = startedNanos;
+        if (started == 0)
+            return 0;
+        long end = state.isFinished() ? finishedNanos : System.nanoTime();
+        return (end - started) / 1000000L;
+    }
+    
+    /**
+     * Estimated progress between 0 and 1. A running job never reports more than 0.99,
+     * even if it takes longer than expected.
+     */
+    public float getProgress() {
+        if (state == State.SUCCEEDED)
+            return 1f;
+        if (expectedMillis <= 0)
+            return 0f;
+        return Math.min(0.99f, (float) getElapsedMillis() / expectedMillis);
+    }
+    
+    public long getRemainingMillis() {
+        if (state.isFinished())
+            return 0;
+        return Math.max(0, expectedMillis - getElapsedMillis());
+    }
+    
+    synchronized boolean begin() {
+        if (state != State.PENDING)
+            return false;
+        startedNanos = System.nanoTime();
+        state = State.RUNNING;
+        return true;
+    }
+    
+    /**
+     * Moves a running or pending job to a final state, returns {@code false} if it had
+     * already finished (e.g. it was cancelled while the native call was running).
+     */
+    synchronized boolean finish(State finalState, Throwable error) {
+        if (state.isFinished())
+            return false;
+        this.error = error;
+        this.finishedNanos = System.nanoTime();
+        if (startedNanos == 0)
+            startedNanos = finishedNanos;
+        this.state = finalState;
+        return true;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("Calibration %s: %s", serialNumber, state);
+    }
+}
@@ -0,0 +1,217 @@
+package com.nextbiometrics.sample;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs calibration data generation in the background, on the command lane of the
+ * {@link DeviceCommandExecutor} so it never overlaps other device calls.
+ * <p>
+ * The state of the last job of every device is persisted next to its calibration
+ * blob ({@code <serial>_caljob.properties}), together with the duration of the last
+ * successful run which drives the progress estimate of the next one. A job that
+ * was still running when the process died is reported as failed. Generated data
+ * is written through {@link CalibrationStore#save}, so an interrupted job never
+ * leaves a partial blob behind.
+ */
+public class CalibrationJobs {
+    
+    private static final String TAG = "CalibrationJobs";
+    
+    static final long DEFAULT_EXPECTED_MILLIS = TimeUnit.MINUTES.toMillis(3);
+    static final long PROGRESS_INTERVAL_MILLIS = 500;
+    static final String JOB_SUFFIX = "_caljob.properties";
+    
+    private static final String KEY_STATE = "state";
+    private static final String KEY_STARTED = "started";
+    private static final String KEY_FINISHED = "finished";
+    private static final String KEY_DURATION = "lastDurationMillis";
+    private static final String KEY_ERROR = "error";
+    
+    private static CalibrationJobs instance;
+    
+    private final CalibrationStore                  store;
+    private final DeviceCommandExecutor             executor;
+    private final ScheduledExecutorService          ticker;
+    private final Map<String, CalibrationJob>       activeJobs = new HashMap<String, CalibrationJob>();
+    private final Map<CalibrationJob, ScheduledFuture<?>> progressTasks = new HashMap<CalibrationJob, ScheduledFuture<?>>();
+    
+    public static synchronized CalibrationJobs getInstance() {
+        if (instance == null) {
+            instance = new CalibrationJobs(CalibrationStore.getInstance());
+        }
+        return instance;
+    }
+    
+    public CalibrationJobs(CalibrationStore store) {
+        this(store, DeviceCommandExecutor.getInstance());
+    }
+    
+    public CalibrationJobs(CalibrationStore store, DeviceCommandExecutor executor) {
+        this.store = store;
+        this.executor = executor;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("CalibrationProgress"));
+    }
+    
+    /**
+     * Returns the job currently running for the device, if any.
+     */
+    public synchronized CalibrationJob getActiveJob(String serialNumber) {
+        return activeJobs.get(serialNumber);
+    }
+    
+    /**
+     * Starts generating calibration data for the device. If a job for the same device
+     * is already running it is returned instead and the listener is added to its listeners.
+     */
+    public synchronized CalibrationJob start(final BiometricDevice device, CalibrationJob.Listener listener) {
+        final String serialNumber = device.getSerialNumber();
+        CalibrationJob job = activeJobs.get(serialNumber);
+        if (job != null) {
+            job.addListener(listener);
+            return job;
+        }
+        Properties record = readRecord(serialNumber);
+        long expectedMillis = parseLong(record.getProperty(KEY_DURATION), DEFAULT_EXPECTED_MILLIS);
+        final CalibrationJob newJob = new CalibrationJob(this, serialNumber, expectedMillis, listener);
+        activeJobs.put(serialNumber, newJob);
+        executor.submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+            @Override
+            public Void run() {
+                runJob(device, newJob);
+                return null;
+            }
+        });
+        return newJob;
+    }
+    
+    /**
+     * State of the last job of the device as persisted, {@code null} if it never ran.
+     */
+    public CalibrationJob.State getLastState(String serialNumber) {
+        String state = readRecord(serialNumber).getProperty(KEY_STATE);
+        if (state == null)
+            return null;
+        CalibrationJob.State value = CalibrationJob.State.valueOf(state);
+        // The process died while this job was running
+        return value.isFinished() ? value : CalibrationJob.State.FAILED;
+    }
+    
+    private void runJob(BiometricDevice device, CalibrationJob job) {
+        if (!job.begin())
+            return;
+        writeRecord(job);
+        startProgress(job);
+        try {
+            byte[] data = device.generateCalibrationData();
+            if (job.getState() == CalibrationJob.State.RUNNING) {
+                store.save(job.getSerialNumber(), data);
+                job.finish(CalibrationJob.State.SUCCEEDED, null);
+            }
+        }
+        catch (Throwable e) {
+            Log.w(TAG, "Calibration of " + job.getSerialNumber() + " failed", e);
+            job.finish(CalibrationJob.State.FAILED, e);
+        }
+        // Also reports a job cancelled while running, the device is only free now
+        finished(job);
+    }
+    
+    void finished(CalibrationJob job) {
+        synchronized (this) {
+            if (activeJobs.get(job.getSerialNumber()) == job)
+                activeJobs.remove(job.getSerialNumber());
+            ScheduledFuture<?> progress = progressTasks.remove(job);
+            if (progress != null)
+                progress.cancel(false);
+        }
+        writeRecord(job);
+        for (CalibrationJob.Listener listener : job.getListeners())
+            listener.onFinished(job);
+    }
+    
+    private synchronized void startProgress(final CalibrationJob job) {
+        progressTasks.put(job, ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (job.getState() != CalibrationJob.State.RUNNING)
+                    return;
+                for (CalibrationJob.Listener listener : job.getListeners())
+                    listener.onProgress(job);
+            }
+        }, 0, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+    }
+    
+    private File getRecordFile(String serialNumber) {
+        return new File(store.getDirectory(), serialNumber + JOB_SUFFIX);
+    }
+    
+    private Properties readRecord(String serialNumber) {
+        Properties properties = new Properties();
+        File file = getRecordFile(serialNumber);
+        if (!file.exists())
+            return properties;
+        try {
+            InputStream stream = new FileInputStream(file);
+            try {
+                properties.load(stream);
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Cannot read " + file + ": " + e.getMessage());
+        }
+        return properties;
+    }
+    
+    private synchronized void writeRecord(CalibrationJob job) {
+        Properties properties = readRecord(job.getSerialNumber());
+        long now = System.currentTimeMillis();
+        properties.setProperty(KEY_STATE, job.getState().name());
+        if (job.getState() == CalibrationJob.State.RUNNING) {
+            properties.setProperty(KEY_STARTED, String.valueOf(now));
+            properties.remove(KEY_FINISHED);
+            properties.remove(KEY_ERROR);
+        }
+        else {
+            properties.setProperty(KEY_FINISHED, String.valueOf(now));
+        }
+        if (job.getState() == CalibrationJob.State.SUCCEEDED)
+            properties.setProperty(KEY_DURATION, String.valueOf(job.getElapsedMillis()));
+        if (job.getError() != null)
+            properties.setProperty(KEY_ERROR, String.valueOf(job.getError().getMessage()));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            properties.store(out, "Calibration job state");
+            CalibrationStore.writeAtomically(getRecordFile(job.getSerialNumber()), out.toByteArray());
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Cannot persist calibration job state: " + e.getMessage());
+        }
+    }
+    
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.nextbiometrics.sample;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+/**
+ * Foreground service that pre-calibrates the sensor after boot, so the first
+ * customer interaction does not wait for {@code GenerateCalibrationData}.
+ * <p>
+ * Nothing is done if the device needs no external calibration data or already
+ * has a blob stored.
+ */
+public class CalibrationService extends Service {
+    
+    private static final String TAG = "CalibrationService";
+    private static final String CHANNEL_ID = "calibration";
+    private static final int NOTIFICATION_ID = 1;
+    
+    private boolean running;
+    
+    public static void start(Context context) {
+        Intent intent = new Intent(context, CalibrationService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            context.startForegroundService(intent);
+        else
+            context.startService(intent);
+    }
+    
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+    
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startForeground(NOTIFICATION_ID, createNotification());
+        if (!running) {
+            running = true;
+            // NBDevices is initialized by SampleApplication when the process starts, waiting
+            // for it must not hold up the device thread
+            ((SampleApplication) getApplication()).getStartup().getReady().whenDone(new DeviceFuture.Callback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    DeviceCommandExecutor.getInstance().submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+                        @Override
+                        public Void run() {
+                            calibrate();
+                            return null;
+                        }
+                    });
+                }
+                
+                @Override
+                public void onFailure(Throwable error) {
+                    Log.w(TAG, "Pre-calibration skipped, NBDevices did not start", error);
+                    release(null);
+                }
+            });
+        }
+        return START_NOT_STICKY;
+    }
+    
+    private void calibrate() {
+        SessionPool.Lease<BiometricDevice> lease = null;
+        try {
+            lease = connect();
+            BiometricDevice device = lease != null ? lease.get() : null;
+            if (device == null || !device.requiresExternalCalibrationData()
+              || CalibrationStore.getInstance().exists(device.getSerialNumber())) {
+                release(lease);
+                return;
+            }
+            
+            final SessionPool.Lease<BiometricDevice> calibrationLease = lease;
+            Log.i(TAG, "Pre-calibrating " + device.getSerialNumber());
+            CalibrationJobs.getInstance().start(device, new CalibrationJob.Listener() {
+                @Override
+                public void onProgress(CalibrationJob job) {
+                }
+                
+                @Override
+                public void onFinished(CalibrationJob job) {
+                    Log.i(TAG, job + " after " + job.getElapsedMillis() + " ms");
+                    release(calibrationLease);
+                }
+            });
+        }
+        catch (Throwable e) {
+            Log.w(TAG, "Pre-calibration failed", e);
+            release(lease);
+        }
+    }
+    
+    /**
+     * Leases the connected device, or the SPI sensor if there is no USB one. The session
+     * is opened by {@link DeviceSessionManager} and shared with the activities.
+     */
+    private static SessionPool.Lease<BiometricDevice> connect() {
+        DeviceSessionManager manager = DeviceSessionManager.getInstance();
+        SessionPool.Lease<BiometricDevice> lease = manager.acquire(null);
+        if (lease != null)
+            return lease;
+        try {
+            return manager.acquire(DeviceInfo.createPreferredSpi());
+        }
+        catch (RuntimeException e) {
+            Log.i(TAG, "No SPI sensor: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private void release(SessionPool.Lease<BiometricDevice> lease) {
+        if (lease != null)
+            lease.release();
+        stopForeground(true);
+        stopSelf();
+    }
+    
+    private Notification createNotification() {
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "Sensor calibration", NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, CHANNEL_ID);
+        }
+        else {
+            builder = new Notification.Builder(this);
+        }
+        return builder.setSmallIcon(R.drawable.app_icon)
+          .setContentTitle(getString(R.string.app_name))
+          .setContentText("Calibrating fingerprint sensor ...")
+          .setOngoing(true)
+          .build();
+    }
+}
@@ -0,0 +1,250 @@
+package com.nextbiometrics.sample;
+
+import android.os.Environment;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+import com.nextbiometrics.devices.NBDevice;
+
+/**
+ * Calibration blobs ({@code NBData/<serial>_calblob.bin}) keyed by device serial number.
+ * <p>
+ * Blobs are read through a memory mapped {@link FileChannel} and kept in a small LRU
+ * cache, a cached blob is only read again when the file changes. Files written by
+ * the store start with a header carrying the payload length and its CRC32, which
+ * is verified on load. Files without the header (as written by older versions of
+ * the sample) are accepted as they are. {@link #save} replaces a blob atomically:
+ * the data is written and synced to a temporary file which is then renamed.
+ * <p>
+ * The store also remembers which blob each open {@link BiometricDevice} already received,
+ * so attaching the same device again does not transfer the blob a second time.
+ */
+public class CalibrationStore {
+    
+    private static final String TAG = "CalibrationStore";
+    
+    static final int MAGIC = 0x4E424342; // "NBCB"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final String BLOB_SUFFIX = "_calblob.bin";
+    
+    private static final int CACHE_SIZE = 4;
+    
+    private static CalibrationStore instance;
+    
+    private final File                          directory;
+    private final Map<String, Blob>             cache;
+    private final Map<BiometricDevice, Long>    uploaded = new WeakHashMap<BiometricDevice, Long>();
+    
+    public static synchronized CalibrationStore getInstance() {
+        if (instance == null) {
+            instance = new CalibrationStore(new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), "NBData"));
+        }
+        return instance;
+    }
+    
+    public CalibrationStore(File directory) {
+        this.directory = directory;
+        this.cache = new LinkedHashMap<String, Blob>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Blob> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+    
+    public File getDirectory() {
+        return directory;
+    }
+    
+    public File getBlobFile(String serialNumber) {
+        return new File(directory, serialNumber + BLOB_SUFFIX);
+    }
+    
+    public boolean exists(String serialNumber) {
+        return getBlobFile(serialNumber).exists();
+    }
+    
+    /**
+     * Returns the calibration blob of the device, or {@code null} if there is none.
+     * The returned array is shared with the cache and must not be modified.
+     *
+     * @throws IOException if the file cannot be read or fails the integrity check
+     */
+    public synchronized byte[] load(String serialNumber) throws IOException {
+        Blob blob = getBlob(serialNumber);
+        return blob != null ? blob.data : null;
+    }
+    
+    /**
+     * Stores a new calibration blob for the device, replacing the previous one atomically.
+     */
+    public void save(String serialNumber, byte[] data) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(data.length).putInt((int) checksum(data));
+        writeAtomically(getBlobFile(serialNumber), header.array(), data);
+        evict(serialNumber);
+    }
+    
+    /**
+     * Writes the parts into a temporary file next to the target, syncs it to storage
+     * and renames it over the target, so readers see either the old or the new file.
+     */
+    static void writeAtomically(File target, byte[]... parts) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Cannot create directory " + parent);
+        File temp = new File(parent, target.getName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            for (byte[] part : parts)
+                stream.write(part);
+            stream.flush();
+            stream.getFD().sync();
+        }
+        catch (IOException e) {
+            stream.close();
+            temp.delete();
+            throw e;
+        }
+        stream.close();
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + target);
+        }
+    }
+    
+    /**
+     * Uploads the calibration blob to the device unless the device does not need one,
+     * has no blob stored yet or already received the same blob.
+     *
+     * @return {@code true} if the device holds its calibration blob afterwards
+     */
+    public boolean upload(BiometricDevice device) {
+        if (device == null || !device.requiresExternalCalibrationData())
+            return false;
+        Blob blob;
+        synchronized (this) {
+            try {
+                blob = getBlob(device.getSerialNumber());
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Cannot load calibration data: " + e.getMessage());
+                return false;
+            }
+            if (blob == null)
+                return false;
+            Long current = uploaded.get(device);
+            if (current != null && current == blob.crc)
+                return true;
+        }
+        long start = System.nanoTime();
+        device.setBlobParameter(NBDevice.BLOB_PARAMETER_CALIBRATION_DATA, blob.data);
+        CaptureMetrics.getInstance().record(CaptureMetrics.Phase.CALIBRATION_UPLOAD, start);
+        synchronized (this) {
+            uploaded.put(device, blob.crc);
+        }
+        return true;
+    }
+    
+    /**
+     * Forgets what was uploaded to the device, e.g. after a reset.
+     */
+    public synchronized void invalidate(BiometricDevice device) {
+        uploaded.remove(device);
+    }
+    
+    public synchronized void evict(String serialNumber) {
+        cache.remove(serialNumber);
+    }
+    
+    private Blob getBlob(String serialNumber) throws IOException {
+        File file = getBlobFile(serialNumber);
+        long length = file.length();
+        long lastModified = file.lastModified();
+        Blob blob = cache.get(serialNumber);
+        if (blob != null && blob.length == length && blob.lastModified == lastModified)
+            return blob;
+        if (!file.exists()) {
+            cache.remove(serialNumber);
+            return null;
+        }
+        blob = read(file, length, lastModified);
+        cache.put(serialNumber, blob);
+        return blob;
+    }
+    
+    private static Blob read(File file, long length, long lastModified) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Calibration data too large: " + file);
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return decode(buffer, lastModified, file);
+        }
+        finally {
+            stream.close();
+        }
+    }
+    
+    private static Blob decode(ByteBuffer buffer, long lastModified, File file) throws IOException {
+        long length = buffer.remaining();
+        byte[] data;
+        long crc;
+        if (length >= HEADER_SIZE && buffer.getInt(0) == MAGIC) {
+            int version = buffer.getInt(4);
+            int payloadLength = buffer.getInt(8);
+            long expectedCrc = buffer.getInt(12) & 0xffffffffL;
+            if (version != VERSION)
+                throw new IOException("Unsupported calibration data version " + version + ": " + file);
+            if (payloadLength != length - HEADER_SIZE)
+                throw new IOException("Truncated calibration data: " + file);
+            data = new byte[payloadLength];
+            buffer.position(HEADER_SIZE);
+            buffer.get(data);
+            crc = checksum(data);
+            if (crc != expectedCrc)
+                throw new IOException("Calibration data checksum mismatch: " + file);
+        }
+        else {
+            data = new byte[(int) length];
+            buffer.get(data);
+            crc = checksum(data);
+        }
+        return new Blob(data, crc, length, lastModified);
+    }
+    
+    static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+    
+    static final class Blob {
+        final byte[]    data;
+        final long      crc;
+        final long      length;
+        final long      lastModified;
+        
+        Blob(byte[] data, long crc, long length, long lastModified) {
+            this.data = data;
+            this.crc = crc;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -1,42 +1,80 @@
 package com.nextbiometrics.sample;
 
-import java.nio.IntBuffer;
-
 import android.app.Activity;
-import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Color;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.ImageView;
 import android.widget.TextView;
-import android.os.Environment;
-import java.io.*;
 
-import com.nextbiometrics.devices.NBDeviceImageQualityAlgorithm;
-import com.nextbiometrics.devices.NBDevice;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
 import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
-import com.nextbiometrics.devices.NBDeviceScanResult;
 import com.nextbiometrics.devices.NBDeviceScanStatus;
-import com.nextbiometrics.devices.event.NBDeviceScanPreviewEvent;
-import com.nextbiometrics.devices.event.NBDeviceScanPreviewListener;
 
-public class CaptureActivity extends Activity implements OnClickListener {
+public class CaptureActivity extends Activity implements OnClickListener, QualityScorer.Listener {
+    
+    private static final long   STATUS_TIMEOUT_MILLIS = 5000;
+    // Consecutive acceptable previews after which a scan stops waiting and takes a snapshot
+    private static final int    EARLY_STOP_FRAMES = 3;
+    // Zoom previews in on the finger found by the pre-screen
+    private static final boolean AUTO_CROP_PREVIEW = true;
+    // Messages for QualityPreScreen.Feedback, in the order of the constants
+    private static final int[]  FEEDBACK_MESSAGES = {
+        R.string.prescreen_no_finger,
+        R.string.prescreen_move_up,
+        R.string.prescreen_move_down,
+        R.string.prescreen_move_left,
+        R.string.prescreen_move_right,
+        R.string.prescreen_press_harder,
+        R.string.prescreen_too_wet,
+        R.string.prescreen_keep_still,
+        R.string.prescreen_good
+    };
     
     private TextView            log;
     private TextView            imageQuality;
     private ImageView           fingerImage;
     private Button              scanSnapshotBtn;
     private Button              scanBtn;
+    private Button              enrollBtn;
     private Button              statusBtn;
+    private CheckBox            autoCapture;
+    // Starts a capture when a finger settles, while auto capture is checked
+    private FingerPresenceWatcher presenceWatcher;
     private ScanTask            scanTask;
+    private FrameConverter      frameConverter;
+    private PreviewRenderer     previewRenderer;
+    private QualityScorer       qualityScorer;
+    private final TemplateExtractor templateExtractor = new OrientationFieldExtractor();
+    private long                lastQualitySequence;
+    private long                renderStartNanos;
+    private final DeviceCommandExecutor commands = DeviceCommandExecutor.getInstance();
+    private final Executor      uiThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            runOnUiThread(command);
+        }
+    };
     
-    private NBDevice            device;
+    private BiometricDevice     device;
+    private SessionPool.Lease<BiometricDevice> deviceLease;
+    // Read on connection, so the UI thread never calls the device itself
+    private DeviceSnapshot      snapshot;
+    private DeviceFuture<Connection> connecting;
+    // Between onResume and onStop, a connection waiting for the library is dropped otherwise
+    private boolean             visible;
     private boolean             back = false;
     
     @Override
@@ -46,30 +84,65 @@ public class CaptureActivity extends Activity implements OnClickListener {
         
         scanSnapshotBtn = (Button) findViewById(R.id.btn_scan_snapshot);
         scanBtn = (Button) findViewById(R.id.btn_scan);
+        enrollBtn = (Button) findViewById(R.id.btn_enroll);
         statusBtn = (Button) findViewById(R.id.btn_getstatus);
+        autoCapture = (CheckBox) findViewById(R.id.chk_auto_capture);
+        autoCapture.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton button, boolean checked) {
+                if (checked)
+                    startWatching();
+                else
+                    stopWatching();
+            }
+        });
         
         fingerImage = (ImageView) findViewById(R.id.finger_image);
         log = (TextView) findViewById(R.id.device_log);
         imageQuality = (TextView) findViewById(R.id.image_quality);
+        frameConverter = new FrameConverter();
+        previewRenderer = new PreviewRenderer(((SurfaceView) findViewById(R.id.preview_surface)).getHolder());
+        qualityScorer = new QualityScorer(new NfiqAlgorithm(), this);
+        qualityScorer.setArchive(CaptureArchive.getInstance());
+        fingerImage.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                // Time from handing a frame to the views until it is drawn
+                if (renderStartNanos != 0) {
+                    CaptureMetrics.getInstance().record(CaptureMetrics.Phase.UI_RENDER, renderStartNanos);
+                    renderStartNanos = 0;
+                }
+            }
+        });
     }
     
     @Override
     protected void onResume() {
         super.onResume();
-        setDevice(getDevice());
+        visible = true;
+        connectWhenReady();
     }
     
     @Override
     protected void onStop() {
         super.onStop();
-        if (device != null && device.isScanRunning())
-            device.cancelScan();
+        cancelScan();
         if (scanTask != null) {
-            scanTask.cancel(true);
+            scanTask.cancel();
         }
+        visible = false;
+        connecting = null;
         setDevice(null);
     }
     
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        previewRenderer.release();
+        frameConverter.clear();
+        qualityScorer.shutdown();
+    }
+    
     @Override
     public void onClick(View v) {
         int id = v.getId();
@@ -78,6 +151,8 @@ public class CaptureActivity extends Activity implements OnClickListener {
                 startCapture(ScanType.SNAPSHOT);
             } else if (id == R.id.btn_scan) {
                 startCapture(ScanType.ONE_FINGERPRINT);
+            } else if (id == R.id.btn_enroll) {
+                startCapture(ScanType.ENROLL_SEQUENCE);
             } else if (id == R.id.btn_getstatus) {
                 getStatus();
             }
@@ -88,202 +163,422 @@ public class CaptureActivity extends Activity implements OnClickListener {
     public void onBackPressed()
     {
         super.onBackPressed();
-        if (device != null && device.isScanRunning())
-            device.cancelScan();
+        cancelScan();
         if (scanTask != null) {
-            scanTask.cancel(true);
+            scanTask.cancel();
         }
+        visible = false;
+        connecting = null;
         setDevice(null);
         back = true;
     }
     
-    private void setDevice(NBDevice device) {
-        if (device == null && this.device != null) {
-            this.device.dispose();
-            this.device = null;
-            Log.d("TEST", "TEST DEVICE : "+device);
-        } else {
-            this.device = device;
+    /**
+     * Connects once the library is ready, the activity can be restored with the task
+     * before {@link SampleApplication} has initialized NBDevices.
+     */
+    private void connectWhenReady() {
+        DeviceFuture<Void> ready = ((SampleApplication) getApplication()).getStartup().getReady();
+        if (!ready.isDone()) {
+            enableButtons(false);
+            autoCapture.setEnabled(false);
+            log.setText(R.string.library_loading);
         }
+        ready.whenDone(new DeviceFuture.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                if (visible)
+                    connect();
+            }
+            
+            @Override
+            public void onFailure(Throwable error) {
+                if (visible)
+                    log.setText(error.toString());
+            }
+        }, uiThread);
+    }
+    
+    /**
+     * Leases the device on the command lane, connecting and uploading the calibration
+     * data are device calls and take a while.
+     */
+    private void connect() {
+        Bundle bundle = getIntent().getExtras();
+        final DeviceInfo deviceInfo = (DeviceInfo) bundle.getSerializable("value");
+        final DeviceFuture<Connection> future = commands.submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Connection>() {
+            @Override
+            public Connection run() {
+                SessionPool.Lease<BiometricDevice> lease = DeviceSessionManager.getInstance().acquire(deviceInfo);
+                if (lease == null)
+                    return null;
+                try {
+                    CalibrationStore.getInstance().upload(lease.get());
+                    return new Connection(lease, DeviceSnapshot.capture(lease.get(), CalibrationStore.getInstance()));
+                }
+                catch (RuntimeException e) {
+                    lease.release();
+                    throw e;
+                }
+            }
+        });
+        connecting = future;
+        future.whenDone(new DeviceFuture.Callback<Connection>() {
+            @Override
+            public void onSuccess(Connection connection) {
+                if (future != connecting) {
+                    // Stopped in the meantime
+                    if (connection != null)
+                        connection.lease.release();
+                    return;
+                }
+                connecting = null;
+                setDevice(connection);
+            }
+            
+            @Override
+            public void onFailure(Throwable error) {
+                error.printStackTrace();
+                if (future != connecting)
+                    return;
+                connecting = null;
+                setDevice(null);
+            }
+        }, uiThread);
+    }
+    
+    private void setDevice(Connection connection) {
+        stopWatching();
+        // The device is only leased, DeviceSessionManager keeps it open for the next screen
+        if (deviceLease != null)
+            deviceLease.release();
+        deviceLease = connection != null ? connection.lease : null;
+        snapshot = connection != null ? connection.snapshot : null;
+        BiometricDevice device = deviceLease != null ? deviceLease.get() : null;
         this.device = device;
         enableButtons(device != null);
         log.setText(device != null ? getString(R.string.scan_start) : getString(R.string.device_not_connected));
         fingerImage.setImageResource(R.drawable.scan_process_initial);
+        autoCapture.setEnabled(device != null);
         
-        if(device != null && device.getCapabilities().requiresExternalCalibrationData) {
-            final String paths = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS) + "/NBData/" + device.getSerialNumber() + "_calblob.bin";
-            File file = new File(paths);
-            if(file.exists()) {
-                int size = (int) file.length();
-                byte[] bytes = new byte[size];
-                try {
-                    BufferedInputStream buf = new BufferedInputStream(new FileInputStream(file));
-                    buf.read(bytes, 0, bytes.length);
-                    buf.close();
-                }
-                catch (IOException ex) {}
-                device.SetBlobParameter(NBDevice.BLOB_PARAMETER_CALIBRATION_DATA, bytes);
+        if (device != null && autoCapture.isChecked())
+            startWatching();
+    }
+    
+    private void startWatching() {
+        if (device == null || presenceWatcher != null)
+            return;
+        presenceWatcher = new FingerPresenceWatcher(device, snapshot.getSerialNumber(), commands, new FingerPresenceWatcher.Listener() {
+            @Override
+            public void onFingerSettled(final FingerPresenceWatcher watcher) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (watcher != presenceWatcher)
+                            return;
+                        // A capture started by hand in the meantime resumes the watcher when done
+                        if (device != null && (scanTask == null || !scanTask.isRunning()))
+                            startCapture(ScanType.SNAPSHOT);
+                    }
+                });
             }
-        }
+        });
+        presenceWatcher.start();
+        if (scanTask != null && scanTask.isRunning())
+            presenceWatcher.pause();
+        else
+            log.setText(R.string.auto_capture_waiting);
     }
     
-    private NBDevice getDevice() {
-        Intent intent = this.getIntent();
-        Bundle bundle = intent.getExtras();
-        DeviceInfo deviceInfo = (DeviceInfo)bundle.getSerializable("value");
-        return DeviceInfo.getDevice(deviceInfo);
+    private void stopWatching() {
+        if (presenceWatcher == null)
+            return;
+        presenceWatcher.stop();
+        // Latency and polling cost of this session, also in the metrics as PRESENCE_*
+        String report = presenceWatcher.getReport();
+        Log.i("CaptureActivity", "Auto capture: " + report);
+        log.setText(getString(R.string.auto_capture_report, report));
+        presenceWatcher = null;
     }
     
     private void enableButtons(boolean en) {
         scanBtn.setEnabled(en);
         scanSnapshotBtn.setEnabled(en);
+        enrollBtn.setEnabled(en);
         statusBtn.setEnabled(en);
     }
     
     private void startCapture(ScanType scanType) {
+        // The scan has the device to itself, watching resumes once it is finished
+        if (presenceWatcher != null)
+            presenceWatcher.pause();
         scanTask = new ScanTask(scanType);
-        scanTask.execute(device.getSupportedScanFormats()[0]);
+        scanTask.start(snapshot.getSupportedScanFormats()[0]);
     }
     
-    private static Bitmap convertToBitmap(NBDeviceScanFormatInfo formatInfo, byte[] image){
-        IntBuffer buf = IntBuffer.allocate(image.length);
-        for (byte pixel : image) {
-            int grey = pixel & 0x0ff;
-            buf.put(Color.argb(255, grey, grey, grey));
-        }
-        return Bitmap.createBitmap(buf.array(), formatInfo.getWidth(), formatInfo.getHeight(), Config.ARGB_8888);
+    @Override
+    public void onQualityScored(final QualityScore score) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                // Scores arrive out of band, never let an older frame overwrite a newer one
+                if (score.getFrameSequence() < lastQualitySequence)
+                    return;
+                lastQualitySequence = score.getFrameSequence();
+                imageQuality.setText("Image quality: " + score);
+            }
+        });
+    }
+    
+    private void cancelScan() {
+        final BiometricDevice device = this.device;
+        if (device == null)
+            return;
+        // The control lane does not wait for the scan running on the device thread
+        commands.submit(DeviceCommandExecutor.Lane.CONTROL, new DeviceCommandExecutor.Command<Void>() {
+            @Override
+            public Void run() {
+                if (device.isScanRunning())
+                    device.cancelScan();
+                return null;
+            }
+        });
     }
     
     private void cancelCapture() {
-        new AsyncTask<Void, Void, String>() {
-            
+        enableButtons(false);
+        final BiometricDevice device = this.device;
+        commands.submit(DeviceCommandExecutor.Lane.CONTROL, new DeviceCommandExecutor.Command<Void>() {
             @Override
-            protected void onPreExecute() {
-                enableButtons(false);
+            public Void run() {
+                device.cancelScan();
+                return null;
             }
-            
+        }).whenDone(new DeviceFuture.Callback<Void>() {
             @Override
-            protected String doInBackground(Void... params) {
-                try {
-                    device.cancelScan();
-                    return null;
-                }
-                catch (RuntimeException e) {
-                    e.printStackTrace();
-                    return e.getMessage();
-                }
+            public void onSuccess(Void result) {
+                enableButtons(true);
             }
             
             @Override
-            protected void onPostExecute(String msg) {
+            public void onFailure(Throwable error) {
+                error.printStackTrace();
                 enableButtons(true);
-                if (msg != null && !"".equals(msg)) {
-                    log.setText(msg);
+                if (error.getMessage() != null && !"".equals(error.getMessage())) {
+                    log.setText(error.getMessage());
                 }
             }
-        }.execute();
+        }, uiThread);
     }
     
     private void getStatus() {
-        new AsyncTask<Void, Void, String>() {
-            
+        enableButtons(false);
+        final BiometricDevice device = this.device;
+        // Repeated taps while a status request is queued share its result
+        commands.submit(DeviceCommandExecutor.Lane.STATUS, "status:" + snapshot.getSerialNumber(), STATUS_TIMEOUT_MILLIS,
+          new DeviceCommandExecutor.Command<String>() {
             @Override
-            protected void onPreExecute() {
-                enableButtons(false);
+            public String run() {
+                return device.getState().toString();
             }
-            
+        }).whenDone(new DeviceFuture.Callback<String>() {
             @Override
-            protected String doInBackground(Void... params) {
-                try {
-                    return device.getState().toString();
-                }
-                catch (RuntimeException e) {
-                    e.printStackTrace();
-                    return e.getMessage();
-                }
+            public void onSuccess(String msg) {
+                showStatus(msg);
             }
             
             @Override
-            protected void onPostExecute(String msg) {
-                enableButtons(true);
-                log.setText(getString(R.string.device_state));
-                log.append(" ");
-                log.append(msg);
+            public void onFailure(Throwable error) {
+                error.printStackTrace();
+                showStatus(error.getMessage());
             }
-        }.execute();
+        }, uiThread);
+    }
+    
+    private void showStatus(String msg) {
+        enableButtons(true);
+        log.setText(getString(R.string.device_state));
+        log.append(" ");
+        log.append(msg);
+    }
+    
+    private Bitmap convertImage(NBDeviceScanFormatInfo formatInfo, byte[] image) {
+        long start = System.nanoTime();
+        Bitmap bitmap = frameConverter.convert(formatInfo, image);
+        CaptureMetrics.getInstance().record(CaptureMetrics.Phase.BITMAP_CONVERSION, start);
+        return bitmap;
+    }
+    
+    private static ImageStats computeStats(byte[] image, int length, ImageStats stats) {
+        NativeImage.computeStats(image, length, stats);
+        return stats;
+    }
+    
+    private static final class Connection {
+        final SessionPool.Lease<BiometricDevice> lease;
+        final DeviceSnapshot                     snapshot;
+        
+        Connection(SessionPool.Lease<BiometricDevice> lease, DeviceSnapshot snapshot) {
+            this.lease = lease;
+            this.snapshot = snapshot;
+        }
     }
     
     private enum ScanType {
         SNAPSHOT,
-        ONE_FINGERPRINT
+        ONE_FINGERPRINT,
+        ENROLL_SEQUENCE
     }
     
     private class ScanProgress {
         private String message;
         private Bitmap image;
-        private int qualityScore;
         
-        ScanProgress(NBDeviceScanResult result, int fingerprintDetectValue) {
-            this(result.getStatus(), fingerprintDetectValue, result.getFormat(), result.getImage());
+        ScanProgress(ScanResult result, int fingerprintDetectValue, ImageStats stats) {
+            this(result.getStatus(), fingerprintDetectValue, result.getImage(), result.getImage().length, stats,
+              convertImage(result.getFormat(), result.getImage()));
         }
         
-        ScanProgress(NBDeviceScanPreviewEvent eventDetails) {
-            this(eventDetails.getStatus(), eventDetails.getFingerDetectValue(), eventDetails.getFormat(), eventDetails.getImage());
+        ScanProgress(PreviewFrame frame, ImageStats stats, Bitmap preview) {
+            this(frame.getStatus(), frame.getFingerDetectValue(), frame.getImage(), frame.getLength(), stats, preview);
         }
         
-        ScanProgress(NBDeviceScanStatus status, int fingerprintDetectValue, NBDeviceScanFormatInfo formatInfo, byte[] image) {
-            this(String.format("%s %s, %s %d", getString(R.string.scan_status), status, getString(R.string.finger_detect_value), fingerprintDetectValue),
-              NBDevice.GetImageQuality(image, formatInfo.getWidth(), formatInfo.getHeight(), formatInfo.getHorizontalResolution(), NBDeviceImageQualityAlgorithm.NFIQ),
-              convertToBitmap(formatInfo, image));
+        ScanProgress(NBDeviceScanStatus status, int fingerprintDetectValue, byte[] image, int length, ImageStats stats, Bitmap bitmap) {
+            this(ScanMessage.format(getString(R.string.scan_status), status, getString(R.string.finger_detect_value), fingerprintDetectValue,
+              computeStats(image, length, stats)),
+              bitmap);
         }
         
-        ScanProgress(String message, int qualityScore, Bitmap image) {
+        ScanProgress(String message, Bitmap image) {
             this.message = message;
             this.image = image;
-            this.qualityScore = qualityScore;
         }
         
         ScanProgress(String message) {
-            this(message, 0, null);
+            this(message, null);
         }
         
         String getMessage() {
             return message;
         }
         
-        Bitmap getImage() {
-            return image;
+        void appendMessage(String line) {
+            message = message + "\n" + line;
         }
         
-        int getQualityScore() {
-            return qualityScore;
+        Bitmap getImage() {
+            return image;
         }
     }
     
-    private class ScanTask extends AsyncTask<NBDeviceScanFormatInfo, ScanProgress, ScanProgress> implements NBDeviceScanPreviewListener {
+    private class ScanTask implements BiometricDevice.PreviewListener, PreviewPipeline.FrameHandler {
         private ScanType scanType;
+        private PreviewPipeline previewPipeline;
+        private DeviceFuture<ScanProgress> pending;
+        private volatile boolean cancelled;
+        private final ImageStats previewStats = new ImageStats();
+        private final ImageStats resultStats = new ImageStats();
+        private long scanStartNanos;
+        private long lastPreviewNanos;
+        // Used by the preview worker only
+        private final QualityPreScreen preScreen = new QualityPreScreen();
+        private int acceptableFrames;
+        // The pre-screen cancelled the scan, the finger is in place for the final capture
+        private volatile boolean earlyStop;
+        // Previews are converted for the size of the view, read on the UI thread
+        private final int previewWidth;
+        private final int previewHeight;
+        private final int[] fingerBounds = new int[4];
         
         ScanTask(ScanType scanType) {
             this.scanType = scanType;
+            previewWidth = fingerImage.getWidth();
+            previewHeight = fingerImage.getHeight();
         }
         
-        @Override
-        protected void onPreExecute() {
+        void start(final NBDeviceScanFormatInfo format) {
+            // Previews are processed off the scan thread so they never delay scanEx
+            previewPipeline = new PreviewPipeline("ScanPreview", this);
+            previewPipeline.start();
+            qualityScorer.reset();
+            lastQualitySequence = 0;
+            imageQuality.setText("");
             enableButtons(false);
             log.setText(R.string.scan_in_progress);
             fingerImage.setImageResource(R.drawable.scan_process_initial);
+            pending = commands.submit(DeviceCommandExecutor.Lane.SCAN, new DeviceCommandExecutor.Command<ScanProgress>() {
+                @Override
+                public ScanProgress run() {
+                    // Ensure enough priority for the scanning thread to prevent long capture time,
+                    // the device thread is shared so the previous priority is restored afterwards
+                    int tid = android.os.Process.myTid();
+                    int priority = android.os.Process.getThreadPriority(tid);
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
+                    try {
+                        return scan(format);
+                    }
+                    finally {
+                        android.os.Process.setThreadPriority(tid, priority);
+                    }
+                }
+            });
+            pending.whenDone(new DeviceFuture.Callback<ScanProgress>() {
+                @Override
+                public void onSuccess(ScanProgress fp) {
+                    finished(fp);
+                }
+                
+                @Override
+                public void onFailure(Throwable error) {
+                    if (error instanceof CancellationException)
+                        stopPreview();
+                    else
+                        finished(null);
+                }
+            }, uiThread);
         }
         
-        @Override
-        protected ScanProgress doInBackground(NBDeviceScanFormatInfo... params) {
+        boolean isRunning() {
+            return pending != null && !pending.isDone();
+        }
+        
+        /**
+         * Stops delivering results to the views, the scan itself is cancelled through {@link #cancelScan}.
+         */
+        void cancel() {
+            cancelled = true;
+            if (pending != null)
+                pending.cancel(false);
+        }
+        
+        private ScanProgress scan(NBDeviceScanFormatInfo format) {
             try {
-                // Ensure enough priority for the scanning thread to prevent long capture time
-                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
-                
-                NBDeviceScanFormatInfo format = params[0];
-                if (scanType == ScanType.SNAPSHOT)
-                    return new ScanProgress(device.scan(format), device.getFingerDetectValue());
-                return new ScanProgress(device.scanEx(format, 1000000, this), device.getFingerDetectValue());
+                ScanResult result;
+                scanStartNanos = System.nanoTime();
+                if (scanType == ScanType.ENROLL_SEQUENCE) {
+                    return enroll(format);
+                }
+                else if (scanType == ScanType.SNAPSHOT) {
+                    result = device.scan(format);
+                }
+                else {
+                    result = device.scanEx(format, 1000000, this);
+                    previewPipeline.stop();
+                    // A preview is no capture, the finger the pre-screen liked is scanned for real
+                    if (result.getStatus() == NBDeviceScanStatus.CANCELED && earlyStop && !cancelled)
+                        result = device.scan(format);
+                    else
+                        earlyStop = false;
+                }
+                CaptureMetrics.getInstance().record(CaptureMetrics.Phase.FINAL_SCAN, scanStartNanos);
+                int fingerDetectValue = device.getFingerDetectValue();
+                qualityScorer.submitResult(previewPipeline.getOfferedFrames() + 1, result, fingerDetectValue);
+                ScanProgress progress = new ScanProgress(result, fingerDetectValue, resultStats);
+                if (earlyStop)
+                    progress.appendMessage(getString(R.string.prescreen_early_stop, EARLY_STOP_FRAMES));
+                if (result.getStatus() == NBDeviceScanStatus.OK)
+                    identify(result, progress);
+                return progress;
             }
             catch (Throwable e) {
                 e.printStackTrace();
@@ -292,14 +587,105 @@ public class CaptureActivity extends Activity implements OnClickListener {
             }
         }
         
-        @Override
-        protected void onProgressUpdate(ScanProgress... msg) {
-            ScanProgress progress = msg[0];
-            updateView(progress);
+        private ScanProgress enroll(final NBDeviceScanFormatInfo format) {
+            EnrollmentSession enrollment = new EnrollmentSession(device, format, new NfiqAlgorithm(), new EnrollmentSession.Listener() {
+                @Override
+                public void onCaptured(int capture, ScanResult result) {
+                    // Keep this cheap, the next scan only starts when it returns
+                    CaptureMetrics.getInstance().record(CaptureMetrics.Phase.FINAL_SCAN, scanStartNanos);
+                    scanStartNanos = System.nanoTime();
+                    lastPreviewNanos = 0;
+                    publishProgress(new ScanProgress(getString(R.string.enroll_captured, capture, result.getStatus())));
+                }
+                
+                @Override
+                public void onScored(final EnrollmentSession.Impression impression, final List<EnrollmentSession.Impression> best) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            imageQuality.setText(getString(R.string.enroll_best, best.toString()));
+                        }
+                    });
+                }
+            });
+            enrollment.setArchive(CaptureArchive.getInstance());
+            EnrollmentSession.Result result = enrollment.run(this);
+            previewPipeline.stop();
+            if (result.getBest().isEmpty())
+                return new ScanProgress(getString(R.string.enroll_incomplete, result.getCaptures()));
+            String message = result.isTargetMet()
+              ? getString(R.string.enroll_done, result.getBest().size(), result.getCaptures(), result.getElapsedMillis())
+              : getString(R.string.enroll_incomplete, result.getCaptures());
+            ScanProgress progress = new ScanProgress(message + "\n" + result.getBest(), convertImage(format, result.getBest().get(0).getImage()));
+            if (result.isTargetMet())
+                enrollTemplates(format, result.getBest(), progress);
+            return progress;
         }
         
-        @Override
-        protected void onPostExecute(ScanProgress fp) {
+        private FingerprintTemplate extractTemplate(NBDeviceScanFormatInfo format, byte[] image) {
+            long start = System.nanoTime();
+            FingerprintTemplate template = templateExtractor.extract(image, format.getWidth(), format.getHeight(), format.getHorizontalResolution());
+            CaptureMetrics.getInstance().record(CaptureMetrics.Phase.TEMPLATE_EXTRACTION, start);
+            return template;
+        }
+        
+        /**
+         * Adds the kept impressions to the gallery as a new identity.
+         */
+        private void enrollTemplates(NBDeviceScanFormatInfo format, List<EnrollmentSession.Impression> best, ScanProgress progress) {
+            List<FingerprintTemplate> templates = new ArrayList<FingerprintTemplate>();
+            for (EnrollmentSession.Impression impression : best) {
+                FingerprintTemplate template = extractTemplate(format, impression.getImage());
+                if (template != null)
+                    templates.add(template);
+            }
+            if (templates.isEmpty()) {
+                progress.appendMessage(getString(R.string.gallery_no_template));
+                return;
+            }
+            TemplateGallery gallery = TemplateGallery.getInstance();
+            int id = gallery.enroll(templates);
+            try {
+                gallery.save();
+            }
+            catch (IOException e) {
+                Log.w("ScanTask", "Cannot save the gallery", e);
+            }
+            progress.appendMessage(getString(R.string.gallery_enrolled, id, templates.size()));
+        }
+        
+        /**
+         * Searches the gallery for the finger of the scan, if anyone is enrolled.
+         */
+        private void identify(ScanResult result, ScanProgress progress) {
+            TemplateGallery gallery = TemplateGallery.getInstance();
+            if (gallery.size() == 0)
+                return;
+            FingerprintTemplate probe = extractTemplate(result.getFormat(), result.getImage());
+            if (probe == null) {
+                progress.appendMessage(getString(R.string.gallery_no_template));
+                return;
+            }
+            TemplateGallery.SearchResult search = gallery.identify(probe, TemplateGallery.DEFAULT_THRESHOLD, TemplateGallery.DEFAULT_MAX_RESULTS);
+            double millis = search.getElapsedNanos() / 1e6;
+            TemplateGallery.Match best = search.getBest();
+            progress.appendMessage(best != null
+              ? getString(R.string.gallery_identified, best.getId(), best.getScore(), search.getCompared(), search.getEntries(), millis)
+              : getString(R.string.gallery_no_match, search.getCompared(), search.getEntries(), millis));
+        }
+        
+        private void publishProgress(final ScanProgress progress) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled)
+                        updateView(progress);
+                }
+            });
+        }
+        
+        private void finished(ScanProgress fp) {
+            stopPreview();
             enableButtons(true);
             if (fp != null) {
                 updateView(fp);
@@ -307,17 +693,96 @@ public class CaptureActivity extends Activity implements OnClickListener {
             else {
                 fingerImage.setImageResource(R.drawable.scan_process_fail);
             }
+            if (presenceWatcher != null)
+                presenceWatcher.resume();
+        }
+        
+        @Override
+        public void preview(NBDeviceScanStatus status, int fingerDetectValue, NBDeviceScanFormatInfo format, byte[] image) {
+            long now = System.nanoTime();
+            if (lastPreviewNanos == 0)
+                CaptureMetrics.getInstance().record(CaptureMetrics.Phase.FIRST_PREVIEW, scanStartNanos);
+            else
+                CaptureMetrics.getInstance().record(CaptureMetrics.Phase.PREVIEW_INTERVAL, lastPreviewNanos);
+            lastPreviewNanos = now;
+            previewPipeline.offer(status, fingerDetectValue, format, image);
         }
         
         @Override
-        public void preview(NBDeviceScanPreviewEvent event) {
-            publishProgress(new ScanProgress(event));
+        public void onFrame(PreviewFrame frame) {
+            qualityScorer.submitPreview(frame);
+            String feedback = preScreen(frame);
+            boolean cropped = AUTO_CROP_PREVIEW && feedback != null && preScreen.getFingerBounds(fingerBounds);
+            // The surface shows the image without going through the views, only the text is left for them
+            final boolean rendered = previewRenderer.isAvailable() && renderPreview(frame, cropped ? fingerBounds : null);
+            final ScanProgress progress = new ScanProgress(frame, previewStats, rendered ? null : convertPreview(frame, cropped ? fingerBounds : null));
+            if (feedback != null)
+                progress.appendMessage(feedback);
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!previewPipeline.isRunning())
+                        return;
+                    if (rendered)
+                        fingerImage.setVisibility(View.INVISIBLE);
+                    updateView(progress);
+                }
+            });
+        }
+        
+        /**
+         * Assesses the preview and stops waiting in a single scan once enough previews in a
+         * row are acceptable, the result is then taken by a snapshot scan.
+         *
+         * @return the feedback for the user, {@code null} if the frame cannot be assessed
+         */
+        private String preScreen(PreviewFrame frame) {
+            NBDeviceScanFormatInfo format = frame.getFormat();
+            if (format == null || frame.getLength() < format.getWidth() * format.getHeight())
+                return null;
+            QualityPreScreen.Feedback feedback = preScreen.assess(frame.getImage(), format.getWidth(), format.getHeight());
+            CaptureMetrics.getInstance().get(CaptureMetrics.Phase.PRE_SCREEN).record(preScreen.getElapsedNanos() / 1000);
+            acceptableFrames = preScreen.isAcceptable() ? acceptableFrames + 1 : 0;
+            if (scanType == ScanType.ONE_FINGERPRINT && acceptableFrames >= EARLY_STOP_FRAMES && !earlyStop) {
+                earlyStop = true;
+                cancelScan();
+            }
+            return getString(FEEDBACK_MESSAGES[feedback.ordinal()]);
+        }
+        
+        private Bitmap convertPreview(PreviewFrame frame, int[] bounds) {
+            long start = System.nanoTime();
+            Bitmap bitmap = frameConverter.convertPreview(frame.getFormat(), frame.getImage(), previewWidth, previewHeight, bounds);
+            CaptureMetrics.getInstance().record(CaptureMetrics.Phase.PREVIEW_CONVERSION, start);
+            return bitmap;
+        }
+        
+        private boolean renderPreview(PreviewFrame frame, int[] bounds) {
+            NBDeviceScanFormatInfo format = frame.getFormat();
+            if (frame.getLength() < format.getWidth() * format.getHeight())
+                return false;
+            long start = System.nanoTime();
+            int[] pixels = frameConverter.convertPreviewPixels(format.getWidth(), format.getHeight(), frame.getImage(), previewWidth, previewHeight, bounds);
+            previewRenderer.render(pixels, frameConverter.getPreviewWidth(), frameConverter.getPreviewHeight(), frame.getTimestampNanos());
+            CaptureMetrics.getInstance().record(CaptureMetrics.Phase.PREVIEW_CONVERSION, start);
+            return true;
+        }
+        
+        private void stopPreview() {
+            previewPipeline.stop();
+            previewRenderer.clear();
+            fingerImage.setVisibility(View.VISIBLE);
+            Log.d("ScanTask", String.format("Preview frames: %d offered, %d processed, %d dropped, %d rendered, %d dropped before vsync",
+              previewPipeline.getOfferedFrames(), previewPipeline.getProcessedFrames(), previewPipeline.getDroppedFrames(),
+              previewRenderer.getRenderedFrames(), previewRenderer.getDroppedFrames()));
         }
         
         private void updateView(ScanProgress progress) {
-            fingerImage.setImageBitmap(progress.getImage());
+            if (renderStartNanos == 0)
+                renderStartNanos = System.nanoTime();
+            if (progress.getImage() != null)
+                fingerImage.setImageBitmap(progress.getImage());
             log.setText(progress.getMessage());
-            imageQuality.setText("Image quality: " + String.valueOf(progress.getQualityScore()));
         }
     }
 }
@@ -0,0 +1,625 @@
+package com.nextbiometrics.sample;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+
+/**
+ * Append-only archive of captured images ({@code NBData/captures/captures-<n>.nbca}).
+ * <p>
+ * A file starts with an 8 byte header (magic, version) followed by records, each
+ * prefixed with its length: capture id, timestamp, kind, NFIQ, finger detect value,
+ * width, height, resolution, CRC32 of the image and the image itself, all little
+ * endian. The image is stored {@link GreyscaleCodec encoded} when that makes it
+ * smaller, flagged by the high bit of the kind. A file is closed once it would grow
+ * beyond the size limit and the oldest files are deleted beyond the file limit.
+ * <p>
+ * {@link #append} only copies the image into a bounded queue, records are written
+ * in batches by a background thread with a gathering {@link FileChannel} write.
+ * When the queue is full the record is dropped rather than blocking the caller.
+ * Capture ids are assigned by the writer and continue across restarts, the index
+ * from id to file position is rebuilt from the files on first use. A record cut
+ * short by a crash ends its file for the reader.
+ */
+public class CaptureArchive {
+    
+    static final int MAGIC = 0x4E424341; // "NBCA"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 30;
+    static final int ENCODED_FLAG = 0x80;
+    static final String FILE_PREFIX = "captures-";
+    static final String FILE_SUFFIX = ".nbca";
+    
+    static final long DEFAULT_MAX_FILE_BYTES = 16 * 1024 * 1024;
+    static final int DEFAULT_MAX_FILES = 8;
+    static final int DEFAULT_QUEUE_CAPACITY = 32;
+    
+    private static final int BATCH_SIZE = 16;
+    private static final long FLUSH_WAIT_MILLIS = 5000;
+    
+    public enum Kind {
+        RESULT,
+        PREVIEW
+    }
+    
+    /**
+     * An archived image with its capture conditions.
+     */
+    public static final class Record {
+        private long            id;
+        private final long      timestamp;
+        private final Kind      kind;
+        private final int       nfiq;
+        private final int       fingerDetectValue;
+        private final int       width;
+        private final int       height;
+        private final int       resolution;
+        private final byte[]    image;
+        
+        Record(long id, long timestamp, Kind kind, int nfiq, int fingerDetectValue, int width, int height, int resolution, byte[] image) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.nfiq = nfiq;
+            this.fingerDetectValue = fingerDetectValue;
+            this.width = width;
+            this.height = height;
+            this.resolution = resolution;
+            this.image = image;
+        }
+        
+        public long getId() {
+            return id;
+        }
+        
+        /**
+         * Wall clock time of the capture in milliseconds.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+        
+        public Kind getKind() {
+            return kind;
+        }
+        
+        /**
+         * NFIQ score, {@link QualityScore#NOT_SCORED} if there is none.
+         */
+        public int getNfiq() {
+            return nfiq;
+        }
+        
+        public int getFingerDetectValue() {
+            return fingerDetectValue;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+        
+        public int getResolution() {
+            return resolution;
+        }
+        
+        public byte[] getImage() {
+            return image;
+        }
+        
+        @Override
+        public String toString() {
+            return "#" + id + " " + kind + " " + width + "x" + height + " NFIQ " + nfiq;
+        }
+    }
+    
+    /**
+     * Reads the records of one file in order.
+     */
+    public static final class Reader {
+        private final FileChannel   channel;
+        private final ByteBuffer    header = ByteBuffer.allocate(4 + RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long                position = FILE_HEADER_SIZE;
+        
+        public Reader(File file) throws IOException {
+            channel = new FileInputStream(file).getChannel();
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                readFully(channel, fileHeader, 0);
+            }
+            catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            if (fileHeader.getInt(0) != MAGIC || fileHeader.getInt(4) != VERSION) {
+                channel.close();
+                throw new IOException("Not a capture archive: " + file);
+            }
+        }
+        
+        /**
+         * Position of the record {@link #next} returns.
+         */
+        public long getPosition() {
+            return position;
+        }
+        
+        /**
+         * @return the next record, {@code null} at the end of the file
+         */
+        public Record next() throws IOException {
+            Record record = readRecord(channel, header, position, true);
+            if (record != null)
+                position += 4 + header.getInt(0);
+            return record;
+        }
+        
+        /**
+         * Like {@link #next} without reading the image, {@link Record#getImage} is {@code null}.
+         */
+        public Record skip() throws IOException {
+            long length = channel.size();
+            Record record = readRecord(channel, header, position, false);
+            if (record == null)
+                return null;
+            int imageLength = header.getInt(0) - RECORD_HEADER_SIZE;
+            if (position + 4 + RECORD_HEADER_SIZE + imageLength > length)
+                return null;
+            position += 4 + RECORD_HEADER_SIZE + imageLength;
+            return record;
+        }
+        
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+    
+    private static final class Location {
+        final File  file;
+        final long  position;
+        
+        Location(File file, long position) {
+            this.file = file;
+            this.position = position;
+        }
+    }
+    
+    private static final class Flush {
+        final CountDownLatch done = new CountDownLatch(1);
+    }
+    
+    private static final Object STOP = new Object();
+    
+    private static CaptureArchive instance;
+    
+    private final File                      directory;
+    private final long                      maxFileBytes;
+    private final int                       maxFiles;
+    private final BlockingQueue<Object>     queue;
+    private final Thread                    writer;
+    private final AtomicLong                droppedRecords = new AtomicLong();
+    private final Map<Long, Location>       index = new HashMap<Long, Location>();
+    private final List<File>                files = new ArrayList<File>();
+    private boolean                         indexed;
+    private long                            nextId = 1;
+    private int                             nextFileNumber = 1;
+    
+    // Owned by the writer thread
+    private FileChannel                     channel;
+    private File                            currentFile;
+    private long                            currentSize;
+    private final ByteBuffer[]              buffers = new ByteBuffer[BATCH_SIZE * 2];
+    private final ByteBuffer[]              headers = new ByteBuffer[BATCH_SIZE];
+    private final CRC32                     crc = new CRC32();
+    private final GreyscaleCodec            codec = new GreyscaleCodec();
+    private final byte[][]                  encoded = new byte[BATCH_SIZE][];
+    
+    public static synchronized CaptureArchive getInstance() {
+        if (instance == null) {
+            instance = new CaptureArchive(new File(CalibrationStore.getInstance().getDirectory(), "captures"),
+              DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES, DEFAULT_QUEUE_CAPACITY);
+        }
+        return instance;
+    }
+    
+    public CaptureArchive(File directory, long maxFileBytes, int maxFiles, int queueCapacity) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.queue = new ArrayBlockingQueue<Object>(queueCapacity);
+        for (int i = 0; i < headers.length; i++)
+            headers[i] = ByteBuffer.allocateDirect(4 + RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        writer = DaemonThreads.named("CaptureArchive").newThread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+        writer.start();
+    }
+    
+    public File getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Queues a copy of the image for archiving, never blocks.
+     *
+     * @param nfiq NFIQ score, {@link QualityScore#NOT_SCORED} if there is none
+     * @return {@code false} if the record was dropped because the writer is behind
+     */
+    public boolean append(Kind kind, NBDeviceScanFormatInfo format, byte[] image, int length, int nfiq, int fingerDetectValue) {
+        Record record = new Record(0, System.currentTimeMillis(), kind, nfiq, fingerDetectValue,
+          format.getWidth(), format.getHeight(), format.getHorizontalResolution(), Arrays.copyOf(image, length));
+        if (queue.offer(record))
+            return true;
+        droppedRecords.incrementAndGet();
+        return false;
+    }
+    
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+    
+    /**
+     * Waits until everything queued so far is written and synced to storage.
+     *
+     * @return {@code false} if that did not happen in time
+     */
+    public boolean flush() throws InterruptedException {
+        Flush flush = new Flush();
+        if (!queue.offer(flush, FLUSH_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+            return false;
+        return flush.done.await(FLUSH_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Writes what is queued and stops the writer, later records are dropped.
+     */
+    public void close() throws InterruptedException {
+        queue.put(STOP);
+        writer.join(FLUSH_WAIT_MILLIS);
+    }
+    
+    /**
+     * Reads a written record, {@code null} if it does not exist (any more) or is still queued.
+     */
+    public Record read(long id) throws IOException {
+        Location location;
+        synchronized (this) {
+            ensureIndex();
+            location = index.get(id);
+        }
+        if (location == null)
+            return null;
+        FileChannel channel = new FileInputStream(location.file).getChannel();
+        try {
+            return readRecord(channel, ByteBuffer.allocate(4 + RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN), location.position, true);
+        }
+        finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * The archive files, oldest first.
+     */
+    public synchronized List<File> getFiles() {
+        ensureIndex();
+        return new ArrayList<File>(files);
+    }
+    
+    public synchronized int getRecordCount() {
+        ensureIndex();
+        return index.size();
+    }
+    
+    private void ensureIndex() {
+        if (indexed)
+            return;
+        indexed = true;
+        File[] existing = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return fileNumber(name) > 0;
+            }
+        });
+        if (existing == null)
+            return;
+        Arrays.sort(existing);
+        for (File file : existing) {
+            files.add(file);
+            nextFileNumber = Math.max(nextFileNumber, fileNumber(file.getName()) + 1);
+            try {
+                Reader reader = new Reader(file);
+                try {
+                    long position = reader.getPosition();
+                    Record record;
+                    while ((record = reader.skip()) != null) {
+                        index.put(record.id, new Location(file, position));
+                        nextId = Math.max(nextId, record.id + 1);
+                        position = reader.getPosition();
+                    }
+                }
+                finally {
+                    reader.close();
+                }
+            }
+            catch (IOException e) {
+                // Unreadable files keep their name but contribute no records
+            }
+        }
+    }
+    
+    private static int fileNumber(String name) {
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX))
+            return -1;
+        try {
+            return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private void write() {
+        List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(queue.take());
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            List<Record> records = new ArrayList<Record>(batch.size());
+            for (Object item : batch) {
+                if (item instanceof Record) {
+                    records.add((Record) item);
+                    continue;
+                }
+                writeQuietly(records);
+                records.clear();
+                if (item == STOP) {
+                    stop = true;
+                    break;
+                }
+                sync();
+                ((Flush) item).done.countDown();
+            }
+            writeQuietly(records);
+            batch.clear();
+        }
+        closeFile();
+        // Unblock whoever is still waiting
+        Object item;
+        while ((item = queue.poll()) != null) {
+            if (item instanceof Flush)
+                ((Flush) item).done.countDown();
+        }
+    }
+    
+    private void writeQuietly(List<Record> records) {
+        if (records.isEmpty())
+            return;
+        try {
+            writeBatch(records);
+        }
+        catch (IOException e) {
+            droppedRecords.addAndGet(records.size());
+            closeFile();
+        }
+    }
+    
+    private void writeBatch(List<Record> records) throws IOException {
+        int start = 0;
+        while (start < records.size()) {
+            if (channel == null)
+                rotate();
+            // Gather as many records as fit into the current file in one write
+            int count = 0;
+            long batchSize = 0;
+            long[] ids = new long[records.size() - start];
+            Location[] locations = new Location[ids.length];
+            while (start + count < records.size()) {
+                Record record = records.get(start + count);
+                ByteBuffer payload = encode(count, record);
+                long size = 4 + RECORD_HEADER_SIZE + payload.remaining();
+                if (currentSize + batchSize > FILE_HEADER_SIZE && currentSize + batchSize + size > maxFileBytes) {
+                    if (count > 0)
+                        break;
+                    rotate();
+                }
+                synchronized (this) {
+                    record.id = nextId++;
+                }
+                ids[count] = record.id;
+                locations[count] = new Location(currentFile, currentSize + batchSize);
+                encodeHeader(headers[count], record, payload);
+                buffers[count * 2] = headers[count];
+                buffers[count * 2 + 1] = payload;
+                batchSize += size;
+                count++;
+            }
+            long remaining = batchSize;
+            while (remaining > 0)
+                remaining -= channel.write(buffers, 0, count * 2);
+            currentSize += batchSize;
+            synchronized (this) {
+                for (int i = 0; i < count; i++)
+                    index.put(ids[i], locations[i]);
+            }
+            Arrays.fill(buffers, null);
+            start += count;
+        }
+    }
+    
+    /**
+     * The image as stored, encoded into the scratch buffer of the slot if that is smaller.
+     */
+    private ByteBuffer encode(int slot, Record record) {
+        byte[] image = record.image;
+        if (image.length != record.width * record.height || image.length == 0)
+            return ByteBuffer.wrap(image);
+        int maxLength = GreyscaleCodec.maxEncodedLength(record.width, record.height);
+        if (encoded[slot] == null || encoded[slot].length < maxLength)
+            encoded[slot] = new byte[maxLength];
+        int length = codec.encode(image, record.width, record.height, encoded[slot], 0);
+        if (length >= image.length)
+            return ByteBuffer.wrap(image);
+        return ByteBuffer.wrap(encoded[slot], 0, length);
+    }
+    
+    private void encodeHeader(ByteBuffer header, Record record, ByteBuffer payload) {
+        crc.reset();
+        crc.update(record.image, 0, record.image.length);
+        int kind = record.kind.ordinal();
+        if (payload.array() != record.image)
+            kind |= ENCODED_FLAG;
+        header.clear();
+        header.putInt(RECORD_HEADER_SIZE + payload.remaining());
+        header.putLong(record.id);
+        header.putLong(record.timestamp);
+        header.put((byte) kind);
+        header.put((byte) record.nfiq);
+        header.putShort((short) record.fingerDetectValue);
+        header.putShort((short) record.width);
+        header.putShort((short) record.height);
+        header.putShort((short) record.resolution);
+        header.putInt((int) crc.getValue());
+        header.flip();
+    }
+    
+    private void rotate() throws IOException {
+        closeFile();
+        File file;
+        synchronized (this) {
+            ensureIndex();
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Cannot create directory " + directory);
+            file = new File(directory, String.format("%s%05d%s", FILE_PREFIX, nextFileNumber++, FILE_SUFFIX));
+            files.add(file);
+            while (files.size() > maxFiles)
+                delete(files.remove(0));
+        }
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        channel = access.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining())
+            channel.write(header);
+        currentFile = file;
+        currentSize = FILE_HEADER_SIZE;
+    }
+    
+    private void delete(File file) {
+        file.delete();
+        Iterator<Location> locations = index.values().iterator();
+        while (locations.hasNext()) {
+            if (locations.next().file.equals(file))
+                locations.remove();
+        }
+    }
+    
+    private void sync() {
+        if (channel == null)
+            return;
+        try {
+            channel.force(false);
+        }
+        catch (IOException e) {
+            // Written records are still there once the OS flushes them
+        }
+    }
+    
+    private void closeFile() {
+        if (channel == null)
+            return;
+        sync();
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+        }
+        channel = null;
+        currentFile = null;
+    }
+    
+    private static Record readRecord(FileChannel channel, ByteBuffer header, long position, boolean withImage) throws IOException {
+        header.clear();
+        try {
+            readFully(channel, header, position);
+        }
+        catch (EOFException e) {
+            return null;
+        }
+        int length = header.getInt(0);
+        if (length < RECORD_HEADER_SIZE)
+            return null;
+        int kind = (header.get(20) & 0xff) & ~ENCODED_FLAG;
+        if (kind >= Kind.values().length)
+            return null;
+        int width = header.getShort(24) & 0xffff;
+        int height = header.getShort(26) & 0xffff;
+        byte[] image = null;
+        if (withImage) {
+            byte[] payload = new byte[length - RECORD_HEADER_SIZE];
+            try {
+                readFully(channel, ByteBuffer.wrap(payload), position + 4 + RECORD_HEADER_SIZE);
+            }
+            catch (EOFException e) {
+                return null;
+            }
+            if ((header.get(20) & ENCODED_FLAG) != 0) {
+                image = new byte[width * height];
+                try {
+                    new GreyscaleCodec().decode(payload, 0, payload.length, image);
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt capture record at " + position + ": " + e.getMessage());
+                }
+            }
+            else {
+                image = payload;
+            }
+            if ((int) CalibrationStore.checksum(image) != header.getInt(30))
+                throw new IOException("Capture record checksum mismatch at " + position);
+        }
+        return new Record(header.getLong(4), header.getLong(12), Kind.values()[kind], header.get(21), header.getShort(22),
+          width, height, header.getShort(28) & 0xffff, image);
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException();
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.nextbiometrics.sample;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide latency histograms of the capture phases and of the test commands.
+ * <p>
+ * Callers take a {@link System#nanoTime()} stamp when a phase starts and pass it to
+ * {@link #record} when it ends. The snapshot can be shown as text, exported as JSON
+ * or in a compact binary form ({@link #writeBinary}) to compare terminals.
+ */
+public class CaptureMetrics {
+    
+    public enum Phase {
+        CONNECT,
+        SESSION_OPEN,
+        CALIBRATION_UPLOAD,
+        FIRST_PREVIEW,
+        PREVIEW_INTERVAL,
+        PRE_SCREEN,
+        NFIQ,
+        BITMAP_CONVERSION,
+        PREVIEW_CONVERSION,
+        FINAL_SCAN,
+        UI_RENDER,
+        FRAME_TO_GLASS,
+        TEMPLATE_EXTRACTION,
+        IDENTIFICATION,
+        STARTUP_FIRST_FRAME,
+        STARTUP_LIBRARY_READY,
+        STARTUP_DEVICE_READY,
+        PRESENCE_POLL,
+        PRESENCE_TRIGGER,
+        CHECKOUT_CARD,
+        CHECKOUT_FINGERPRINT,
+        CHECKOUT,
+        BARCODE_DECODE
+    }
+    
+    static final String EXPORT_NAME = "capture_metrics";
+    static final int BINARY_MAGIC = 0x4E424D54;
+    static final int BINARY_VERSION = 1;
+    
+    private static CaptureMetrics instance;
+    
+    private final LatencyHistogram[]                          phases = new LatencyHistogram[Phase.values().length];
+    private final ConcurrentMap<String, LatencyHistogram>     commands = new ConcurrentHashMap<String, LatencyHistogram>();
+    private volatile long                                     startedMillis = System.currentTimeMillis();
+    
+    public static synchronized CaptureMetrics getInstance() {
+        if (instance == null) {
+            instance = new CaptureMetrics();
+        }
+        return instance;
+    }
+    
+    public CaptureMetrics() {
+        for (int i = 0; i < phases.length; i++)
+            phases[i] = new LatencyHistogram();
+    }
+    
+    public void record(Phase phase, long startNanos) {
+        phases[phase.ordinal()].recordSince(startNanos);
+    }
+    
+    public void recordCommand(String command, long startNanos) {
+        getCommand(command).recordSince(startNanos);
+    }
+    
+    public LatencyHistogram get(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+    
+    public LatencyHistogram getCommand(String command) {
+        LatencyHistogram histogram = commands.get(command);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = commands.putIfAbsent(command, created);
+            if (histogram == null)
+                histogram = created;
+        }
+        return histogram;
+    }
+    
+    public void reset() {
+        for (LatencyHistogram histogram : phases)
+            histogram.reset();
+        commands.clear();
+        startedMillis = System.currentTimeMillis();
+    }
+    
+    /**
+     * One line per phase or command that has values: count, p50, p99 and max in milliseconds.
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%-20s %6s %9s %9s %9s\n", "phase", "count", "p50 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> entry : snapshot().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0)
+                continue;
+            builder.append(String.format(Locale.US, "%-20s %6d %9.2f %9.2f %9.2f\n", entry.getKey(), histogram.getCount(),
+              histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0, histogram.getMax() / 1000.0));
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * @param terminal identifies the terminal in the export, e.g. model and sensor serial number
+     */
+    public String toJson(String terminal) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"terminal\":\"").append(escape(terminal)).append('"');
+        builder.append(",\"since\":").append(startedMillis);
+        builder.append(",\"exported\":").append(System.currentTimeMillis());
+        builder.append(",\"unit\":\"us\",\"phases\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : snapshot().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0)
+                continue;
+            if (!first)
+                builder.append(',');
+            first = false;
+            builder.append('"').append(escape(entry.getKey())).append("\":{")
+              .append("\"count\":").append(histogram.getCount())
+              .append(",\"mean\":").append(Math.round(histogram.getMean()))
+              .append(",\"min\":").append(histogram.getMin())
+              .append(",\"p50\":").append(histogram.getValueAtPercentile(50))
+              .append(",\"p90\":").append(histogram.getValueAtPercentile(90))
+              .append(",\"p99\":").append(histogram.getValueAtPercentile(99))
+              .append(",\"max\":").append(histogram.getMax())
+              .append('}');
+        }
+        builder.append("}}");
+        return builder.toString();
+    }
+    
+    /**
+     * Writes every histogram with its full bucket counts, so exports of several
+     * terminals can be merged and queried for any percentile later.
+     */
+    public void writeBinary(String terminal, OutputStream stream) throws IOException {
+        Map<String, LatencyHistogram> snapshot = snapshot();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(BINARY_MAGIC);
+        out.writeByte(BINARY_VERSION);
+        out.writeUTF(terminal);
+        out.writeLong(startedMillis);
+        out.writeShort(snapshot.size());
+        for (Map.Entry<String, LatencyHistogram> entry : snapshot.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+        out.flush();
+    }
+    
+    public byte[] toBinary(String terminal) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBinary(terminal, out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Writes {@code capture_metrics.json} and {@code capture_metrics.bin} into the directory.
+     *
+     * @return the written files
+     */
+    public File[] export(File directory, String terminal) throws IOException {
+        File json = new File(directory, EXPORT_NAME + ".json");
+        File binary = new File(directory, EXPORT_NAME + ".bin");
+        CalibrationStore.writeAtomically(json, toJson(terminal).getBytes("UTF-8"));
+        CalibrationStore.writeAtomically(binary, toBinary(terminal));
+        return new File[] { json, binary };
+    }
+    
+    /**
+     * Reads the histograms written by {@link #writeBinary}, keyed by phase or command name.
+     */
+    public static Map<String, LatencyHistogram> readBinary(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != BINARY_MAGIC)
+            throw new IOException("Not a metrics export");
+        int version = in.readUnsignedByte();
+        if (version != BINARY_VERSION)
+            throw new IOException("Unsupported metrics version " + version);
+        in.readUTF();
+        in.readLong();
+        int size = in.readUnsignedShort();
+        Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        for (int i = 0; i < size; i++) {
+            String name = in.readUTF();
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.readFrom(in);
+            histograms.put(name, histogram);
+        }
+        return histograms;
+    }
+    
+    private Map<String, LatencyHistogram> snapshot() {
+        Map<String, LatencyHistogram> snapshot = new LinkedHashMap<String, LatencyHistogram>();
+        for (Phase phase : Phase.values())
+            snapshot.put(phase.name(), phases[phase.ordinal()]);
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(commands).entrySet())
+            snapshot.put("command:" + entry.getKey(), entry.getValue());
+        return snapshot;
+    }
+    
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                builder.append('\\').append(c);
+            else if (c < 0x20)
+                builder.append(String.format(Locale.US, "\\u%04x", (int) c));
+            else
+                builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package com.nextbiometrics.sample;
+
+/**
+ * The payment card operations a checkout uses.
+ * <p>
+ * {@link ZcsCardReader} runs them on the card reader and EMV kernel of the terminal,
+ * while {@link SimulatedCardReader} stands in for them so a checkout can run without
+ * the terminal SDK.
+ */
+public interface CardReader {
+    
+    /**
+     * Clears the cancel of the previous transaction, called before the next
+     * {@link #transact} may be cancelled. {@link #transact} never clears it itself, so
+     * a cancel arriving before it starts is not lost.
+     */
+    void reset();
+    
+    /**
+     * Waits for a card to be inserted, tapped or swiped and runs the EMV transaction
+     * with it. Blocks until the transaction is finished.
+     *
+     * @param amount        authorised amount in the smallest currency unit
+     * @param timeoutMillis time to wait for the card and the transaction
+     * @throws java.util.concurrent.CancellationException if {@link #cancel} was called
+     *         after the last {@link #reset}
+     * @throws java.util.concurrent.TimeoutException if no card was presented in time
+     */
+    CardResult transact(long amount, long timeoutMillis) throws Exception;
+    
+    /**
+     * Stops a running {@link #transact}, or the next one if it has not started yet.
+     * May be called from any thread.
+     */
+    void cancel();
+}
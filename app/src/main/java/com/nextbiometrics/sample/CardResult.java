@@ -0,0 +1,63 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Outcome of a {@link CardReader} transaction.
+ */
+public final class CardResult {
+    
+    public enum Entry {
+        CONTACT,
+        CONTACTLESS,
+        MAGSTRIPE
+    }
+    
+    // Value of EmvResult.EMV_OK, kept here so the result does not need the EMV SDK
+    public static final int EMV_OK = 0;
+    
+    private final int       emvResult;
+    private final Entry     entry;
+    private final String    maskedPan;
+    
+    /**
+     * @param emvResult one of the {@code EmvResult} codes of the EMV kernel
+     * @param maskedPan card number with all but the last four digits masked
+     */
+    public CardResult(int emvResult, Entry entry, String maskedPan) {
+        this.emvResult = emvResult;
+        this.entry = entry;
+        this.maskedPan = maskedPan;
+    }
+    
+    public int getEmvResult() {
+        return emvResult;
+    }
+    
+    public boolean isApproved() {
+        return emvResult == EMV_OK;
+    }
+    
+    public Entry getEntry() {
+        return entry;
+    }
+    
+    public String getMaskedPan() {
+        return maskedPan;
+    }
+    
+    /**
+     * Masks all but the last four digits of a card number.
+     */
+    public static String mask(String pan) {
+        if (pan == null)
+            return null;
+        StringBuilder builder = new StringBuilder(pan.length());
+        for (int i = 0; i < pan.length(); i++)
+            builder.append(i < pan.length() - 4 ? '*' : pan.charAt(i));
+        return builder.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return entry + " " + maskedPan + (isApproved() ? " approved" : " EMV result " + emvResult);
+    }
+}
@@ -0,0 +1,372 @@
+package com.nextbiometrics.sample;
+
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * Runs the card transaction and the fingerprint capture of a checkout at the same
+ * time instead of one after the other.
+ * <p>
+ * The card leg runs on the card reader thread of the orchestrator, the fingerprint leg
+ * in the scan lane of the {@link DeviceCommandExecutor}. Both share one deadline: each
+ * leg is given the time left as its own timeout, and when the deadline passes the
+ * checkout fails with {@link Outcome.Status#TIMED_OUT} and both legs are cancelled. A
+ * leg that fails cancels the other one right away, there is no point in waiting for a
+ * fingerprint of a declined card. The {@link Outcome} is delivered as soon as it is
+ * known, a cancelled leg may still be winding down.
+ * <p>
+ * The time of each leg and of the whole checkout is recorded in {@link CaptureMetrics}
+ * as {@link CaptureMetrics.Phase#CHECKOUT_CARD}, {@link CaptureMetrics.Phase#CHECKOUT_FINGERPRINT}
+ * and {@link CaptureMetrics.Phase#CHECKOUT}.
+ */
+public class CheckoutOrchestrator {
+    
+    public enum Leg {
+        CARD,
+        FINGERPRINT
+    }
+    
+    /**
+     * How a checkout ended and how long each leg took.
+     */
+    public static final class Outcome {
+        
+        public enum Status {
+            SUCCEEDED,
+            FAILED,
+            TIMED_OUT,
+            CANCELLED
+        }
+        
+        private final Status        status;
+        private final Leg           failedLeg;
+        private final Throwable     error;
+        private final CardResult    cardResult;
+        private final ScanResult    scanResult;
+        private final long          cardMillis;
+        private final long          fingerprintMillis;
+        private final long          totalMillis;
+        
+        Outcome(Status status, Leg failedLeg, Throwable error, CardResult cardResult, ScanResult scanResult,
+          long cardMillis, long fingerprintMillis, long totalMillis) {
+            this.status = status;
+            this.failedLeg = failedLeg;
+            this.error = error;
+            this.cardResult = cardResult;
+            this.scanResult = scanResult;
+            this.cardMillis = cardMillis;
+            this.fingerprintMillis = fingerprintMillis;
+            this.totalMillis = totalMillis;
+        }
+        
+        public Status getStatus() {
+            return status;
+        }
+        
+        /**
+         * The leg that failed first, {@code null} unless the status is {@link Status#FAILED}.
+         */
+        public Leg getFailedLeg() {
+            return failedLeg;
+        }
+        
+        public Throwable getError() {
+            return error;
+        }
+        
+        /**
+         * {@code null} if the card leg did not finish.
+         */
+        public CardResult getCardResult() {
+            return cardResult;
+        }
+        
+        /**
+         * {@code null} if the fingerprint leg did not finish.
+         */
+        public ScanResult getScanResult() {
+            return scanResult;
+        }
+        
+        /**
+         * Time the card leg took, -1 if it did not finish.
+         */
+        public long getCardMillis() {
+            return cardMillis;
+        }
+        
+        /**
+         * Time the fingerprint leg took, -1 if it did not finish.
+         */
+        public long getFingerprintMillis() {
+            return fingerprintMillis;
+        }
+        
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(status);
+            if (failedLeg != null)
+                builder.append(' ').append(failedLeg);
+            if (error != null)
+                builder.append(": ").append(error.getMessage());
+            builder.append(String.format(Locale.US, ", card %d ms, fingerprint %d ms, checkout %d ms", cardMillis, fingerprintMillis, totalMillis));
+            if (cardResult != null)
+                builder.append(", ").append(cardResult);
+            return builder.toString();
+        }
+    }
+    
+    private final CardReader                cardReader;
+    private final BiometricDevice           device;
+    private final DeviceCommandExecutor     commands;
+    private final ExecutorService           cardThread;
+    private final ScheduledExecutorService  deadlines;
+    
+    public CheckoutOrchestrator(CardReader cardReader, BiometricDevice device, DeviceCommandExecutor commands) {
+        this.cardReader = cardReader;
+        this.device = device;
+        this.commands = commands;
+        this.cardThread = Executors.newSingleThreadExecutor(DaemonThreads.named("CardReader"));
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("CheckoutDeadline"));
+    }
+    
+    /**
+     * Starts both legs of a checkout.
+     *
+     * @param amount         authorised amount in the smallest currency unit
+     * @param format         format of the fingerprint capture
+     * @param deadlineMillis time from now until the checkout fails with {@link Outcome.Status#TIMED_OUT}
+     * @return the outcome, cancelling it cancels both legs
+     */
+    public DeviceFuture<Outcome> start(long amount, NBDeviceScanFormatInfo format, long deadlineMillis) {
+        Checkout checkout = new Checkout(deadlineMillis);
+        checkout.start(amount, format);
+        return checkout.outcome;
+    }
+    
+    /**
+     * Stops the card reader thread, a running card leg is cancelled.
+     */
+    public void shutdown() {
+        cardReader.cancel();
+        cardThread.shutdownNow();
+        deadlines.shutdownNow();
+    }
+    
+    /**
+     * State of one checkout, guarded by its monitor.
+     */
+    private class Checkout {
+        private final DeviceFuture<Outcome> outcome = new DeviceFuture<Outcome>();
+        private final long                  startNanos = System.nanoTime();
+        private final long                  deadlineNanos;
+        private ScheduledFuture<?>          deadline;
+        private DeviceFuture<ScanResult>    scan;
+        private boolean                     cardStarted;
+        private volatile boolean            scanning;
+        private CardResult                  cardResult;
+        private ScanResult                  scanResult;
+        private long                        cardNanos = -1;
+        private long                        fingerprintNanos = -1;
+        private boolean                     finished;
+        
+        Checkout(long deadlineMillis) {
+            deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        }
+        
+        void start(final long amount, final NBDeviceScanFormatInfo format) {
+            outcome.whenDone(new DeviceFuture.Callback<Outcome>() {
+                @Override
+                public void onSuccess(Outcome result) {
+                }
+                
+                @Override
+                public void onFailure(Throwable error) {
+                    // Only cancel gets here, the outcome is never failed otherwise
+                    finish(Outcome.Status.CANCELLED, null, error);
+                }
+            });
+            synchronized (this) {
+                deadline = deadlines.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(Outcome.Status.TIMED_OUT, null, new TimeoutException("Checkout deadline passed"));
+                    }
+                }, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            cardThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runCard(amount);
+                }
+            });
+            DeviceFuture<ScanResult> scan = commands.submit(DeviceCommandExecutor.Lane.SCAN, new DeviceCommandExecutor.Command<ScanResult>() {
+                @Override
+                public ScanResult run() {
+                    synchronized (Checkout.this) {
+                        if (finished)
+                            throw new CancellationException("Checkout already finished");
+                        scanning = true;
+                    }
+                    try {
+                        return device.scanEx(format, (int) remainingMillis(), null);
+                    }
+                    finally {
+                        scanning = false;
+                    }
+                }
+            });
+            boolean finishedAlready;
+            synchronized (this) {
+                this.scan = scan;
+                finishedAlready = finished;
+            }
+            // The card leg may have ended the checkout before the scan was known to finish()
+            if (finishedAlready)
+                cancelScan(scan);
+            scan.whenDone(new DeviceFuture.Callback<ScanResult>() {
+                @Override
+                public void onSuccess(ScanResult result) {
+                    if (result.getStatus() == NBDeviceScanStatus.OK)
+                        fingerprintDone(result);
+                    else if (result.getStatus() == NBDeviceScanStatus.TIMEOUT)
+                        fail(Leg.FINGERPRINT, new TimeoutException("Fingerprint scan timed out"));
+                    else
+                        fail(Leg.FINGERPRINT, new IllegalStateException("Fingerprint scan ended with " + result.getStatus()));
+                }
+                
+                @Override
+                public void onFailure(Throwable error) {
+                    fail(Leg.FINGERPRINT, error);
+                }
+            });
+        }
+        
+        private long remainingMillis() {
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+        }
+        
+        private void runCard(long amount) {
+            synchronized (this) {
+                if (finished)
+                    return;
+                // Before finish() can see the leg started, so its cancel is never cleared
+                cardReader.reset();
+                cardStarted = true;
+            }
+            CardResult result;
+            try {
+                result = cardReader.transact(amount, remainingMillis());
+            }
+            catch (Throwable e) {
+                fail(Leg.CARD, e);
+                return;
+            }
+            if (result.isApproved())
+                cardDone(result);
+            else
+                fail(Leg.CARD, new IllegalStateException("Card declined: " + result));
+        }
+        
+        private void cardDone(CardResult result) {
+            boolean complete;
+            synchronized (this) {
+                if (finished)
+                    return;
+                cardResult = result;
+                cardNanos = System.nanoTime() - startNanos;
+                complete = scanResult != null;
+            }
+            if (complete)
+                finish(Outcome.Status.SUCCEEDED, null, null);
+        }
+        
+        private void fingerprintDone(ScanResult result) {
+            boolean complete;
+            synchronized (this) {
+                if (finished)
+                    return;
+                scanResult = result;
+                fingerprintNanos = System.nanoTime() - startNanos;
+                complete = cardResult != null;
+            }
+            if (complete)
+                finish(Outcome.Status.SUCCEEDED, null, null);
+        }
+        
+        private void fail(Leg leg, Throwable error) {
+            // The legs time out with the time left, that is the joint deadline passing
+            if (error instanceof TimeoutException)
+                finish(Outcome.Status.TIMED_OUT, null, error);
+            else
+                finish(Outcome.Status.FAILED, leg, error);
+        }
+        
+        /**
+         * Ends the checkout once, cancels what is still running and delivers the outcome.
+         */
+        private void finish(Outcome.Status status, Leg failedLeg, Throwable error) {
+            Outcome result;
+            long totalNanos = System.nanoTime() - startNanos;
+            boolean cancelCard;
+            DeviceFuture<ScanResult> cancelScan;
+            synchronized (this) {
+                if (finished)
+                    return;
+                finished = true;
+                if (deadline != null)
+                    deadline.cancel(false);
+                cancelCard = cardStarted && cardResult == null;
+                cancelScan = scanResult == null && scan != null ? scan : null;
+                result = new Outcome(status, failedLeg, error, cardResult, scanResult, toMillis(cardNanos), toMillis(fingerprintNanos),
+                  toMillis(totalNanos));
+            }
+            if (cancelCard)
+                cardReader.cancel();
+            if (cancelScan != null)
+                cancelScan(cancelScan);
+            CaptureMetrics metrics = CaptureMetrics.getInstance();
+            if (cardNanos >= 0)
+                metrics.get(CaptureMetrics.Phase.CHECKOUT_CARD).record(cardNanos / 1000);
+            if (fingerprintNanos >= 0)
+                metrics.get(CaptureMetrics.Phase.CHECKOUT_FINGERPRINT).record(fingerprintNanos / 1000);
+            if (status == Outcome.Status.SUCCEEDED)
+                metrics.get(CaptureMetrics.Phase.CHECKOUT).record(totalNanos / 1000);
+            outcome.complete(result);
+        }
+        
+        private void cancelScan(DeviceFuture<ScanResult> scan) {
+            // Drops the scan if it is still queued, a running one is stopped from the control lane
+            scan.cancel(false);
+            commands.submit(DeviceCommandExecutor.Lane.CONTROL, new DeviceCommandExecutor.Command<Void>() {
+                @Override
+                public Void run() throws InterruptedException {
+                    // The scan command may be past its check of finished but not in scanEx yet
+                    while (scanning && !device.isScanRunning())
+                        Thread.sleep(1);
+                    if (scanning)
+                        device.cancelScan();
+                    return null;
+                }
+            });
+        }
+    }
+    
+    private static long toMillis(long nanos) {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
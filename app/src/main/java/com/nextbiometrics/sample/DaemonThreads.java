@@ -0,0 +1,27 @@
+package com.nextbiometrics.sample;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the background threads of the sample. They are daemon threads
+ * so none of them keeps the process alive.
+ */
+final class DaemonThreads {
+    
+    private DaemonThreads() {
+    }
+    
+    /**
+     * A factory whose threads are all named {@code name}.
+     */
+    static ThreadFactory named(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,219 @@
+package com.nextbiometrics.sample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Owns the thread that talks to the sensor.
+ * <p>
+ * Device calls are submitted as {@link Command}s into one of the {@link Lane}s. All
+ * lanes except {@link Lane#CONTROL} share a single device thread and are served in
+ * lane order, first come first served within a lane, so a status request queued
+ * behind a scan runs as soon as the device thread is free. Control commands (cancel)
+ * run right away on their own thread, as they have to reach the SDK while a long
+ * {@code scanEx} keeps the device thread busy.
+ * <p>
+ * A command submitted with a key is coalesced with a command of the same key that
+ * has not started yet: both callers get the same future. A command with a timeout
+ * fails with {@link TimeoutException} if it is not finished in time after it was
+ * submitted; a queued command is then dropped, a running one is told through
+ * {@link Command#onTimeout}.
+ */
+public class DeviceCommandExecutor {
+    
+    public enum Lane {
+        CONTROL,
+        STATUS,
+        COMMAND,
+        SCAN
+    }
+    
+    public static abstract class Command<T> {
+        public abstract T run() throws Exception;
+        
+        /**
+         * Called on the control thread when the command timed out while running.
+         * Commands which can be interrupted, e.g. by {@code cancelScan}, do it here.
+         */
+        public void onTimeout() {
+        }
+    }
+    
+    private static DeviceCommandExecutor instance;
+    
+    private final PriorityBlockingQueue<Task<?>>    queue = new PriorityBlockingQueue<Task<?>>();
+    private final Map<String, Task<?>>              pending = new HashMap<String, Task<?>>();
+    private final ScheduledExecutorService          control;
+    private final Thread                            deviceThread;
+    private long                                    sequence;
+    private volatile boolean                        shutdown;
+    
+    public static synchronized DeviceCommandExecutor getInstance() {
+        if (instance == null) {
+            instance = new DeviceCommandExecutor();
+        }
+        return instance;
+    }
+    
+    public DeviceCommandExecutor() {
+        control = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("DeviceControl"));
+        deviceThread = DaemonThreads.named("DeviceCommands").newThread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        });
+        deviceThread.start();
+    }
+    
+    public <T> DeviceFuture<T> submit(Lane lane, Command<T> command) {
+        return submit(lane, null, 0, command);
+    }
+    
+    /**
+     * @param key           coalesces with a queued command of the same key, {@code null} never coalesces
+     * @param timeoutMillis time from now until the command fails, 0 for none
+     */
+    @SuppressWarnings("unchecked")
+    public <T> DeviceFuture<T> submit(Lane lane, String key, long timeoutMillis, Command<T> command) {
+        final Task<T> task;
+        synchronized (this) {
+            if (shutdown)
+                return DeviceFuture.failed(new CancellationException("Executor shut down"));
+            if (key != null) {
+                Task<?> queued = pending.get(key);
+                if (queued != null && !queued.future.isDone())
+                    return (DeviceFuture<T>) queued.future;
+            }
+            task = new Task<T>(lane, sequence++, key, command);
+            if (key != null)
+                pending.put(key, task);
+        }
+        if (timeoutMillis > 0) {
+            task.timeout = control.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timeout(task);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (lane == Lane.CONTROL)
+            control.execute(task);
+        else
+            queue.add(task);
+        return task.future;
+    }
+    
+    public boolean isDeviceThread() {
+        return Thread.currentThread() == deviceThread;
+    }
+    
+    /**
+     * Number of commands waiting for the device thread.
+     */
+    public int getQueueLength() {
+        return queue.size();
+    }
+    
+    /**
+     * Stops the device thread once the running command returns. Queued commands are cancelled.
+     */
+    public void shutdown() {
+        List<Task<?>> dropped = new ArrayList<Task<?>>();
+        synchronized (this) {
+            shutdown = true;
+            pending.clear();
+        }
+        queue.drainTo(dropped);
+        for (Task<?> task : dropped)
+            task.future.cancel(false);
+        deviceThread.interrupt();
+        control.shutdown();
+    }
+    
+    private void loop() {
+        while (!shutdown) {
+            Task<?> task;
+            try {
+                task = queue.take();
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            task.run();
+        }
+    }
+    
+    private void timeout(Task<?> task) {
+        boolean running;
+        synchronized (this) {
+            running = task.started;
+            if (!running)
+                forget(task);
+        }
+        if (!running)
+            queue.remove(task);
+        if (task.future.fail(new TimeoutException(task.lane + " command timed out")) && running)
+            task.command.onTimeout();
+    }
+    
+    private void forget(Task<?> task) {
+        if (task.key != null && pending.get(task.key) == task)
+            pending.remove(task.key);
+    }
+    
+    private final class Task<T> implements Runnable, Comparable<Task<?>> {
+        final Lane                  lane;
+        final long                  sequence;
+        final String                key;
+        final Command<T>            command;
+        final DeviceFuture<T>       future = new DeviceFuture<T>();
+        volatile ScheduledFuture<?> timeout;
+        boolean                     started;
+        
+        Task(Lane lane, long sequence, String key, Command<T> command) {
+            this.lane = lane;
+            this.sequence = sequence;
+            this.key = key;
+            this.command = command;
+        }
+        
+        @Override
+        public void run() {
+            synchronized (DeviceCommandExecutor.this) {
+                forget(this);
+                // Cancelled or timed out while queued
+                if (future.isDone())
+                    return;
+                started = true;
+            }
+            try {
+                future.complete(command.run());
+            }
+            catch (Throwable e) {
+                future.fail(e);
+            }
+            finally {
+                ScheduledFuture<?> pendingTimeout = timeout;
+                if (pendingTimeout != null)
+                    pendingTimeout.cancel(false);
+            }
+        }
+        
+        @Override
+        public int compareTo(Task<?> other) {
+            if (lane != other.lane)
+                return lane.compareTo(other.lane);
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.nextbiometrics.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of a command run by {@link DeviceCommandExecutor}.
+ * <p>
+ * Besides blocking {@link #get}, callbacks can be attached with {@link #whenDone} and
+ * results transformed with {@link #then}, which is what activities use to get back
+ * to the UI thread. A future completes exactly once; cancelling it does not stop a
+ * device call that is already running, see {@link DeviceCommandExecutor.Command#onTimeout}.
+ */
+public class DeviceFuture<T> implements Future<T> {
+    
+    public interface Callback<T> {
+        void onSuccess(T result);
+        
+        void onFailure(Throwable error);
+    }
+    
+    public interface Transform<T, R> {
+        R apply(T value) throws Exception;
+    }
+    
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    
+    private boolean          done;
+    private boolean          cancelled;
+    private T                result;
+    private Throwable        error;
+    private List<Runnable>   listeners = new ArrayList<Runnable>();
+    
+    public static <T> DeviceFuture<T> completed(T value) {
+        DeviceFuture<T> future = new DeviceFuture<T>();
+        future.complete(value);
+        return future;
+    }
+    
+    public static <T> DeviceFuture<T> failed(Throwable error) {
+        DeviceFuture<T> future = new DeviceFuture<T>();
+        future.fail(error);
+        return future;
+    }
+    
+    /**
+     * @return {@code false} if the future was already done
+     */
+    public boolean complete(T value) {
+        return finish(value, null, false);
+    }
+    
+    public boolean fail(Throwable error) {
+        return finish(null, error, false);
+    }
+    
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException(), true);
+    }
+    
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+    
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+    
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!done)
+            wait();
+        return report();
+    }
+    
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long remaining;
+        while (!done) {
+            if ((remaining = deadline - System.nanoTime()) <= 0)
+                throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+    
+    /**
+     * Calls the callback on {@code executor} once the future is done, right away if it
+     * already is.
+     */
+    public void whenDone(final Callback<? super T> callback, Executor executor) {
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                T value;
+                Throwable failure;
+                synchronized (DeviceFuture.this) {
+                    value = result;
+                    failure = error;
+                }
+                if (failure != null)
+                    callback.onFailure(failure);
+                else
+                    callback.onSuccess(value);
+            }
+        }, executor);
+    }
+    
+    public void whenDone(Callback<? super T> callback) {
+        whenDone(callback, DIRECT);
+    }
+    
+    /**
+     * Future of {@code transform} applied to the result, on the thread that completed
+     * this one. Failures and cancellation are passed on unchanged, and cancelling the
+     * returned future cancels this one too.
+     */
+    public <R> DeviceFuture<R> then(final Transform<? super T, ? extends R> transform) {
+        final DeviceFuture<R> next = new DeviceFuture<R>();
+        next.whenDone(new Callback<R>() {
+            @Override
+            public void onSuccess(R value) {
+            }
+            
+            @Override
+            public void onFailure(Throwable error) {
+                if (next.isCancelled())
+                    cancel(false);
+            }
+        });
+        whenDone(new Callback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                try {
+                    next.complete(transform.apply(value));
+                }
+                catch (Throwable e) {
+                    next.fail(e);
+                }
+            }
+            
+            @Override
+            public void onFailure(Throwable error) {
+                if (error instanceof CancellationException)
+                    next.cancel(false);
+                else
+                    next.fail(error);
+            }
+        });
+        return next;
+    }
+    
+    private void addListener(final Runnable listener, final Executor executor) {
+        Runnable dispatch = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized (this) {
+            if (!done) {
+                listeners.add(dispatch);
+                return;
+            }
+        }
+        dispatch.run();
+    }
+    
+    private boolean finish(T value, Throwable failure, boolean cancel) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (done)
+                return false;
+            done = true;
+            cancelled = cancel;
+            result = value;
+            error = failure;
+            toRun = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Runnable listener : toRun)
+            listener.run();
+        return true;
+    }
+    
+    private T report() throws ExecutionException {
+        if (cancelled)
+            throw new CancellationException();
+        if (error != null)
+            throw new ExecutionException(error);
+        return result;
+    }
+}
@@ -1,11 +1,17 @@
 package com.nextbiometrics.sample;
 
 import com.nextbiometrics.devices.NBDevice;
-import com.nextbiometrics.devices.NBDevices;
 
 import java.io.Serializable;
 
 public class DeviceInfo implements Serializable {
+    //z91
+    public static final String DEFAULT_SPI_NAME = "/dev/arafp0";
+    private static final int PIN_OFFSET  = 343;
+    public static final int AWAKE_PIN_NUMBER = PIN_OFFSET + 14;
+    public static final int RESET_PIN_NUMBER = PIN_OFFSET + 13;
+    public static final int CHIP_SELECT_PIN_NUMBER = PIN_OFFSET + 31;
+    
     private String id;
 
     private boolean isSpi;
@@ -31,6 +37,10 @@ public class DeviceInfo implements Serializable {
         this.chipSelectPin = chipSelectPin;
     }
 
+    public static DeviceInfo createDefaultSpi() {
+        return new DeviceInfo(DEFAULT_SPI_NAME, AWAKE_PIN_NUMBER, RESET_PIN_NUMBER, CHIP_SELECT_PIN_NUMBER);
+    }
+    
     public String getId() {
         return id;
     }
@@ -55,28 +65,31 @@ public class DeviceInfo implements Serializable {
         return chipSelectPin;
     }
 
+    void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * The SPI parameters of the last successful connection, or the defaults.
+     */
+    public static DeviceInfo createPreferredSpi() {
+        DeviceInfo lastSpi = DeviceRegistry.getInstance().getLastSpi();
+        return lastSpi != null ? new DeviceInfo(lastSpi.getSpiName(), lastSpi.getAwakePin(), lastSpi.getResetPin(), lastSpi.getChipSelectPin())
+          : createDefaultSpi();
+    }
+
+    /**
+     * Returns the device described by {@code deviceInfo}, see {@link DeviceRegistry#get}.
+     * An SPI {@code deviceInfo} receives the id of the connected device.
+     */
     public static NBDevice getDevice(DeviceInfo deviceInfo) {
-        if (deviceInfo == null || !deviceInfo.isSpi()) {
-            NBDevice[] devices = NBDevices.getDevices();
-            for (NBDevice device : devices) {
-                if (deviceInfo != null && deviceInfo.getId() != null && deviceInfo.getId().equals(device.getId())) {
-                    return device;
-                }
-            }
-            if (devices.length > 0)
-                return devices[0];
-            return null;
-        } else {
-            NBDevice device = NBDevice.connectToSpi(deviceInfo.getSpiName(), deviceInfo.getAwakePin(), deviceInfo.getResetPin(), deviceInfo.getChipSelectPin(), NBDevice.DEVICE_CONNECT_TO_SPI_SKIP_GPIO_INIT_FLAG);
-            // NBDevice device = NBDevice.connectToBluetooth(0);
-            // byte[] defaultAuthId1 = "AUTH1\0".getBytes();
-            // byte[] defaultAuthKey1 = {
-            //     (byte)0xDA, (byte)0x2E, (byte)0x35, (byte)0xB6, (byte)0xCB, (byte)0x96, (byte)0x2B, (byte)0x5F, (byte)0x9F, (byte)0x34, (byte)0x1F, (byte)0xD1, (byte)0x47, (byte)0x41, (byte)0xA0, (byte)0x4D,
-            //     (byte)0xA4, (byte)0x09, (byte)0xCE, (byte)0xE8, (byte)0x35, (byte)0x48, (byte)0x3C, (byte)0x60, (byte)0xFB, (byte)0x13, (byte)0x91, (byte)0xE0, (byte)0x9E, (byte)0x95, (byte)0xB2, (byte)0x7F
-            // };
-            // device.openSession(defaultAuthId1, defaultAuthKey1);
-            deviceInfo.id = device.getId();
-            return device;
-        }
+        // NBDevice device = NBDevice.connectToBluetooth(0);
+        // byte[] defaultAuthId1 = "AUTH1\0".getBytes();
+        // byte[] defaultAuthKey1 = {
+        //     (byte)0xDA, (byte)0x2E, (byte)0x35, (byte)0xB6, (byte)0xCB, (byte)0x96, (byte)0x2B, (byte)0x5F, (byte)0x9F, (byte)0x34, (byte)0x1F, (byte)0xD1, (byte)0x47, (byte)0x41, (byte)0xA0, (byte)0x4D,
+        //     (byte)0xA4, (byte)0x09, (byte)0xCE, (byte)0xE8, (byte)0x35, (byte)0x48, (byte)0x3C, (byte)0x60, (byte)0xFB, (byte)0x13, (byte)0x91, (byte)0xE0, (byte)0x9E, (byte)0x95, (byte)0xB2, (byte)0x7F
+        // };
+        // device.openSession(defaultAuthId1, defaultAuthKey1);
+        return DeviceRegistry.getInstance().get(deviceInfo);
     }
 }
@@ -0,0 +1,302 @@
+package com.nextbiometrics.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.nextbiometrics.devices.NBDevice;
+import com.nextbiometrics.devices.NBDevices;
+
+/**
+ * Connected devices by id, kept up to date by the {@code added} and {@code removed}
+ * events of NBDevices, so looking a device up does not enumerate the bus.
+ * <p>
+ * The bus is only scanned on the first lookup, after {@link #clear}, after a device
+ * was {@link #disposed} and on an explicit {@link #rescan}. Enumerating connects every
+ * device, so the handles a scan or an {@code added} event replaces are disposed
+ * unless a lookup handed them out and they were not disposed yet; the session
+ * holding such a handle disposes it. A device connected over SPI is kept until it
+ * is {@link #disposed}, and the parameters of the last successful SPI connection are
+ * persisted ({@code NBData/spi.properties}) so the next connection, also after
+ * a restart, does not need them from the user.
+ *
+ * @param <D> the device type
+ */
+public class DeviceRegistry<D> {
+    
+    static final String SPI_FILE = "spi.properties";
+    
+    private static final String KEY_NAME = "name";
+    private static final String KEY_AWAKE_PIN = "awakePin";
+    private static final String KEY_RESET_PIN = "resetPin";
+    private static final String KEY_CHIP_SELECT_PIN = "chipSelectPin";
+    
+    interface Bus<D> {
+        List<D> scan();
+        
+        /**
+         * Connects the SPI sensor, throws if there is none.
+         */
+        D connectToSpi(DeviceInfo spi);
+        
+        String getId(D device);
+        
+        void dispose(D device);
+    }
+    
+    private static DeviceRegistry<NBDevice> instance;
+    
+    private final Bus<D>            bus;
+    private final File              spiFile;
+    private final Map<String, D>    devices = new LinkedHashMap<String, D>();
+    private final Map<String, D>    spiDevices = new LinkedHashMap<String, D>();
+    // Handles handed out by get() and not disposed yet
+    private final Set<D>            held = Collections.newSetFromMap(new IdentityHashMap<D, Boolean>());
+    private boolean                 stale = true;
+    private DeviceInfo              lastSpi;
+    private boolean                 lastSpiLoaded;
+    private long                    scanCount;
+    private long                    spiConnectCount;
+    
+    public static synchronized DeviceRegistry<NBDevice> getInstance() {
+        if (instance == null) {
+            instance = new DeviceRegistry<NBDevice>(new NBBus(), new File(CalibrationStore.getInstance().getDirectory(), SPI_FILE));
+        }
+        return instance;
+    }
+    
+    DeviceRegistry(Bus<D> bus, File spiFile) {
+        this.bus = bus;
+        this.spiFile = spiFile;
+    }
+    
+    /**
+     * Looks the device up: the one with the id of {@code deviceInfo} or else the
+     * first one known, the SPI device of {@code deviceInfo} if it describes one.
+     *
+     * @return the device or {@code null} if there is none
+     */
+    public synchronized D get(DeviceInfo deviceInfo) {
+        if (deviceInfo != null && deviceInfo.isSpi())
+            return getSpi(deviceInfo);
+        String id = deviceInfo != null ? deviceInfo.getId() : null;
+        if (stale)
+            scan();
+        D device = id != null ? devices.get(id) : null;
+        if (device == null) {
+            Iterator<D> first = devices.values().iterator();
+            device = first.hasNext() ? first.next() : null;
+        }
+        if (device != null)
+            held.add(device);
+        return device;
+    }
+    
+    private D getSpi(DeviceInfo spi) {
+        String key = spiKey(spi);
+        D device = spiDevices.get(key);
+        if (device == null) {
+            spiConnectCount++;
+            device = bus.connectToSpi(spi);
+            spiDevices.put(key, device);
+            devices.put(bus.getId(device), device);
+            rememberSpi(spi);
+        }
+        spi.setId(bus.getId(device));
+        held.add(device);
+        return device;
+    }
+    
+    /**
+     * Enumerates the bus again, e.g. when an event may have been missed. Devices
+     * connected over SPI are not enumerable and stay until they are forgotten.
+     */
+    public synchronized void rescan() {
+        scan();
+    }
+    
+    private void scan() {
+        scanCount++;
+        List<D> previous = new ArrayList<D>(devices.values());
+        devices.clear();
+        for (D device : bus.scan())
+            devices.put(bus.getId(device), device);
+        for (D device : spiDevices.values())
+            devices.put(bus.getId(device), device);
+        stale = false;
+        for (D device : previous) {
+            if (devices.get(bus.getId(device)) != device)
+                release(device);
+        }
+    }
+    
+    public synchronized void added(D device) {
+        D replaced = devices.put(bus.getId(device), device);
+        if (replaced != null && replaced != device)
+            release(replaced);
+    }
+    
+    public synchronized void removed(String id) {
+        D device = devices.remove(id);
+        removeSpi(id);
+        if (device != null)
+            release(device);
+    }
+    
+    /**
+     * To be called when a device was disposed. The next lookup of an enumerated
+     * device enumerates the bus again, a device connected over SPI is connected
+     * again on its next lookup.
+     */
+    public synchronized void disposed(String id) {
+        Iterator<D> iterator = held.iterator();
+        while (iterator.hasNext()) {
+            if (bus.getId(iterator.next()).equals(id))
+                iterator.remove();
+        }
+        devices.remove(id);
+        if (!removeSpi(id))
+            stale = true;
+    }
+    
+    /**
+     * Drops all devices, to be called when NBDevices is terminated.
+     */
+    public synchronized void clear() {
+        devices.clear();
+        spiDevices.clear();
+        held.clear();
+        stale = true;
+    }
+    
+    /**
+     * Disposes a handle the registry no longer knows, unless a session still holds it.
+     */
+    private void release(D device) {
+        if (!held.contains(device))
+            bus.dispose(device);
+    }
+    
+    private boolean removeSpi(String id) {
+        boolean removed = false;
+        Iterator<D> iterator = spiDevices.values().iterator();
+        while (iterator.hasNext()) {
+            if (bus.getId(iterator.next()).equals(id)) {
+                iterator.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Parameters of the last successful SPI connection, {@code null} if there was none.
+     */
+    public synchronized DeviceInfo getLastSpi() {
+        if (!lastSpiLoaded) {
+            lastSpiLoaded = true;
+            lastSpi = loadSpi();
+        }
+        return lastSpi;
+    }
+    
+    public synchronized int getDeviceCount() {
+        return devices.size();
+    }
+    
+    /**
+     * Number of times the bus was enumerated.
+     */
+    public synchronized long getScanCount() {
+        return scanCount;
+    }
+    
+    public synchronized long getSpiConnectCount() {
+        return spiConnectCount;
+    }
+    
+    private void rememberSpi(DeviceInfo spi) {
+        DeviceInfo last = getLastSpi();
+        if (last != null && spiKey(last).equals(spiKey(spi)))
+            return;
+        lastSpi = new DeviceInfo(spi.getSpiName(), spi.getAwakePin(), spi.getResetPin(), spi.getChipSelectPin());
+        Properties properties = new Properties();
+        properties.setProperty(KEY_NAME, spi.getSpiName());
+        properties.setProperty(KEY_AWAKE_PIN, String.valueOf(spi.getAwakePin()));
+        properties.setProperty(KEY_RESET_PIN, String.valueOf(spi.getResetPin()));
+        properties.setProperty(KEY_CHIP_SELECT_PIN, String.valueOf(spi.getChipSelectPin()));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            properties.store(out, "Last SPI connection");
+            CalibrationStore.writeAtomically(spiFile, out.toByteArray());
+        }
+        catch (IOException e) {
+            // Only costs the default parameters after a restart
+        }
+    }
+    
+    private DeviceInfo loadSpi() {
+        if (!spiFile.exists())
+            return null;
+        Properties properties = new Properties();
+        try {
+            InputStream stream = new FileInputStream(spiFile);
+            try {
+                properties.load(stream);
+            }
+            finally {
+                stream.close();
+            }
+            String name = properties.getProperty(KEY_NAME);
+            if (name == null)
+                return null;
+            return new DeviceInfo(name, Integer.parseInt(properties.getProperty(KEY_AWAKE_PIN)),
+              Integer.parseInt(properties.getProperty(KEY_RESET_PIN)), Integer.parseInt(properties.getProperty(KEY_CHIP_SELECT_PIN)));
+        }
+        catch (IOException e) {
+            return null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private static String spiKey(DeviceInfo spi) {
+        return spi.getSpiName() + ":" + spi.getAwakePin() + ":" + spi.getResetPin() + ":" + spi.getChipSelectPin();
+    }
+    
+    private static final class NBBus implements Bus<NBDevice> {
+        
+        @Override
+        public List<NBDevice> scan() {
+            return Arrays.asList(NBDevices.getDevices());
+        }
+        
+        @Override
+        public NBDevice connectToSpi(DeviceInfo spi) {
+            return NBDevice.connectToSpi(spi.getSpiName(), spi.getAwakePin(), spi.getResetPin(), spi.getChipSelectPin(), NBDevice.DEVICE_CONNECT_TO_SPI_SKIP_GPIO_INIT_FLAG);
+        }
+        
+        @Override
+        public String getId(NBDevice device) {
+            return device.getId();
+        }
+        
+        @Override
+        public void dispose(NBDevice device) {
+            device.dispose();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.nextbiometrics.sample;
+
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.nextbiometrics.devices.NBDevice;
+import com.nextbiometrics.devices.NBDeviceState;
+
+/**
+ * Process wide owner of the open {@link BiometricDevice}.
+ * <p>
+ * Activities lease the device instead of disposing and reconnecting it on every
+ * screen transition, so the session and the uploaded calibration blob survive the
+ * handoff from {@link MainActivity} to {@link CaptureActivity}.
+ * <p>
+ * Opening and closing the device are device calls like any other: leases are taken
+ * on the command lane of the {@link DeviceCommandExecutor}, and idle and invalidated
+ * devices are closed on it.
+ */
+public class DeviceSessionManager {
+    
+    private static final String TAG = "DeviceSessionManager";
+    static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    
+    private static DeviceSessionManager instance;
+    
+    private final SessionPool<DeviceInfo, BiometricDevice> pool;
+    
+    public static synchronized DeviceSessionManager getInstance() {
+        if (instance == null) {
+            instance = new DeviceSessionManager();
+        }
+        return instance;
+    }
+    
+    private DeviceSessionManager() {
+        pool = new SessionPool<DeviceInfo, BiometricDevice>(new NBDeviceFactory(),
+          Executors.newSingleThreadScheduledExecutor(DaemonThreads.named(TAG)), new Executor() {
+              @Override
+              public void execute(Runnable command) {
+                  submit(command);
+              }
+          }, IDLE_TIMEOUT_MILLIS);
+    }
+    
+    /**
+     * Leases the device described by {@code deviceInfo}, or any device if it is {@code null}.
+     * Connects and opens a session if needed, so call it from a command on the
+     * {@link DeviceCommandExecutor.Lane#COMMAND} lane.
+     *
+     * @return the lease, or {@code null} if no device is connected
+     */
+    public SessionPool.Lease<BiometricDevice> acquire(DeviceInfo deviceInfo) {
+        try {
+            return pool.acquire(deviceInfo);
+        }
+        catch (NoDeviceException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Drops the open device, to be called when it was removed. The device is closed
+     * after the commands already queued.
+     */
+    public void invalidate() {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                pool.invalidate();
+            }
+        });
+    }
+    
+    public BiometricDevice peek() {
+        return pool.peek();
+    }
+    
+    private static void submit(final Runnable runnable) {
+        DeviceCommandExecutor.getInstance().submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+            @Override
+            public Void run() {
+                runnable.run();
+                return null;
+            }
+        });
+    }
+    
+    private static final class NoDeviceException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    private static final class NBDeviceFactory implements SessionPool.Factory<DeviceInfo, BiometricDevice> {
+        
+        @Override
+        public BiometricDevice open(DeviceInfo deviceInfo) {
+            CaptureMetrics metrics = CaptureMetrics.getInstance();
+            long start = System.nanoTime();
+            NBDevice nbDevice = DeviceInfo.getDevice(deviceInfo);
+            if (nbDevice == null)
+                throw new NoDeviceException();
+            metrics.record(CaptureMetrics.Phase.CONNECT, start);
+            BiometricDevice device = new NBBiometricDevice(nbDevice);
+            try {
+                if (!device.isSessionOpen()) {
+                    start = System.nanoTime();
+                    SessionBootstrapper.Result result = SessionBootstrapper.getInstance().openSession(device);
+                    metrics.record(CaptureMetrics.Phase.SESSION_OPEN, start);
+                    Log.d(TAG, "Session " + result);
+                }
+            }
+            catch (RuntimeException e) {
+                String id = device.getId();
+                device.dispose();
+                DeviceRegistry.getInstance().disposed(id);
+                throw e;
+            }
+            Log.d(TAG, "Opened " + device.getId());
+            return device;
+        }
+        
+        @Override
+        public boolean matches(DeviceInfo requested, DeviceInfo opened, BiometricDevice device) {
+            if (requested == null)
+                return true;
+            if (requested.isSpi())
+                return opened != null && opened.isSpi() && requested.getSpiName().equals(opened.getSpiName());
+            return requested.getId() == null || requested.getId().equals(device.getId());
+        }
+        
+        @Override
+        public boolean isHealthy(BiometricDevice device) {
+            return device.getState() != NBDeviceState.NOT_CONNECTED;
+        }
+        
+        @Override
+        public void close(BiometricDevice device) {
+            Log.d(TAG, "Closing " + device.getId());
+            String id = device.getId();
+            CalibrationStore.getInstance().invalidate(device);
+            device.dispose();
+            DeviceRegistry.getInstance().disposed(id);
+        }
+    }
+}
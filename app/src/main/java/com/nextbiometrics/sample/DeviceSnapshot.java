@@ -0,0 +1,229 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDevice;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceState;
+
+import java.io.File;
+
+/**
+ * What the UI shows about the connected device, read from it once per connection.
+ * <p>
+ * Every getter of an {@code NBDevice} is a JNI call and most of them a round trip to
+ * the sensor, so the identity of the device (id, serial numbers, model, firmware,
+ * supported formats) is captured by {@link #capture} when the device is connected and
+ * never read again. The values that change while connected are only read again when
+ * asked for: {@link #refresh} reads the state, {@link #withFingerDetectValue} takes a
+ * finger detect value that was read anyway and {@link #refreshCalibration} looks for
+ * the calibration file. Each returns a new snapshot sharing the identity.
+ * <p>
+ * The status text is rendered on first use and cached, the lines of the identity once
+ * for all snapshots of the connection, so refreshing the UI costs neither a device
+ * call nor a file system access. Snapshots are immutable and thread safe.
+ */
+public final class DeviceSnapshot {
+    
+    /**
+     * The labels of the status text, see {@link Labels}.
+     */
+    public enum Label {
+        ID, MANUFACTURER, MODEL, SERIAL_NUMBER, MODULE_SERIAL_NUMBER, PRODUCT, FIRMWARE_VERSION,
+        TYPE, CONNECTION_TYPE, STATE, FINGER_DETECT_VALUE, SUPPORTED_FORMATS
+    }
+    
+    /**
+     * Supplies the text of the labels, normally from the string resources.
+     */
+    public interface Labels {
+        String get(Label label);
+    }
+    
+    /**
+     * Read once per connection and shared by the refreshed snapshots.
+     */
+    private static final class Identity {
+        private final String                    id;
+        private final String                    serialNumber;
+        // null unless the device is an NBDevice
+        private final String                    manufacturer;
+        private final String                    model;
+        private final String                    moduleSerialNumber;
+        private final String                    product;
+        private final String                    firmwareVersion;
+        private final String                    type;
+        private final String                    connectionType;
+        private final NBDeviceScanFormatInfo[]  formats;
+        private final boolean                   requiresCalibration;
+        private final File                      calibrationFile;
+        private Labels                          labels;
+        private String                          header;
+        private String                          footer;
+        
+        Identity(BiometricDevice device, CalibrationStore store) {
+            id = device.getId();
+            serialNumber = device.getSerialNumber();
+            NBDevice nbDevice = device instanceof NBBiometricDevice ? ((NBBiometricDevice) device).getNBDevice() : null;
+            if (nbDevice != null) {
+                manufacturer = nbDevice.getManufacturer();
+                model = nbDevice.getModel();
+                moduleSerialNumber = nbDevice.getModuleSerialNumber();
+                product = nbDevice.getProduct();
+                firmwareVersion = String.valueOf(nbDevice.getFirmwareVersion());
+                type = String.valueOf(nbDevice.getType());
+                connectionType = String.valueOf(nbDevice.getConnectionType());
+            }
+            else {
+                manufacturer = null;
+                model = null;
+                moduleSerialNumber = null;
+                product = null;
+                firmwareVersion = null;
+                type = null;
+                connectionType = null;
+            }
+            NBDeviceScanFormatInfo[] supported = device.getSupportedScanFormats();
+            formats = supported != null ? supported : new NBDeviceScanFormatInfo[0];
+            requiresCalibration = device.requiresExternalCalibrationData();
+            calibrationFile = requiresCalibration ? store.getBlobFile(serialNumber) : null;
+        }
+        
+        /**
+         * Renders the lines before and after the state for the labels, unless they are already.
+         */
+        private void render(Labels labels) {
+            if (this.labels == labels)
+                return;
+            StringBuilder builder = new StringBuilder();
+            builder.append(labels.get(Label.ID)).append(id).append("\n");
+            if (manufacturer != null) {
+                builder.append(labels.get(Label.MANUFACTURER)).append(manufacturer).append("\n");
+                builder.append(labels.get(Label.MODEL)).append(model).append("\n");
+            }
+            builder.append(labels.get(Label.SERIAL_NUMBER)).append(serialNumber).append("\n");
+            if (manufacturer != null) {
+                if (moduleSerialNumber != null && !moduleSerialNumber.equals(serialNumber))
+                    builder.append(labels.get(Label.MODULE_SERIAL_NUMBER)).append(moduleSerialNumber).append("\n");
+                builder.append(labels.get(Label.PRODUCT)).append(product).append("\n");
+                builder.append(labels.get(Label.FIRMWARE_VERSION)).append(firmwareVersion).append("\n");
+                builder.append(labels.get(Label.TYPE)).append(type).append("\n");
+                builder.append(labels.get(Label.CONNECTION_TYPE)).append(connectionType).append("\n");
+            }
+            header = builder.toString();
+            
+            builder.setLength(0);
+            builder.append(labels.get(Label.SUPPORTED_FORMATS)).append("\n");
+            for (NBDeviceScanFormatInfo format : formats)
+                builder.append(String.format("\t%s\n", format));
+            if (requiresCalibration)
+                builder.append("Device compensation data:" + calibrationFile.getPath()).append("\n");
+            footer = builder.toString();
+            this.labels = labels;
+        }
+        
+        synchronized String getHeader(Labels labels) {
+            render(labels);
+            return header;
+        }
+        
+        synchronized String getFooter(Labels labels) {
+            render(labels);
+            return footer;
+        }
+    }
+    
+    private final Identity          identity;
+    private final NBDeviceState     state;
+    private final Integer           fingerDetectValue;
+    private final boolean           calibrationPresent;
+    private Labels                  textLabels;
+    private String                  text;
+    
+    private DeviceSnapshot(Identity identity, NBDeviceState state, Integer fingerDetectValue, boolean calibrationPresent) {
+        this.identity = identity;
+        this.state = state;
+        this.fingerDetectValue = fingerDetectValue;
+        this.calibrationPresent = calibrationPresent;
+    }
+    
+    /**
+     * Reads everything shown about the device, called once when it is connected.
+     *
+     * @param store where the calibration file of the device is looked for
+     */
+    public static DeviceSnapshot capture(BiometricDevice device, CalibrationStore store) {
+        Identity identity = new Identity(device, store);
+        boolean calibrationPresent = identity.calibrationFile != null && identity.calibrationFile.exists();
+        return new DeviceSnapshot(identity, device.getState(), null, calibrationPresent);
+    }
+    
+    /**
+     * Reads the state of the device again, the one call to the device this costs.
+     */
+    public DeviceSnapshot refresh(BiometricDevice device) {
+        return new DeviceSnapshot(identity, device.getState(), fingerDetectValue, calibrationPresent);
+    }
+    
+    public DeviceSnapshot withFingerDetectValue(int fingerDetectValue) {
+        return new DeviceSnapshot(identity, state, fingerDetectValue, calibrationPresent);
+    }
+    
+    /**
+     * Looks for the calibration file again, after it was created or invalidated.
+     */
+    public DeviceSnapshot refreshCalibration() {
+        boolean present = identity.calibrationFile != null && identity.calibrationFile.exists();
+        return present == calibrationPresent ? this : new DeviceSnapshot(identity, state, fingerDetectValue, present);
+    }
+    
+    public String getId() {
+        return identity.id;
+    }
+    
+    public String getSerialNumber() {
+        return identity.serialNumber;
+    }
+    
+    /**
+     * The state when the snapshot was captured or last refreshed.
+     */
+    public NBDeviceState getState() {
+        return state;
+    }
+    
+    /**
+     * The last finger detect value read, {@code null} if none was.
+     */
+    public Integer getFingerDetectValue() {
+        return fingerDetectValue;
+    }
+    
+    public boolean requiresExternalCalibrationData() {
+        return identity.requiresCalibration;
+    }
+    
+    public boolean isCalibrationPresent() {
+        return calibrationPresent;
+    }
+    
+    public NBDeviceScanFormatInfo[] getSupportedScanFormats() {
+        return identity.formats.clone();
+    }
+    
+    /**
+     * The status text of the device, rendered once per snapshot and labels.
+     */
+    public synchronized String getStatusText(Labels labels) {
+        if (text != null && textLabels == labels)
+            return text;
+        StringBuilder builder = new StringBuilder(identity.getHeader(labels));
+        builder.append(labels.get(Label.STATE)).append(state).append("\n");
+        if (fingerDetectValue != null)
+            builder.append(labels.get(Label.FINGER_DETECT_VALUE)).append(fingerDetectValue).append("\n");
+        builder.append(identity.getFooter(labels));
+        if (identity.requiresCalibration && !calibrationPresent)
+            builder.append("Device compensation data missing!");
+        text = builder.toString();
+        textLabels = labels;
+        return text;
+    }
+}
@@ -0,0 +1,99 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Hand-over of frames between one producer and one consumer through two buffers.
+ * <p>
+ * The buffers themselves belong to the caller, this class only tracks which of the
+ * two slots is filled, waiting to be shown or being shown. The producer
+ * {@link #acquire}s a slot, fills it and {@link #publish}es it; the consumer
+ * {@link #take}s the latest published slot, shows it and {@link #release}s it. The
+ * producer never waits: a published frame that is replaced before the consumer took
+ * it counts as dropped.
+ */
+public class DoubleBuffer {
+    
+    static final int NONE = -1;
+    
+    private final long[]    timestamps = new long[2];
+    private int             pending = NONE;
+    private int             consuming = NONE;
+    private int             filling = NONE;
+    private long            published;
+    private long            taken;
+    private long            dropped;
+    
+    /**
+     * @return the slot to fill, never the one the consumer holds
+     */
+    public synchronized int acquire() {
+        int slot = consuming == 0 ? 1 : consuming == 1 ? 0 : pending == 0 ? 1 : 0;
+        if (slot == pending) {
+            // The consumer holds the other slot, the frame waiting here is overwritten
+            pending = NONE;
+            dropped++;
+        }
+        filling = slot;
+        return slot;
+    }
+    
+    /**
+     * Makes the filled slot the latest frame.
+     *
+     * @param timestampNanos when the frame was captured, returned by {@link #getTimestamp}
+     */
+    public synchronized void publish(int slot, long timestampNanos) {
+        if (slot != filling)
+            throw new IllegalStateException("Slot " + slot + " was not acquired");
+        filling = NONE;
+        if (pending != NONE)
+            dropped++;
+        pending = slot;
+        timestamps[slot] = timestampNanos;
+        published++;
+    }
+    
+    /**
+     * @return the latest published slot, {@link #NONE} if nothing new was published
+     */
+    public synchronized int take() {
+        int slot = pending;
+        if (slot != NONE) {
+            pending = NONE;
+            consuming = slot;
+            taken++;
+        }
+        return slot;
+    }
+    
+    public synchronized void release(int slot) {
+        if (slot == consuming)
+            consuming = NONE;
+    }
+    
+    public synchronized long getTimestamp(int slot) {
+        return timestamps[slot];
+    }
+    
+    public synchronized boolean hasPending() {
+        return pending != NONE;
+    }
+    
+    /**
+     * Forgets a frame that was not taken yet, e.g. when a scan ends.
+     */
+    public synchronized void clear() {
+        pending = NONE;
+    }
+    
+    public synchronized long getPublished() {
+        return published;
+    }
+    
+    public synchronized long getTaken() {
+        return taken;
+    }
+    
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,298 @@
+package com.nextbiometrics.sample;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * Captures impressions back to back on an open device until enough of them are good.
+ * <p>
+ * Every capture is handed to a {@link QualityScorer} and the next scan starts right
+ * away, so NFIQ of capture N is computed while capture N+1 is acquired. The best
+ * {@code targetCount} impressions by NFIQ (1 is best) are kept, and the sequence stops
+ * as soon as all of them meet the quality target, cancelling the scan in flight. The
+ * device is used as it is, its session stays open for the whole sequence.
+ */
+public class EnrollmentSession implements QualityScorer.Listener {
+    
+    public static final int DEFAULT_TARGET_COUNT = 3;
+    public static final int DEFAULT_QUALITY_TARGET = 2;
+    public static final int DEFAULT_MAX_CAPTURES = 8;
+    static final long SCORE_WAIT_MILLIS = 10000;
+    static final int SCAN_TIMEOUT = 1000000;
+    
+    public interface Listener {
+        /**
+         * A scan finished, called on the capturing thread before the next one starts.
+         */
+        void onCaptured(int capture, ScanResult result);
+        
+        /**
+         * A capture was scored, called on the scoring thread.
+         */
+        void onScored(Impression impression, List<Impression> best);
+    }
+    
+    /**
+     * A scored capture.
+     */
+    public static final class Impression {
+        private final int    capture;
+        private final byte[] image;
+        private final int    quality;
+        
+        Impression(int capture, byte[] image, int quality) {
+            this.capture = capture;
+            this.image = image;
+            this.quality = quality;
+        }
+        
+        public int getCapture() {
+            return capture;
+        }
+        
+        public byte[] getImage() {
+            return image;
+        }
+        
+        /**
+         * NFIQ of the image, {@code 0} if it could not be scored.
+         */
+        public int getQuality() {
+            return quality;
+        }
+        
+        boolean isScored() {
+            return quality > 0;
+        }
+        
+        boolean isBetterThan(Impression other) {
+            return quality < other.quality || (quality == other.quality && capture < other.capture);
+        }
+        
+        @Override
+        public String toString() {
+            return "#" + capture + " NFIQ " + (isScored() ? String.valueOf(quality) : "-");
+        }
+    }
+    
+    /**
+     * Outcome of {@link #run}.
+     */
+    public static final class Result {
+        private final List<Impression> best;
+        private final int              captures;
+        private final boolean          targetMet;
+        private final boolean          cancelled;
+        private final long             elapsedMillis;
+        
+        Result(List<Impression> best, int captures, boolean targetMet, boolean cancelled, long elapsedMillis) {
+            this.best = best;
+            this.captures = captures;
+            this.targetMet = targetMet;
+            this.cancelled = cancelled;
+            this.elapsedMillis = elapsedMillis;
+        }
+        
+        /**
+         * The kept impressions, best first.
+         */
+        public List<Impression> getBest() {
+            return best;
+        }
+        
+        public int getCaptures() {
+            return captures;
+        }
+        
+        public boolean isTargetMet() {
+            return targetMet;
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+    
+    private final BiometricDevice                  device;
+    private final NBDeviceScanFormatInfo           format;
+    private final QualityScorer.Algorithm          algorithm;
+    private final Listener                         listener;
+    private final int                              targetCount;
+    private final int                              qualityTarget;
+    private final int                              maxCaptures;
+    private final Impression[]                     best;
+    private final Map<Long, byte[]>                pending = new HashMap<Long, byte[]>();
+    private int                                    bestCount;
+    private int                                    delivering;
+    private CaptureArchive                         archive;
+    private volatile boolean                       targetMet;
+    private volatile boolean                       cancelled;
+    
+    public EnrollmentSession(BiometricDevice device, NBDeviceScanFormatInfo format, QualityScorer.Algorithm algorithm, Listener listener) {
+        this(device, format, algorithm, listener, DEFAULT_TARGET_COUNT, DEFAULT_QUALITY_TARGET, DEFAULT_MAX_CAPTURES);
+    }
+    
+    /**
+     * @param targetCount number of impressions to keep
+     * @param qualityTarget worst NFIQ an impression may have to count towards the target
+     * @param maxCaptures captures after which the sequence gives up
+     */
+    public EnrollmentSession(BiometricDevice device, NBDeviceScanFormatInfo format, QualityScorer.Algorithm algorithm, Listener listener,
+      int targetCount, int qualityTarget, int maxCaptures) {
+        this.device = device;
+        this.format = format;
+        this.algorithm = algorithm;
+        this.listener = listener;
+        this.targetCount = Math.max(1, targetCount);
+        this.qualityTarget = qualityTarget;
+        this.maxCaptures = Math.max(this.targetCount, maxCaptures);
+        this.best = new Impression[this.targetCount];
+    }
+    
+    /**
+     * Archives every scored capture, see {@link QualityScorer#setArchive}.
+     */
+    public void setArchive(CaptureArchive archive) {
+        this.archive = archive;
+    }
+    
+    /**
+     * Runs the sequence on the calling thread.
+     *
+     * @param previewListener receives the previews of every capture, may be {@code null}
+     */
+    public Result run(BiometricDevice.PreviewListener previewListener) {
+        long start = System.nanoTime();
+        QualityScorer scorer = new QualityScorer(new SafeAlgorithm(algorithm), this);
+        scorer.setArchive(archive);
+        int captures = 0;
+        try {
+            while (captures < maxCaptures && !targetMet && !cancelled) {
+                ScanResult result = device.scanEx(format, SCAN_TIMEOUT, previewListener);
+                if (targetMet || cancelled || result.getStatus() == NBDeviceScanStatus.CANCELED)
+                    break;
+                captures++;
+                listener.onCaptured(captures, result);
+                if (result.getStatus() != NBDeviceScanStatus.OK)
+                    continue;
+                synchronized (this) {
+                    pending.put((long) captures, result.getImage());
+                }
+                scorer.submitResult(captures, result);
+            }
+            awaitScores();
+        }
+        finally {
+            scorer.shutdown();
+        }
+        synchronized (this) {
+            List<Impression> kept = new ArrayList<Impression>(bestCount);
+            for (int i = 0; i < bestCount; i++)
+                kept.add(best[i]);
+            return new Result(Collections.unmodifiableList(kept), captures, targetMet, cancelled && !targetMet,
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+    
+    /**
+     * Stops the sequence from any thread, the scan in flight is cancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+        device.cancelScan();
+    }
+    
+    @Override
+    public void onQualityScored(QualityScore score) {
+        Impression impression;
+        List<Impression> snapshot;
+        boolean met;
+        synchronized (this) {
+            byte[] image = pending.remove(score.getFrameSequence());
+            if (image == null)
+                return;
+            impression = new Impression((int) score.getFrameSequence(), image, Math.max(0, score.getScore()));
+            if (impression.isScored())
+                keep(impression);
+            snapshot = new ArrayList<Impression>(bestCount);
+            for (int i = 0; i < bestCount; i++)
+                snapshot.add(best[i]);
+            met = bestCount == targetCount && best[bestCount - 1].getQuality() <= qualityTarget;
+            delivering++;
+        }
+        try {
+            listener.onScored(impression, snapshot);
+        }
+        finally {
+            synchronized (this) {
+                delivering--;
+                notifyAll();
+            }
+        }
+        if (met && !targetMet) {
+            targetMet = true;
+            // The next capture is already being acquired, it is not needed any more
+            device.cancelScan();
+        }
+    }
+    
+    private void keep(Impression impression) {
+        int position = bestCount;
+        while (position > 0 && impression.isBetterThan(best[position - 1]))
+            position--;
+        if (position >= targetCount)
+            return;
+        int last = Math.min(bestCount, targetCount - 1);
+        System.arraycopy(best, position, best, position + 1, last - position);
+        best[position] = impression;
+        if (bestCount < targetCount)
+            bestCount++;
+    }
+    
+    private synchronized void awaitScores() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SCORE_WAIT_MILLIS);
+        long remaining;
+        // run() returns only after the listener has seen every score
+        while ((!pending.isEmpty() || delivering > 0) && (remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Reports a failed scoring as quality 0 so every capture gets its callback.
+     */
+    private static final class SafeAlgorithm implements QualityScorer.Algorithm {
+        private final QualityScorer.Algorithm algorithm;
+        
+        SafeAlgorithm(QualityScorer.Algorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+        
+        @Override
+        public int score(byte[] image, int width, int height, int resolution) {
+            try {
+                return algorithm.score(image, width, height, resolution);
+            }
+            catch (RuntimeException e) {
+                return 0;
+            }
+        }
+    }
+}
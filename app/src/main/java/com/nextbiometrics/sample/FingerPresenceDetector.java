@@ -0,0 +1,181 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Decides from polled finger detect values when a finger has landed and settled on
+ * the sensor, and how soon the value should be polled again.
+ * <p>
+ * The range of {@code getFingerDetectValue} differs between sensors, so the thresholds
+ * are learned. While no finger is on the sensor the resting level and its noise are
+ * tracked; a value clearly above the noise means a finger is landing and the sensor is
+ * polled fast. Once the value is above the high threshold and stops changing for
+ * {@value #SETTLE_SAMPLES} polls the finger has settled and {@link #sample} returns
+ * {@link State#SETTLED}, once. Another finger is only reported after the value fell
+ * below the low threshold again, the hysteresis keeps a finger resting near the
+ * threshold from triggering twice. The level of settled fingers is learned as well and
+ * moves the high threshold halfway between the resting and the finger level.
+ * <p>
+ * While nothing happens polling slows down from {@value #IDLE_MILLIS} ms to
+ * {@value #MAX_IDLE_MILLIS} ms. A detector keeps what it learned for the life of the
+ * process, one per device. Not thread safe.
+ */
+public class FingerPresenceDetector {
+    
+    public enum State {
+        /** No finger, or not enough samples yet to tell. */
+        IDLE,
+        /** The value is rising, a finger is landing. */
+        LANDING,
+        /** A finger settled, returned once per finger. */
+        SETTLED,
+        /** The finger that settled is still on the sensor. */
+        PRESENT
+    }
+    
+    static final int        IDLE_MILLIS = 100;
+    static final int        MAX_IDLE_MILLIS = 500;
+    static final int        FAST_MILLIS = 20;
+    // Idle interval growth per quiet poll
+    static final double     BACKOFF = 1.2;
+    // Samples to learn the resting level before anything is reported
+    static final int        WARMUP_SAMPLES = 8;
+    static final int        SETTLE_SAMPLES = 3;
+    // Weight of a new sample in the learned levels
+    static final double     LEARNING_RATE = 0.1;
+    // Low and high threshold in noise deviations above the resting level
+    static final double     LOW_DEVIATIONS = 4;
+    static final double     HIGH_DEVIATIONS = 8;
+    // Smallest deviation assumed, sensors with a perfectly flat value still need a margin
+    static final double     MIN_NOISE = 2;
+    // Change between polls, relative to the span of a finger, still counted as settled
+    static final double     SETTLE_TOLERANCE = 0.1;
+    
+    private State           state = State.IDLE;
+    private int             samples;
+    private double          restingLevel;
+    private double          noise = MIN_NOISE;
+    // Level of settled fingers, NaN until a finger settled
+    private double          fingerLevel = Double.NaN;
+    private int             previous;
+    private int             steadySamples;
+    private double          idleMillis = IDLE_MILLIS;
+    private long            landingNanos;
+    
+    /**
+     * Takes the next polled value.
+     *
+     * @param nanos {@link System#nanoTime} of the poll
+     * @return the state after the value, {@link State#SETTLED} once per finger
+     */
+    public State sample(int value, long nanos) {
+        samples++;
+        if (samples <= WARMUP_SAMPLES) {
+            learnRestingLevel(value);
+            previous = value;
+            return state;
+        }
+        switch (state) {
+            case IDLE:
+                if (value > getLowThreshold()) {
+                    state = State.LANDING;
+                    landingNanos = nanos;
+                    steadySamples = 0;
+                    idleMillis = IDLE_MILLIS;
+                }
+                else {
+                    learnRestingLevel(value);
+                    idleMillis = Math.min(MAX_IDLE_MILLIS, idleMillis * BACKOFF);
+                }
+                break;
+            case LANDING:
+                if (value <= getLowThreshold()) {
+                    // Touched and gone, or a spike
+                    state = State.IDLE;
+                    break;
+                }
+                if (value >= getHighThreshold() && Math.abs(value - previous) <= getSettleTolerance())
+                    steadySamples++;
+                else
+                    steadySamples = 0;
+                if (steadySamples >= SETTLE_SAMPLES) {
+                    fingerLevel = Double.isNaN(fingerLevel) ? value : fingerLevel + LEARNING_RATE * (value - fingerLevel);
+                    previous = value;
+                    state = State.PRESENT;
+                    return State.SETTLED;
+                }
+                break;
+            case PRESENT:
+                if (value <= getLowThreshold()) {
+                    state = State.IDLE;
+                    idleMillis = IDLE_MILLIS;
+                }
+                break;
+            default:
+                break;
+        }
+        previous = value;
+        return state;
+    }
+    
+    private void learnRestingLevel(int value) {
+        if (samples == 1) {
+            restingLevel = value;
+            return;
+        }
+        double deviation = Math.abs(value - restingLevel);
+        restingLevel += LEARNING_RATE * (value - restingLevel);
+        noise = Math.max(MIN_NOISE, noise + LEARNING_RATE * (deviation - noise));
+    }
+    
+    /**
+     * Time until the next poll, fast while a finger lands.
+     */
+    public int getPollMillis() {
+        if (samples < WARMUP_SAMPLES)
+            return IDLE_MILLIS;
+        switch (state) {
+            case LANDING:
+                return FAST_MILLIS;
+            case IDLE:
+                return (int) idleMillis;
+            default:
+                return IDLE_MILLIS;
+        }
+    }
+    
+    public State getState() {
+        return state;
+    }
+    
+    /**
+     * Below it no finger is on the sensor.
+     */
+    public double getLowThreshold() {
+        return restingLevel + LOW_DEVIATIONS * noise;
+    }
+    
+    /**
+     * A finger settles above it.
+     */
+    public double getHighThreshold() {
+        double high = restingLevel + HIGH_DEVIATIONS * noise;
+        if (!Double.isNaN(fingerLevel))
+            high = Math.max(high, (restingLevel + fingerLevel) / 2);
+        return high;
+    }
+    
+    private double getSettleTolerance() {
+        double span = Double.isNaN(fingerLevel) ? getHighThreshold() - restingLevel : fingerLevel - restingLevel;
+        return Math.max(noise, SETTLE_TOLERANCE * span);
+    }
+    
+    public double getRestingLevel() {
+        return restingLevel;
+    }
+    
+    /**
+     * {@link System#nanoTime} of the poll that saw the finger landing.
+     */
+    public long getLandingNanos() {
+        return landingNanos;
+    }
+}
@@ -0,0 +1,230 @@
+package com.nextbiometrics.sample;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the finger detect value of a device and reports when a finger settled, so a
+ * capture can start without the operator pressing a button.
+ * <p>
+ * Each poll is a single {@code getFingerDetectValue} on the device thread, scheduled
+ * by a {@link FingerPresenceDetector}: slowly while the sensor is idle, every
+ * {@value FingerPresenceDetector#FAST_MILLIS} ms while a finger lands. A poll is put
+ * off while other commands wait for the device thread, and only one is ever queued,
+ * so watching never delays a command by more than one call. After reporting a finger
+ * the watcher pauses until {@link #resume}, the capture has the device to itself.
+ * <p>
+ * The time from the poll that saw the finger landing until it was reported is
+ * recorded as {@link CaptureMetrics.Phase#PRESENCE_TRIGGER}, every poll as
+ * {@link CaptureMetrics.Phase#PRESENCE_POLL}; {@link #getReport} sums up what watching
+ * cost the device thread.
+ */
+public class FingerPresenceWatcher {
+    
+    public interface Listener {
+        /**
+         * A finger settled on the sensor, called on the device thread. The watcher is
+         * paused, call {@link #resume} once the capture is done.
+         */
+        void onFingerSettled(FingerPresenceWatcher watcher);
+    }
+    
+    static final long       POLL_TIMEOUT_MILLIS = 1000;
+    
+    // Learned thresholds by serial number, kept for the process
+    private static final Map<String, FingerPresenceDetector> detectors = new HashMap<String, FingerPresenceDetector>();
+    
+    private final BiometricDevice           device;
+    private final FingerPresenceDetector    detector;
+    private final DeviceCommandExecutor     commands;
+    private final Listener                  listener;
+    private final String                    key;
+    private ScheduledExecutorService        timer;
+    private ScheduledFuture<?>              next;
+    private boolean                         running;
+    private boolean                         paused;
+    private long                            startNanos;
+    private long                            stopNanos;
+    private long                            polls;
+    private long                            deferredPolls;
+    private long                            pollNanos;
+    private int                             triggers;
+    private long                            triggerNanos;
+    
+    /**
+     * The detector of the device, created on first use.
+     */
+    public static synchronized FingerPresenceDetector getDetector(String serialNumber) {
+        FingerPresenceDetector detector = detectors.get(serialNumber);
+        if (detector == null) {
+            detector = new FingerPresenceDetector();
+            detectors.put(serialNumber, detector);
+        }
+        return detector;
+    }
+    
+    public FingerPresenceWatcher(BiometricDevice device, String serialNumber, DeviceCommandExecutor commands, Listener listener) {
+        this(device, getDetector(serialNumber), commands, listener);
+    }
+    
+    FingerPresenceWatcher(BiometricDevice device, FingerPresenceDetector detector, DeviceCommandExecutor commands, Listener listener) {
+        this.device = device;
+        this.detector = detector;
+        this.commands = commands;
+        this.listener = listener;
+        this.key = "presence:" + System.identityHashCode(device);
+    }
+    
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        paused = false;
+        startNanos = System.nanoTime();
+        stopNanos = 0;
+        polls = 0;
+        deferredPolls = 0;
+        pollNanos = 0;
+        triggers = 0;
+        triggerNanos = 0;
+        timer = Executors.newSingleThreadScheduledExecutor(DaemonThreads.named("FingerPresence"));
+        schedule(0);
+    }
+    
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        stopNanos = System.nanoTime();
+        timer.shutdownNow();
+        timer = null;
+        next = null;
+    }
+    
+    /**
+     * Stops polling while the device is busy with something else, e.g. a manual capture.
+     */
+    public synchronized void pause() {
+        paused = true;
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+    
+    /**
+     * Polls again, a finger is only reported once it was lifted and placed again.
+     */
+    public synchronized void resume() {
+        if (!paused)
+            return;
+        paused = false;
+        if (running && next == null)
+            schedule(detector.getPollMillis());
+    }
+    
+    public synchronized boolean isRunning() {
+        return running;
+    }
+    
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+    
+    private void schedule(long delayMillis) {
+        next = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private void poll() {
+        synchronized (this) {
+            if (!running || paused)
+                return;
+            if (commands.getQueueLength() > 0) {
+                // Commands first, watching can wait
+                deferredPolls++;
+                schedule(detector.getPollMillis());
+                return;
+            }
+            next = null;
+        }
+        DeviceFuture<Integer> value = commands.submit(DeviceCommandExecutor.Lane.STATUS, key, POLL_TIMEOUT_MILLIS,
+          new DeviceCommandExecutor.Command<Integer>() {
+              @Override
+              public Integer run() {
+                  long start = System.nanoTime();
+                  int value = device.getFingerDetectValue();
+                  polled(start);
+                  return value;
+              }
+          });
+        // Handled on the device thread, taking the value and scheduling the next poll is quick
+        value.whenDone(new DeviceFuture.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer value) {
+                sampled(value, System.nanoTime());
+            }
+            
+            @Override
+            public void onFailure(Throwable error) {
+                synchronized (FingerPresenceWatcher.this) {
+                    // Device gone or busy, try again at the slowest pace
+                    if (running && !paused && next == null)
+                        schedule(FingerPresenceDetector.MAX_IDLE_MILLIS);
+                }
+            }
+        });
+    }
+    
+    private synchronized void polled(long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        polls++;
+        pollNanos += elapsed;
+        CaptureMetrics.getInstance().get(CaptureMetrics.Phase.PRESENCE_POLL).record(elapsed / 1000);
+    }
+    
+    private void sampled(int value, long nanos) {
+        synchronized (this) {
+            if (!running || paused)
+                return;
+            if (detector.sample(value, nanos) != FingerPresenceDetector.State.SETTLED) {
+                if (next == null)
+                    schedule(detector.getPollMillis());
+                return;
+            }
+            paused = true;
+            triggers++;
+            triggerNanos += nanos - detector.getLandingNanos();
+            CaptureMetrics.getInstance().record(CaptureMetrics.Phase.PRESENCE_TRIGGER, detector.getLandingNanos());
+        }
+        listener.onFingerSettled(this);
+    }
+    
+    public synchronized int getTriggerCount() {
+        return triggers;
+    }
+    
+    public synchronized long getPollCount() {
+        return polls;
+    }
+    
+    /**
+     * Polls, their share of the device thread and the mean trigger latency since {@link #start}.
+     */
+    public synchronized String getReport() {
+        long elapsed = (running ? System.nanoTime() : stopNanos) - startNanos;
+        double seconds = Math.max(1, elapsed) / 1e9;
+        return String.format(Locale.US, "%d polls (%.1f/s, %d put off), device busy %.2f %%, %d fingers, mean trigger %d ms",
+          polls, polls / seconds, deferredPolls, 100.0 * pollNanos / Math.max(1, elapsed), triggers,
+          triggers > 0 ? TimeUnit.NANOSECONDS.toMillis(triggerNanos / triggers) : 0);
+    }
+}
@@ -0,0 +1,184 @@
+package com.nextbiometrics.sample;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed size description of a finger for 1:N search: the ridge orientation field on
+ * a grid of {@value #GRID_WIDTH} x {@value #GRID_HEIGHT} cells, centred on the finger.
+ * <p>
+ * Every cell holds the doubled ridge angle quantised to a byte (256 steps for 360
+ * degrees of the doubled angle, so opposite directions are equal) and how reliable it
+ * is from 0 (background or no clear ridges) to {@value #MAX_RELIABILITY}. Two templates
+ * are compared by the weighted mean cosine of their doubled angle differences over
+ * the cells both cover, at the best of a few small translations.
+ * <p>
+ * The bin of a template is the dominant orientation of the whole field in one of
+ * {@value #BINS} sectors, or {@link #UNBINNED} when there is none (e.g. a whorl). A
+ * finger lands in the same or a neighbouring sector in every impression as long as
+ * it is not rotated much, which lets the search skip the other bins.
+ */
+public final class FingerprintTemplate {
+    
+    public static final int GRID_WIDTH = 16;
+    public static final int GRID_HEIGHT = 22;
+    public static final int CELLS = GRID_WIDTH * GRID_HEIGHT;
+    public static final int MAX_RELIABILITY = 15;
+    public static final int BINS = 8;
+    public static final int UNBINNED = BINS;
+    
+    // Cells tried in each direction when aligning two templates
+    static final int MAX_SHIFT = 2;
+    // How far below the threshold an unaligned score can be and still be worth aligning
+    static final int ALIGNMENT_MARGIN = 30;
+    // Fewer cells in common than this never match, the score reaches 100 from FULL_OVERLAP
+    static final int MIN_OVERLAP = 40;
+    static final int FULL_OVERLAP = 120;
+    // Share of the reliability the dominant orientation needs to give the template a bin
+    static final double MIN_BIN_STRENGTH = 0.25;
+    
+    // Cosine of the doubled angle difference for each quantised difference, scaled by 256
+    private static final int[] COSINES = new int[256];
+    
+    static {
+        for (int i = 0; i < COSINES.length; i++)
+            COSINES[i] = (int) Math.round(Math.cos(2 * Math.PI * i / 256) * 256);
+    }
+    
+    private final byte[]    orientations;
+    private final byte[]    reliabilities;
+    private final int       bin;
+    // The cells with a reliability, and their grid coordinates
+    private final int[]     cells;
+    private final int[]     cellX;
+    private final int[]     cellY;
+    
+    /**
+     * @param orientations  {@link #CELLS} doubled angles, row by row
+     * @param reliabilities {@link #CELLS} reliabilities from 0 to {@link #MAX_RELIABILITY}
+     */
+    public FingerprintTemplate(byte[] orientations, byte[] reliabilities) {
+        if (orientations.length != CELLS || reliabilities.length != CELLS)
+            throw new IllegalArgumentException("A template has " + CELLS + " cells");
+        this.orientations = orientations.clone();
+        this.reliabilities = reliabilities.clone();
+        
+        int count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double total = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            int reliability = reliabilities[cell];
+            if (reliability < 0 || reliability > MAX_RELIABILITY)
+                throw new IllegalArgumentException("Reliability " + reliability + " out of range");
+            if (reliability == 0)
+                continue;
+            double angle = 2 * Math.PI * (orientations[cell] & 0xff) / 256;
+            sumX += reliability * Math.cos(angle);
+            sumY += reliability * Math.sin(angle);
+            total += reliability;
+            count++;
+        }
+        bin = binOf(sumX, sumY, total);
+        
+        cells = new int[count];
+        cellX = new int[count];
+        cellY = new int[count];
+        for (int cell = 0, i = 0; cell < CELLS; cell++) {
+            if (reliabilities[cell] != 0) {
+                cells[i] = cell;
+                cellX[i] = cell % GRID_WIDTH;
+                cellY[i] = cell / GRID_WIDTH;
+                i++;
+            }
+        }
+    }
+    
+    private static int binOf(double sumX, double sumY, double total) {
+        if (total == 0 || Math.sqrt(sumX * sumX + sumY * sumY) < MIN_BIN_STRENGTH * total)
+            return UNBINNED;
+        double angle = Math.atan2(sumY, sumX);
+        if (angle < 0)
+            angle += 2 * Math.PI;
+        return (int) (angle * BINS / (2 * Math.PI)) % BINS;
+    }
+    
+    public int getBin() {
+        return bin;
+    }
+    
+    /**
+     * Number of cells with a reliability above 0.
+     */
+    public int getArea() {
+        return cells.length;
+    }
+    
+    public byte getOrientation(int cell) {
+        return orientations[cell];
+    }
+    
+    public int getReliability(int cell) {
+        return reliabilities[cell];
+    }
+    
+    void writeTo(ByteBuffer orientations, ByteBuffer reliabilities) {
+        orientations.put(this.orientations);
+        reliabilities.put(this.reliabilities);
+    }
+    
+    /**
+     * Similarity to another template from 0 to 100.
+     */
+    public int compare(FingerprintTemplate other) {
+        return score(other.orientations, other.reliabilities, 0, 0);
+    }
+    
+    /**
+     * Similarity to the template stored at {@code offset} of the two arrays, from 0 to 100.
+     * <p>
+     * Templates are centred on the finger, so they are compared as they are first and
+     * only aligned when that comes within {@value #ALIGNMENT_MARGIN} of the threshold:
+     * most entries of a gallery are other fingers and cost one pass instead of one per
+     * translation.
+     *
+     * @param threshold scores below it are not exact, 0 to always align
+     */
+    int score(byte[] orientations, byte[] reliabilities, int offset, int threshold) {
+        int best = score(orientations, reliabilities, offset, 0, 0);
+        if (best < threshold - ALIGNMENT_MARGIN)
+            return best;
+        for (int dy = -MAX_SHIFT; dy <= MAX_SHIFT; dy++) {
+            for (int dx = -MAX_SHIFT; dx <= MAX_SHIFT; dx++) {
+                if (dx != 0 || dy != 0)
+                    best = Math.max(best, score(orientations, reliabilities, offset, dx, dy));
+            }
+        }
+        return best;
+    }
+    
+    private int score(byte[] orientations, byte[] reliabilities, int offset, int dx, int dy) {
+        long sum = 0;
+        long weights = 0;
+        int overlap = 0;
+        int shift = offset + dy * GRID_WIDTH + dx;
+        for (int i = 0; i < cells.length; i++) {
+            int x = cellX[i] + dx;
+            int y = cellY[i] + dy;
+            if (x < 0 || x >= GRID_WIDTH || y < 0 || y >= GRID_HEIGHT)
+                continue;
+            int cell = cells[i];
+            int other = cell + shift;
+            int reliability = reliabilities[other];
+            if (reliability == 0)
+                continue;
+            int weight = this.reliabilities[cell] * reliability;
+            sum += weight * COSINES[(this.orientations[cell] - orientations[other]) & 0xff];
+            weights += weight;
+            overlap++;
+        }
+        if (overlap < MIN_OVERLAP || sum <= 0)
+            return 0;
+        // Mean cosine in percent, scaled down while the overlap is small
+        return (int) (sum * 100 * Math.min(overlap, FULL_OVERLAP) / (weights * 256 * FULL_OVERLAP));
+    }
+}
@@ -0,0 +1,155 @@
+package com.nextbiometrics.sample;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+
+/**
+ * Converts raw greyscale frames into ARGB bitmaps without per-frame allocations.
+ * <p>
+ * Pixel buffers and mutable bitmaps are pooled per frame size (as reported by
+ * {@link NBDeviceScanFormatInfo}). Each size owns two bitmaps that are handed out
+ * alternately, so the bitmap currently shown by the UI is not overwritten by the
+ * next frame. The native image stage is used when it is available.
+ * <p>
+ * Previews are converted by {@link #convertPreview} at the size of the view, and
+ * optionally cropped to the finger, by a {@link PreviewScaler}. Only final results
+ * are converted at full resolution.
+ */
+public class FrameConverter {
+    
+    // Full size results plus the preview sizes (one per zoom level)
+    private static final int MAX_FORMATS = 8;
+    private static final int BITMAPS_PER_FORMAT = 2;
+    
+    private final Slot[]        slots = new Slot[MAX_FORMATS];
+    private final PreviewScaler scaler = new PreviewScaler();
+    private int                 nextEvicted;
+    
+    public synchronized Bitmap convert(NBDeviceScanFormatInfo formatInfo, byte[] image) {
+        int width = formatInfo.getWidth();
+        int height = formatInfo.getHeight();
+        Slot slot = getSlot(width, height);
+        Bitmap bitmap = nextBitmap(slot);
+        NativeImage.toBitmap(image, width, height, bitmap, slot.pixels);
+        return bitmap;
+    }
+    
+    /**
+     * Converts a preview for a view of {@code viewWidth} x {@code viewHeight} pixels.
+     *
+     * @param bounds {@code left, top, right, bottom} of the finger to zoom in on,
+     *        {@code null} to show the whole frame
+     */
+    public synchronized Bitmap convertPreview(NBDeviceScanFormatInfo formatInfo, byte[] image, int viewWidth, int viewHeight, int[] bounds) {
+        Slot slot = scalePreview(formatInfo.getWidth(), formatInfo.getHeight(), image, viewWidth, viewHeight, bounds);
+        Bitmap bitmap = nextBitmap(slot);
+        bitmap.setPixels(slot.pixels, 0, slot.width, 0, 0, slot.width, slot.height);
+        return bitmap;
+    }
+    
+    /**
+     * Like {@link #convertPreview} into the pooled pixel buffer for the output size,
+     * which {@link #getPreviewWidth()} and {@link #getPreviewHeight()} return afterwards.
+     */
+    public synchronized int[] convertPreviewPixels(int width, int height, byte[] image, int viewWidth, int viewHeight, int[] bounds) {
+        return scalePreview(width, height, image, viewWidth, viewHeight, bounds).pixels;
+    }
+    
+    public synchronized int getPreviewWidth() {
+        return scaler.getOutputWidth();
+    }
+    
+    public synchronized int getPreviewHeight() {
+        return scaler.getOutputHeight();
+    }
+    
+    /**
+     * Converts the frame into the pooled pixel buffer for its size. The returned
+     * array is reused by the next call with the same size.
+     */
+    public synchronized int[] convertPixels(int width, int height, byte[] image) {
+        Slot slot = getSlot(width, height);
+        fillPixels(slot, image);
+        return slot.pixels;
+    }
+    
+    public synchronized void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                slots[i].recycle();
+                slots[i] = null;
+            }
+        }
+        nextEvicted = 0;
+    }
+    
+    private Slot scalePreview(int width, int height, byte[] image, int viewWidth, int viewHeight, int[] bounds) {
+        if (image.length < width * height)
+            bounds = null;
+        scaler.layout(width, height, viewWidth, viewHeight, bounds);
+        Slot slot = getSlot(scaler.getOutputWidth(), scaler.getOutputHeight());
+        if (image.length >= width * height)
+            scaler.scale(image, slot.pixels);
+        else
+            fillPixels(slot, image);
+        return slot;
+    }
+    
+    private static Bitmap nextBitmap(Slot slot) {
+        Bitmap bitmap = slot.bitmaps[slot.nextBitmap];
+        if (bitmap == null || bitmap.isRecycled()) {
+            bitmap = Bitmap.createBitmap(slot.width, slot.height, Config.ARGB_8888);
+            slot.bitmaps[slot.nextBitmap] = bitmap;
+        }
+        slot.nextBitmap = (slot.nextBitmap + 1) % BITMAPS_PER_FORMAT;
+        return bitmap;
+    }
+    
+    private static void fillPixels(Slot slot, byte[] image) {
+        int count = Math.min(image.length, slot.pixels.length);
+        GreyscaleLut.toArgb(image, slot.pixels, count);
+    }
+    
+    private Slot getSlot(int width, int height) {
+        for (Slot slot : slots) {
+            if (slot != null && slot.width == width && slot.height == height)
+                return slot;
+        }
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == null) {
+                slots[i] = new Slot(width, height);
+                return slots[i];
+            }
+        }
+        // The evicted bitmaps may still be on screen, leave them to the GC
+        Slot slot = new Slot(width, height);
+        slots[nextEvicted] = slot;
+        nextEvicted = (nextEvicted + 1) % slots.length;
+        return slot;
+    }
+    
+    private static final class Slot {
+        private final int       width;
+        private final int       height;
+        private final int[]     pixels;
+        private final Bitmap[]  bitmaps = new Bitmap[BITMAPS_PER_FORMAT];
+        private int             nextBitmap;
+        
+        Slot(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new int[width * height];
+        }
+        
+        void recycle() {
+            for (int i = 0; i < bitmaps.length; i++) {
+                if (bitmaps[i] != null) {
+                    bitmaps[i].recycle();
+                    bitmaps[i] = null;
+                }
+            }
+        }
+    }
+}
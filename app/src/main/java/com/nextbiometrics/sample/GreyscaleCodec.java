@@ -0,0 +1,275 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Lossless codec for 8 bit greyscale frames.
+ * <p>
+ * Every pixel is predicted from its left, upper and upper left neighbours with the
+ * median edge detector of LOCO-I / JPEG-LS and the prediction error is Rice coded.
+ * The Rice parameter adapts per context, the context being the quantized local
+ * gradient, so the flat background around the finger costs little more than a bit
+ * per pixel while ridges get longer codes. Images are coded row by row in a single
+ * pass with a 64 bit bit buffer, which keeps it fast enough to run right after a
+ * capture.
+ * <p>
+ * The encoded form is a 12 byte header (magic, width, height) followed by the
+ * bit stream. A codec instance is not thread safe, it only allocates when it is
+ * created and the buffers passed in are owned by the caller and can be reused.
+ */
+public class GreyscaleCodec {
+    
+    static final int MAGIC = 0x4E424743; // "NBGC"
+    static final int HEADER_SIZE = 12;
+    
+    private static final int CONTEXTS = 8;
+    // Longest unary prefix before the value is written as plain 8 bits
+    private static final int LIMIT = 24;
+    // Halve the context statistics so they follow the image
+    private static final int RESET = 64;
+    // Context of a local activity |a - c| + |b - c|: 0, 1-2, 3-6, 7-14, ... up to 7
+    private static final byte[] CONTEXT = new byte[511];
+    
+    static {
+        for (int activity = 0; activity < CONTEXT.length; activity++)
+            CONTEXT[activity] = (byte) Math.min(CONTEXTS - 1, 31 - Integer.numberOfLeadingZeros(activity + 1));
+    }
+    
+    private final int[] sums = new int[CONTEXTS];
+    private final int[] counts = new int[CONTEXTS];
+    private final int[] parameters = new int[CONTEXTS];
+    
+    // Bit stream state
+    private byte[]      buffer;
+    private int         position;
+    private int         end;
+    private long        bits;
+    private int         bitCount;
+    private int         overrun;
+    
+    /**
+     * Size of the largest possible encoding of an image, the size {@link #encode}
+     * needs in the output buffer.
+     */
+    public static int maxEncodedLength(int width, int height) {
+        long pixels = (long) width * height;
+        return (int) (HEADER_SIZE + (pixels * (LIMIT + 8) + 7) / 8 + 8);
+    }
+    
+    /**
+     * Whether the data starts with the header of an encoded image.
+     */
+    public static boolean isEncoded(byte[] data, int offset, int length) {
+        return length >= HEADER_SIZE && readInt(data, offset) == MAGIC;
+    }
+    
+    public static int getWidth(byte[] data, int offset) {
+        return readInt(data, offset + 4);
+    }
+    
+    public static int getHeight(byte[] data, int offset) {
+        return readInt(data, offset + 8);
+    }
+    
+    /**
+     * Encodes the image into {@code out} at {@code offset}.
+     *
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the image or the output buffer is too small
+     */
+    public int encode(byte[] image, int width, int height, byte[] out, int offset) {
+        if (width <= 0 || height <= 0 || image.length < width * height)
+            throw new IllegalArgumentException("Image smaller than " + width + "x" + height);
+        if (out.length - offset < maxEncodedLength(width, height))
+            throw new IllegalArgumentException("Output buffer too small");
+        writeInt(out, offset, MAGIC);
+        writeInt(out, offset + 4, width);
+        writeInt(out, offset + 8, height);
+        start(out, offset + HEADER_SIZE, out.length);
+        
+        // The first row only has left neighbours
+        int left = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = image[x] & 0xff;
+            encodePixel(pixel, left, left, left);
+            left = pixel;
+        }
+        for (int y = 1; y < height; y++) {
+            int row = y * width;
+            int up = image[row - width] & 0xff;
+            // The first column only has the pixel above
+            encodePixel(image[row] & 0xff, up, up, up);
+            for (int i = row + 1, rowEnd = row + width; i < rowEnd; i++)
+                encodePixel(image[i] & 0xff, image[i - 1] & 0xff, image[i - width] & 0xff, image[i - width - 1] & 0xff);
+        }
+        if (bitCount > 0) {
+            bits <<= 64 - bitCount;
+            while (bitCount > 0) {
+                buffer[position++] = (byte) (bits >>> 56);
+                bits <<= 8;
+                bitCount -= 8;
+            }
+        }
+        int length = position - offset;
+        buffer = null;
+        return length;
+    }
+    
+    /**
+     * Decodes an image written by {@link #encode} into {@code image}.
+     *
+     * @return the number of pixels decoded, width times height
+     * @throws IllegalArgumentException if the data is not an encoded image, is
+     *         truncated or {@code image} is too small
+     */
+    public int decode(byte[] data, int offset, int length, byte[] image) {
+        if (!isEncoded(data, offset, length))
+            throw new IllegalArgumentException("Not an encoded image");
+        int width = getWidth(data, offset);
+        int height = getHeight(data, offset);
+        if (width <= 0 || height <= 0 || image.length < width * height)
+            throw new IllegalArgumentException("Image buffer smaller than " + width + "x" + height);
+        start(data, offset + HEADER_SIZE, offset + length);
+        
+        try {
+            int left = 0;
+            for (int x = 0; x < width; x++) {
+                image[x] = decodePixel(left, left, left);
+                left = image[x] & 0xff;
+            }
+            checkTruncated();
+            for (int y = 1; y < height; y++) {
+                int row = y * width;
+                int up = image[row - width] & 0xff;
+                image[row] = decodePixel(up, up, up);
+                for (int i = row + 1, rowEnd = row + width; i < rowEnd; i++)
+                    image[i] = decodePixel(image[i - 1] & 0xff, image[i - width] & 0xff, image[i - width - 1] & 0xff);
+                checkTruncated();
+            }
+        }
+        finally {
+            buffer = null;
+        }
+        return width * height;
+    }
+    
+    private void encodePixel(int pixel, int a, int b, int c) {
+        int context = CONTEXT[Math.abs(a - c) + Math.abs(b - c)];
+        // Residual modulo 256 folded into 0..255, small errors of either sign stay small
+        int error = (byte) (pixel - predict(a, b, c));
+        int value = error >= 0 ? error << 1 : (-error << 1) - 1;
+        int k = parameters[context];
+        int quotient = value >>> k;
+        if (quotient < LIMIT) {
+            // quotient zeros, a one and the k low bits in one go
+            writeBits((1 << k) | (value & ((1 << k) - 1)), quotient + 1 + k);
+        }
+        else {
+            writeBits(value, LIMIT + 8);
+        }
+        update(context, value);
+    }
+    
+    private byte decodePixel(int a, int b, int c) {
+        int context = CONTEXT[Math.abs(a - c) + Math.abs(b - c)];
+        int k = parameters[context];
+        if (bitCount < 32)
+            fill();
+        // The unary prefix is at most LIMIT bits, so it is within the next 32
+        int zeros = Integer.numberOfLeadingZeros((int) (bits >>> (bitCount - 32)));
+        int value;
+        if (zeros >= LIMIT) {
+            bitCount -= LIMIT + 8;
+            value = (int) (bits >>> bitCount) & 0xff;
+        }
+        else {
+            bitCount -= zeros + 1 + k;
+            value = (zeros << k) | ((int) (bits >>> bitCount) & ((1 << k) - 1));
+        }
+        update(context, value);
+        int error = (value & 1) == 0 ? value >>> 1 : -((value + 1) >>> 1);
+        return (byte) (predict(a, b, c) + error);
+    }
+    
+    private static int predict(int a, int b, int c) {
+        int max = a > b ? a : b;
+        int min = a > b ? b : a;
+        if (c >= max)
+            return min;
+        if (c <= min)
+            return max;
+        return a + b - c;
+    }
+    
+    private void update(int context, int value) {
+        int sum = sums[context] += value;
+        int count = ++counts[context];
+        if (count >= RESET) {
+            sum = sums[context] >>= 1;
+            count = counts[context] >>= 1;
+        }
+        // Smallest k with count * 2^k >= sum, about the log of the mean error
+        int k = 0;
+        while ((count << k) < sum && k < 7)
+            k++;
+        parameters[context] = k;
+    }
+    
+    private void start(byte[] data, int offset, int end) {
+        for (int i = 0; i < CONTEXTS; i++) {
+            sums[i] = 4;
+            counts[i] = 1;
+            parameters[i] = 2;
+        }
+        buffer = data;
+        position = offset;
+        this.end = end;
+        bits = 0;
+        bitCount = 0;
+        overrun = 0;
+    }
+    
+    private void writeBits(int value, int count) {
+        bits = (bits << count) | value;
+        bitCount += count;
+        if (bitCount >= 32) {
+            bitCount -= 32;
+            int word = (int) (bits >>> bitCount);
+            buffer[position] = (byte) (word >>> 24);
+            buffer[position + 1] = (byte) (word >>> 16);
+            buffer[position + 2] = (byte) (word >>> 8);
+            buffer[position + 3] = (byte) word;
+            position += 4;
+        }
+    }
+    
+    /**
+     * Tops the bit buffer up to more than 56 bits, past the end of the data with zeros.
+     */
+    private void fill() {
+        while (bitCount <= 56) {
+            int next = 0;
+            if (position < end)
+                next = buffer[position++] & 0xff;
+            else
+                overrun++;
+            bits = (bits << 8) | next;
+            bitCount += 8;
+        }
+    }
+    
+    private void checkTruncated() {
+        // More padding was consumed than is still buffered
+        if (overrun * 8 > bitCount)
+            throw new IllegalArgumentException("Truncated image data");
+    }
+    
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+    
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+}
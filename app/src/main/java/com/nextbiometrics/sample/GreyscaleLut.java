@@ -0,0 +1,43 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Precomputed 8-bit grey to opaque ARGB lookup table.
+ * Produces the same pixel values as {@code Color.argb(255, grey, grey, grey)}.
+ */
+public final class GreyscaleLut {
+    
+    private static final int[] GREY_TO_ARGB = new int[256];
+    
+    static {
+        for (int grey = 0; grey < 256; grey++) {
+            GREY_TO_ARGB[grey] = 0xff000000 | (grey << 16) | (grey << 8) | grey;
+        }
+    }
+    
+    private GreyscaleLut() {
+    }
+    
+    public static int toArgb(int grey) {
+        return GREY_TO_ARGB[grey & 0x0ff];
+    }
+    
+    /**
+     * Expands {@code count} raw grey pixels into {@code pixels}. Nothing is allocated.
+     */
+    public static void toArgb(byte[] image, int[] pixels, int count) {
+        final int[] lut = GREY_TO_ARGB;
+        for (int i = 0; i < count; i++) {
+            pixels[i] = lut[image[i] & 0x0ff];
+        }
+    }
+    
+    /**
+     * Expands {@code count} raw grey pixels from {@code offset} into {@code pixels} at {@code target}.
+     */
+    public static void toArgb(byte[] image, int offset, int[] pixels, int target, int count) {
+        final int[] lut = GREY_TO_ARGB;
+        for (int i = 0; i < count; i++) {
+            pixels[target + i] = lut[image[offset + i] & 0x0ff];
+        }
+    }
+}
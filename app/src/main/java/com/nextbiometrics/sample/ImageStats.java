@@ -0,0 +1,101 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Histogram, mean and contrast of a raw 8-bit image.
+ * <p>
+ * Instances are reusable: {@link #compute(byte[], int)} overwrites the previous
+ * values without allocating. Mean and contrast are derived from integer sums, so
+ * the Java path and the native path in {@link NativeImage} report identical values.
+ */
+public final class ImageStats {
+    
+    public static final int HISTOGRAM_SIZE = 256;
+    
+    static final int SUM_COUNT = 0;
+    static final int SUM_TOTAL = 1;
+    static final int SUM_SQUARES = 2;
+    static final int SUM_MIN = 3;
+    static final int SUM_MAX = 4;
+    
+    private final int[]     histogram = new int[HISTOGRAM_SIZE];
+    private final long[]    sums = new long[5];
+    
+    /**
+     * Computes the statistics of the first {@code count} pixels in Java.
+     */
+    public void compute(byte[] image, int count) {
+        final int[] bins = histogram;
+        for (int i = 0; i < bins.length; i++)
+            bins[i] = 0;
+        
+        long sum = 0;
+        long sumOfSquares = 0;
+        for (int i = 0; i < count; i++) {
+            int grey = image[i] & 0x0ff;
+            bins[grey]++;
+            sum += grey;
+            sumOfSquares += grey * grey;
+        }
+        
+        int min = 0;
+        int max = 0;
+        if (count > 0) {
+            min = 0;
+            while (bins[min] == 0)
+                min++;
+            max = HISTOGRAM_SIZE - 1;
+            while (bins[max] == 0)
+                max--;
+        }
+        sums[SUM_COUNT] = count;
+        sums[SUM_TOTAL] = sum;
+        sums[SUM_SQUARES] = sumOfSquares;
+        sums[SUM_MIN] = min;
+        sums[SUM_MAX] = max;
+    }
+    
+    public int[] getHistogram() {
+        return histogram;
+    }
+    
+    public int getCount() {
+        return (int) sums[SUM_COUNT];
+    }
+    
+    public int getMin() {
+        return (int) sums[SUM_MIN];
+    }
+    
+    public int getMax() {
+        return (int) sums[SUM_MAX];
+    }
+    
+    public double getMean() {
+        long count = sums[SUM_COUNT];
+        return count == 0 ? 0 : (double) sums[SUM_TOTAL] / count;
+    }
+    
+    /**
+     * RMS contrast, i.e. the standard deviation of the grey values.
+     */
+    public double getContrast() {
+        return Math.sqrt(getVariance());
+    }
+    
+    public double getVariance() {
+        long count = sums[SUM_COUNT];
+        if (count == 0)
+            return 0;
+        double mean = (double) sums[SUM_TOTAL] / count;
+        return Math.max(0, (double) sums[SUM_SQUARES] / count - mean * mean);
+    }
+    
+    long[] getSums() {
+        return sums;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("mean %.1f, contrast %.1f, range %d-%d", getMean(), getContrast(), getMin(), getMax());
+    }
+}
@@ -0,0 +1,191 @@
+package com.nextbiometrics.sample;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size histogram of latencies in microseconds with a relative error below 2%.
+ * <p>
+ * Values up to {@value #SUB_BUCKET_COUNT} are counted exactly, above that every
+ * power of two range is split into {@value #SUB_BUCKET_HALF_COUNT} equal buckets,
+ * as in HdrHistogram. Values above {@link #MAX_TRACKABLE} are counted in the last
+ * bucket, the exact maximum is kept separately. Recording is lock free and can be
+ * done from any thread.
+ */
+public class LatencyHistogram {
+    
+    static final int  SUB_BUCKET_BITS = 7;
+    static final int  SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int  SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    /** About 19 hours. */
+    static final long MAX_TRACKABLE = (1L << 36) - 1;
+    static final int  BUCKET_COUNT = indexOf(MAX_TRACKABLE) + 1;
+    
+    private static final int FORMAT_VERSION = 1;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong      count = new AtomicLong();
+    private final AtomicLong      sum = new AtomicLong();
+    private final AtomicLong      max = new AtomicLong();
+    private final AtomicLong      min = new AtomicLong(Long.MAX_VALUE);
+    
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        counts.incrementAndGet(indexOf(Math.min(micros, MAX_TRACKABLE)));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+        }
+        while (micros < (current = min.get()) && !min.compareAndSet(current, micros)) {
+        }
+    }
+    
+    /**
+     * Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} value.
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+    
+    public long getCount() {
+        return count.get();
+    }
+    
+    public long getMax() {
+        return count.get() > 0 ? max.get() : 0;
+    }
+    
+    public long getMin() {
+        return count.get() > 0 ? min.get() : 0;
+    }
+    
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+    
+    /**
+     * Smallest recorded value that {@code percentile} percent of the values do not exceed,
+     * within the precision of its bucket.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target)
+                return i == BUCKET_COUNT - 1 ? getMax() : Math.min(highestEquivalentValue(i), getMax());
+        }
+        return getMax();
+    }
+    
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+        min.set(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Writes the non empty buckets as (index delta, count) varint pairs, a few dozen
+     * bytes for a typical capture phase.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int used = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts.get(i) != 0)
+                used++;
+        }
+        out.writeByte(FORMAT_VERSION);
+        writeVarLong(out, getCount());
+        writeVarLong(out, sum.get());
+        writeVarLong(out, getMin());
+        writeVarLong(out, getMax());
+        writeVarLong(out, used);
+        int previous = 0;
+        for (int i = 0; i < BUCKET_COUNT && used > 0; i++) {
+            long value = counts.get(i);
+            if (value == 0)
+                continue;
+            writeVarLong(out, i - previous);
+            writeVarLong(out, value);
+            previous = i;
+            used--;
+        }
+    }
+    
+    /**
+     * Replaces the content with a histogram written by {@link #writeTo}.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported histogram version " + version);
+        reset();
+        count.set(readVarLong(in));
+        sum.set(readVarLong(in));
+        long minValue = readVarLong(in);
+        max.set(readVarLong(in));
+        if (count.get() > 0)
+            min.set(minValue);
+        long used = readVarLong(in);
+        int index = 0;
+        for (long i = 0; i < used; i++) {
+            index += (int) readVarLong(in);
+            if (index < 0 || index >= BUCKET_COUNT)
+                throw new IOException("Bucket out of range: " + index);
+            counts.set(index, readVarLong(in));
+        }
+    }
+    
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (int) ((value >>> shift) - SUB_BUCKET_HALF_COUNT);
+    }
+    
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return subBucket << shift;
+    }
+    
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+    
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+    
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
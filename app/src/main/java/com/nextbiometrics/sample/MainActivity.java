@@ -2,52 +2,70 @@ package com.nextbiometrics.sample;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.Spinner;
 import android.widget.TextView;
-import android.os.Environment;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.widget.Toast;
 import android.app.ProgressDialog;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.io.*;
 
-import com.nextbiometrics.devices.NBDevice;
-import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
-import com.nextbiometrics.devices.NBDevices;
-import com.nextbiometrics.devices.NBDevicesLibrary;
-import com.nextbiometrics.devices.NBDeviceSecurityModel;
 import com.nextbiometrics.devices.event.NBDevicesDeviceChangedEvent;
 import com.nextbiometrics.devices.event.NBDevicesDeviceChangedListener;
 import com.nextbiometrics.system.NBVersion;
-import com.nextbiometrics.devices.NBDeviceCapabilities;
 
 public class MainActivity extends Activity implements OnClickListener, NBDevicesDeviceChangedListener {
     
-    //z91
-    private static final String DEFAULT_SPI_NAME = "/dev/arafp0";
-    private static final int PIN_OFFSET  = 343;
-    private static final int AWAKE_PIN_NUMBER = PIN_OFFSET + 14;
-    private static final int RESET_PIN_NUMBER = PIN_OFFSET + 13;
-    private static final int CHIP_SELECT_PIN_NUMBER = PIN_OFFSET + 31;
+    private static final long           STATUS_TIMEOUT_MILLIS = 5000;
+    private static final long           COMMAND_TIMEOUT_MILLIS = 30000;
+    private static final long           CHECKOUT_DEADLINE_MILLIS = 30000;
+    // Test amount of a CHECKOUT, in the smallest currency unit
+    private static final long           CHECKOUT_AMOUNT = 100;
     
     private TextView                    log;
     private Button                      testBtn;
     private Spinner                     commandSpinner;
     private ArrayAdapter<CharSequence>  spinnerAdapter;
-    private TestCommand                 testCommandTask;
+    private DeviceFuture<String>        testCommandTask;
     private ProgressDialog              progressDialog;
     
     private DeviceInfo                  deviceInfo;
-    private NBDevice                    device;
+    private BiometricDevice             device;
+    private SessionPool.Lease<BiometricDevice> deviceLease;
+    // Read once per connection, the status shown after every command and device event
+    private volatile DeviceSnapshot     snapshot;
+    private DeviceSnapshot.Labels       statusLabels;
     private AtomicBoolean               calibrating;
+    // The job keeps running when the activity goes away, only the listener is dropped
+    private volatile CalibrationJob     calibrationJob;
+    private volatile CalibrationJob.Listener calibrationListener;
+    private CardReader                  cardReader;
+    private CheckoutOrchestrator        checkout;
+    private BiometricDevice             checkoutDevice;
+    private SampleApplication           application;
+    // A device lookup waits for the library or runs, onResume does not queue another
+    private boolean                     deviceUpdateQueued;
+    // Commands that never touch the device, so they do not hold up the device lanes
+    private final ExecutorService       reports = Executors.newSingleThreadExecutor(DaemonThreads.named("Reports"));
+    private final Executor              uiThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            runOnUiThread(command);
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -55,6 +73,7 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
         setContentView(R.layout.activity_main);
         
         calibrating = new AtomicBoolean(false);
+        statusLabels = createStatusLabels();
         testBtn = (Button) findViewById(R.id.btn_test);
         log = (TextView) findViewById(R.id.device_log);
         commandSpinner = (Spinner) findViewById(R.id.cmd_spinner);
@@ -74,44 +93,57 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
             }
         });
         
-        try {
-            setLog(null);
-            NBDevices.initialize(this, this);
-        }
-        catch (Throwable tw) {
-            log.setText(tw.toString());
-        }
+        // NBDevices is started by SampleApplication in the background, device changes are forwarded
+        application = (SampleApplication) getApplication();
+        application.addDeviceListener(this);
+        setLog(null);
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                application.getStartup().firstFrame();
+                return true;
+            }
+        });
     }
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
         if (testCommandTask != null) {
-            testCommandTask.cancel(true);
+            testCommandTask.cancel(false);
         }
+        application.removeDeviceListener(this);
+        CalibrationJob job = calibrationJob;
+        if (job != null)
+            job.removeListener(calibrationListener);
+        if (checkout != null)
+            checkout.shutdown();
+        reports.shutdown();
+        // The library stays initialized for the process, only the device is closed
         setDevice(null, null);
-        if (NBDevices.isInitialized())
-            NBDevices.terminate();
+        DeviceSessionManager.getInstance().invalidate();
     }
     
     @Override
     protected void onStart() {
         super.onStart();
         this.deviceInfo = null;
-        updateDevice();
     }
     
     @Override
     protected void onResume() {
         super.onResume();
-        updateDevice();
+        // Also covers onStart, which is always followed by onResume
+        updateDeviceWhenReady();
     }
     
     @Override
     protected void onStop() {
         super.onStop();
         if (testCommandTask != null) {
-            testCommandTask.cancel(true);
+            testCommandTask.cancel(false);
         }
     }
     
@@ -127,27 +159,66 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
                     Intent intent = new Intent(this, CaptureActivity.class);
                     Bundle bundle = new Bundle();
                     bundle.putSerializable("value", deviceInfo);
-                    //device.closeSession(); // TODO close session properly
-                    device.dispose();
+                    // The device stays open, CaptureActivity leases it from DeviceSessionManager
                     intent.putExtras(bundle);
                     startActivity(intent);
                 } else {
-                    testCommandTask = new TestCommand();
-                    testCommandTask.execute(selectedCmd);
+                    runCommand(selectedCmd);
                 }
             }
         }
     }
     
+    /**
+     * Looks the device up once the library is ready. Opening the session takes a
+     * while, so this runs on the device thread rather than the UI thread.
+     */
+    private void updateDeviceWhenReady() {
+        if (deviceUpdateQueued)
+            return;
+        deviceUpdateQueued = true;
+        final AppStartup startup = application.getStartup();
+        startup.getReady().whenDone(new DeviceFuture.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                DeviceFuture<Boolean> update = DeviceCommandExecutor.getInstance().submit(DeviceCommandExecutor.Lane.COMMAND, null,
+                  COMMAND_TIMEOUT_MILLIS, new DeviceCommandExecutor.Command<Boolean>() {
+                      @Override
+                      public Boolean run() {
+                          updateDevice();
+                          startup.deviceReady(device != null);
+                          return device != null;
+                      }
+                  });
+                update.whenDone(new DeviceFuture.Callback<Boolean>() {
+                    @Override
+                    public void onSuccess(Boolean found) {
+                        deviceUpdateQueued = false;
+                        reportFullyDrawn();
+                    }
+                    
+                    @Override
+                    public void onFailure(Throwable error) {
+                        deviceUpdateQueued = false;
+                        startup.deviceReady(false);
+                    }
+                }, uiThread);
+            }
+            
+            @Override
+            public void onFailure(Throwable error) {
+                deviceUpdateQueued = false;
+                startup.deviceReady(false);
+                log.setText(error.toString());
+            }
+        }, uiThread);
+    }
+    
     private void updateDevice() {
         setDevice(null, null);
-        NBDevice device = null;
         DeviceInfo deviceInfo = this.deviceInfo;
-        if (deviceInfo != null) {
-            device = DeviceInfo.getDevice(deviceInfo);
-        } else {
-            device = DeviceInfo.getDevice(null);
-        }
+        SessionPool.Lease<BiometricDevice> lease = DeviceSessionManager.getInstance().acquire(deviceInfo);
+        BiometricDevice device = lease != null ? lease.get() : null;
         if (device != null) {
             if (deviceInfo != null && deviceInfo.getId() != null && deviceInfo.getId().equals(device.getId())) {
                 deviceInfo = new DeviceInfo(device.getId(), deviceInfo.isSpi(), deviceInfo.getSpiName(),
@@ -159,119 +230,107 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
             deviceInfo = null;
         }
         
-        setDevice(deviceInfo, device);
+        setDevice(deviceInfo, lease);
         updateButtons();
     }
     
     private void setLog(String text) {
         StringBuilder builder = new StringBuilder();
         builder.append(getString(R.string.welcome_message)).append("\n");
-        NBVersion version = NBDevicesLibrary.getVersion();
-        builder.append(getString(R.string.library_version)).append(version).append("\n\n");
+        NBVersion version = application.getLibraryVersion();
+        builder.append(getString(R.string.library_version)).append(version != null ? version.toString() : getString(R.string.library_loading)).append("\n\n");
         builder.append(text).append("\n\n");
         builder.append(getString(R.string.welcome_message_continue));
         log.setText(builder.toString());
     }
     
     private String getDeviceStatus() {
-        final StringBuilder builder = new StringBuilder();
-        if (device == null) {
-            builder.append(getString(R.string.device_not_connected)).append("\n");
-        } else {
-            builder.append(getString(R.string.device_id)).append(device.getId()).append("\n");
-            builder.append(getString(R.string.device_manufacturer)).append(device.getManufacturer()).append("\n");
-            builder.append(getString(R.string.device_model)).append(device.getModel()).append("\n");
-            builder.append(getString(R.string.device_serialnumber)).append(device.getSerialNumber()).append("\n");
-            if(device.getModuleSerialNumber().compareTo(device.getSerialNumber()) != 0)
-            {
-                builder.append(getString(R.string.module_serialnumber)).append(device.getModuleSerialNumber()).append("\n");
-            }
-            builder.append(getString(R.string.device_product)).append(device.getProduct()).append("\n");
-            builder.append(getString(R.string.device_firmware_version)).append(device.getFirmwareVersion()).append("\n");
-            builder.append(getString(R.string.device_type)).append(device.getType().toString()).append("\n");
-            builder.append(getString(R.string.device_connection_type)).append(device.getConnectionType().toString()).append("\n");
-            builder.append(getString(R.string.device_state)).append(device.getState()).append("\n");
-            builder.append(getString(R.string.device_supported_formats)).append("\n");
-            for (NBDeviceScanFormatInfo format : device.getSupportedScanFormats()) {
-                builder.append(String.format("\t%s\n", format));
+        DeviceSnapshot snapshot = this.snapshot;
+        if (snapshot == null)
+            return getString(R.string.device_not_connected) + "\n";
+        return snapshot.getStatusText(statusLabels);
+    }
+    
+    private DeviceSnapshot.Labels createStatusLabels() {
+        final String[] labels = new String[DeviceSnapshot.Label.values().length];
+        for (DeviceSnapshot.Label label : DeviceSnapshot.Label.values()) {
+            int id;
+            switch (label) {
+                case ID:                    id = R.string.device_id; break;
+                case MANUFACTURER:          id = R.string.device_manufacturer; break;
+                case MODEL:                 id = R.string.device_model; break;
+                case SERIAL_NUMBER:         id = R.string.device_serialnumber; break;
+                case MODULE_SERIAL_NUMBER:  id = R.string.module_serialnumber; break;
+                case PRODUCT:               id = R.string.device_product; break;
+                case FIRMWARE_VERSION:      id = R.string.device_firmware_version; break;
+                case TYPE:                  id = R.string.device_type; break;
+                case CONNECTION_TYPE:       id = R.string.device_connection_type; break;
+                case STATE:                 id = R.string.device_state; break;
+                case FINGER_DETECT_VALUE:   id = R.string.finger_detect_value; break;
+                default:                    id = R.string.device_supported_formats; break;
             }
-            
-            NBDeviceCapabilities capabilities = device.getCapabilities();
-            if(capabilities.requiresExternalCalibrationData) {
-                String path = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS) + "/NBData/" + device.getSerialNumber() + "_calblob.bin";
-                builder.append("Device compensation data:" + path).append("\n");
-                File file = new File(path);
-                
-                if(!file.exists()) {
-                    builder.append("Device compensation data missing!");
-                }
+            labels[label.ordinal()] = getString(id);
+        }
+        return new DeviceSnapshot.Labels() {
+            @Override
+            public String get(DeviceSnapshot.Label label) {
+                return labels[label.ordinal()];
             }
+        };
+    }
+    
+    private String getMetrics() {
+        CaptureMetrics metrics = CaptureMetrics.getInstance();
+        StringBuilder builder = new StringBuilder(metrics.report());
+        DeviceSnapshot snapshot = this.snapshot;
+        String terminal = Build.MANUFACTURER + " " + Build.MODEL + (snapshot != null ? " " + snapshot.getSerialNumber() : "");
+        try {
+            File[] files = metrics.export(CalibrationStore.getInstance().getDirectory(), terminal);
+            builder.append(getString(R.string.metrics_exported));
+            for (File file : files)
+                builder.append("\n").append(file.getPath());
+        }
+        catch (IOException e) {
+            builder.append(e.getMessage());
         }
         return builder.toString();
     }
     
-    private void setDevice(DeviceInfo deviceInfo, final NBDevice device) {
+    /**
+     * Compares the quality pre-screen with NFIQ on the archived captures.
+     */
+    private String validatePreScreen() throws IOException, InterruptedException {
+        CaptureArchive archive = CaptureArchive.getInstance();
+        archive.flush();
+        return QualityPreScreenValidation.validate(archive.getFiles(), new QualityPreScreen()).toString();
+    }
+    
+    private void setDevice(DeviceInfo deviceInfo, SessionPool.Lease<BiometricDevice> lease) {
         if (this.deviceInfo == null || !this.deviceInfo.isSpi())
             this.deviceInfo = deviceInfo;
-        if (device == null && this.device != null) {
-            this.device.dispose();
-            this.device = null;
-        } else {
-            this.device = device;
-        }
-        
-        if(device != null && !device.isSessionOpen()) {
-            byte[] cakId = "DefaultCAKKey1\0".getBytes();
-            byte[] cak = {
-              (byte)0x05, (byte)0x4B, (byte)0x38, (byte)0x3A, (byte)0xCF, (byte)0x5B, (byte)0xB8, (byte)0x01, (byte)0xDC, (byte)0xBB, (byte)0x85, (byte)0xB4, (byte)0x47, (byte)0xFF, (byte)0xF0, (byte)0x79,
-              (byte)0x77, (byte)0x90, (byte)0x90, (byte)0x81, (byte)0x51, (byte)0x42, (byte)0xC1, (byte)0xBF, (byte)0xF6, (byte)0xD1, (byte)0x66, (byte)0x65, (byte)0x0A, (byte)0x66, (byte)0x34, (byte)0x11
-            };
-            byte[] cdkId = "Application Lock\0".getBytes();
-            byte[] cdk = {
-              (byte)0x6B, (byte)0xC5, (byte)0x51, (byte)0xD1, (byte)0x12, (byte)0xF7, (byte)0xE3, (byte)0x42, (byte)0xBD, (byte)0xDC, (byte)0xFB, (byte)0x5D, (byte)0x79, (byte)0x4E, (byte)0x5A, (byte)0xD6,
-              (byte)0x54, (byte)0xD1, (byte)0xC9, (byte)0x90, (byte)0x28, (byte)0x05, (byte)0xCF, (byte)0x5E, (byte)0x4C, (byte)0x83, (byte)0x63, (byte)0xFB, (byte)0xC2, (byte)0x3C, (byte)0xF6, (byte)0xAB
-            };
-            byte[] defaultAuthKey1Id = "AUTH1\0".getBytes();
-            byte[] defaultAuthKey1 = {
-              (byte)0xDA, (byte)0x2E, (byte)0x35, (byte)0xB6, (byte)0xCB, (byte)0x96, (byte)0x2B, (byte)0x5F, (byte)0x9F, (byte)0x34, (byte)0x1F, (byte)0xD1, (byte)0x47, (byte)0x41, (byte)0xA0, (byte)0x4D,
-              (byte)0xA4, (byte)0x09, (byte)0xCE, (byte)0xE8, (byte)0x35, (byte)0x48, (byte)0x3C, (byte)0x60, (byte)0xFB, (byte)0x13, (byte)0x91, (byte)0xE0, (byte)0x9E, (byte)0x95, (byte)0xB2, (byte)0x7F
-            };
-            NBDeviceSecurityModel security = NBDeviceSecurityModel.get(device.getCapabilities().securityModel);
-            if(security == NBDeviceSecurityModel.Model65200CakOnly) {
-                device.openSession(cakId, cak);
-            }
-            else if(security == NBDeviceSecurityModel.Model65200CakCdk) {
-                try {
-                    device.openSession(cdkId, cdk);
-                    device.SetBlobParameter(NBDevice.BLOB_PARAMETER_SET_CDK, null);
-                    device.closeSession();
-                }
-                catch (RuntimeException ex) {
-                }
-                device.openSession(cakId, cak);
-                device.SetBlobParameter(NBDevice.BLOB_PARAMETER_SET_CDK, cdk);
-                device.closeSession();
-                device.openSession(cdkId, cdk);
+        if (this.deviceLease != null && this.deviceLease != lease)
+            this.deviceLease.release();
+        this.deviceLease = lease;
+        BiometricDevice device = lease != null ? lease.get() : null;
+        if (device != this.device)
+            this.snapshot = device != null ? DeviceSnapshot.capture(device, CalibrationStore.getInstance()) : null;
+        this.device = device;
+        checkCalibration(this.device);
+    }
+    
+    private void checkCalibration(final BiometricDevice device) {
+        if(device != null && device.requiresExternalCalibrationData()) {
+            CalibrationStore calibrationStore = CalibrationStore.getInstance();
+            final String paths = calibrationStore.getBlobFile(device.getSerialNumber()).getPath();
+            calibrationStore.getDirectory().mkdirs();
+            CalibrationJob job = CalibrationJobs.getInstance().getActiveJob(device.getSerialNumber());
+            if(calibrationStore.exists(device.getSerialNumber())) {
+                calibrationStore.upload(device);
             }
-            else if(security == NBDeviceSecurityModel.Model65100) {
-                device.openSession(defaultAuthKey1Id, defaultAuthKey1);
-            }
-        }
-        
-        if(device != null && device.getCapabilities().requiresExternalCalibrationData) {
-            final String paths = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS) + "/NBData/" + device.getSerialNumber() + "_calblob.bin";
-            new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS) + "/NBData/").mkdirs();
-            File file = new File(paths);
-            if(file.exists()) {
-                int size = (int) file.length();
-                byte[] bytes = new byte[size];
-                try {
-                    BufferedInputStream buf = new BufferedInputStream(new FileInputStream(file));
-                    buf.read(bytes, 0, bytes.length);
-                    buf.close();
-                }
-                catch (IOException ex) {}
-                device.SetBlobParameter(NBDevice.BLOB_PARAMETER_CALIBRATION_DATA, bytes);
+            else if(job != null) {
+                // Already being calibrated in the background, e.g. since boot
+                if(calibrating.compareAndSet(false, true))
+                    startCalibration(device);
             }
             else if(calibrating.compareAndSet(false, true)) {
                 runOnUiThread(new Runnable() { public void run() {
@@ -282,33 +341,7 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
                     alert.setPositiveButton("Ok",
                       new DialogInterface.OnClickListener() {
                           public void onClick(DialogInterface dialog, int whichButton) {
-                              progressDialog = new ProgressDialog(MainActivity.this);
-                              progressDialog.setMessage("Generating calibration data...");
-                              progressDialog.setTitle("Creation of calibration data file:");
-                              progressDialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
-                              progressDialog.setCancelable(false);
-                              progressDialog.setCanceledOnTouchOutside(false);
-                              progressDialog.show();
-                              
-                              new Thread() {
-                                  public void run() {
-                                      try {
-                                          byte[] data = MainActivity.this.device.GenerateCalibrationData();
-                                          FileOutputStream fos = new FileOutputStream(paths);
-                                          fos.write(data);
-                                          fos.close();
-                                          setDevice(MainActivity.this.deviceInfo, MainActivity.this.device);
-                                          updateButtons();
-                                          progressDialog.dismiss();
-                                          calibrating.set(false);
-                                          runOnUiThread(new Runnable() { public void run() { Toast.makeText(MainActivity.this, "Calibration data created", Toast.LENGTH_LONG).show(); } });
-                                      }
-                                      catch(final Exception e) {
-                                          runOnUiThread(new Runnable() { public void run() { Toast.makeText(MainActivity.this, e.getMessage(), Toast.LENGTH_LONG).show(); } });
-                                      }
-                                  }
-                              }.start();
-                              runOnUiThread(new Runnable() { public void run() { Toast.makeText(MainActivity.this, "Creating calibration data, please wait ...", Toast.LENGTH_LONG).show(); } });
+                              startCalibration(device);
                           }
                       }
                     );
@@ -329,6 +362,70 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
         }
     }
     
+    private void startCalibration(final BiometricDevice device) {
+        CalibrationJob.Listener listener = new CalibrationJob.Listener() {
+            @Override
+            public void onProgress(final CalibrationJob job) {
+                runOnUiThread(new Runnable() { public void run() {
+                    if (progressDialog != null) {
+                        progressDialog.setProgress((int) (job.getProgress() * 100));
+                        progressDialog.setMessage(String.format("Generating calibration data, about %d s left...", job.getRemainingMillis() / 1000));
+                    }
+                } });
+            }
+            
+            @Override
+            public void onFinished(final CalibrationJob job) {
+                if (job.getState() == CalibrationJob.State.SUCCEEDED && MainActivity.this.device == device) {
+                    DeviceSnapshot snapshot = MainActivity.this.snapshot;
+                    if (snapshot != null)
+                        MainActivity.this.snapshot = snapshot.refreshCalibration();
+                    checkCalibration(device);
+                    updateButtons();
+                }
+                runOnUiThread(new Runnable() { public void run() {
+                    if (progressDialog != null) {
+                        progressDialog.dismiss();
+                        progressDialog = null;
+                    }
+                    calibrating.set(false);
+                    String message;
+                    if (job.getState() == CalibrationJob.State.SUCCEEDED)
+                        message = "Calibration data created";
+                    else if (job.getState() == CalibrationJob.State.CANCELLED)
+                        message = "Calibration cancelled, device compensation data is missing!";
+                    else
+                        message = job.getError() != null ? job.getError().getMessage() : "Calibration failed";
+                    Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+                } });
+            }
+        };
+        if (calibrationJob != null)
+            calibrationJob.removeListener(calibrationListener);
+        calibrationListener = listener;
+        final CalibrationJob job = CalibrationJobs.getInstance().start(device, listener);
+        calibrationJob = job;
+        
+        runOnUiThread(new Runnable() { public void run() {
+            if (job.getState().isFinished())
+                return;
+            progressDialog = new ProgressDialog(MainActivity.this);
+            progressDialog.setMessage("Generating calibration data...");
+            progressDialog.setTitle("Creation of calibration data file:");
+            progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            progressDialog.setMax(100);
+            progressDialog.setCancelable(false);
+            progressDialog.setCanceledOnTouchOutside(false);
+            progressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, "Cancel", new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface dialog, int whichButton) {
+                    job.cancel();
+                }
+            });
+            progressDialog.show();
+            Toast.makeText(MainActivity.this, "Creating calibration data, please wait ...", Toast.LENGTH_LONG).show();
+        } });
+    }
+    
     private void updateButtons() {
         runOnUiThread(new Runnable() {
             @Override
@@ -336,7 +433,7 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
                 CharSequence item = spinnerAdapter.getItem(commandSpinner.getSelectedItemPosition());
                 if (item != null) {
                     String name = item.toString();
-                    if ("CONNECT_TO_SPI".equals(name)) {
+                    if ("CONNECT_TO_SPI".equals(name) || "GET_METRICS".equals(name) || "RESCAN".equals(name) || "VALIDATE_PRESCREEN".equals(name)) {
                         testBtn.setEnabled(true);
                     }
                     else {
@@ -353,75 +450,191 @@ public class MainActivity extends Activity implements OnClickListener, NBDevices
     
     @Override
     public void added(NBDevicesDeviceChangedEvent event) {
-        NBDevice device = event.getDevice();
-        setDevice(new DeviceInfo(device.getId()), device);
-        updateButtons();
+        final DeviceInfo deviceInfo = new DeviceInfo(event.getDevice().getId());
+        // Connecting is a device call, not one for the thread of the library callback
+        DeviceCommandExecutor.getInstance().submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+            @Override
+            public Void run() {
+                setDevice(deviceInfo, DeviceSessionManager.getInstance().acquire(deviceInfo));
+                updateButtons();
+                return null;
+            }
+        });
     }
     
     @Override
     public void removed(NBDevicesDeviceChangedEvent event) {
-        setDevice(null, null);
-        updateButtons();
+        // After an add still queued, so the device does not come back
+        DeviceCommandExecutor.getInstance().submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+            @Override
+            public Void run() {
+                setDevice(null, null);
+                updateButtons();
+                return null;
+            }
+        });
+    }
+    
+    private void runCommand(String cmd) {
+        testBtn.setEnabled(false);
+        commandSpinner.setEnabled(false);
+        DeviceCommandExecutor executor = DeviceCommandExecutor.getInstance();
+        TestCommand command = new TestCommand(cmd);
+        if (cmd.equals("CHECKOUT")) {
+            // Not a TestCommand, the fingerprint leg needs the device thread a command would block
+            testCommandTask = runCheckout();
+        }
+        else if (isReportCommand(cmd)) {
+            testCommandTask = runReport(command);
+        }
+        else if (isStatusCommand(cmd)) {
+            // Status requests jump ahead of queued commands and repeated ones share a result
+            testCommandTask = executor.submit(DeviceCommandExecutor.Lane.STATUS, cmd, STATUS_TIMEOUT_MILLIS, command);
+        }
+        else {
+            testCommandTask = executor.submit(DeviceCommandExecutor.Lane.COMMAND, null, COMMAND_TIMEOUT_MILLIS, command);
+        }
+        testCommandTask.whenDone(new DeviceFuture.Callback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                finished(result);
+            }
+            
+            @Override
+            public void onFailure(Throwable error) {
+                if (!(error instanceof CancellationException))
+                    finished(error.getMessage());
+            }
+        }, uiThread);
+    }
+    
+    /**
+     * Reads a card and captures a fingerprint at the same time, as at a checkout.
+     */
+    private DeviceFuture<String> runCheckout() {
+        if (checkout == null || checkoutDevice != device) {
+            if (checkout != null)
+                checkout.shutdown();
+            checkout = new CheckoutOrchestrator(getCardReader(), device, DeviceCommandExecutor.getInstance());
+            checkoutDevice = device;
+        }
+        // The formats were read on connection, the UI thread makes no device calls
+        return checkout.start(CHECKOUT_AMOUNT, snapshot.getSupportedScanFormats()[0], CHECKOUT_DEADLINE_MILLIS)
+          .then(new DeviceFuture.Transform<CheckoutOrchestrator.Outcome, String>() {
+              @Override
+              public String apply(CheckoutOrchestrator.Outcome outcome) {
+                  return getString(R.string.checkout_outcome, outcome.toString());
+              }
+          });
     }
     
-    private class TestCommand extends AsyncTask<String, String, Boolean> {
+    /**
+     * Runs a command that reads files and metrics only on the report thread.
+     */
+    private DeviceFuture<String> runReport(final TestCommand command) {
+        final DeviceFuture<String> future = new DeviceFuture<String>();
+        reports.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!future.isDone())
+                    future.complete(command.run());
+            }
+        });
+        return future;
+    }
+    
+    private CardReader getCardReader() {
+        if (cardReader == null) {
+            try {
+                cardReader = new ZcsCardReader();
+            }
+            catch (Throwable e) {
+                // Not a SmartPos terminal, the checkout still shows what running the legs in parallel saves
+                e.printStackTrace();
+                SimulatedCardReader simulated = new SimulatedCardReader();
+                simulated.setTiming(1500, 800);
+                cardReader = simulated;
+            }
+        }
+        return cardReader;
+    }
+    
+    private void finished(String message) {
+        if (message != null)
+            setLog(message);
+        testBtn.setEnabled(true);
+        commandSpinner.setEnabled(true);
+    }
+    
+    private static boolean isStatusCommand(String cmd) {
+        return cmd.equals("GET_STATUS") || cmd.equals("GET_FINGER_DETECT_VALUE");
+    }
+    
+    private static boolean isReportCommand(String cmd) {
+        return cmd.equals("GET_METRICS") || cmd.equals("VALIDATE_PRESCREEN");
+    }
+    
+    /**
+     * Runs one of the sensor_cmd_list commands on the device thread, or the report
+     * thread for those that do not use the device, and returns what to log.
+     */
+    private class TestCommand extends DeviceCommandExecutor.Command<String> {
         
-        @Override
-        protected void onPreExecute() {
-            testBtn.setEnabled(false);
-            commandSpinner.setEnabled(false);
-            super.onPreExecute();
+        private final String cmd;
+        
+        TestCommand(String cmd) {
+            this.cmd = cmd;
         }
         
         @Override
-        protected Boolean doInBackground(String... params) {
+        public String run() {
+            long start = System.nanoTime();
             try {
-                switch (params[0]) {
+                switch (cmd) {
                     case "CONNECT_TO_SPI":
                         if (deviceInfo != null && deviceInfo.isSpi()) setDevice(null, null);
-                        DeviceInfo newDeviceInfo = new DeviceInfo(DEFAULT_SPI_NAME, AWAKE_PIN_NUMBER, RESET_PIN_NUMBER, CHIP_SELECT_PIN_NUMBER);
-                        NBDevice newDevice = DeviceInfo.getDevice(newDeviceInfo);
-                        setDevice(newDeviceInfo, newDevice);
+                        DeviceInfo newDeviceInfo = DeviceInfo.createPreferredSpi();
+                        setDevice(newDeviceInfo, DeviceSessionManager.getInstance().acquire(newDeviceInfo));
                         updateButtons();
-                        return true;
+                        return null;
                     case "GET_STATUS":
-                        publishProgress(getDeviceStatus());
-                        return true;
+                        // The state is the one thing asked for again, the rest was read on connection
+                        if (device != null && snapshot != null)
+                            snapshot = snapshot.refresh(device);
+                        return getDeviceStatus();
                     case "GET_FINGER_DETECT_VALUE":
                         if (device != null) {
                             int detectValue = device.getFingerDetectValue();
-                            publishProgress(String.format("%s%d", getString(R.string.finger_detect_value), detectValue));
+                            if (snapshot != null)
+                                snapshot = snapshot.withFingerDetectValue(detectValue);
+                            return String.format("%s%d", getString(R.string.finger_detect_value), detectValue);
                         }
-                        return true;
+                        return null;
                     case "SOFT_RESET":
                         if (device != null) {
                             device.reset();
-                            publishProgress(getString(R.string.device_has_been_reset));
+                            CalibrationStore.getInstance().invalidate(device);
+                            return getString(R.string.device_has_been_reset);
                         }
-                        return true;
+                        return null;
+                    case "GET_METRICS":
+                        return getMetrics();
+                    case "RESCAN":
+                        DeviceRegistry.getInstance().rescan();
+                        return getString(R.string.devices_found, DeviceRegistry.getInstance().getDeviceCount());
+                    case "VALIDATE_PRESCREEN":
+                        return validatePreScreen();
                     default:
-                        publishProgress(getString(R.string.unknown_command));
-                        return true;
+                        return getString(R.string.unknown_command);
                 }
             }
             catch (Throwable e) {
                 e.printStackTrace();
-                publishProgress(e.getMessage());
+                return e.getMessage();
+            }
+            finally {
+                CaptureMetrics.getInstance().recordCommand(cmd, start);
             }
-            return null;
-        }
-        
-        @Override
-        protected void onProgressUpdate(String... values) {
-            setLog(values[0]);
-            super.onProgressUpdate(values);
-        }
-        
-        @Override
-        protected void onPostExecute(Boolean result) {
-            testBtn.setEnabled(true);
-            commandSpinner.setEnabled(true);
-            super.onPostExecute(result);
         }
     }
 }
@@ -0,0 +1,134 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDevice;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanResult;
+import com.nextbiometrics.devices.NBDeviceSecurityModel;
+import com.nextbiometrics.devices.NBDeviceState;
+import com.nextbiometrics.devices.event.NBDeviceScanPreviewEvent;
+import com.nextbiometrics.devices.event.NBDeviceScanPreviewListener;
+
+/**
+ * {@link BiometricDevice} backed by a connected NEXT Biometrics sensor.
+ */
+public class NBBiometricDevice implements BiometricDevice {
+    
+    private final NBDevice device;
+    
+    public NBBiometricDevice(NBDevice device) {
+        this.device = device;
+    }
+    
+    /**
+     * The wrapped device, for the details only the NBDevices library knows about.
+     */
+    public NBDevice getNBDevice() {
+        return device;
+    }
+    
+    @Override
+    public String getId() {
+        return device.getId();
+    }
+    
+    @Override
+    public String getSerialNumber() {
+        return device.getSerialNumber();
+    }
+    
+    @Override
+    public NBDeviceState getState() {
+        return device.getState();
+    }
+    
+    @Override
+    public NBDeviceSecurityModel getSecurityModel() {
+        return NBDeviceSecurityModel.get(device.getCapabilities().securityModel);
+    }
+    
+    @Override
+    public boolean requiresExternalCalibrationData() {
+        return device.getCapabilities().requiresExternalCalibrationData;
+    }
+    
+    @Override
+    public NBDeviceScanFormatInfo[] getSupportedScanFormats() {
+        return device.getSupportedScanFormats();
+    }
+    
+    @Override
+    public ScanResult scan(NBDeviceScanFormatInfo format) {
+        return wrap(device.scan(format));
+    }
+    
+    @Override
+    public ScanResult scanEx(NBDeviceScanFormatInfo format, int timeout, final PreviewListener listener) {
+        if (listener == null)
+            return wrap(device.scanEx(format, timeout, null));
+        return wrap(device.scanEx(format, timeout, new NBDeviceScanPreviewListener() {
+            @Override
+            public void preview(NBDeviceScanPreviewEvent event) {
+                listener.preview(event.getStatus(), event.getFingerDetectValue(), event.getFormat(), event.getImage());
+            }
+        }));
+    }
+    
+    @Override
+    public boolean isScanRunning() {
+        return device.isScanRunning();
+    }
+    
+    @Override
+    public void cancelScan() {
+        device.cancelScan();
+    }
+    
+    @Override
+    public int getFingerDetectValue() {
+        return device.getFingerDetectValue();
+    }
+    
+    @Override
+    public boolean isSessionOpen() {
+        return device.isSessionOpen();
+    }
+    
+    @Override
+    public void openSession(byte[] keyId, byte[] key) {
+        device.openSession(keyId, key);
+    }
+    
+    @Override
+    public void closeSession() {
+        device.closeSession();
+    }
+    
+    @Override
+    public void setBlobParameter(int parameter, byte[] data) {
+        device.SetBlobParameter(parameter, data);
+    }
+    
+    @Override
+    public byte[] generateCalibrationData() {
+        return device.GenerateCalibrationData();
+    }
+    
+    @Override
+    public void reset() {
+        device.reset();
+    }
+    
+    @Override
+    public void dispose() {
+        device.dispose();
+    }
+    
+    @Override
+    public String toString() {
+        return device.toString();
+    }
+    
+    private static ScanResult wrap(NBDeviceScanResult result) {
+        return new ScanResult(result.getStatus(), result.getFormat(), result.getImage());
+    }
+}
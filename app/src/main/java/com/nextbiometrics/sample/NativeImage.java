@@ -0,0 +1,72 @@
+package com.nextbiometrics.sample;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Image stage backed by the {@code sample} native library (see {@code src/main/cpp}).
+ * <p>
+ * Every operation has a Java fallback with identical output, used when the library
+ * could not be loaded or the bitmap does not match the native requirements.
+ */
+public final class NativeImage {
+    
+    private static final String TAG = "NativeImage";
+    private static final boolean AVAILABLE = loadLibrary();
+    
+    private NativeImage() {
+    }
+    
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+    
+    /**
+     * Name of the vector extension the native kernels were built with, or "java".
+     */
+    public static String getIsa() {
+        return AVAILABLE ? nativeIsa() : "java";
+    }
+    
+    /**
+     * Expands a raw grey image into a mutable ARGB_8888 bitmap in place.
+     *
+     * @param pixels scratch buffer for the Java fallback, at least width * height long
+     */
+    public static void toBitmap(byte[] image, int width, int height, Bitmap bitmap, int[] pixels) {
+        if (AVAILABLE && nativeGreyToRgba(image, width, height, bitmap))
+            return;
+        int count = Math.min(image.length, width * height);
+        GreyscaleLut.toArgb(image, pixels, count);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+    }
+    
+    public static void computeStats(byte[] image, int count, ImageStats stats) {
+        count = Math.min(count, image.length);
+        if (AVAILABLE && nativeComputeStats(image, count, stats.getHistogram(), stats.getSums()))
+            return;
+        stats.compute(image, count);
+    }
+    
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary("sample");
+            return true;
+        }
+        catch (Throwable e) {
+            try {
+                Log.w(TAG, "Native image stage not available, using Java fallback: " + e);
+            }
+            catch (RuntimeException ignored) {
+                // android.util.Log is not available in host unit tests
+            }
+            return false;
+        }
+    }
+    
+    private static native boolean nativeGreyToRgba(byte[] image, int width, int height, Bitmap bitmap);
+    
+    private static native boolean nativeComputeStats(byte[] image, int count, int[] histogram, long[] sums);
+    
+    private static native String nativeIsa();
+}
@@ -0,0 +1,15 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDevice;
+import com.nextbiometrics.devices.NBDeviceImageQualityAlgorithm;
+
+/**
+ * NFIQ as computed by the NBDevices library.
+ */
+public class NfiqAlgorithm implements QualityScorer.Algorithm {
+    
+    @Override
+    public int score(byte[] image, int width, int height, int resolution) {
+        return NBDevice.GetImageQuality(image, width, height, resolution, NBDeviceImageQualityAlgorithm.NFIQ);
+    }
+}
@@ -0,0 +1,134 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Default {@link TemplateExtractor}, estimating the ridge orientation field of the image.
+ * <p>
+ * The image is divided into cells of about a millimetre ({@value #CELL_PIXELS} pixels at
+ * {@value #REFERENCE_RESOLUTION} ppi). For every cell the gradient structure tensor
+ * gives the doubled ridge angle and its coherence, cells that are too flat to hold
+ * ridges are background. The field is smoothed over the neighbouring cells and the
+ * template grid is centred on the middle of the finger, so the position of the finger
+ * on the sensor only needs to be corrected by a few cells when matching.
+ * <p>
+ * An extractor is stateless and thread safe.
+ */
+public class OrientationFieldExtractor implements TemplateExtractor {
+    
+    static final int REFERENCE_RESOLUTION = 385;
+    static final int CELL_PIXELS = 16;
+    // Grey level deviation below which a cell holds no ridges
+    static final int MIN_DEVIATION = 10;
+    // Coherence below which a cell has no clear orientation
+    static final double MIN_COHERENCE = 0.2;
+    // Fewer foreground cells than this are no finger
+    static final int MIN_CELLS = FingerprintTemplate.MIN_OVERLAP;
+    
+    @Override
+    public FingerprintTemplate extract(byte[] image, int width, int height, int resolution) {
+        int size = resolution > 0 ? Math.max(8, Math.round((float) CELL_PIXELS * resolution / REFERENCE_RESOLUTION)) : CELL_PIXELS;
+        int columns = width / size;
+        int rows = height / size;
+        if (columns == 0 || rows == 0)
+            return null;
+        
+        // Doubled angle vectors, scaled by the coherence, of the foreground cells
+        double[] vectorX = new double[columns * rows];
+        double[] vectorY = new double[columns * rows];
+        boolean[] foreground = new boolean[columns * rows];
+        int count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int cell = row * columns + column;
+                if (!tensor(image, width, column * size, row * size, size, vectorX, vectorY, cell))
+                    continue;
+                foreground[cell] = true;
+                sumX += column;
+                sumY += row;
+                count++;
+            }
+        }
+        if (count < MIN_CELLS)
+            return null;
+        
+        // Template cell (0, 0) on the image, the middle of the finger in the middle of the grid
+        int originX = (int) Math.round(sumX / count + 0.5 - FingerprintTemplate.GRID_WIDTH / 2.0);
+        int originY = (int) Math.round(sumY / count + 0.5 - FingerprintTemplate.GRID_HEIGHT / 2.0);
+        byte[] orientations = new byte[FingerprintTemplate.CELLS];
+        byte[] reliabilities = new byte[FingerprintTemplate.CELLS];
+        for (int y = 0; y < FingerprintTemplate.GRID_HEIGHT; y++) {
+            int row = originY + y;
+            if (row < 0 || row >= rows)
+                continue;
+            for (int x = 0; x < FingerprintTemplate.GRID_WIDTH; x++) {
+                int column = originX + x;
+                if (column < 0 || column >= columns || !foreground[row * columns + column])
+                    continue;
+                // Mean of the 3x3 neighbourhood, noise in single cells cancels out
+                double meanX = 0;
+                double meanY = 0;
+                for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                    for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                        int neighbour = r * columns + c;
+                        if (foreground[neighbour]) {
+                            meanX += vectorX[neighbour];
+                            meanY += vectorY[neighbour];
+                        }
+                    }
+                }
+                int cell = row * columns + column;
+                double coherence = Math.sqrt(vectorX[cell] * vectorX[cell] + vectorY[cell] * vectorY[cell]);
+                if (coherence < MIN_COHERENCE)
+                    continue;
+                int reliability = (int) Math.round(coherence * FingerprintTemplate.MAX_RELIABILITY);
+                double angle = Math.atan2(meanY, meanX);
+                int index = y * FingerprintTemplate.GRID_WIDTH + x;
+                orientations[index] = (byte) Math.round(angle * 256 / (2 * Math.PI));
+                reliabilities[index] = (byte) Math.max(1, Math.min(reliability, FingerprintTemplate.MAX_RELIABILITY));
+            }
+        }
+        return new FingerprintTemplate(orientations, reliabilities);
+    }
+    
+    /**
+     * Structure tensor of one cell from central differences.
+     *
+     * @return {@code false} if the cell is background, otherwise its doubled angle
+     *         vector of length coherence is stored at {@code index}
+     */
+    private static boolean tensor(byte[] image, int width, int left, int top, int size, double[] vectorX, double[] vectorY, int index) {
+        long sum = 0;
+        long squares = 0;
+        long xx = 0;
+        long yy = 0;
+        long xy = 0;
+        int n = 0;
+        // The outer pixels of the cell only feed the differences
+        for (int y = top + 1; y < top + size - 1; y++) {
+            int line = y * width;
+            for (int x = left + 1; x < left + size - 1; x++) {
+                int offset = line + x;
+                int value = image[offset] & 0xff;
+                int gx = (image[offset + 1] & 0xff) - (image[offset - 1] & 0xff);
+                int gy = (image[offset + width] & 0xff) - (image[offset - width] & 0xff);
+                sum += value;
+                squares += value * value;
+                xx += gx * gx;
+                yy += gy * gy;
+                xy += gx * gy;
+                n++;
+            }
+        }
+        double mean = (double) sum / n;
+        if (squares / (double) n - mean * mean < MIN_DEVIATION * MIN_DEVIATION || xx + yy == 0)
+            return false;
+        // Doubled gradient angle, the ridges run across it; coherence as its length
+        double dx = xx - yy;
+        double dy = 2.0 * xy;
+        double scale = 1.0 / (xx + yy);
+        vectorX[index] = dx * scale;
+        vectorY[index] = dy * scale;
+        return true;
+    }
+}
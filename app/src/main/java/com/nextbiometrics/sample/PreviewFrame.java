@@ -0,0 +1,71 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * Copy of a scan preview event owned by the {@link PreviewPipeline}.
+ * <p>
+ * Frames are recycled: a handler must not keep a reference to a frame or to its
+ * image buffer after {@link PreviewPipeline.FrameHandler#onFrame(PreviewFrame)} returns.
+ */
+public final class PreviewFrame {
+    
+    private long                    sequence;
+    private long                    timestampNanos;
+    private NBDeviceScanStatus      status;
+    private int                     fingerDetectValue;
+    private NBDeviceScanFormatInfo  format;
+    private byte[]                  image = new byte[0];
+    private int                     length;
+    
+    void set(long sequence, NBDeviceScanStatus status, int fingerDetectValue, NBDeviceScanFormatInfo format, byte[] image) {
+        this.sequence = sequence;
+        this.timestampNanos = System.nanoTime();
+        this.status = status;
+        this.fingerDetectValue = fingerDetectValue;
+        this.format = format;
+        this.length = image != null ? image.length : 0;
+        if (this.image.length < length)
+            this.image = new byte[length];
+        if (length > 0)
+            System.arraycopy(image, 0, this.image, 0, length);
+    }
+    
+    /**
+     * Position of the frame in the scan, starting at 1.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * {@link System#nanoTime()} at which the scan thread handed the frame over.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+    
+    public NBDeviceScanStatus getStatus() {
+        return status;
+    }
+    
+    public int getFingerDetectValue() {
+        return fingerDetectValue;
+    }
+    
+    public NBDeviceScanFormatInfo getFormat() {
+        return format;
+    }
+    
+    /**
+     * Pixel buffer of the frame, only the first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getImage() {
+        return image;
+    }
+    
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,142 @@
+package com.nextbiometrics.sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * Latest-frame-wins handoff between the scan thread and a preview worker.
+ * <p>
+ * {@link #offer} only copies the raw image into a recycled {@link PreviewFrame}
+ * and publishes it in a single slot, it never waits for the worker. If the worker
+ * has not picked up the previous frame yet, that frame is dropped. At most three
+ * frames are ever allocated: one being written, one in the slot and one being
+ * processed.
+ * <p>
+ * {@link #offer} must always be called from the same thread. A stopped pipeline
+ * cannot be started again.
+ */
+public class PreviewPipeline {
+    
+    public interface FrameHandler {
+        void onFrame(PreviewFrame frame);
+    }
+    
+    private final String                            name;
+    private final FrameHandler                      handler;
+    private final AtomicReference<PreviewFrame>     pending = new AtomicReference<PreviewFrame>();
+    private final AtomicReference<PreviewFrame>     spare = new AtomicReference<PreviewFrame>();
+    private final AtomicLong                        offeredFrames = new AtomicLong();
+    private final AtomicLong                        droppedFrames = new AtomicLong();
+    private final AtomicLong                        processedFrames = new AtomicLong();
+    private final AtomicLong                        failedFrames = new AtomicLong();
+    
+    private PreviewFrame                            writeFrame;
+    private volatile Thread                         worker;
+    private volatile boolean                        running;
+    private boolean                                 started;
+    private volatile RuntimeException               lastError;
+    
+    public PreviewPipeline(String name, FrameHandler handler) {
+        this.name = name;
+        this.handler = handler;
+    }
+    
+    public synchronized void start() {
+        if (started)
+            return;
+        started = true;
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processFrames();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    /**
+     * Stops the worker without waiting for it. A frame that is being processed is
+     * finished, frames still waiting in the slot are discarded.
+     */
+    public synchronized void stop() {
+        running = false;
+        Thread thread = worker;
+        worker = null;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Hands a preview over to the worker. Returns {@code false} if a frame that was
+     * not processed yet had to be dropped.
+     */
+    public boolean offer(NBDeviceScanStatus status, int fingerDetectValue, NBDeviceScanFormatInfo format, byte[] image) {
+        long sequence = offeredFrames.incrementAndGet();
+        PreviewFrame frame = writeFrame;
+        if (frame == null) {
+            frame = spare.getAndSet(null);
+            if (frame == null)
+                frame = new PreviewFrame();
+        }
+        frame.set(sequence, status, fingerDetectValue, format, image);
+        
+        PreviewFrame stale = pending.getAndSet(frame);
+        writeFrame = stale;
+        if (stale != null)
+            droppedFrames.incrementAndGet();
+        
+        Thread thread = worker;
+        if (thread != null)
+            LockSupport.unpark(thread);
+        return stale == null;
+    }
+    
+    public long getOfferedFrames() {
+        return offeredFrames.get();
+    }
+    
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+    
+    public long getProcessedFrames() {
+        return processedFrames.get();
+    }
+    
+    public long getFailedFrames() {
+        return failedFrames.get();
+    }
+    
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+    
+    private void processFrames() {
+        while (running) {
+            PreviewFrame frame = pending.getAndSet(null);
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                handler.onFrame(frame);
+                processedFrames.incrementAndGet();
+            }
+            catch (RuntimeException e) {
+                failedFrames.incrementAndGet();
+                lastError = e;
+            }
+            spare.compareAndSet(null, frame);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.nextbiometrics.sample;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+
+/**
+ * Draws scan previews on a {@link android.view.SurfaceView} in step with the display.
+ * <p>
+ * The preview thread copies each frame into one of two reusable bitmaps
+ * ({@link DoubleBuffer}) and returns at once. A render thread picks up the latest
+ * frame on the next vsync ({@link Choreographer}) and draws it scaled to fit the
+ * surface, frames replaced before a vsync are dropped. Unlike an ImageView this
+ * needs no layout pass and no new bitmap per frame.
+ * <p>
+ * The frame to glass latency, from the scan thread handing the frame over until the
+ * vsync after the surface was posted, is recorded as
+ * {@link CaptureMetrics.Phase#FRAME_TO_GLASS}.
+ */
+public class PreviewRenderer implements SurfaceHolder.Callback, Choreographer.FrameCallback {
+    
+    private static final long   DEFAULT_FRAME_INTERVAL_NANOS = 16666667;
+    
+    private final SurfaceHolder holder;
+    private final HandlerThread thread;
+    private final Handler       handler;
+    private final DoubleBuffer  buffers = new DoubleBuffer();
+    private final Bitmap[]      bitmaps = new Bitmap[2];
+    private final Paint         paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect          target = new Rect();
+    private final Object        surfaceLock = new Object();
+    private Choreographer       choreographer;
+    private boolean             surfaceReady;
+    private int                 surfaceWidth;
+    private int                 surfaceHeight;
+    private boolean             scheduled;
+    private long                lastFrameTimeNanos;
+    private long                frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private volatile boolean    available;
+    
+    public PreviewRenderer(SurfaceHolder holder) {
+        this.holder = holder;
+        thread = new HandlerThread("PreviewRenderer", android.os.Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // The choreographer of the render thread, callbacks arrive on it
+                choreographer = Choreographer.getInstance();
+            }
+        });
+        holder.addCallback(this);
+    }
+    
+    /**
+     * Whether the surface exists, frames passed to {@link #render} are not shown otherwise.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+    
+    /**
+     * Copies a frame of ARGB pixels for display on the next vsync.
+     *
+     * @param timestampNanos when the frame was handed over by the scan thread
+     */
+    public void render(int[] pixels, int width, int height, long timestampNanos) {
+        int slot = buffers.acquire();
+        Bitmap bitmap = bitmaps[slot];
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            // The slot is not drawn while it is acquired, the old bitmap can go
+            if (bitmap != null)
+                bitmap.recycle();
+            bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+            bitmaps[slot] = bitmap;
+        }
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        buffers.publish(slot, timestampNanos);
+        handler.post(scheduleFrame);
+    }
+    
+    /**
+     * Forgets a frame not shown yet and blanks the surface.
+     */
+    public void clear() {
+        buffers.clear();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                draw(null);
+            }
+        });
+    }
+    
+    public long getRenderedFrames() {
+        return buffers.getTaken();
+    }
+    
+    /**
+     * Frames replaced by a newer one before a vsync showed them.
+     */
+    public long getDroppedFrames() {
+        return buffers.getDropped();
+    }
+    
+    public void release() {
+        holder.removeCallback(this);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (scheduled)
+                    choreographer.removeFrameCallback(PreviewRenderer.this);
+                for (int i = 0; i < bitmaps.length; i++) {
+                    if (bitmaps[i] != null) {
+                        bitmaps[i].recycle();
+                        bitmaps[i] = null;
+                    }
+                }
+                thread.quit();
+            }
+        });
+    }
+    
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (!scheduled && choreographer != null) {
+                scheduled = true;
+                choreographer.postFrameCallback(PreviewRenderer.this);
+            }
+        }
+    };
+    
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        if (lastFrameTimeNanos != 0 && frameTimeNanos - lastFrameTimeNanos < frameIntervalNanos)
+            frameIntervalNanos = frameTimeNanos - lastFrameTimeNanos;
+        lastFrameTimeNanos = frameTimeNanos;
+        
+        int slot = buffers.take();
+        if (slot == DoubleBuffer.NONE)
+            return;
+        try {
+            if (draw(bitmaps[slot])) {
+                // Posted now, on the glass with the next vsync
+                long latencyNanos = System.nanoTime() - buffers.getTimestamp(slot) + frameIntervalNanos;
+                CaptureMetrics.getInstance().get(CaptureMetrics.Phase.FRAME_TO_GLASS).record(latencyNanos / 1000);
+            }
+        }
+        finally {
+            buffers.release(slot);
+        }
+        if (buffers.hasPending())
+            scheduleFrame.run();
+    }
+    
+    /**
+     * Draws the bitmap centred and scaled to fit, or only the background for {@code null}.
+     */
+    private boolean draw(Bitmap bitmap) {
+        synchronized (surfaceLock) {
+            if (!surfaceReady)
+                return false;
+            Canvas canvas = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? holder.getSurface().lockHardwareCanvas() : holder.lockCanvas();
+            if (canvas == null)
+                return false;
+            try {
+                canvas.drawColor(Color.WHITE);
+                if (bitmap != null) {
+                    fitCenter(bitmap.getWidth(), bitmap.getHeight());
+                    canvas.drawBitmap(bitmap, null, target, paint);
+                }
+            }
+            finally {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+                    holder.getSurface().unlockCanvasAndPost(canvas);
+                else
+                    holder.unlockCanvasAndPost(canvas);
+            }
+            return true;
+        }
+    }
+    
+    private void fitCenter(int width, int height) {
+        int scaledWidth = surfaceWidth;
+        int scaledHeight = (int) ((long) height * surfaceWidth / width);
+        if (scaledHeight > surfaceHeight) {
+            scaledHeight = surfaceHeight;
+            scaledWidth = (int) ((long) width * surfaceHeight / height);
+        }
+        int left = (surfaceWidth - scaledWidth) / 2;
+        int top = (surfaceHeight - scaledHeight) / 2;
+        target.set(left, top, left + scaledWidth, top + scaledHeight);
+    }
+    
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+    }
+    
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        synchronized (surfaceLock) {
+            surfaceWidth = width;
+            surfaceHeight = height;
+            surfaceReady = true;
+        }
+        available = true;
+        clear();
+    }
+    
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        available = false;
+        // Waits for a draw in progress, the surface must not be used once this returns
+        synchronized (surfaceLock) {
+            surfaceReady = false;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Scales a raw greyscale frame, or the part of it around the finger, straight into
+ * ARGB pixels sized for the view that shows it.
+ * <p>
+ * {@link #layout} picks the region of the frame and the output size: the region
+ * keeps the aspect ratio of the frame and is one of a few fixed zoom levels, so the
+ * output size only changes with the zoom level and the bitmaps for it can be pooled.
+ * The output is never larger than the region. When the region is at least twice
+ * the size of the view it is reduced by an integer factor, averaging the 2x2 pixels
+ * in the middle of each block (the output is then up to one factor larger than the
+ * view), otherwise it is resampled bilinearly to fit the view. Either way the work
+ * is proportional to the output, not to the frame.
+ * <p>
+ * A scaler is not thread safe and only allocates when the output gets wider.
+ */
+public class PreviewScaler {
+    
+    // Fractions of the frame size the region can be zoomed to, in eighths, largest first
+    private static final int[] ZOOM_EIGHTHS = { 8, 6, 4 };
+    // Space left around the finger, in pixels of the frame
+    static final int MARGIN = 16;
+    
+    private int         frameWidth;
+    private int         cropLeft;
+    private int         cropTop;
+    private int         cropWidth;
+    private int         cropHeight;
+    private int         outputWidth;
+    private int         outputHeight;
+    private int         boxFactor;
+    
+    // Per output column scratch: bilinear source columns and weights
+    private int[]       columns = new int[0];
+    private int[]       weights = new int[0];
+    
+    /**
+     * Chooses the region and the output size.
+     *
+     * @param bounds {@code left, top, right, bottom} of the finger in the frame (right
+     *        and bottom exclusive) to zoom in on, {@code null} for the whole frame
+     */
+    public void layout(int width, int height, int viewWidth, int viewHeight, int[] bounds) {
+        frameWidth = width;
+        cropLeft = 0;
+        cropTop = 0;
+        cropWidth = width;
+        cropHeight = height;
+        if (bounds != null && bounds[2] > bounds[0] && bounds[3] > bounds[1]) {
+            int fingerWidth = bounds[2] - bounds[0] + 2 * MARGIN;
+            int fingerHeight = bounds[3] - bounds[1] + 2 * MARGIN;
+            for (int eighths : ZOOM_EIGHTHS) {
+                int zoomedWidth = width * eighths / 8;
+                int zoomedHeight = height * eighths / 8;
+                if (zoomedWidth < fingerWidth || zoomedHeight < fingerHeight)
+                    break;
+                cropWidth = zoomedWidth;
+                cropHeight = zoomedHeight;
+            }
+            cropLeft = clamp((bounds[0] + bounds[2] - cropWidth) / 2, width - cropWidth);
+            cropTop = clamp((bounds[1] + bounds[3] - cropHeight) / 2, height - cropHeight);
+        }
+        
+        if (viewWidth <= 0 || viewHeight <= 0 || (viewWidth >= cropWidth && viewHeight >= cropHeight)) {
+            outputWidth = cropWidth;
+            outputHeight = cropHeight;
+            boxFactor = 1;
+        }
+        else {
+            // Largest integer reduction that still leaves the output at least as large as the view
+            boxFactor = Math.min(cropWidth / viewWidth, cropHeight / viewHeight);
+            if (boxFactor >= 2) {
+                outputWidth = cropWidth / boxFactor;
+                outputHeight = cropHeight / boxFactor;
+            }
+            else {
+                boxFactor = 0;
+                if ((long) viewWidth * cropHeight <= (long) viewHeight * cropWidth) {
+                    outputWidth = viewWidth;
+                    outputHeight = Math.max(1, (int) ((long) cropHeight * viewWidth / cropWidth));
+                }
+                else {
+                    outputHeight = viewHeight;
+                    outputWidth = Math.max(1, (int) ((long) cropWidth * viewHeight / cropHeight));
+                }
+            }
+        }
+        if (columns.length < outputWidth) {
+            columns = new int[outputWidth];
+            weights = new int[outputWidth];
+        }
+    }
+    
+    /**
+     * Fills {@code pixels}, at least {@link #getOutputWidth()} times {@link #getOutputHeight()}
+     * long, from the region chosen by the last {@link #layout}.
+     */
+    public void scale(byte[] image, int[] pixels) {
+        if (boxFactor == 1)
+            copy(image, pixels);
+        else if (boxFactor > 1)
+            box(image, pixels);
+        else
+            bilinear(image, pixels);
+    }
+    
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+    
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+    
+    public int getCropLeft() {
+        return cropLeft;
+    }
+    
+    public int getCropTop() {
+        return cropTop;
+    }
+    
+    public int getCropWidth() {
+        return cropWidth;
+    }
+    
+    public int getCropHeight() {
+        return cropHeight;
+    }
+    
+    /**
+     * Integer reduction factor of the last layout, 1 for a plain copy and 0 for bilinear resampling.
+     */
+    public int getBoxFactor() {
+        return boxFactor;
+    }
+    
+    private void copy(byte[] image, int[] pixels) {
+        int width = outputWidth;
+        int stride = frameWidth;
+        int source = cropTop * stride + cropLeft;
+        for (int target = 0, end = outputHeight * width; target < end; target += width, source += stride)
+            GreyscaleLut.toArgb(image, source, pixels, target, width);
+    }
+    
+    private void box(byte[] image, int[] pixels) {
+        int factor = boxFactor;
+        // The 2x2 pixels in the middle of each block: the whole block for a factor of
+        // 2, and a read count that follows the output rather than the frame for larger ones
+        int offset = (factor - 2) / 2;
+        for (int y = 0; y < outputHeight; y++) {
+            int upper = (cropTop + y * factor + offset) * frameWidth + cropLeft + offset;
+            int lower = upper + frameWidth;
+            int target = y * outputWidth;
+            for (int x = 0; x < outputWidth; x++, upper += factor, lower += factor) {
+                int sum = (image[upper] & 0xff) + (image[upper + 1] & 0xff) + (image[lower] & 0xff) + (image[lower + 1] & 0xff);
+                pixels[target + x] = GreyscaleLut.toArgb((sum + 2) >> 2);
+            }
+        }
+    }
+    
+    private void bilinear(byte[] image, int[] pixels) {
+        // Output pixel centres mapped onto the region, 8 bit weights towards the next pixel
+        for (int x = 0; x < outputWidth; x++) {
+            int position = sourcePosition(x, cropWidth, outputWidth);
+            columns[x] = cropLeft + (position >> 8);
+            weights[x] = position & 0xff;
+        }
+        int lastColumn = cropLeft + cropWidth - 1;
+        for (int y = 0; y < outputHeight; y++) {
+            int position = sourcePosition(y, cropHeight, outputHeight);
+            int row = cropTop + (position >> 8);
+            int weight = position & 0xff;
+            int upper = row * frameWidth;
+            int lower = Math.min(row + 1, cropTop + cropHeight - 1) * frameWidth;
+            int target = y * outputWidth;
+            for (int x = 0; x < outputWidth; x++) {
+                int column = columns[x];
+                int next = column < lastColumn ? column + 1 : column;
+                int w = weights[x];
+                int top = (image[upper + column] & 0xff) * (256 - w) + (image[upper + next] & 0xff) * w;
+                int bottom = (image[lower + column] & 0xff) * (256 - w) + (image[lower + next] & 0xff) * w;
+                pixels[target + x] = GreyscaleLut.toArgb((top * (256 - weight) + bottom * weight + 32768) >> 16);
+            }
+        }
+    }
+    
+    /**
+     * Source coordinate of the centre of output pixel {@code index} in 1/256 pixels, clamped to the region.
+     */
+    private static int sourcePosition(int index, int sourceSize, int outputSize) {
+        long position = ((2L * index + 1) * sourceSize * 256) / (2L * outputSize) - 128;
+        return (int) Math.max(0, Math.min(position, (sourceSize - 1) * 256L));
+    }
+    
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
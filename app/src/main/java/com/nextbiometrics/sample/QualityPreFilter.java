@@ -0,0 +1,82 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Cheap contrast and coverage check run before NFIQ.
+ * <p>
+ * Frames without a finger are nearly uniform, frames with a partial finger have
+ * few pixels that differ from the background. Both are rejected without calling
+ * the native quality algorithm.
+ */
+public class QualityPreFilter {
+    
+    public enum Verdict {
+        ACCEPTED,
+        BLANK,
+        PARTIAL
+    }
+    
+    public static final double DEFAULT_MIN_CONTRAST = 12.0;
+    public static final double DEFAULT_MIN_COVERAGE = 0.25;
+    static final int FOREGROUND_DELTA = 24;
+    
+    private final double        minContrast;
+    private final double        minCoverage;
+    private final ImageStats    stats = new ImageStats();
+    private double              coverage;
+    
+    public QualityPreFilter() {
+        this(DEFAULT_MIN_CONTRAST, DEFAULT_MIN_COVERAGE);
+    }
+    
+    public QualityPreFilter(double minContrast, double minCoverage) {
+        this.minContrast = minContrast;
+        this.minCoverage = minCoverage;
+    }
+    
+    /**
+     * Classifies the first {@code length} pixels of the image. Not thread safe, the
+     * statistics of the last frame are kept for {@link #getStats()}.
+     */
+    public Verdict check(byte[] image, int length) {
+        NativeImage.computeStats(image, length, stats);
+        coverage = computeCoverage(stats);
+        if (stats.getContrast() < minContrast)
+            return Verdict.BLANK;
+        if (coverage < minCoverage)
+            return Verdict.PARTIAL;
+        return Verdict.ACCEPTED;
+    }
+    
+    public ImageStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Fraction of the pixels of the last frame that differ from the background level.
+     */
+    public double getCoverage() {
+        return coverage;
+    }
+    
+    /**
+     * The background is taken as the most frequent grey level, every pixel further
+     * than {@link #FOREGROUND_DELTA} from it counts as finger.
+     */
+    static double computeCoverage(ImageStats stats) {
+        int count = stats.getCount();
+        if (count == 0)
+            return 0;
+        int[] histogram = stats.getHistogram();
+        int background = 0;
+        for (int grey = 1; grey < histogram.length; grey++) {
+            if (histogram[grey] > histogram[background])
+                background = grey;
+        }
+        int near = 0;
+        int from = Math.max(0, background - FOREGROUND_DELTA);
+        int to = Math.min(histogram.length - 1, background + FOREGROUND_DELTA);
+        for (int grey = from; grey <= to; grey++)
+            near += histogram[grey];
+        return (double) (count - near) / count;
+    }
+}
@@ -0,0 +1,389 @@
+package com.nextbiometrics.sample;
+
+import java.util.Arrays;
+
+/**
+ * Fast quality estimate of a preview frame, cheap enough to run on every frame of
+ * a scan where NFIQ is not.
+ * <p>
+ * The frame is divided into blocks of {@value #BLOCK_SIZE} pixels, about two ridge
+ * periods at the sensor resolution, and each block is sampled on a sparse grid.
+ * Per block the mean, the variance and the structure tensor of the gradient give
+ * whether the block shows finger and how coherent its ridge orientation is. Over
+ * the foreground blocks the engine reports the coverage, the mean coherence, the
+ * contrast, the centre of the finger and a moisture estimate: the share of dark
+ * pixels, high when ridges run into each other (wet) and low when they break up
+ * (dry). From these it derives a {@link Feedback} for the user and a score from 0
+ * to 100. NFIQ stays the final word on a capture, the score only decides when a
+ * frame is worth it.
+ * <p>
+ * {@link #assess} stops after the block row that exceeds the time budget and
+ * reports what it saw so far, it samples more sparsely on the next frame then. The
+ * engine does not allocate once it has seen the first frame of a size and is not
+ * thread safe.
+ */
+public class QualityPreScreen {
+    
+    public enum Feedback {
+        NO_FINGER,
+        MOVE_UP,
+        MOVE_DOWN,
+        MOVE_LEFT,
+        MOVE_RIGHT,
+        PRESS_HARDER,
+        TOO_WET,
+        KEEP_STILL,
+        GOOD
+    }
+    
+    static final int BLOCK_SIZE = 16;
+    static final long DEFAULT_BUDGET_NANOS = 2000000;
+    
+    static final int MIN_BLOCK_DEVIATION = 10;
+    static final int FOREGROUND_DELTA = 24;
+    static final double MIN_PRESENCE = 0.05;
+    static final double GOOD_COVERAGE = 0.5;
+    static final double MIN_COHERENCE = 0.3;
+    static final double MAX_OFFSET = 0.15;
+    static final double DRY_BELOW = 0.2;
+    static final double WET_ABOVE = 0.7;
+    static final int ACCEPT_SCORE = 50;
+    
+    private static final int MIN_STEP = 2;
+    private static final int MAX_STEP = 4;
+    
+    private final long      budgetNanos;
+    private int             step = MIN_STEP;
+    
+    // Per frame scratch, allocated for the first frame of a size
+    private int             width;
+    private int             height;
+    private int             columns;
+    private int             rows;
+    private boolean[]       foreground = new boolean[0];
+    private final int[]     histogram = new int[256];
+    private final int[]     foregroundHistogram = new int[256];
+    
+    // Result of the last frame
+    private int             background;
+    private double          coverage;
+    private double          coherence;
+    private double          contrast;
+    private double          moisture;
+    private double          centerX;
+    private double          centerY;
+    private int             firstColumn;
+    private int             lastColumn;
+    private int             firstRow;
+    private int             lastRow;
+    private int             score;
+    private Feedback        feedback = Feedback.NO_FINGER;
+    private boolean         complete;
+    private long            elapsedNanos;
+    
+    public QualityPreScreen() {
+        this(DEFAULT_BUDGET_NANOS);
+    }
+    
+    public QualityPreScreen(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+    
+    /**
+     * Assesses a frame, the results are available through the getters until the next call.
+     *
+     * @return the feedback for the user
+     */
+    public Feedback assess(byte[] image, int width, int height) {
+        long start = System.nanoTime();
+        prepare(width, height);
+        
+        background = findBackground(image);
+        int foregroundBlocks = 0;
+        int assessedBlocks = 0;
+        double coherenceSum = 0;
+        double deviationSum = 0;
+        double sumX = 0;
+        double sumY = 0;
+        firstColumn = columns;
+        lastColumn = -1;
+        firstRow = rows;
+        lastRow = -1;
+        complete = true;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int block = row * columns + column;
+                assessBlock(image, column * BLOCK_SIZE, row * BLOCK_SIZE, block);
+                assessedBlocks++;
+                if (!foreground[block])
+                    continue;
+                foregroundBlocks++;
+                coherenceSum += blockCoherence;
+                deviationSum += blockDeviation;
+                sumX += column + 0.5;
+                sumY += row + 0.5;
+                firstColumn = Math.min(firstColumn, column);
+                lastColumn = Math.max(lastColumn, column);
+                firstRow = Math.min(firstRow, row);
+                lastRow = row;
+            }
+            if (System.nanoTime() - start > budgetNanos && row < rows - 1) {
+                complete = false;
+                break;
+            }
+        }
+        
+        coverage = assessedBlocks > 0 ? (double) foregroundBlocks / assessedBlocks : 0;
+        if (foregroundBlocks > 0) {
+            coherence = coherenceSum / foregroundBlocks;
+            contrast = deviationSum / foregroundBlocks;
+            centerX = sumX / foregroundBlocks / columns;
+            centerY = sumY / foregroundBlocks / rows;
+            moisture = computeMoisture();
+        }
+        else {
+            coherence = 0;
+            contrast = 0;
+            centerX = 0.5;
+            centerY = 0.5;
+            moisture = 0;
+        }
+        feedback = classify();
+        score = computeScore();
+        
+        elapsedNanos = System.nanoTime() - start;
+        // Keep within the budget on slow frames, go back to the dense grid when there is room
+        if (!complete && step < MAX_STEP)
+            step++;
+        else if (complete && step > MIN_STEP && elapsedNanos < budgetNanos / 3)
+            step--;
+        return feedback;
+    }
+    
+    public Feedback getFeedback() {
+        return feedback;
+    }
+    
+    /**
+     * Estimated quality from 0 to 100, higher is better.
+     */
+    public int getScore() {
+        return score;
+    }
+    
+    /**
+     * Whether the frame looks good enough to be worth NFIQ.
+     */
+    public boolean isAcceptable() {
+        return feedback == Feedback.GOOD && score >= ACCEPT_SCORE;
+    }
+    
+    /**
+     * Fraction of the assessed blocks that show finger.
+     */
+    public double getCoverage() {
+        return coverage;
+    }
+    
+    /**
+     * Mean ridge orientation coherence of the foreground blocks, 0 (no orientation) to 1.
+     */
+    public double getCoherence() {
+        return coherence;
+    }
+    
+    /**
+     * Mean standard deviation of the grey levels in the foreground blocks.
+     */
+    public double getContrast() {
+        return contrast;
+    }
+    
+    /**
+     * Share of dark pixels in the foreground, dry below {@value #DRY_BELOW}, wet above {@value #WET_ABOVE}.
+     */
+    public double getMoisture() {
+        return moisture;
+    }
+    
+    /**
+     * Horizontal centre of the finger, 0 (left edge) to 1 (right edge).
+     */
+    public double getCenterX() {
+        return centerX;
+    }
+    
+    /**
+     * Vertical centre of the finger, 0 (top) to 1 (bottom).
+     */
+    public double getCenterY() {
+        return centerY;
+    }
+    
+    /**
+     * Bounding box of the foreground blocks in pixels: left, top, right and bottom
+     * (exclusive).
+     *
+     * @return {@code false}, leaving {@code bounds} unchanged, if there is no finger
+     */
+    public boolean getFingerBounds(int[] bounds) {
+        if (lastRow < 0)
+            return false;
+        bounds[0] = firstColumn * BLOCK_SIZE;
+        bounds[1] = firstRow * BLOCK_SIZE;
+        bounds[2] = Math.min(width, (lastColumn + 1) * BLOCK_SIZE);
+        bounds[3] = Math.min(height, (lastRow + 1) * BLOCK_SIZE);
+        return true;
+    }
+    
+    public int getBackground() {
+        return background;
+    }
+    
+    /**
+     * {@code false} if the time budget ran out before the last block row.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+    
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+    
+    int getStep() {
+        return step;
+    }
+    
+    private void prepare(int width, int height) {
+        if (width == this.width && height == this.height)
+            return;
+        this.width = width;
+        this.height = height;
+        columns = Math.max(1, width / BLOCK_SIZE);
+        rows = Math.max(1, height / BLOCK_SIZE);
+        foreground = new boolean[columns * rows];
+    }
+    
+    /**
+     * The most frequent grey level of a sparse sample, the sensor background.
+     */
+    private int findBackground(byte[] image) {
+        Arrays.fill(histogram, 0);
+        Arrays.fill(foregroundHistogram, 0);
+        int sampleStep = step * 2;
+        for (int y = 0; y < height; y += sampleStep) {
+            int row = y * width;
+            for (int x = 0; x < width; x += sampleStep)
+                histogram[image[row + x] & 0xff]++;
+        }
+        int mode = 0;
+        for (int grey = 1; grey < histogram.length; grey++) {
+            if (histogram[grey] > histogram[mode])
+                mode = grey;
+        }
+        return mode;
+    }
+    
+    // Results of assessBlock, fields to keep it allocation free
+    private double blockCoherence;
+    private double blockDeviation;
+    
+    private void assessBlock(byte[] image, int left, int top, int block) {
+        int right = Math.min(width - 1, left + BLOCK_SIZE - 1);
+        int bottom = Math.min(height - 1, top + BLOCK_SIZE - 1);
+        long sum = 0;
+        long squares = 0;
+        int count = 0;
+        long gxx = 0;
+        long gyy = 0;
+        long gxy = 0;
+        for (int y = top + step / 2; y <= bottom; y += step) {
+            int row = y * width;
+            boolean inner = y - step >= 0 && y + step < height;
+            for (int x = left + step / 2; x <= right; x += step) {
+                int pixel = image[row + x] & 0xff;
+                sum += pixel;
+                squares += pixel * pixel;
+                count++;
+                if (inner && x - step >= 0 && x + step < width) {
+                    int gx = (image[row + x + step] & 0xff) - (image[row + x - step] & 0xff);
+                    int gy = (image[row + step * width + x] & 0xff) - (image[row - step * width + x] & 0xff);
+                    gxx += gx * gx;
+                    gyy += gy * gy;
+                    gxy += gx * gy;
+                }
+            }
+        }
+        if (count == 0) {
+            foreground[block] = false;
+            return;
+        }
+        double mean = (double) sum / count;
+        double deviation = Math.sqrt(Math.max(0, (double) squares / count - mean * mean));
+        foreground[block] = deviation >= MIN_BLOCK_DEVIATION || Math.abs(mean - background) > FOREGROUND_DELTA;
+        blockDeviation = deviation;
+        double energy = gxx + gyy;
+        blockCoherence = energy > 0 ? Math.sqrt((double) (gxx - gyy) * (gxx - gyy) + 4.0 * gxy * gxy) / energy : 0;
+        if (foreground[block]) {
+            for (int y = top + step / 2; y <= bottom; y += step * 2) {
+                int row = y * width;
+                for (int x = left + step / 2; x <= right; x += step * 2)
+                    foregroundHistogram[image[row + x] & 0xff]++;
+            }
+        }
+    }
+    
+    /**
+     * Share of foreground samples darker than half way between the darkest
+     * ridges (5th percentile) and the background.
+     */
+    private double computeMoisture() {
+        int total = 0;
+        for (int count : foregroundHistogram)
+            total += count;
+        if (total == 0)
+            return 0;
+        int darkest = 0;
+        int seen = 0;
+        while (darkest < 255 && (seen += foregroundHistogram[darkest]) < total / 20)
+            darkest++;
+        int threshold = (darkest + background) / 2;
+        int dark = 0;
+        for (int grey = 0; grey < threshold; grey++)
+            dark += foregroundHistogram[grey];
+        return (double) dark / total;
+    }
+    
+    private Feedback classify() {
+        if (coverage < MIN_PRESENCE)
+            return Feedback.NO_FINGER;
+        if (moisture > WET_ABOVE)
+            return Feedback.TOO_WET;
+        if (coverage < GOOD_COVERAGE) {
+            // Directions in image coordinates: the finger is off to one side, move it towards the middle
+            double offsetX = centerX - 0.5;
+            double offsetY = centerY - 0.5;
+            if (Math.max(Math.abs(offsetX), Math.abs(offsetY)) > MAX_OFFSET) {
+                if (Math.abs(offsetY) >= Math.abs(offsetX))
+                    return offsetY > 0 ? Feedback.MOVE_UP : Feedback.MOVE_DOWN;
+                return offsetX > 0 ? Feedback.MOVE_LEFT : Feedback.MOVE_RIGHT;
+            }
+            return Feedback.PRESS_HARDER;
+        }
+        if (moisture < DRY_BELOW)
+            return Feedback.PRESS_HARDER;
+        if (coherence < MIN_COHERENCE)
+            return Feedback.KEEP_STILL;
+        return Feedback.GOOD;
+    }
+    
+    private int computeScore() {
+        if (feedback == Feedback.NO_FINGER)
+            return 0;
+        double value = Math.min(1.0, coverage / 0.8) * Math.min(1.0, coherence / 0.6) * Math.min(1.0, contrast / 40.0);
+        if (moisture < DRY_BELOW || moisture > WET_ABOVE)
+            value /= 2;
+        return (int) Math.round(100 * value);
+    }
+}
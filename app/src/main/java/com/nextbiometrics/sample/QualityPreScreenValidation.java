@@ -0,0 +1,186 @@
+package com.nextbiometrics.sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks {@link QualityPreScreen} against NFIQ on the images of the {@link CaptureArchive}.
+ * <p>
+ * Every archived record with an NFIQ score is assessed again and the report gives
+ * the Spearman rank correlation between the pre-screen score and NFIQ, negative
+ * when the two agree (NFIQ 1 is the best quality), the mean score per NFIQ level,
+ * how often {@link QualityPreScreen#isAcceptable} matches an NFIQ of at most
+ * {@value #ACCEPTABLE_NFIQ} and the time spent per frame.
+ */
+public class QualityPreScreenValidation {
+    
+    static final int ACCEPTABLE_NFIQ = 3;
+    
+    public static final class Report {
+        private final int       frames;
+        private final double    correlation;
+        private final double[]  meanScores;
+        private final int[]     counts;
+        private final double    agreement;
+        private final double    meanMillis;
+        private final double    maxMillis;
+        
+        Report(int frames, double correlation, double[] meanScores, int[] counts, double agreement, double meanMillis, double maxMillis) {
+            this.frames = frames;
+            this.correlation = correlation;
+            this.meanScores = meanScores;
+            this.counts = counts;
+            this.agreement = agreement;
+            this.meanMillis = meanMillis;
+            this.maxMillis = maxMillis;
+        }
+        
+        public int getFrames() {
+            return frames;
+        }
+        
+        /**
+         * Spearman correlation between the pre-screen score and NFIQ, NaN with fewer than two frames.
+         */
+        public double getCorrelation() {
+            return correlation;
+        }
+        
+        /**
+         * Mean pre-screen score of the frames with the given NFIQ (1 to 5), NaN if there are none.
+         */
+        public double getMeanScore(int nfiq) {
+            return meanScores[nfiq];
+        }
+        
+        public int getCount(int nfiq) {
+            return counts[nfiq];
+        }
+        
+        /**
+         * Fraction of frames where the pre-screen accepts exactly those NFIQ accepts.
+         */
+        public double getAgreement() {
+            return agreement;
+        }
+        
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+        
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "Pre-screen vs NFIQ: %d frames, Spearman %.3f, agreement %.1f%%, %.2f ms/frame (max %.2f)",
+              frames, correlation, agreement * 100, meanMillis, maxMillis));
+            for (int nfiq = 1; nfiq < counts.length; nfiq++) {
+                if (counts[nfiq] > 0)
+                    builder.append(String.format(Locale.US, "\nNFIQ %d: %d frames, mean score %.1f", nfiq, counts[nfiq], meanScores[nfiq]));
+            }
+            return builder.toString();
+        }
+    }
+    
+    private QualityPreScreenValidation() {
+    }
+    
+    /**
+     * Assesses all scored records of the given archive files.
+     */
+    public static Report validate(List<File> files, QualityPreScreen screen) throws IOException {
+        List<double[]> samples = new ArrayList<double[]>();
+        double[] scoreSums = new double[6];
+        int[] counts = new int[6];
+        int agreeing = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (File file : files) {
+            CaptureArchive.Reader reader = new CaptureArchive.Reader(file);
+            try {
+                CaptureArchive.Record record;
+                while ((record = reader.next()) != null) {
+                    int nfiq = record.getNfiq();
+                    if (nfiq < 1 || nfiq > 5 || record.getImage().length < record.getWidth() * record.getHeight())
+                        continue;
+                    screen.assess(record.getImage(), record.getWidth(), record.getHeight());
+                    int score = screen.getScore();
+                    samples.add(new double[] { score, nfiq });
+                    scoreSums[nfiq] += score;
+                    counts[nfiq]++;
+                    if (screen.isAcceptable() == (nfiq <= ACCEPTABLE_NFIQ))
+                        agreeing++;
+                    totalNanos += screen.getElapsedNanos();
+                    maxNanos = Math.max(maxNanos, screen.getElapsedNanos());
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        
+        int frames = samples.size();
+        double[] meanScores = new double[6];
+        for (int nfiq = 0; nfiq < meanScores.length; nfiq++)
+            meanScores[nfiq] = counts[nfiq] > 0 ? scoreSums[nfiq] / counts[nfiq] : Double.NaN;
+        return new Report(frames, spearman(samples), meanScores, counts, frames > 0 ? (double) agreeing / frames : Double.NaN,
+          frames > 0 ? totalNanos / 1e6 / frames : 0, maxNanos / 1e6);
+    }
+    
+    /**
+     * Spearman correlation of the pairs, the Pearson correlation of their ranks with ties sharing the mean rank.
+     */
+    static double spearman(List<double[]> pairs) {
+        int n = pairs.size();
+        if (n < 2)
+            return Double.NaN;
+        double[] first = ranks(pairs, 0);
+        double[] second = ranks(pairs, 1);
+        double mean = (n + 1) / 2.0;
+        double covariance = 0;
+        double firstVariance = 0;
+        double secondVariance = 0;
+        for (int i = 0; i < n; i++) {
+            double a = first[i] - mean;
+            double b = second[i] - mean;
+            covariance += a * b;
+            firstVariance += a * a;
+            secondVariance += b * b;
+        }
+        if (firstVariance == 0 || secondVariance == 0)
+            return Double.NaN;
+        return covariance / Math.sqrt(firstVariance * secondVariance);
+    }
+    
+    private static double[] ranks(final List<double[]> pairs, final int column) {
+        int n = pairs.size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(pairs.get(a)[column], pairs.get(b)[column]);
+            }
+        });
+        double[] ranks = new double[n];
+        for (int start = 0; start < n; ) {
+            int end = start;
+            while (end + 1 < n && pairs.get(order[end + 1])[column] == pairs.get(order[start])[column])
+                end++;
+            double rank = (start + end) / 2.0 + 1;
+            for (int i = start; i <= end; i++)
+                ranks[order[i]] = rank;
+            start = end + 1;
+        }
+        return ranks;
+    }
+}
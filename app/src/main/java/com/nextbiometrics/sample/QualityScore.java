@@ -0,0 +1,50 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Quality score of one frame, tagged with the frame it was computed for.
+ */
+public final class QualityScore {
+    
+    public static final int NOT_SCORED = -1;
+    
+    private final long                      frameSequence;
+    private final int                       score;
+    private final boolean                   finalResult;
+    private final QualityPreFilter.Verdict  verdict;
+    
+    public QualityScore(long frameSequence, int score, boolean finalResult, QualityPreFilter.Verdict verdict) {
+        this.frameSequence = frameSequence;
+        this.score = score;
+        this.finalResult = finalResult;
+        this.verdict = verdict;
+    }
+    
+    public long getFrameSequence() {
+        return frameSequence;
+    }
+    
+    /**
+     * Score reported by the quality algorithm, or {@link #NOT_SCORED} if the frame was
+     * rejected by the pre-filter.
+     */
+    public int getScore() {
+        return score;
+    }
+    
+    public boolean isScored() {
+        return score != NOT_SCORED;
+    }
+    
+    public boolean isFinalResult() {
+        return finalResult;
+    }
+    
+    public QualityPreFilter.Verdict getVerdict() {
+        return verdict;
+    }
+    
+    @Override
+    public String toString() {
+        return isScored() ? String.valueOf(score) : verdict.toString();
+    }
+}
@@ -0,0 +1,181 @@
+package com.nextbiometrics.sample;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+
+/**
+ * Quality scoring stage running on its own single thread.
+ * <p>
+ * Preview frames are sampled: a frame is scored when {@code previewInterval} frames
+ * have passed since the last scored one, or when its finger detect value changed.
+ * A preview frame offered while the scorer is busy is skipped rather than queued.
+ * Sampled frames first go through the {@link QualityPreFilter}, blank and partial
+ * frames never reach the quality algorithm. Final scan results are always scored.
+ */
+public class QualityScorer {
+    
+    public interface Algorithm {
+        int score(byte[] image, int width, int height, int resolution);
+    }
+    
+    public interface Listener {
+        void onQualityScored(QualityScore score);
+    }
+    
+    public static final int DEFAULT_PREVIEW_INTERVAL = 4;
+    
+    private final Algorithm             algorithm;
+    private final Listener              listener;
+    private final int                   previewInterval;
+    private final QualityPreFilter      preFilter;
+    private final ExecutorService       executor;
+    private final AtomicBoolean         previewBusy = new AtomicBoolean();
+    private final AtomicInteger         generation = new AtomicInteger();
+    private final AtomicLong            scoredFrames = new AtomicLong();
+    private final AtomicLong            filteredFrames = new AtomicLong();
+    private volatile CaptureArchive     archive;
+    
+    // Sampling state, only touched by the thread calling submitPreview
+    private long                        lastSampledSequence;
+    private int                         lastFingerDetectValue = Integer.MIN_VALUE;
+    
+    // Owned by the scoring thread while previewBusy is set
+    private byte[]                      previewImage = new byte[0];
+    
+    public QualityScorer(Algorithm algorithm, Listener listener) {
+        this(algorithm, listener, DEFAULT_PREVIEW_INTERVAL, new QualityPreFilter());
+    }
+    
+    public QualityScorer(Algorithm algorithm, Listener listener, int previewInterval, QualityPreFilter preFilter) {
+        this.algorithm = algorithm;
+        this.listener = listener;
+        this.previewInterval = Math.max(1, previewInterval);
+        this.preFilter = preFilter;
+        this.executor = Executors.newSingleThreadExecutor(DaemonThreads.named("QualityScorer"));
+    }
+    
+    /**
+     * Starts a new scan: scores still in flight for the previous scan are not delivered.
+     */
+    public void reset() {
+        generation.incrementAndGet();
+        lastSampledSequence = 0;
+        lastFingerDetectValue = Integer.MIN_VALUE;
+    }
+    
+    /**
+     * Offers a preview frame, returns {@code true} if it was queued for scoring.
+     * The frame image is copied, the caller keeps ownership of the frame.
+     */
+    public boolean submitPreview(PreviewFrame frame) {
+        boolean detectChanged = frame.getFingerDetectValue() != lastFingerDetectValue;
+        if (!detectChanged && frame.getSequence() - lastSampledSequence < previewInterval)
+            return false;
+        if (!previewBusy.compareAndSet(false, true))
+            return false;
+        lastSampledSequence = frame.getSequence();
+        lastFingerDetectValue = frame.getFingerDetectValue();
+        
+        final int length = frame.getLength();
+        if (previewImage.length < length)
+            previewImage = new byte[length];
+        System.arraycopy(frame.getImage(), 0, previewImage, 0, length);
+        final long sequence = frame.getSequence();
+        final int fingerDetectValue = frame.getFingerDetectValue();
+        final NBDeviceScanFormatInfo format = frame.getFormat();
+        final int scanGeneration = generation.get();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    QualityScore score;
+                    try {
+                        score = score(sequence, format, previewImage, length, fingerDetectValue, false);
+                    }
+                    finally {
+                        previewBusy.set(false);
+                    }
+                    deliver(scanGeneration, score);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // Shut down, the preview worker keeps going without scores
+            previewBusy.set(false);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Queues the final scan result, which is always scored.
+     */
+    public void submitResult(long sequence, ScanResult result) {
+        submitResult(sequence, result, QualityScore.NOT_SCORED);
+    }
+    
+    /**
+     * @param fingerDetectValue finger detect value of the result, only used for archiving
+     */
+    public void submitResult(final long sequence, ScanResult result, final int fingerDetectValue) {
+        final NBDeviceScanFormatInfo format = result.getFormat();
+        final byte[] image = result.getImage();
+        final int scanGeneration = generation.get();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(scanGeneration, score(sequence, format, image, image.length, fingerDetectValue, true));
+            }
+        });
+    }
+    
+    /**
+     * Archives every scored image, the final results and the sampled previews which
+     * passed the pre-filter, {@code null} to stop.
+     */
+    public void setArchive(CaptureArchive archive) {
+        this.archive = archive;
+    }
+    
+    public long getScoredFrames() {
+        return scoredFrames.get();
+    }
+    
+    public long getFilteredFrames() {
+        return filteredFrames.get();
+    }
+    
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    private QualityScore score(long sequence, NBDeviceScanFormatInfo format, byte[] image, int length, int fingerDetectValue, boolean finalResult) {
+        QualityPreFilter.Verdict verdict = QualityPreFilter.Verdict.ACCEPTED;
+        if (!finalResult && preFilter != null)
+            verdict = preFilter.check(image, length);
+        
+        if (verdict != QualityPreFilter.Verdict.ACCEPTED) {
+            filteredFrames.incrementAndGet();
+            return new QualityScore(sequence, QualityScore.NOT_SCORED, finalResult, verdict);
+        }
+        long start = System.nanoTime();
+        int value = algorithm.score(image, format.getWidth(), format.getHeight(), format.getHorizontalResolution());
+        CaptureMetrics.getInstance().record(CaptureMetrics.Phase.NFIQ, start);
+        scoredFrames.incrementAndGet();
+        CaptureArchive archive = this.archive;
+        if (archive != null)
+            archive.append(finalResult ? CaptureArchive.Kind.RESULT : CaptureArchive.Kind.PREVIEW, format, image, length, value, fingerDetectValue);
+        return new QualityScore(sequence, value, finalResult, verdict);
+    }
+    
+    private void deliver(int scanGeneration, QualityScore score) {
+        if (scanGeneration == generation.get())
+            listener.onQualityScored(score);
+    }
+}
@@ -0,0 +1,187 @@
+package com.nextbiometrics.sample;
+
+import android.app.Application;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.nextbiometrics.devices.NBDevices;
+import com.nextbiometrics.devices.NBDevicesLibrary;
+import com.nextbiometrics.devices.event.NBDevicesDeviceChangedEvent;
+import com.nextbiometrics.devices.event.NBDevicesDeviceChangedListener;
+import com.nextbiometrics.system.NBVersion;
+
+/**
+ * Starts NBDevices in the background as soon as the process starts and owns it for
+ * the life of the process.
+ * <p>
+ * The native libraries ({@code libNBDevices.so}, {@code libusb-1.0-nb.so} and JNA's
+ * {@code libjnidispatch.so}) are loaded, NBDevices is initialized and the devices are
+ * enumerated once, as the stages of an {@link AppStartup}, while the first activity
+ * inflates its views. Each stage is a systrace section. Activities wait for
+ * {@link AppStartup#getReady()} before touching the library and receive device
+ * changes through {@link #addDeviceListener}, as NBDevices takes a single listener.
+ * <p>
+ * The startup trace is logged, recorded in {@link CaptureMetrics} and appended to
+ * {@code NBData/startup.log}, one line per process start, so cold starts after the
+ * nightly reboot can be compared against {@link #COLD_START_BUDGET_MILLIS}.
+ */
+public class SampleApplication extends Application implements NBDevicesDeviceChangedListener, AppStartup.Listener {
+    
+    private static final String TAG = "SampleApplication";
+    
+    static final long COLD_START_BUDGET_MILLIS = 2000;
+    static final String STARTUP_LOG = "startup.log";
+    private static final long MAX_STARTUP_LOG_BYTES = 64 * 1024;
+    
+    // Taken as early as possible, for devices without the process start time
+    private final long constructedNanos = System.nanoTime();
+    private final List<NBDevicesDeviceChangedListener> deviceListeners = new CopyOnWriteArrayList<NBDevicesDeviceChangedListener>();
+    private AppStartup startup;
+    private volatile NBVersion libraryVersion;
+    
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        startup = new AppStartup(processStartNanos());
+        startup.addStage("load", traced("NBDevicesLibrary", new AppStartup.Stage() {
+            @Override
+            public void run() {
+                // Loading the class loads the native libraries
+                libraryVersion = NBDevicesLibrary.getVersion();
+            }
+        }));
+        startup.addStage("initialize", traced("NBDevices.initialize", new AppStartup.Stage() {
+            @Override
+            public void run() {
+                if (!NBDevices.isInitialized())
+                    NBDevices.initialize(SampleApplication.this, SampleApplication.this);
+            }
+        }));
+        startup.addStage("enumerate", traced("NBDevices.getDevices", new AppStartup.Stage() {
+            @Override
+            public void run() {
+                DeviceRegistry.getInstance().rescan();
+            }
+        }));
+        startup.setListener(this);
+        startup.start(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                DaemonThreads.named("AppStartup").newThread(command).start();
+            }
+        });
+    }
+    
+    private long processStartNanos() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            long sinceStartMillis = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+            return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(sinceStartMillis);
+        }
+        return constructedNanos;
+    }
+    
+    private static AppStartup.Stage traced(final String section, final AppStartup.Stage stage) {
+        return new AppStartup.Stage() {
+            @Override
+            public void run() throws Exception {
+                Trace.beginSection(section);
+                try {
+                    stage.run();
+                }
+                finally {
+                    Trace.endSection();
+                }
+            }
+        };
+    }
+    
+    public AppStartup getStartup() {
+        return startup;
+    }
+    
+    /**
+     * Version of the NBDevices library, {@code null} until it is loaded.
+     */
+    public NBVersion getLibraryVersion() {
+        return libraryVersion;
+    }
+    
+    public void addDeviceListener(NBDevicesDeviceChangedListener listener) {
+        deviceListeners.add(listener);
+    }
+    
+    public void removeDeviceListener(NBDevicesDeviceChangedListener listener) {
+        deviceListeners.remove(listener);
+    }
+    
+    @Override
+    public void added(NBDevicesDeviceChangedEvent event) {
+        DeviceRegistry.getInstance().added(event.getDevice());
+        for (NBDevicesDeviceChangedListener listener : deviceListeners)
+            listener.added(event);
+    }
+    
+    @Override
+    public void removed(NBDevicesDeviceChangedEvent event) {
+        DeviceRegistry.getInstance().removed(event.getDevice().getId());
+        DeviceSessionManager.getInstance().invalidate();
+        for (NBDevicesDeviceChangedListener listener : deviceListeners)
+            listener.removed(event);
+    }
+    
+    @Override
+    public void onTraced(AppStartup.Trace trace) {
+        CaptureMetrics metrics = CaptureMetrics.getInstance();
+        metrics.get(CaptureMetrics.Phase.STARTUP_FIRST_FRAME).record(TimeUnit.MILLISECONDS.toMicros(trace.getFirstFrameMillis()));
+        if (trace.getLibraryReadyMillis() >= 0)
+            metrics.get(CaptureMetrics.Phase.STARTUP_LIBRARY_READY).record(TimeUnit.MILLISECONDS.toMicros(trace.getLibraryReadyMillis()));
+        metrics.get(CaptureMetrics.Phase.STARTUP_DEVICE_READY).record(TimeUnit.MILLISECONDS.toMicros(trace.getDeviceReadyMillis()));
+        
+        boolean overBudget = trace.getDeviceReadyMillis() > COLD_START_BUDGET_MILLIS;
+        if (overBudget)
+            Log.w(TAG, "Startup over the budget of " + COLD_START_BUDGET_MILLIS + " ms: " + trace);
+        else
+            Log.i(TAG, "Startup: " + trace);
+        final String line = System.currentTimeMillis() + " " + trace + (overBudget ? " OVER BUDGET" : "");
+        // Often reported on the UI thread, by the first frame, the file is written in the background
+        DaemonThreads.named("StartupLog").newThread(new Runnable() {
+            @Override
+            public void run() {
+                appendStartupLog(line);
+            }
+        }).start();
+    }
+    
+    private void appendStartupLog(String line) {
+        File file = new File(CalibrationStore.getInstance().getDirectory(), STARTUP_LOG);
+        try {
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs())
+                throw new IOException("Cannot create directory " + parent);
+            if (file.length() > MAX_STARTUP_LOG_BYTES)
+                file.renameTo(new File(file.getPath() + ".old"));
+            FileWriter writer = new FileWriter(file, true);
+            try {
+                writer.write(line);
+                writer.write('\n');
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Cannot write " + file, e);
+        }
+    }
+}
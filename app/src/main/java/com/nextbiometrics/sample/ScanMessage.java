@@ -0,0 +1,24 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * Text shown under the fingerprint image for every preview frame and scan result.
+ */
+public final class ScanMessage {
+    
+    private ScanMessage() {
+    }
+    
+    /**
+     * Same text as {@code String.format("%s %s, %s %d\n%s", ...)} without parsing
+     * the pattern again for every frame.
+     */
+    public static String format(String statusLabel, NBDeviceScanStatus status, String fingerDetectLabel, int fingerDetectValue, ImageStats stats) {
+        return new StringBuilder(128)
+          .append(statusLabel).append(' ').append(status).append(", ")
+          .append(fingerDetectLabel).append(' ').append(fingerDetectValue).append('\n')
+          .append(stats)
+          .toString();
+    }
+}
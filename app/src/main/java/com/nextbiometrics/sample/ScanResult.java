@@ -0,0 +1,31 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * Outcome of a {@link BiometricDevice} scan.
+ */
+public final class ScanResult {
+    private final NBDeviceScanStatus     status;
+    private final NBDeviceScanFormatInfo format;
+    private final byte[]                 image;
+    
+    public ScanResult(NBDeviceScanStatus status, NBDeviceScanFormatInfo format, byte[] image) {
+        this.status = status;
+        this.format = format;
+        this.image = image;
+    }
+    
+    public NBDeviceScanStatus getStatus() {
+        return status;
+    }
+    
+    public NBDeviceScanFormatInfo getFormat() {
+        return format;
+    }
+    
+    public byte[] getImage() {
+        return image;
+    }
+}
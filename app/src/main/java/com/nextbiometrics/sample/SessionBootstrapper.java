@@ -0,0 +1,342 @@
+package com.nextbiometrics.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.nextbiometrics.devices.NBDevice;
+import com.nextbiometrics.devices.NBDeviceSecurityModel;
+
+/**
+ * Opens the secure session of a device with the default sample keys.
+ * <p>
+ * The key set that was accepted last is remembered per device serial number
+ * ({@code NBData/session_keys.properties}), so a device that reappears after a USB
+ * replug or an SPI reset is opened with a single {@code openSession}. Only if that
+ * fails is the full negotiation for the security model run again.
+ */
+public class SessionBootstrapper {
+    
+    static final String CACHE_FILE = "session_keys.properties";
+    
+    private static final byte[] CAK_ID = "DefaultCAKKey1\0".getBytes();
+    private static final byte[] CAK = {
+      (byte)0x05, (byte)0x4B, (byte)0x38, (byte)0x3A, (byte)0xCF, (byte)0x5B, (byte)0xB8, (byte)0x01, (byte)0xDC, (byte)0xBB, (byte)0x85, (byte)0xB4, (byte)0x47, (byte)0xFF, (byte)0xF0, (byte)0x79,
+      (byte)0x77, (byte)0x90, (byte)0x90, (byte)0x81, (byte)0x51, (byte)0x42, (byte)0xC1, (byte)0xBF, (byte)0xF6, (byte)0xD1, (byte)0x66, (byte)0x65, (byte)0x0A, (byte)0x66, (byte)0x34, (byte)0x11
+    };
+    
+    private static final byte[] CDK_ID = "Application Lock\0".getBytes();
+    private static final byte[] CDK = {
+      (byte)0x6B, (byte)0xC5, (byte)0x51, (byte)0xD1, (byte)0x12, (byte)0xF7, (byte)0xE3, (byte)0x42, (byte)0xBD, (byte)0xDC, (byte)0xFB, (byte)0x5D, (byte)0x79, (byte)0x4E, (byte)0x5A, (byte)0xD6,
+      (byte)0x54, (byte)0xD1, (byte)0xC9, (byte)0x90, (byte)0x28, (byte)0x05, (byte)0xCF, (byte)0x5E, (byte)0x4C, (byte)0x83, (byte)0x63, (byte)0xFB, (byte)0xC2, (byte)0x3C, (byte)0xF6, (byte)0xAB
+    };
+    
+    private static final byte[] DEFAULT_AUTH_KEY1_ID = "AUTH1\0".getBytes();
+    private static final byte[] DEFAULT_AUTH_KEY1 = {
+      (byte)0xDA, (byte)0x2E, (byte)0x35, (byte)0xB6, (byte)0xCB, (byte)0x96, (byte)0x2B, (byte)0x5F, (byte)0x9F, (byte)0x34, (byte)0x1F, (byte)0xD1, (byte)0x47, (byte)0x41, (byte)0xA0, (byte)0x4D,
+      (byte)0xA4, (byte)0x09, (byte)0xCE, (byte)0xE8, (byte)0x35, (byte)0x48, (byte)0x3C, (byte)0x60, (byte)0xFB, (byte)0x13, (byte)0x91, (byte)0xE0, (byte)0x9E, (byte)0x95, (byte)0xB2, (byte)0x7F
+    };
+    
+    /**
+     * Key set a session was opened with.
+     */
+    public enum Keys {
+        CAK(NBDeviceSecurityModel.Model65200CakOnly, CAK_ID, SessionBootstrapper.CAK),
+        CDK(NBDeviceSecurityModel.Model65200CakCdk, CDK_ID, SessionBootstrapper.CDK),
+        AUTH1(NBDeviceSecurityModel.Model65100, DEFAULT_AUTH_KEY1_ID, DEFAULT_AUTH_KEY1);
+        
+        private final NBDeviceSecurityModel model;
+        private final byte[]                id;
+        private final byte[]                key;
+        
+        Keys(NBDeviceSecurityModel model, byte[] id, byte[] key) {
+            this.model = model;
+            this.id = id;
+            this.key = key;
+        }
+        
+        static Keys forModel(NBDeviceSecurityModel model) {
+            for (Keys keys : values()) {
+                if (keys.model == model)
+                    return keys;
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Session operations of a device, implemented over a {@link BiometricDevice}.
+     */
+    interface Channel {
+        String getSerialNumber();
+        NBDeviceSecurityModel getSecurityModel();
+        void openSession(byte[] id, byte[] key);
+        void closeSession();
+        void setCdk(byte[] cdk);
+    }
+    
+    /**
+     * Duration of one negotiation step.
+     */
+    public static final class Step {
+        private final String  name;
+        private final long    nanos;
+        private final boolean failed;
+        
+        Step(String name, long nanos, boolean failed) {
+            this.name = name;
+            this.nanos = nanos;
+            this.failed = failed;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public long getNanos() {
+            return nanos;
+        }
+        
+        public boolean isFailed() {
+            return failed;
+        }
+        
+        @Override
+        public String toString() {
+            return name + (failed ? " failed " : " ") + (nanos / 1000) / 1000.0 + " ms";
+        }
+    }
+    
+    /**
+     * How a session was established.
+     */
+    public static final class Result {
+        private final Keys       keys;
+        private final boolean    fastPath;
+        private final List<Step> steps;
+        
+        Result(Keys keys, boolean fastPath, List<Step> steps) {
+            this.keys = keys;
+            this.fastPath = fastPath;
+            this.steps = Collections.unmodifiableList(steps);
+        }
+        
+        /**
+         * Keys the session is open with, {@code null} if the device has no security model.
+         */
+        public Keys getKeys() {
+            return keys;
+        }
+        
+        /**
+         * Whether the remembered keys were accepted without negotiation.
+         */
+        public boolean isFastPath() {
+            return fastPath;
+        }
+        
+        public List<Step> getSteps() {
+            return steps;
+        }
+        
+        public long getTotalNanos() {
+            long total = 0;
+            for (Step step : steps)
+                total += step.getNanos();
+            return total;
+        }
+        
+        @Override
+        public String toString() {
+            return (fastPath ? "fast path " : "negotiated ") + keys + " in " + (getTotalNanos() / 1000) / 1000.0 + " ms " + steps;
+        }
+    }
+    
+    private static SessionBootstrapper instance;
+    
+    private final File       cacheFile;
+    private final Properties cache = new Properties();
+    private boolean          cacheLoaded;
+    
+    public static synchronized SessionBootstrapper getInstance() {
+        if (instance == null) {
+            instance = new SessionBootstrapper(new File(CalibrationStore.getInstance().getDirectory(), CACHE_FILE));
+        }
+        return instance;
+    }
+    
+    public SessionBootstrapper(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+    
+    public Result openSession(BiometricDevice device) {
+        return openSession(new DeviceChannel(device));
+    }
+    
+    Result openSession(Channel channel) {
+        List<Step> steps = new ArrayList<Step>();
+        NBDeviceSecurityModel model = channel.getSecurityModel();
+        Keys keys = Keys.forModel(model);
+        if (keys == null)
+            return new Result(null, false, steps);
+        String serialNumber = channel.getSerialNumber();
+        boolean rejected = false;
+        if (serialNumber != null && keys == getAcceptedKeys(serialNumber)) {
+            try {
+                open(channel, keys, steps);
+                return new Result(keys, true, steps);
+            }
+            catch (RuntimeException e) {
+                forget(serialNumber);
+                rejected = true;
+            }
+        }
+        if (model == NBDeviceSecurityModel.Model65200CakCdk) {
+            provisionCdk(channel, !rejected, steps);
+        }
+        open(channel, keys, steps);
+        if (serialNumber != null)
+            remember(serialNumber, keys);
+        return new Result(keys, false, steps);
+    }
+    
+    /**
+     * Keys last accepted by the device, {@code null} if none are remembered.
+     */
+    public synchronized Keys getAcceptedKeys(String serialNumber) {
+        loadCache();
+        String value = cache.getProperty(serialNumber);
+        if (value == null)
+            return null;
+        try {
+            return Keys.valueOf(value);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Drops the remembered keys, the next session of the device is negotiated in full.
+     */
+    public synchronized void forget(String serialNumber) {
+        loadCache();
+        if (cache.remove(serialNumber) != null)
+            storeCache();
+    }
+    
+    private synchronized void remember(String serialNumber, Keys keys) {
+        loadCache();
+        if (keys.name().equals(cache.getProperty(serialNumber)))
+            return;
+        cache.setProperty(serialNumber, keys.name());
+        storeCache();
+    }
+    
+    private static void provisionCdk(Channel channel, boolean clear, List<Step> steps) {
+        // Clear the CDK set by a previous run, not needed if it was just rejected
+        if (clear) {
+            try {
+                open(channel, Keys.CDK, steps);
+                long start = System.nanoTime();
+                channel.setCdk(null);
+                channel.closeSession();
+                steps.add(new Step("clear CDK", System.nanoTime() - start, false));
+            }
+            catch (RuntimeException ex) {
+            }
+        }
+        open(channel, Keys.CAK, steps);
+        long start = System.nanoTime();
+        channel.setCdk(CDK);
+        channel.closeSession();
+        steps.add(new Step("set CDK", System.nanoTime() - start, false));
+    }
+    
+    private static void open(Channel channel, Keys keys, List<Step> steps) {
+        long start = System.nanoTime();
+        try {
+            channel.openSession(keys.id, keys.key);
+        }
+        catch (RuntimeException e) {
+            steps.add(new Step("open " + keys, System.nanoTime() - start, true));
+            throw e;
+        }
+        steps.add(new Step("open " + keys, System.nanoTime() - start, false));
+    }
+    
+    private void loadCache() {
+        if (cacheLoaded)
+            return;
+        cacheLoaded = true;
+        if (!cacheFile.exists())
+            return;
+        try {
+            InputStream stream = new FileInputStream(cacheFile);
+            try {
+                cache.load(stream);
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException e) {
+            cache.clear();
+        }
+    }
+    
+    private void storeCache() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            cache.store(out, "Accepted session keys");
+            CalibrationStore.writeAtomically(cacheFile, out.toByteArray());
+        }
+        catch (IOException e) {
+            // Only costs a full negotiation next time
+        }
+    }
+    
+    private static final class DeviceChannel implements Channel {
+        private final BiometricDevice device;
+        
+        DeviceChannel(BiometricDevice device) {
+            this.device = device;
+        }
+        
+        @Override
+        public String getSerialNumber() {
+            try {
+                return device.getSerialNumber();
+            }
+            catch (RuntimeException e) {
+                return null;
+            }
+        }
+        
+        @Override
+        public NBDeviceSecurityModel getSecurityModel() {
+            return device.getSecurityModel();
+        }
+        
+        @Override
+        public void openSession(byte[] id, byte[] key) {
+            device.openSession(id, key);
+        }
+        
+        @Override
+        public void closeSession() {
+            device.closeSession();
+        }
+        
+        @Override
+        public void setCdk(byte[] cdk) {
+            device.setBlobParameter(NBDevice.BLOB_PARAMETER_SET_CDK, cdk);
+        }
+    }
+}
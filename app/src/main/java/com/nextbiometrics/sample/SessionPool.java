@@ -0,0 +1,211 @@
+package com.nextbiometrics.sample;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference counted holder of the single open device of the process.
+ * <p>
+ * Callers {@link #acquire} a {@link Lease} instead of connecting themselves. The
+ * device is opened on the first lease, shared by all later leases for a matching
+ * key and closed once it has not been leased for the idle timeout. A device that
+ * fails the health check is closed and opened again on the next acquire.
+ * <p>
+ * Devices are opened and closed on the thread calling {@link #acquire} or
+ * {@link #invalidate}, an idle device on the closer executor if one is given.
+ * <p>
+ * The pool does not know about NBDevices, see {@link DeviceSessionManager}.
+ *
+ * @param <K> what identifies a device, e.g. a {@link DeviceInfo}
+ * @param <D> the device type
+ */
+public class SessionPool<K, D> {
+    
+    public interface Factory<K, D> {
+        /**
+         * Connects and prepares the device, throws if there is none.
+         */
+        D open(K key);
+        
+        /**
+         * Whether an open device, opened for {@code openedKey}, can serve a lease for {@code requestedKey}.
+         */
+        boolean matches(K requestedKey, K openedKey, D device);
+        
+        boolean isHealthy(D device);
+        
+        void close(D device);
+    }
+    
+    public static final class Lease<D> {
+        private final SessionPool<?, D> pool;
+        private final Object            entry;
+        private final D                 device;
+        private boolean                 released;
+        
+        Lease(SessionPool<?, D> pool, Object entry, D device) {
+            this.pool = pool;
+            this.entry = entry;
+            this.device = device;
+        }
+        
+        public D get() {
+            return device;
+        }
+        
+        /**
+         * Returns the device to the pool. Releasing a lease twice has no effect.
+         */
+        public void release() {
+            synchronized (pool) {
+                if (released)
+                    return;
+                released = true;
+            }
+            pool.release(entry);
+        }
+    }
+    
+    private final Factory<K, D>                 factory;
+    private final ScheduledExecutorService      scheduler;
+    private final Executor                      closer;
+    private final long                          idleTimeoutMillis;
+    
+    private Entry                               current;
+    private ScheduledFuture<?>                  idleClose;
+    private long                                openCount;
+    private long                                reuseCount;
+    
+    public SessionPool(Factory<K, D> factory, ScheduledExecutorService scheduler, long idleTimeoutMillis) {
+        this(factory, scheduler, null, idleTimeoutMillis);
+    }
+    
+    /**
+     * @param closer runs the close of an idle device, e.g. on the thread every other
+     *               call to the device is made on, {@code null} for the scheduler thread
+     */
+    public SessionPool(Factory<K, D> factory, ScheduledExecutorService scheduler, Executor closer, long idleTimeoutMillis) {
+        this.factory = factory;
+        this.scheduler = scheduler;
+        this.closer = closer;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+    
+    /**
+     * Leases the device for the key, opening it if needed. A device open for another
+     * key is closed first, even if it is still leased: the pool holds a single device.
+     */
+    public synchronized Lease<D> acquire(K key) {
+        cancelIdleClose();
+        if (current != null && (!factory.matches(key, current.key, current.device) || !isHealthy(current.device))) {
+            closeCurrent();
+        }
+        if (current == null) {
+            D device = factory.open(key);
+            current = new Entry(key, device);
+            openCount++;
+        }
+        else {
+            reuseCount++;
+        }
+        current.references++;
+        return new Lease<D>(this, current, current.device);
+    }
+    
+    /**
+     * Closes the open device immediately, e.g. because it was unplugged. Outstanding
+     * leases keep pointing to the closed device.
+     */
+    public synchronized void invalidate() {
+        cancelIdleClose();
+        closeCurrent();
+    }
+    
+    /**
+     * The open device, without leasing it.
+     */
+    public synchronized D peek() {
+        return current != null ? current.device : null;
+    }
+    
+    public synchronized int getReferences() {
+        return current != null ? current.references : 0;
+    }
+    
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+    
+    public synchronized long getReuseCount() {
+        return reuseCount;
+    }
+    
+    private synchronized void release(Object entry) {
+        if (entry != current)
+            return;
+        current.references--;
+        if (current.references > 0)
+            return;
+        final Entry idle = current;
+        final Runnable close = new Runnable() {
+            @Override
+            public void run() {
+                // Checked again when the closer gets to it, the device may be leased by then
+                synchronized (SessionPool.this) {
+                    if (current == idle && idle.references == 0) {
+                        idleClose = null;
+                        closeCurrent();
+                    }
+                }
+            }
+        };
+        idleClose = scheduler.schedule(closer == null ? close : new Runnable() {
+            @Override
+            public void run() {
+                closer.execute(close);
+            }
+        }, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private boolean isHealthy(D device) {
+        try {
+            return factory.isHealthy(device);
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+    }
+    
+    private void cancelIdleClose() {
+        if (idleClose != null) {
+            idleClose.cancel(false);
+            idleClose = null;
+        }
+    }
+    
+    private void closeCurrent() {
+        if (current == null)
+            return;
+        Entry closed = current;
+        current = null;
+        try {
+            factory.close(closed.device);
+        }
+        catch (RuntimeException ignored) {
+            // The device is gone either way
+        }
+    }
+    
+    private final class Entry {
+        final K     key;
+        final D     device;
+        int         references;
+        
+        Entry(K key, D device) {
+            this.key = key;
+            this.device = device;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.nextbiometrics.sample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+import com.nextbiometrics.devices.NBDeviceSecurityModel;
+import com.nextbiometrics.devices.NBDeviceState;
+
+/**
+ * {@link BiometricDevice} that replays a fixed sequence of raw frames.
+ * <p>
+ * {@link #scanEx} delivers every frame as a preview at the configured frame rate
+ * and returns the last one, {@link #scan} returns the frames one after the other.
+ * Each command first waits the configured command latency. Timing is taken against
+ * the start of the scan so a slow listener does not shift the following frames,
+ * which keeps runs comparable between machines. The finger detect value of a frame
+ * is the percentage of pixels that differ from its background.
+ */
+public class SimulatedBiometricDevice implements BiometricDevice {
+    
+    static final int    FINGER_DETECT_THRESHOLD = 20;
+    static final int    CALIBRATION_DATA_SIZE = 1024;
+    private static final int BACKGROUND_DISTANCE = 24;
+    
+    private final String                 serialNumber;
+    private final NBDeviceScanFormatInfo format;
+    private final List<byte[]>           frames;
+    private final int[]                  fingerDetectValues;
+    
+    private volatile long                  frameIntervalNanos;
+    private volatile long                  latencyNanos;
+    private volatile long                  calibrationNanos;
+    private volatile NBDeviceSecurityModel securityModel = NBDeviceSecurityModel.ModelNone;
+    private volatile NBDeviceState         state = NBDeviceState.AWAKE;
+    private volatile boolean               sessionOpen;
+    private volatile boolean               cancelled;
+    private volatile Thread                scanThread;
+    private volatile byte[]                calibrationData;
+    private int                            cursor;
+    private int                            lastFrame;
+    private long                           scanCount;
+    
+    public SimulatedBiometricDevice(String serialNumber, NBDeviceScanFormatInfo format, List<byte[]> frames) {
+        if (frames.isEmpty())
+            throw new IllegalArgumentException("No frames");
+        int size = format.getWidth() * format.getHeight();
+        this.fingerDetectValues = new int[frames.size()];
+        for (int i = 0; i < frames.size(); i++) {
+            if (frames.get(i).length != size)
+                throw new IllegalArgumentException("Frame " + i + " has " + frames.get(i).length + " bytes, expected " + size);
+            fingerDetectValues[i] = computeFingerDetectValue(frames.get(i));
+        }
+        this.serialNumber = serialNumber;
+        this.format = format;
+        this.frames = Collections.unmodifiableList(new ArrayList<byte[]>(frames));
+    }
+    
+    /**
+     * Sets the preview frame rate, 0 delivers frames as fast as the listener takes them.
+     */
+    public void setFrameRate(double framesPerSecond) {
+        frameIntervalNanos = framesPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / framesPerSecond) : 0;
+    }
+    
+    /**
+     * Sets the time every command takes before it starts working.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+    
+    public void setCalibrationMillis(long calibrationMillis) {
+        calibrationNanos = TimeUnit.MILLISECONDS.toNanos(calibrationMillis);
+    }
+    
+    public void setSecurityModel(NBDeviceSecurityModel securityModel) {
+        this.securityModel = securityModel;
+    }
+    
+    public List<byte[]> getFrames() {
+        return frames;
+    }
+    
+    public synchronized long getScanCount() {
+        return scanCount;
+    }
+    
+    /**
+     * Calibration data last set through {@link #setBlobParameter}.
+     */
+    public byte[] getCalibrationData() {
+        return calibrationData;
+    }
+    
+    @Override
+    public String getId() {
+        return "simulated:" + serialNumber;
+    }
+    
+    @Override
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+    
+    @Override
+    public NBDeviceState getState() {
+        return state;
+    }
+    
+    @Override
+    public NBDeviceSecurityModel getSecurityModel() {
+        return securityModel;
+    }
+    
+    @Override
+    public boolean requiresExternalCalibrationData() {
+        return calibrationNanos > 0;
+    }
+    
+    @Override
+    public NBDeviceScanFormatInfo[] getSupportedScanFormats() {
+        return new NBDeviceScanFormatInfo[] { format };
+    }
+    
+    @Override
+    public ScanResult scan(NBDeviceScanFormatInfo format) {
+        long start = beginScan(format);
+        try {
+            if (!sleepUntil(start + latencyNanos))
+                return finishScan(NBDeviceScanStatus.CANCELED);
+            int index;
+            synchronized (this) {
+                index = cursor;
+                cursor = (cursor + 1) % frames.size();
+                lastFrame = index;
+            }
+            return new ScanResult(NBDeviceScanStatus.OK, this.format, frames.get(index).clone());
+        }
+        finally {
+            endScan();
+        }
+    }
+    
+    @Override
+    public ScanResult scanEx(NBDeviceScanFormatInfo format, int timeout, PreviewListener listener) {
+        long start = beginScan(format);
+        try {
+            long deadline = timeout > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+            for (int i = 0; i < frames.size(); i++) {
+                long due = start + latencyNanos + i * frameIntervalNanos;
+                if (due - deadline > 0)
+                    return finishScan(NBDeviceScanStatus.TIMEOUT);
+                if (!sleepUntil(due))
+                    return finishScan(NBDeviceScanStatus.CANCELED);
+                synchronized (this) {
+                    lastFrame = i;
+                }
+                if (listener != null) {
+                    NBDeviceScanStatus status = fingerDetectValues[i] < FINGER_DETECT_THRESHOLD
+                      ? NBDeviceScanStatus.PUT_FINGER_ON_SENSOR : NBDeviceScanStatus.KEEP_FINGER_ON_SENSOR;
+                    listener.preview(status, fingerDetectValues[i], this.format, frames.get(i).clone());
+                }
+                if (cancelled)
+                    return finishScan(NBDeviceScanStatus.CANCELED);
+            }
+            return finishScan(NBDeviceScanStatus.OK);
+        }
+        finally {
+            endScan();
+        }
+    }
+    
+    @Override
+    public boolean isScanRunning() {
+        return scanThread != null;
+    }
+    
+    @Override
+    public void cancelScan() {
+        cancelled = true;
+        Thread thread = scanThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+    
+    @Override
+    public synchronized int getFingerDetectValue() {
+        return fingerDetectValues[lastFrame];
+    }
+    
+    @Override
+    public boolean isSessionOpen() {
+        return sessionOpen;
+    }
+    
+    @Override
+    public void openSession(byte[] keyId, byte[] key) {
+        checkConnected();
+        sleepUntil(System.nanoTime() + latencyNanos);
+        sessionOpen = true;
+    }
+    
+    @Override
+    public void closeSession() {
+        sessionOpen = false;
+    }
+    
+    @Override
+    public void setBlobParameter(int parameter, byte[] data) {
+        checkConnected();
+        calibrationData = data != null ? data.clone() : null;
+    }
+    
+    @Override
+    public byte[] generateCalibrationData() {
+        checkConnected();
+        sleepUntil(System.nanoTime() + latencyNanos + calibrationNanos);
+        byte[] data = new byte[CALIBRATION_DATA_SIZE];
+        new Random(serialNumber.hashCode()).nextBytes(data);
+        return data;
+    }
+    
+    @Override
+    public void reset() {
+        checkConnected();
+        cancelScan();
+        sleepUntil(System.nanoTime() + latencyNanos);
+        synchronized (this) {
+            cursor = 0;
+            lastFrame = 0;
+        }
+        sessionOpen = false;
+        calibrationData = null;
+    }
+    
+    @Override
+    public void dispose() {
+        cancelScan();
+        sessionOpen = false;
+        state = NBDeviceState.NOT_CONNECTED;
+    }
+    
+    @Override
+    public String toString() {
+        return getId();
+    }
+    
+    /**
+     * Reads the {@code .raw} files of a directory in name order, each holding one
+     * frame of the given format as 8 bit greyscale.
+     */
+    public static List<byte[]> loadFrames(File directory, NBDeviceScanFormatInfo format) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list " + directory);
+        Arrays.sort(files);
+        int size = format.getWidth() * format.getHeight();
+        List<byte[]> frames = new ArrayList<byte[]>();
+        for (File file : files) {
+            if (!file.getName().endsWith(".raw"))
+                continue;
+            if (file.length() != size)
+                throw new IOException(file + " is not a " + format.getWidth() + "x" + format.getHeight() + " frame");
+            byte[] frame = new byte[size];
+            InputStream stream = new FileInputStream(file);
+            try {
+                int read = 0;
+                while (read < size) {
+                    int count = stream.read(frame, read, size - read);
+                    if (count < 0)
+                        throw new IOException("Unexpected end of " + file);
+                    read += count;
+                }
+            }
+            finally {
+                stream.close();
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+    
+    /**
+     * Generates a finger that is placed on the sensor over the first half of the
+     * sequence and then rests on it, as concentric ridges over a light background.
+     */
+    public static List<byte[]> syntheticFrames(NBDeviceScanFormatInfo format, int count, long seed) {
+        int width = format.getWidth();
+        int height = format.getHeight();
+        Random random = new Random(seed);
+        double centerX = width / 2.0;
+        double centerY = height / 2.0;
+        int settled = Math.max(1, count / 2);
+        List<byte[]> frames = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            double placed = Math.min(1.0, (double) i / settled);
+            double radiusX = placed * width * 0.45;
+            double radiusY = placed * height * 0.45;
+            byte[] frame = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    double dx = x - centerX;
+                    double dy = y - centerY;
+                    int value;
+                    if (radiusX > 0 && (dx * dx) / (radiusX * radiusX) + (dy * dy) / (radiusY * radiusY) <= 1.0) {
+                        double r = Math.sqrt(dx * dx + dy * dy);
+                        value = (int) (120 + 70 * Math.sin(2 * Math.PI * r / 9.0)) + random.nextInt(9) - 4;
+                    }
+                    else {
+                        value = 230 + random.nextInt(5) - 2;
+                    }
+                    frame[y * width + x] = (byte) Math.max(0, Math.min(255, value));
+                }
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+    
+    /**
+     * Generates one impression of a finger with a ridge pattern of its own, for testing
+     * 1:N search. The ridges curve around a core point and are warped by a wave, both
+     * chosen from {@code identity}; {@code seed} only changes the noise.
+     *
+     * @param offsetX offset of the finger from the middle of the sensor, in pixels
+     */
+    public static byte[] syntheticFinger(NBDeviceScanFormatInfo format, int identity, int offsetX, int offsetY, long seed) {
+        int width = format.getWidth();
+        int height = format.getHeight();
+        Random pattern = new Random(identity * 7919L + 1);
+        double coreX = (pattern.nextDouble() - 0.5) * width * 0.4;
+        double coreY = (pattern.nextDouble() - 0.5) * height * 0.4;
+        double stretchX = 0.4 + pattern.nextDouble() * 1.2;
+        double stretchY = 0.4 + pattern.nextDouble() * 1.2;
+        double waveAmplitude = 10 + pattern.nextDouble() * 20;
+        double waveLength = 60 + pattern.nextDouble() * 100;
+        double waveAngle = pattern.nextDouble() * Math.PI;
+        double wavePhase = pattern.nextDouble() * 2 * Math.PI;
+        
+        Random random = new Random(seed);
+        double centerX = width / 2.0 + offsetX;
+        double centerY = height / 2.0 + offsetY;
+        double radiusX = width * 0.39;
+        double radiusY = height * 0.39;
+        byte[] frame = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double dx = x - centerX;
+                double dy = y - centerY;
+                int value;
+                if ((dx * dx) / (radiusX * radiusX) + (dy * dy) / (radiusY * radiusY) <= 1.0) {
+                    double r = Math.sqrt((dx - coreX) * (dx - coreX) * stretchX + (dy - coreY) * (dy - coreY) * stretchY)
+                      + waveAmplitude * Math.sin(2 * Math.PI * (dx * Math.cos(waveAngle) + dy * Math.sin(waveAngle)) / waveLength + wavePhase);
+                    value = (int) (120 + 70 * Math.sin(2 * Math.PI * r / 9.0)) + random.nextInt(13) - 6;
+                }
+                else {
+                    value = 230 + random.nextInt(5) - 2;
+                }
+                frame[y * width + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return frame;
+    }
+    
+    static int computeFingerDetectValue(byte[] frame) {
+        int[] histogram = new int[256];
+        for (byte b : frame)
+            histogram[b & 0xFF]++;
+        int background = 0;
+        for (int i = 1; i < histogram.length; i++) {
+            if (histogram[i] > histogram[background])
+                background = i;
+        }
+        int covered = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            if (Math.abs(i - background) > BACKGROUND_DISTANCE)
+                covered += histogram[i];
+        }
+        return frame.length > 0 ? (int) (100L * covered / frame.length) : 0;
+    }
+    
+    private synchronized long beginScan(NBDeviceScanFormatInfo format) {
+        checkConnected();
+        if (scanThread != null)
+            throw new IllegalStateException("Scan already running");
+        if (format != null && !format.equals(this.format))
+            throw new IllegalArgumentException("Unsupported format " + format);
+        cancelled = false;
+        scanThread = Thread.currentThread();
+        scanCount++;
+        return System.nanoTime();
+    }
+    
+    private ScanResult finishScan(NBDeviceScanStatus status) {
+        byte[] image;
+        synchronized (this) {
+            image = frames.get(lastFrame).clone();
+        }
+        return new ScanResult(status, format, image);
+    }
+    
+    private synchronized void endScan() {
+        scanThread = null;
+    }
+    
+    private void checkConnected() {
+        if (state == NBDeviceState.NOT_CONNECTED)
+            throw new IllegalStateException("Device disposed");
+    }
+    
+    /**
+     * @return {@code false} if the scan was cancelled while waiting
+     */
+    private boolean sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (cancelled && scanThread == Thread.currentThread())
+                return false;
+            LockSupport.parkNanos(this, remaining);
+        }
+        return !(cancelled && scanThread == Thread.currentThread());
+    }
+}
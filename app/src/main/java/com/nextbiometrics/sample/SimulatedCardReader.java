@@ -0,0 +1,83 @@
+package com.nextbiometrics.sample;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link CardReader} standing in for the terminal SDK.
+ * <p>
+ * A transaction waits until the customer "presents" the card, then for the time the
+ * EMV transaction takes, and returns the configured result or throws the configured
+ * error. Like the real reader it gives up with {@link TimeoutException} if the card is
+ * not presented in time and with {@link CancellationException} once cancelled.
+ */
+public class SimulatedCardReader implements CardReader {
+    
+    private volatile long       presentNanos;
+    private volatile long       transactionNanos;
+    private volatile CardResult result = new CardResult(CardResult.EMV_OK, CardResult.Entry.CONTACTLESS, CardResult.mask("4761739001010119"));
+    private volatile Exception  error;
+    private boolean             cancelled;
+    private int                 transactions;
+    
+    /**
+     * Sets the time until the card is presented and the time the transaction takes after it.
+     */
+    public void setTiming(long presentMillis, long transactionMillis) {
+        presentNanos = TimeUnit.MILLISECONDS.toNanos(presentMillis);
+        transactionNanos = TimeUnit.MILLISECONDS.toNanos(transactionMillis);
+    }
+    
+    public void setResult(CardResult result) {
+        this.result = result;
+        this.error = null;
+    }
+    
+    /**
+     * Makes the transactions fail with {@code error} once the card was presented.
+     */
+    public void setError(Exception error) {
+        this.error = error;
+    }
+    
+    public synchronized int getTransactionCount() {
+        return transactions;
+    }
+    
+    @Override
+    public CardResult transact(long amount, long timeoutMillis) throws Exception {
+        long start = System.nanoTime();
+        synchronized (this) {
+            transactions++;
+        }
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (presentNanos > timeoutNanos) {
+            waitUntil(start + timeoutNanos);
+            throw new TimeoutException("No card presented");
+        }
+        waitUntil(start + presentNanos + transactionNanos);
+        if (error != null)
+            throw error;
+        return result;
+    }
+    
+    private synchronized void waitUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while (!cancelled && (remaining = deadline - System.nanoTime()) > 0)
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        if (cancelled)
+            throw new CancellationException("Card transaction cancelled");
+    }
+    
+    @Override
+    public synchronized void reset() {
+        cancelled = false;
+    }
+    
+    @Override
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+}
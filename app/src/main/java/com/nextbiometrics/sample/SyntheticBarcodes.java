@@ -0,0 +1,64 @@
+package com.nextbiometrics.sample;
+
+import java.util.Random;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Greyscale frames showing a barcode, standing in for camera frames in the tests and
+ * benchmarks of {@link BarcodeDecoder}.
+ */
+final class SyntheticBarcodes {
+    
+    private static final int PAPER = 200;
+    private static final int INK = 40;
+    private static final int NOISE = 12;
+    
+    private SyntheticBarcodes() {
+    }
+    
+    /**
+     * A frame of noisy paper with the barcode encoding {@code contents} printed on it.
+     *
+     * @param codeWidth  width of the barcode, quiet zone included, before turning it
+     * @param codeHeight height of the barcode, quiet zone included, before turning it
+     * @param turned     whether the barcode is turned by 90 degrees
+     */
+    static byte[] frame(BarcodeFormat format, String contents, int width, int height, int left, int top,
+      int codeWidth, int codeHeight, boolean turned, long seed) {
+        BitMatrix code;
+        try {
+            code = new MultiFormatWriter().encode(contents, format, codeWidth, codeHeight);
+        }
+        catch (WriterException e) {
+            throw new IllegalArgumentException("Cannot encode " + contents + " as " + format, e);
+        }
+        byte[] frame = blank(width, height, seed);
+        Random random = new Random(~seed);
+        for (int y = 0; y < code.getHeight(); y++) {
+            for (int x = 0; x < code.getWidth(); x++) {
+                if (!code.get(x, y))
+                    continue;
+                int frameX = left + (turned ? y : x);
+                int frameY = top + (turned ? code.getWidth() - 1 - x : y);
+                if (frameX >= 0 && frameX < width && frameY >= 0 && frameY < height)
+                    frame[frameY * width + frameX] = (byte) (INK + random.nextInt(2 * NOISE + 1) - NOISE);
+            }
+        }
+        return frame;
+    }
+    
+    /**
+     * A frame of noisy paper without a barcode.
+     */
+    static byte[] blank(int width, int height, long seed) {
+        Random random = new Random(seed);
+        byte[] frame = new byte[width * height];
+        for (int i = 0; i < frame.length; i++)
+            frame[i] = (byte) (PAPER + random.nextInt(2 * NOISE + 1) - NOISE);
+        return frame;
+    }
+}
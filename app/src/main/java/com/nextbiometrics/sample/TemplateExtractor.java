@@ -0,0 +1,17 @@
+package com.nextbiometrics.sample;
+
+/**
+ * Turns a scanned image into a {@link FingerprintTemplate} for the {@link TemplateGallery}.
+ * <p>
+ * {@link OrientationFieldExtractor} is used by default, a vendor extractor can be
+ * plugged in as long as it fills the same fixed size template.
+ */
+public interface TemplateExtractor {
+    
+    /**
+     * @param image      greyscale pixels as returned by the scan, row by row
+     * @param resolution pixels per inch of the image
+     * @return the template, {@code null} if the image holds no usable finger
+     */
+    FingerprintTemplate extract(byte[] image, int width, int height, int resolution);
+}
@@ -0,0 +1,555 @@
+package com.nextbiometrics.sample;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Enrolled {@link FingerprintTemplate}s and 1:N search over them.
+ * <p>
+ * The templates are stored as a struct of arrays: all orientation planes one after
+ * the other in one direct {@link ByteBuffer}, all reliability planes in another and
+ * the identity and bin of every entry in int arrays, so a gallery of a few thousand
+ * identities is a handful of objects rather than one per template. An identity can
+ * have several entries, one per enrolled impression. Every bin keeps the list of
+ * its entries.
+ * <p>
+ * {@link #identify} only compares the entries in the bin of the probe, the two
+ * neighbouring bins and the unbinned entries; {@link #identifyAll} compares all of
+ * them. The candidates are split into chunks of {@value #LEAF_SIZE} entries compared
+ * in parallel on a {@link ForkJoinPool} with one thread per core. Searches run
+ * concurrently, changes to the gallery wait for them.
+ * <p>
+ * {@link #save} writes the gallery atomically to {@code NBData/gallery.bin}, which
+ * {@link #getInstance} loads again.
+ */
+public class TemplateGallery {
+    
+    private static final String TAG = "TemplateGallery";
+    
+    static final int MAGIC = 0x4E424754; // "NBGT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final String FILE_NAME = "gallery.bin";
+    
+    public static final int DEFAULT_THRESHOLD = 85;
+    public static final int DEFAULT_MAX_RESULTS = 5;
+    // Entries one fork-join task compares without splitting further
+    static final int LEAF_SIZE = 128;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BIN_COUNT = FingerprintTemplate.BINS + 1;
+    
+    private static TemplateGallery instance;
+    
+    /**
+     * An identity found by a search.
+     */
+    public static final class Match {
+        private final int id;
+        private final int score;
+        
+        Match(int id, int score) {
+            this.id = id;
+            this.score = score;
+        }
+        
+        public int getId() {
+            return id;
+        }
+        
+        /**
+         * Similarity of the best entry of the identity, from the threshold to 100.
+         */
+        public int getScore() {
+            return score;
+        }
+        
+        @Override
+        public String toString() {
+            return "#" + id + " (" + score + ")";
+        }
+    }
+    
+    /**
+     * Outcome of a search.
+     */
+    public static final class SearchResult {
+        private final List<Match>   matches;
+        private final int           compared;
+        private final int           entries;
+        private final long          elapsedNanos;
+        
+        SearchResult(List<Match> matches, int compared, int entries, long elapsedNanos) {
+            this.matches = matches;
+            this.compared = compared;
+            this.entries = entries;
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        /**
+         * Identities scoring at least the threshold, best first.
+         */
+        public List<Match> getMatches() {
+            return matches;
+        }
+        
+        /**
+         * The best match, {@code null} if none reached the threshold.
+         */
+        public Match getBest() {
+            return matches.isEmpty() ? null : matches.get(0);
+        }
+        
+        /**
+         * Entries compared with the probe, the others were skipped by binning.
+         */
+        public int getCompared() {
+            return compared;
+        }
+        
+        public int getEntries() {
+            return entries;
+        }
+        
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+    
+    private final File                      file;
+    private final ForkJoinPool              pool;
+    private final ReentrantReadWriteLock    lock = new ReentrantReadWriteLock();
+    private ByteBuffer                      orientations;
+    private ByteBuffer                      reliabilities;
+    private int[]                           ids;
+    private int[]                           bins;
+    // Position of each entry in the member list of its bin
+    private int[]                           binSlots;
+    private final int[][]                   binMembers = new int[BIN_COUNT][];
+    private final int[]                     binSizes = new int[BIN_COUNT];
+    private int                             size;
+    private int                             nextId = 1;
+    
+    public static synchronized TemplateGallery getInstance() {
+        if (instance == null) {
+            instance = new TemplateGallery(new File(CalibrationStore.getInstance().getDirectory(), FILE_NAME),
+              Runtime.getRuntime().availableProcessors());
+            try {
+                instance.load();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Cannot load the gallery, starting empty", e);
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * @param file        where {@link #save} and {@link #load} keep the gallery, may be {@code null}
+     * @param parallelism threads comparing templates
+     */
+    public TemplateGallery(File file, int parallelism) {
+        this.file = file;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        allocate(INITIAL_CAPACITY);
+        for (int bin = 0; bin < BIN_COUNT; bin++)
+            binMembers[bin] = new int[16];
+    }
+    
+    private void allocate(int capacity) {
+        ByteBuffer newOrientations = ByteBuffer.allocateDirect(capacity * FingerprintTemplate.CELLS);
+        ByteBuffer newReliabilities = ByteBuffer.allocateDirect(capacity * FingerprintTemplate.CELLS);
+        int[] newIds = new int[capacity];
+        int[] newBins = new int[capacity];
+        int[] newBinSlots = new int[capacity];
+        if (size > 0) {
+            newOrientations.put(slice(orientations, 0, size));
+            newReliabilities.put(slice(reliabilities, 0, size));
+            System.arraycopy(ids, 0, newIds, 0, size);
+            System.arraycopy(bins, 0, newBins, 0, size);
+            System.arraycopy(binSlots, 0, newBinSlots, 0, size);
+        }
+        orientations = newOrientations;
+        reliabilities = newReliabilities;
+        ids = newIds;
+        bins = newBins;
+        binSlots = newBinSlots;
+    }
+    
+    /**
+     * The planes of {@code count} entries from {@code entry} on, without touching the position of the buffer.
+     */
+    private static ByteBuffer slice(ByteBuffer planes, int entry, int count) {
+        ByteBuffer slice = planes.duplicate();
+        slice.limit((entry + count) * FingerprintTemplate.CELLS);
+        slice.position(entry * FingerprintTemplate.CELLS);
+        return slice;
+    }
+    
+    /**
+     * Enrolls the templates of one finger under a new identity.
+     *
+     * @return the identity
+     */
+    public int enroll(List<FingerprintTemplate> templates) {
+        if (templates.isEmpty())
+            throw new IllegalArgumentException("Nothing to enroll");
+        lock.writeLock().lock();
+        try {
+            int id = nextId++;
+            for (FingerprintTemplate template : templates)
+                add(id, template);
+            return id;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds a template to an identity, new or enrolled before.
+     */
+    public void add(int id, FingerprintTemplate template) {
+        if (id <= 0)
+            throw new IllegalArgumentException("Invalid identity " + id);
+        lock.writeLock().lock();
+        try {
+            if (size == ids.length)
+                allocate(size * 2);
+            int entry = size++;
+            template.writeTo(slice(orientations, entry, 1), slice(reliabilities, entry, 1));
+            ids[entry] = id;
+            bins[entry] = template.getBin();
+            addToBin(entry);
+            nextId = Math.max(nextId, id + 1);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes all entries of an identity.
+     *
+     * @return the number of entries removed
+     */
+    public int remove(int id) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int entry = size - 1; entry >= 0; entry--) {
+                if (ids[entry] != id)
+                    continue;
+                removeFromBin(entry);
+                // The last entry takes the free place
+                int last = --size;
+                if (entry != last) {
+                    slice(orientations, entry, 1).put(slice(orientations, last, 1));
+                    slice(reliabilities, entry, 1).put(slice(reliabilities, last, 1));
+                    ids[entry] = ids[last];
+                    bins[entry] = bins[last];
+                    binSlots[entry] = binSlots[last];
+                    binMembers[bins[entry]][binSlots[entry]] = entry;
+                }
+                removed++;
+            }
+            return removed;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void addToBin(int entry) {
+        int bin = bins[entry];
+        if (binSizes[bin] == binMembers[bin].length) {
+            int[] members = new int[binSizes[bin] * 2];
+            System.arraycopy(binMembers[bin], 0, members, 0, binSizes[bin]);
+            binMembers[bin] = members;
+        }
+        binSlots[entry] = binSizes[bin];
+        binMembers[bin][binSizes[bin]++] = entry;
+    }
+    
+    private void removeFromBin(int entry) {
+        int bin = bins[entry];
+        int slot = binSlots[entry];
+        int last = binMembers[bin][--binSizes[bin]];
+        binMembers[bin][slot] = last;
+        binSlots[last] = slot;
+    }
+    
+    /**
+     * Number of stored templates.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Number of templates in a bin, {@link FingerprintTemplate#UNBINNED} included.
+     */
+    public int getBinSize(int bin) {
+        lock.readLock().lock();
+        try {
+            return binSizes[bin];
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Searches the bins the probe can be in.
+     *
+     * @param threshold  lowest score of a match
+     * @param maxResults most identities to return
+     */
+    public SearchResult identify(FingerprintTemplate probe, int threshold, int maxResults) {
+        return search(probe, threshold, maxResults, true);
+    }
+    
+    /**
+     * Compares the probe with every entry.
+     */
+    public SearchResult identifyAll(FingerprintTemplate probe, int threshold, int maxResults) {
+        return search(probe, threshold, maxResults, false);
+    }
+    
+    private SearchResult search(FingerprintTemplate probe, int threshold, int maxResults, boolean binned) {
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            int[] candidates = candidates(probe.getBin(), binned);
+            List<Match> hits = candidates.length == 0
+              ? Collections.<Match>emptyList()
+              : pool.invoke(new SearchTask(probe, threshold, candidates, 0, candidates.length));
+            return new SearchResult(best(hits, maxResults), candidates.length, size, System.nanoTime() - start);
+        }
+        finally {
+            lock.readLock().unlock();
+            CaptureMetrics.getInstance().record(CaptureMetrics.Phase.IDENTIFICATION, start);
+        }
+    }
+    
+    private int[] candidates(int bin, boolean binned) {
+        if (!binned || bin == FingerprintTemplate.UNBINNED) {
+            int[] all = new int[size];
+            for (int entry = 0; entry < size; entry++)
+                all[entry] = entry;
+            return all;
+        }
+        int[] searched = {
+            (bin + FingerprintTemplate.BINS - 1) % FingerprintTemplate.BINS, bin, (bin + 1) % FingerprintTemplate.BINS, FingerprintTemplate.UNBINNED
+        };
+        int count = 0;
+        for (int b : searched)
+            count += binSizes[b];
+        int[] candidates = new int[count];
+        int offset = 0;
+        for (int b : searched) {
+            System.arraycopy(binMembers[b], 0, candidates, offset, binSizes[b]);
+            offset += binSizes[b];
+        }
+        return candidates;
+    }
+    
+    /**
+     * The best hit of each identity, best identities first.
+     */
+    private static List<Match> best(List<Match> hits, int maxResults) {
+        Map<Integer, Match> byId = new HashMap<Integer, Match>();
+        for (Match hit : hits) {
+            Match known = byId.get(hit.id);
+            if (known == null || hit.score > known.score)
+                byId.put(hit.id, hit);
+        }
+        List<Match> matches = new ArrayList<Match>(byId.values());
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                return a.score != b.score ? b.score - a.score : a.id - b.id;
+            }
+        });
+        return matches.size() > maxResults ? new ArrayList<Match>(matches.subList(0, maxResults)) : matches;
+    }
+    
+    private final class SearchTask extends RecursiveTask<List<Match>> {
+        private static final long           serialVersionUID = 1L;
+        
+        private final FingerprintTemplate   probe;
+        private final int                   threshold;
+        private final int[]                 candidates;
+        private final int                   from;
+        private final int                   to;
+        
+        SearchTask(FingerprintTemplate probe, int threshold, int[] candidates, int from, int to) {
+            this.probe = probe;
+            this.threshold = threshold;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected List<Match> compute() {
+            if (to - from <= LEAF_SIZE)
+                return compare();
+            int middle = (from + to) >>> 1;
+            SearchTask first = new SearchTask(probe, threshold, candidates, from, middle);
+            first.fork();
+            List<Match> hits = new SearchTask(probe, threshold, candidates, middle, to).compute();
+            List<Match> firstHits = first.join();
+            if (firstHits.isEmpty())
+                return hits;
+            if (hits.isEmpty())
+                return firstHits;
+            List<Match> all = new ArrayList<Match>(firstHits);
+            all.addAll(hits);
+            return all;
+        }
+        
+        private List<Match> compare() {
+            // The planes of one entry at a time are copied next to each other, the
+            // search holds the read lock so the buffers do not change meanwhile
+            byte[] entryOrientations = new byte[FingerprintTemplate.CELLS];
+            byte[] entryReliabilities = new byte[FingerprintTemplate.CELLS];
+            ByteBuffer orientationPlanes = orientations.duplicate();
+            ByteBuffer reliabilityPlanes = reliabilities.duplicate();
+            List<Match> hits = Collections.emptyList();
+            for (int i = from; i < to; i++) {
+                int entry = candidates[i];
+                orientationPlanes.position(entry * FingerprintTemplate.CELLS);
+                orientationPlanes.get(entryOrientations);
+                reliabilityPlanes.position(entry * FingerprintTemplate.CELLS);
+                reliabilityPlanes.get(entryReliabilities);
+                int score = probe.score(entryOrientations, entryReliabilities, 0, threshold);
+                if (score >= threshold) {
+                    if (hits.isEmpty())
+                        hits = new ArrayList<Match>();
+                    hits.add(new Match(ids[entry], score));
+                }
+            }
+            return hits;
+        }
+    }
+    
+    /**
+     * Writes the gallery to its file, replacing the previous one atomically.
+     */
+    public void save() throws IOException {
+        byte[] header;
+        byte[] entries;
+        byte[] planes;
+        lock.readLock().lock();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(FingerprintTemplate.CELLS).putInt(size);
+            header = buffer.array();
+            ByteBuffer idBuffer = ByteBuffer.allocate(size * 4).order(ByteOrder.LITTLE_ENDIAN);
+            idBuffer.asIntBuffer().put(ids, 0, size);
+            entries = idBuffer.array();
+            planes = new byte[size * FingerprintTemplate.CELLS * 2];
+            slice(orientations, 0, size).get(planes, 0, size * FingerprintTemplate.CELLS);
+            slice(reliabilities, 0, size).get(planes, size * FingerprintTemplate.CELLS, size * FingerprintTemplate.CELLS);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        CalibrationStore.writeAtomically(file, header, entries, planes);
+    }
+    
+    /**
+     * Replaces the content of the gallery with its file, a missing file leaves it empty.
+     */
+    public void load() throws IOException {
+        if (file == null || !file.isFile())
+            return;
+        ByteBuffer data;
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            FileChannel channel = stream.getChannel();
+            data = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+            }
+            data.flip();
+        }
+        finally {
+            stream.close();
+        }
+        if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC || data.getInt() != VERSION || data.getInt() != FingerprintTemplate.CELLS)
+            throw new IOException("Not a gallery of this version: " + file);
+        int count = data.getInt();
+        if (count < 0 || data.remaining() != (long) count * (4 + 2 * FingerprintTemplate.CELLS))
+            throw new IOException("Truncated gallery: " + file);
+        int[] loadedIds = new int[count];
+        data.asIntBuffer().get(loadedIds);
+        data.position(data.position() + count * 4);
+        int planeOffset = data.position();
+        List<FingerprintTemplate> templates = new ArrayList<FingerprintTemplate>(count);
+        for (int entry = 0; entry < count; entry++) {
+            byte[] orientation = new byte[FingerprintTemplate.CELLS];
+            byte[] reliability = new byte[FingerprintTemplate.CELLS];
+            data.position(planeOffset + entry * FingerprintTemplate.CELLS);
+            data.get(orientation);
+            data.position(planeOffset + (count + entry) * FingerprintTemplate.CELLS);
+            data.get(reliability);
+            try {
+                templates.add(new FingerprintTemplate(orientation, reliability));
+            }
+            catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt template " + entry + " in " + file, e);
+            }
+        }
+        
+        lock.writeLock().lock();
+        try {
+            clear();
+            for (int entry = 0; entry < count; entry++)
+                add(loadedIds[entry], templates.get(entry));
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            nextId = 1;
+            for (int bin = 0; bin < BIN_COUNT; bin++)
+                binSizes[bin] = 0;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Stops the search threads, the gallery cannot be searched afterwards.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
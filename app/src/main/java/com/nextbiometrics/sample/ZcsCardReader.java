@@ -0,0 +1,183 @@
+package com.nextbiometrics.sample;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.zcs.sdk.DriverManager;
+import com.zcs.sdk.SdkResult;
+import com.zcs.sdk.card.CardInfoEntity;
+import com.zcs.sdk.card.CardReaderManager;
+import com.zcs.sdk.card.CardReaderTypeEnum;
+import com.zcs.sdk.card.CardSlotNoEnum;
+import com.zcs.sdk.emv.EmvHandler;
+import com.zcs.sdk.emv.EmvResult;
+import com.zcs.sdk.emv.EmvTransParam;
+import com.zcs.sdk.emv.OnEmvListener;
+import com.zcs.sdk.listener.OnSearchCardListener;
+
+/**
+ * {@link CardReader} on the card reader and EMV kernel of the SmartPos terminal.
+ * <p>
+ * A transaction searches the contact, contactless and magstripe readers at once. A
+ * chip card runs through {@code EmvHandler.emvTrans}, contact or contactless kernel
+ * depending on where it was found, a magstripe card only has its tracks read. The
+ * kernel must already hold the applications and keys of the acquirer, which is
+ * terminal configuration and not part of the sample; so are PIN entry, the
+ * fingerprint verifies the cardholder, and the online authorisation that follows.
+ */
+public class ZcsCardReader implements CardReader {
+    
+    private static final byte   KERNEL_CONTACT = 0;
+    private static final byte   KERNEL_CONTACTLESS = 1;
+    private static final byte   TRANS_TYPE_GOODS = 0x00;
+    
+    private final CardReaderManager cardReader;
+    private final EmvHandler        emv;
+    private volatile boolean        cancelled;
+    private int                     transactionNumber;
+    
+    /**
+     * @throws IOException if the terminal SDK cannot be initialized
+     */
+    public ZcsCardReader() throws IOException {
+        DriverManager driver = DriverManager.getInstance();
+        int result = driver.getBaseSysDevice().sdkInit();
+        if (result != SdkResult.SDK_OK)
+            throw new IOException("SmartPos SDK initialization failed: " + result);
+        cardReader = driver.getCardReadManager();
+        emv = EmvHandler.getInstance();
+    }
+    
+    @Override
+    public CardResult transact(long amount, long timeoutMillis) throws Exception {
+        if (cancelled)
+            throw new CancellationException("Card transaction cancelled");
+        final CountDownLatch searched = new CountDownLatch(1);
+        final CardInfoEntity[] found = new CardInfoEntity[1];
+        final int[] error = new int[1];
+        cardReader.searchCard(CardReaderTypeEnum.MAG_IC_RF_CARD, (int) timeoutMillis, new OnSearchCardListener() {
+            @Override
+            public void onCardInfo(CardInfoEntity card) {
+                found[0] = card;
+                searched.countDown();
+            }
+            
+            @Override
+            public void onError(int code) {
+                error[0] = code;
+                searched.countDown();
+            }
+            
+            @Override
+            public void onNoCard(CardReaderTypeEnum type, boolean timedOut) {
+                searched.countDown();
+            }
+        });
+        // A cancel between the check above and searchCard found no search to stop
+        if (cancelled)
+            cardReader.cancelSearchCard();
+        try {
+            if (!searched.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                cardReader.cancelSearchCard();
+                throw new TimeoutException("No card presented");
+            }
+            if (cancelled)
+                throw new CancellationException("Card transaction cancelled");
+            CardInfoEntity card = found[0];
+            if (card == null) {
+                if (error[0] == 0 || error[0] == SdkResult.SDK_TIMEOUT || error[0] == SdkResult.SDK_RF_TIME_OUT)
+                    throw new TimeoutException("No card presented");
+                throw new IOException("Card search failed: " + error[0]);
+            }
+            CardReaderTypeEnum slot = card.getCardExistslot();
+            if (slot == CardReaderTypeEnum.MAG_CARD)
+                return new CardResult(CardResult.EMV_OK, CardResult.Entry.MAGSTRIPE, CardResult.mask(card.getCardNo()));
+            boolean contactless = slot == CardReaderTypeEnum.RF_CARD;
+            int result = emv.emvTrans(createParam(amount, contactless), new Kernel(contactless), new byte[1], new byte[6], new byte[1]);
+            if (cancelled)
+                throw new CancellationException("Card transaction cancelled");
+            String[] track2 = new String[1];
+            String[] pan = new String[1];
+            emv.getTrack2AndPAN(track2, pan);
+            return new CardResult(result, contactless ? CardResult.Entry.CONTACTLESS : CardResult.Entry.CONTACT, CardResult.mask(pan[0]));
+        }
+        finally {
+            cardReader.closeCard();
+        }
+    }
+    
+    private EmvTransParam createParam(long amount, boolean contactless) {
+        Date now = new Date();
+        EmvTransParam param = new EmvTransParam();
+        param.setTransKernalType(contactless ? KERNEL_CONTACTLESS : KERNEL_CONTACT);
+        param.setTransType(TRANS_TYPE_GOODS);
+        param.setAmountAuth(String.format(Locale.US, "%012d", amount));
+        param.setAmountOther("000000000000");
+        param.setTransNo(String.format(Locale.US, "%06d", transactionNumber = (transactionNumber + 1) % 1000000));
+        param.setTransDate(EmvTransParam.DateToStr(now, "yyMMdd"));
+        param.setTransTime(EmvTransParam.DateToStr(now, "HHmmss"));
+        return param;
+    }
+    
+    @Override
+    public void reset() {
+        cancelled = false;
+    }
+    
+    @Override
+    public void cancel() {
+        cancelled = true;
+        cardReader.cancelSearchCard();
+    }
+    
+    /**
+     * Answers the EMV kernel, called on the thread running the transaction.
+     */
+    private class Kernel implements OnEmvListener {
+        
+        private final boolean contactless;
+        
+        Kernel(boolean contactless) {
+            this.contactless = contactless;
+        }
+        
+        @Override
+        public byte[] onExchangeApdu(byte[] apdu) {
+            // No answer ends the transaction with a card error, checked as cancelled afterwards
+            if (cancelled)
+                return null;
+            return contactless ? cardReader.getRFCard().rfExchangeAPDU(apdu)
+              : cardReader.getICCard().icExchangeAPDU(CardSlotNoEnum.SDK_ICC_USERCARD, apdu);
+        }
+        
+        @Override
+        public int onSelApp(String[] applications) {
+            return 0;
+        }
+        
+        @Override
+        public int onConfirmCardNo(String pan) {
+            return cancelled ? EmvResult.EMV_USER_CANCEL : EmvResult.EMV_OK;
+        }
+        
+        @Override
+        public int onInputPIN(byte type) {
+            return EmvResult.EMV_NO_PINPAD_OR_ERR;
+        }
+        
+        @Override
+        public int onCertVerify(int type, String number) {
+            return EmvResult.EMV_OK;
+        }
+        
+        @Override
+        public int onlineProc() {
+            return EmvResult.EMV_OK;
+        }
+    }
+}
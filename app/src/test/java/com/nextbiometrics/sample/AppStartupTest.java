@@ -0,0 +1,143 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AppStartupTest {
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private static final class Recorder implements AppStartup.Listener {
+    final List<AppStartup.Trace> traces = new ArrayList<AppStartup.Trace>();
+
+    @Override
+    public void onTraced(AppStartup.Trace trace) {
+      traces.add(trace);
+    }
+  }
+
+  private static AppStartup.Stage step(final List<String> log, final String name) {
+    return new AppStartup.Stage() {
+      @Override
+      public void run() {
+        log.add(name);
+      }
+    };
+  }
+
+  @Test
+  public void stages_runInOrderOffTheCallingThread() throws Exception {
+    final List<String> log = new ArrayList<String>();
+    final Thread caller = Thread.currentThread();
+    AppStartup startup = new AppStartup(System.nanoTime())
+      .addStage("load", step(log, "load"))
+      .addStage("initialize", new AppStartup.Stage() {
+        @Override
+        public void run() throws Exception {
+          assertNotSame(caller, Thread.currentThread());
+          Thread.sleep(20);
+          log.add("initialize");
+        }
+      })
+      .addStage("enumerate", step(log, "enumerate"));
+    assertFalse(startup.isReady());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      startup.start(executor);
+      startup.getReady().get(5, TimeUnit.SECONDS);
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertTrue(startup.isReady());
+    assertEquals(3, log.size());
+    assertEquals("load", log.get(0));
+    assertEquals("initialize", log.get(1));
+    assertEquals("enumerate", log.get(2));
+  }
+
+  @Test
+  public void failingStage_skipsTheRest() throws Exception {
+    List<String> log = new ArrayList<String>();
+    Recorder recorder = new Recorder();
+    AppStartup startup = new AppStartup(System.nanoTime())
+      .addStage("load", step(log, "load"))
+      .addStage("initialize", new AppStartup.Stage() {
+        @Override
+        public void run() {
+          throw new UnsatisfiedLinkError("libNBDevices.so");
+        }
+      })
+      .addStage("enumerate", step(log, "enumerate"));
+    startup.setListener(recorder);
+    startup.start(DIRECT);
+
+    assertEquals(1, log.size());
+    assertFalse(startup.isReady());
+    try {
+      startup.getReady().get();
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof UnsatisfiedLinkError);
+    }
+
+    startup.firstFrame();
+    startup.deviceReady(false);
+    assertEquals(1, recorder.traces.size());
+    AppStartup.Trace trace = recorder.traces.get(0);
+    assertEquals(-1, trace.getLibraryReadyMillis());
+    assertTrue(trace.getStageMillis(0) >= 0);
+    assertEquals(-1, trace.getStageMillis(1));
+    assertEquals(-1, trace.getStageMillis(2));
+    assertFalse(trace.isDeviceFound());
+  }
+
+  @Test
+  public void trace_isReportedOnceAllMilestonesAreKnown() throws Exception {
+    List<String> log = new ArrayList<String>();
+    Recorder recorder = new Recorder();
+    long origin = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(500);
+    AppStartup startup = new AppStartup(origin).addStage("load", step(log, "load"));
+    startup.setListener(recorder);
+
+    // The UI usually draws before the library is ready
+    startup.firstFrame();
+    startup.deviceReady(true);
+    assertTrue(recorder.traces.isEmpty());
+    startup.start(DIRECT);
+    assertEquals(1, recorder.traces.size());
+
+    startup.firstFrame();
+    startup.deviceReady(false);
+    assertEquals(1, recorder.traces.size());
+    AppStartup.Trace trace = recorder.traces.get(0);
+    assertEquals(1, trace.getStageCount());
+    assertEquals("load", trace.getStageName(0));
+    assertTrue(trace.getFirstFrameMillis() >= 500);
+    assertTrue(trace.getLibraryReadyMillis() >= trace.getFirstFrameMillis());
+    assertTrue(trace.isDeviceFound());
+    assertTrue(trace.toString(), trace.toString().startsWith("first frame "));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void stages_cannotBeAddedOnceStarted() {
+    AppStartup startup = new AppStartup(System.nanoTime());
+    startup.start(DIRECT);
+    startup.addStage("late", step(new ArrayList<String>(), "late"));
+  }
+}
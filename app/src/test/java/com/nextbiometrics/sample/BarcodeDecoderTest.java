@@ -0,0 +1,131 @@
+package com.nextbiometrics.sample;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BarcodeDecoderTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  private final BarcodeDecoder decoder = new BarcodeDecoder(BarcodeDecoder.DEFAULT_FORMATS, 2);
+
+  @After
+  public void shutdown() {
+    decoder.shutdown();
+  }
+
+  private static byte[] qr(String contents, int left, int top, long seed) {
+    return SyntheticBarcodes.frame(BarcodeFormat.QR_CODE, contents, WIDTH, HEIGHT, left, top, 160, 160, false, seed);
+  }
+
+  @Test
+  public void decodesQrCode() {
+    BarcodeDecoder.Decoded decoded = decoder.decode(qr("LOYALTY-000123", 300, 200, 1), WIDTH, HEIGHT);
+
+    assertNotNull(decoded);
+    assertEquals(BarcodeFormat.QR_CODE, decoded.getFormat());
+    assertEquals("LOYALTY-000123", decoded.getText());
+    assertFalse(decoded.isCached());
+    // Between the finder patterns of the code
+    BarcodeDecoder.Region region = decoded.getRegion();
+    assertTrue(region.toString(), region.getLeft() >= 300 && region.getLeft() + region.getWidth() <= 460);
+    assertTrue(region.toString(), region.getTop() >= 200 && region.getTop() + region.getHeight() <= 360);
+  }
+
+  @Test
+  public void decodesTurnedBarcode() {
+    byte[] frame = SyntheticBarcodes.frame(BarcodeFormat.CODE_128, "0123456789", WIDTH, HEIGHT, 250, 40, 360, 80, true, 2);
+    BarcodeDecoder.Decoded decoded = decoder.decode(frame, WIDTH, HEIGHT);
+
+    assertNotNull(decoded);
+    assertEquals(BarcodeFormat.CODE_128, decoded.getFormat());
+    assertEquals("0123456789", decoded.getText());
+    assertTrue(decoded.getRegion().isTurned());
+  }
+
+  @Test
+  public void repeatedScan_usesTheCachedRegion() {
+    assertFalse(decoder.decode(qr("PAY:42", 60, 40, 3), WIDTH, HEIGHT).isCached());
+    BarcodeDecoder.Region cached = decoder.getCachedRegion(WIDTH, HEIGHT);
+    assertNotNull(cached);
+    assertTrue(cached.getWidth() < WIDTH && cached.getHeight() < HEIGHT);
+
+    // The code moved a little, still within the region
+    BarcodeDecoder.Decoded again = decoder.decode(qr("PAY:42", 70, 44, 4), WIDTH, HEIGHT);
+    assertTrue(again.isCached());
+    assertEquals("PAY:42", again.getText());
+    assertNull(decoder.getCachedRegion(WIDTH + 2, HEIGHT));
+  }
+
+  @Test
+  public void cacheMiss_searchesTheWholeFrame() {
+    decoder.decode(qr("FIRST", 40, 40, 5), WIDTH, HEIGHT);
+
+    BarcodeDecoder.Decoded moved = decoder.decode(qr("SECOND", 440, 300, 6), WIDTH, HEIGHT);
+    assertNotNull(moved);
+    assertFalse(moved.isCached());
+    assertEquals("SECOND", moved.getText());
+    assertTrue(decoder.getCachedRegion(WIDTH, HEIGHT).getLeft() > 300);
+  }
+
+  @Test
+  public void noBarcode_clearsTheCache() {
+    decoder.decode(qr("GONE", 200, 100, 7), WIDTH, HEIGHT);
+    assertNotNull(decoder.getCachedRegion(WIDTH, HEIGHT));
+
+    assertNull(decoder.decode(SyntheticBarcodes.blank(WIDTH, HEIGHT, 8), WIDTH, HEIGHT));
+    assertNull(decoder.getCachedRegion(WIDTH, HEIGHT));
+    assertTrue(CaptureMetrics.getInstance().get(CaptureMetrics.Phase.BARCODE_DECODE).getCount() > 0);
+  }
+
+  @Test
+  public void sequentialAndParallel_decodeTheSame() {
+    BarcodeDecoder sequential = new BarcodeDecoder(BarcodeDecoder.DEFAULT_FORMATS, 1);
+    try {
+      for (int i = 0; i < 6; i++) {
+        byte[] frame = i % 2 == 0
+          ? qr("ITEM-" + i, 40 + i * 60, 30 + i * 40, i)
+          : SyntheticBarcodes.frame(BarcodeFormat.EAN_13, "590123412345" + checkDigit("590123412345"), WIDTH, HEIGHT, 60 + i * 20, 150, 300, 120, false, i);
+        sequential.clearCache();
+        decoder.clearCache();
+        BarcodeDecoder.Decoded one = sequential.decode(frame, WIDTH, HEIGHT);
+        BarcodeDecoder.Decoded other = decoder.decode(frame, WIDTH, HEIGHT);
+        assertNotNull("frame " + i, one);
+        assertEquals(one.getText(), other.getText());
+      }
+    }
+    finally {
+      sequential.shutdown();
+    }
+  }
+
+  @Test
+  public void smallFrames() {
+    assertTrue(BarcodeDecoder.regions(39, 480, true).isEmpty());
+    List<BarcodeDecoder.Region> regions = BarcodeDecoder.regions(60, 60, true);
+    // Too small for a centre region
+    assertEquals(2, regions.size());
+    assertTrue(regions.get(0).isTurned());
+    assertFalse(regions.get(1).isTurned());
+    assertEquals(2, BarcodeDecoder.regions(640, 480, false).size());
+    assertNull(decoder.decode(new byte[60 * 60], 60, 60));
+
+    BarcodeDecoder.Region around = BarcodeDecoder.surrounding(new BarcodeDecoder.Region(10, 10, 4, 0, false), 60, 60);
+    assertTrue(around.getWidth() >= BarcodeDecoder.MINIMUM_DIMENSION);
+    assertTrue(around.getHeight() >= BarcodeDecoder.MINIMUM_DIMENSION);
+    assertTrue(around.getLeft() + around.getWidth() <= 60);
+  }
+
+  private static int checkDigit(String digits) {
+    int sum = 0;
+    for (int i = 0; i < digits.length(); i++)
+      sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+    return (10 - sum % 10) % 10;
+  }
+}
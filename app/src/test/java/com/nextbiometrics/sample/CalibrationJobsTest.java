@@ -0,0 +1,125 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CalibrationJobsTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, 64, 48, 385, 385, (byte) 0);
+
+  private DeviceCommandExecutor executor;
+  private CalibrationStore store;
+  private CalibrationJobs jobs;
+  private SimulatedBiometricDevice device;
+
+  @Before
+  public void setUp() {
+    executor = new DeviceCommandExecutor();
+    store = new CalibrationStore(folder.getRoot());
+    jobs = new CalibrationJobs(store, executor);
+    device = new SimulatedBiometricDevice("SIM1", FORMAT, SimulatedBiometricDevice.syntheticFrames(FORMAT, 1, 7));
+    device.setCalibrationMillis(300);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  private static final class Finished implements CalibrationJob.Listener {
+    final CountDownLatch latch = new CountDownLatch(1);
+    volatile CalibrationJob.State state;
+
+    @Override
+    public void onProgress(CalibrationJob job) {
+    }
+
+    @Override
+    public void onFinished(CalibrationJob job) {
+      state = job.getState();
+      latch.countDown();
+    }
+  }
+
+  @Test
+  public void secondStart_addsItsListener() throws InterruptedException {
+    Finished first = new Finished();
+    Finished second = new Finished();
+    CalibrationJob job = jobs.start(device, first);
+    assertSame(job, jobs.start(device, second));
+
+    assertTrue(first.latch.await(5, TimeUnit.SECONDS));
+    assertTrue(second.latch.await(5, TimeUnit.SECONDS));
+    assertEquals(CalibrationJob.State.SUCCEEDED, first.state);
+    assertEquals(CalibrationJob.State.SUCCEEDED, second.state);
+    assertTrue(store.exists("SIM1"));
+    assertNull(jobs.getActiveJob("SIM1"));
+  }
+
+  @Test
+  public void removedListener_isNotNotified() throws InterruptedException {
+    Finished removed = new Finished();
+    Finished kept = new Finished();
+    CalibrationJob job = jobs.start(device, removed);
+    jobs.start(device, kept);
+    job.removeListener(removed);
+
+    assertTrue(kept.latch.await(5, TimeUnit.SECONDS));
+    assertEquals(1, removed.latch.getCount());
+  }
+
+  @Test
+  public void cancelledRunningJob_finishesOnceTheDeviceIsFree() throws InterruptedException {
+    Finished finished = new Finished();
+    CalibrationJob job = jobs.start(device, finished);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (job.getState() != CalibrationJob.State.RUNNING && System.nanoTime() < deadline)
+      Thread.sleep(5);
+
+    assertTrue(job.cancel());
+    assertFalse(job.cancel());
+    assertEquals(CalibrationJob.State.CANCELLED, job.getState());
+    // The native call is still running
+    assertFalse(finished.latch.await(100, TimeUnit.MILLISECONDS));
+    assertSame(job, jobs.getActiveJob("SIM1"));
+
+    assertTrue(finished.latch.await(5, TimeUnit.SECONDS));
+    assertEquals(CalibrationJob.State.CANCELLED, finished.state);
+    assertFalse(store.exists("SIM1"));
+    assertNull(jobs.getActiveJob("SIM1"));
+  }
+
+  @Test
+  public void cancelledPendingJob_finishesAtOnce() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+      @Override
+      public Void run() throws Exception {
+        release.await(5, TimeUnit.SECONDS);
+        return null;
+      }
+    });
+    Finished finished = new Finished();
+    CalibrationJob job = jobs.start(device, finished);
+
+    assertTrue(job.cancel());
+    assertEquals(0, finished.latch.getCount());
+    release.countDown();
+    assertEquals(CalibrationJob.State.CANCELLED, job.getState());
+  }
+}
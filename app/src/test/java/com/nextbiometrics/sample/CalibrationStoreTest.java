@@ -0,0 +1,119 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CalibrationStoreTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] payload(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+
+  private static byte[] withHeader(byte[] data, long crc) {
+    ByteBuffer buffer = ByteBuffer.allocate(CalibrationStore.HEADER_SIZE + data.length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(CalibrationStore.MAGIC).putInt(CalibrationStore.VERSION).putInt(data.length).putInt((int) crc).put(data);
+    return buffer.array();
+  }
+
+  private static void write(File file, byte[] content) throws IOException {
+    FileOutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(content);
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void load_missingBlobReturnsNull() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    assertNull(store.load("A1"));
+    assertFalse(store.exists("A1"));
+  }
+
+  @Test
+  public void load_verifiesHeaderedBlob() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    byte[] data = payload(20000);
+    write(store.getBlobFile("A1"), withHeader(data, CalibrationStore.checksum(data)));
+    assertArrayEquals(data, store.load("A1"));
+  }
+
+  @Test
+  public void load_acceptsLegacyBlobWithoutHeader() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    byte[] data = payload(5000);
+    write(store.getBlobFile("A1"), data);
+    assertArrayEquals(data, store.load("A1"));
+  }
+
+  @Test(expected = IOException.class)
+  public void load_rejectsChecksumMismatch() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    byte[] data = payload(100);
+    write(store.getBlobFile("A1"), withHeader(data, CalibrationStore.checksum(data) + 1));
+    store.load("A1");
+  }
+
+  @Test(expected = IOException.class)
+  public void load_rejectsTruncatedBlob() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    byte[] data = payload(100);
+    byte[] content = withHeader(data, CalibrationStore.checksum(data));
+    byte[] truncated = new byte[content.length - 10];
+    System.arraycopy(content, 0, truncated, 0, truncated.length);
+    write(store.getBlobFile("A1"), truncated);
+    store.load("A1");
+  }
+
+  @Test
+  public void load_servesUnchangedFileFromCache() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    write(store.getBlobFile("A1"), payload(100));
+    byte[] first = store.load("A1");
+    assertSame(first, store.load("A1"));
+
+    File file = store.getBlobFile("A1");
+    byte[] replaced = payload(200);
+    write(file, replaced);
+    assertTrue(file.setLastModified(file.lastModified() + 2000));
+    assertArrayEquals(replaced, store.load("A1"));
+  }
+
+  @Test
+  public void load_dropsDeletedFile() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    write(store.getBlobFile("A1"), payload(100));
+    assertNotNull(store.load("A1"));
+    assertTrue(store.getBlobFile("A1").delete());
+    assertNull(store.load("A1"));
+  }
+
+  @Test
+  public void save_writesVerifiedBlobAndReplacesCachedOne() throws Exception {
+    CalibrationStore store = new CalibrationStore(new File(folder.getRoot(), "NBData"));
+    byte[] first = payload(300);
+    store.save("A1", first);
+    assertArrayEquals(first, store.load("A1"));
+
+    byte[] second = payload(400);
+    store.save("A1", second);
+    assertArrayEquals(second, store.load("A1"));
+    assertEquals(CalibrationStore.HEADER_SIZE + second.length, store.getBlobFile("A1").length());
+    assertFalse(new File(store.getDirectory(), "A1" + CalibrationStore.BLOB_SUFFIX + ".tmp").exists());
+  }
+}
@@ -0,0 +1,189 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CaptureArchiveTest {
+  private static final int WIDTH = 32;
+  private static final int HEIGHT = 16;
+  private static final int SIZE = WIDTH * HEIGHT;
+  private static final NBDeviceScanFormatInfo FORMAT = new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_CUSTOM,
+    NBDeviceScanFormatType.NATIVE, 0, 0, WIDTH, HEIGHT, 500, 500, (byte) 0);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<CaptureArchive> archives = new ArrayList<CaptureArchive>();
+
+  @After
+  public void tearDown() throws InterruptedException {
+    for (CaptureArchive archive : archives)
+      archive.close();
+  }
+
+  private CaptureArchive open(long maxFileBytes, int maxFiles) {
+    CaptureArchive archive = new CaptureArchive(folder.getRoot(), maxFileBytes, maxFiles, 64);
+    archives.add(archive);
+    return archive;
+  }
+
+  private static byte[] image(int seed) {
+    byte[] image = new byte[SIZE + 7];
+    for (int i = 0; i < image.length; i++)
+      image[i] = (byte) (i * 31 + seed);
+    return image;
+  }
+
+  private static long recordSize() {
+    return 4 + CaptureArchive.RECORD_HEADER_SIZE + SIZE;
+  }
+
+  @Test
+  public void readsRecordsBackById() throws Exception {
+    CaptureArchive archive = open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4);
+    assertTrue(archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, image(1), SIZE, 3, 42));
+    assertTrue(archive.append(CaptureArchive.Kind.RESULT, FORMAT, image(2), SIZE, QualityScore.NOT_SCORED, 250));
+    assertTrue(archive.flush());
+
+    assertEquals(2, archive.getRecordCount());
+    CaptureArchive.Record preview = archive.read(1);
+    assertEquals(1, preview.getId());
+    assertEquals(CaptureArchive.Kind.PREVIEW, preview.getKind());
+    assertEquals(3, preview.getNfiq());
+    assertEquals(42, preview.getFingerDetectValue());
+    assertEquals(WIDTH, preview.getWidth());
+    assertEquals(HEIGHT, preview.getHeight());
+    assertEquals(500, preview.getResolution());
+    assertTrue(preview.getTimestamp() > 0);
+    byte[] expected = new byte[SIZE];
+    System.arraycopy(image(1), 0, expected, 0, SIZE);
+    assertArrayEquals(expected, preview.getImage());
+
+    CaptureArchive.Record result = archive.read(2);
+    assertEquals(CaptureArchive.Kind.RESULT, result.getKind());
+    assertEquals(QualityScore.NOT_SCORED, result.getNfiq());
+    assertEquals(250, result.getFingerDetectValue());
+    assertNull(archive.read(3));
+  }
+
+  @Test
+  public void storesCompressibleImagesEncoded() throws Exception {
+    CaptureArchive archive = open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4);
+    byte[] frame = SimulatedBiometricDevice.syntheticFrames(FORMAT, 1, 3).get(0);
+    archive.append(CaptureArchive.Kind.RESULT, FORMAT, frame, SIZE, 2, 0);
+    archive.close();
+    assertTrue(archive.getFiles().get(0).length() < CaptureArchive.FILE_HEADER_SIZE + recordSize());
+    assertArrayEquals(frame, open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4).read(1).getImage());
+  }
+
+  @Test
+  public void callerMayReuseImageBuffer() throws Exception {
+    CaptureArchive archive = open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4);
+    byte[] buffer = image(5);
+    byte[] copy = buffer.clone();
+    archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, buffer, SIZE, 2, 0);
+    Arrays.fill(buffer, (byte) 0);
+    archive.flush();
+    assertEquals(copy[10], archive.read(1).getImage()[10]);
+  }
+
+  @Test
+  public void rotatesBySizeAndDeletesOldestFiles() throws Exception {
+    // Two records per file, noise is stored as it is
+    CaptureArchive archive = open(CaptureArchive.FILE_HEADER_SIZE + 2 * recordSize(), 2);
+    Random random = new Random(1);
+    byte[] noise = new byte[SIZE];
+    for (int i = 0; i < 7; i++) {
+      random.nextBytes(noise);
+      archive.append(CaptureArchive.Kind.RESULT, FORMAT, noise, SIZE, 1 + i % 5, i);
+    }
+    archive.flush();
+
+    List<File> files = archive.getFiles();
+    assertEquals(2, files.size());
+    assertTrue(files.get(0).getName().endsWith("00003" + CaptureArchive.FILE_SUFFIX));
+    assertEquals(CaptureArchive.FILE_HEADER_SIZE + 2 * recordSize(), files.get(0).length());
+    assertNull(archive.read(4));
+    assertEquals(5, archive.read(5).getId());
+    assertEquals(7, archive.read(7).getId());
+    assertEquals(3, archive.getRecordCount());
+  }
+
+  @Test
+  public void reopenedArchiveContinuesIds() throws Exception {
+    CaptureArchive archive = open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4);
+    archive.append(CaptureArchive.Kind.RESULT, FORMAT, image(1), SIZE, 1, 0);
+    archive.append(CaptureArchive.Kind.RESULT, FORMAT, image(2), SIZE, 2, 0);
+    archive.close();
+
+    CaptureArchive reopened = open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4);
+    assertEquals(2, reopened.read(2).getNfiq());
+    reopened.append(CaptureArchive.Kind.RESULT, FORMAT, image(3), SIZE, 3, 0);
+    reopened.flush();
+    assertEquals(3, reopened.read(3).getNfiq());
+    assertEquals(2, reopened.getFiles().size());
+  }
+
+  @Test
+  public void readerStopsAtTruncatedRecord() throws Exception {
+    CaptureArchive archive = open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4);
+    for (int i = 0; i < 3; i++)
+      archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, image(i), SIZE, 2, 0);
+    archive.close();
+    File file = archive.getFiles().get(0);
+    RandomAccessFile access = new RandomAccessFile(file, "rw");
+    access.setLength(file.length() - 10);
+    access.close();
+
+    CaptureArchive.Reader reader = new CaptureArchive.Reader(file);
+    int count = 0;
+    while (reader.next() != null)
+      count++;
+    reader.close();
+    assertEquals(2, count);
+    assertEquals(2, open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4).getRecordCount());
+  }
+
+  @Test
+  public void scorerArchivesScoredImages() throws Exception {
+    CaptureArchive archive = open(CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4);
+    QualityScorer scorer = new QualityScorer(new QualityScorer.Algorithm() {
+      @Override
+      public int score(byte[] image, int width, int height, int resolution) {
+        return 4;
+      }
+    }, new QualityScorer.Listener() {
+      @Override
+      public void onQualityScored(QualityScore score) {
+      }
+    });
+    scorer.setArchive(archive);
+    byte[] image = new byte[SIZE];
+    scorer.submitResult(1, new ScanResult(NBDeviceScanStatus.OK, FORMAT, image), 77);
+    for (int i = 0; i < 100 && archive.getRecordCount() == 0; i++) {
+      archive.flush();
+      Thread.sleep(10);
+    }
+    scorer.shutdown();
+    CaptureArchive.Record record = archive.read(1);
+    assertEquals(CaptureArchive.Kind.RESULT, record.getKind());
+    assertEquals(4, record.getNfiq());
+    assertEquals(77, record.getFingerDetectValue());
+  }
+}
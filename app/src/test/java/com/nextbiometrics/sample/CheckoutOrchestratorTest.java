@@ -0,0 +1,183 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CheckoutOrchestratorTest {
+
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, 64, 48, 385, 385, (byte) 0);
+
+  private final DeviceCommandExecutor commands = new DeviceCommandExecutor();
+  private final SimulatedCardReader cardReader = new SimulatedCardReader();
+  private final SimulatedBiometricDevice device =
+    new SimulatedBiometricDevice("SIM1", FORMAT, SimulatedBiometricDevice.syntheticFrames(FORMAT, 1, 7));
+  private final CheckoutOrchestrator orchestrator = new CheckoutOrchestrator(cardReader, device, commands);
+
+  @After
+  public void tearDown() {
+    orchestrator.shutdown();
+    commands.shutdown();
+  }
+
+  private static void awaitScanStopped(BiometricDevice device) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (device.isScanRunning() && System.nanoTime() < deadline)
+      Thread.sleep(5);
+    assertFalse(device.isScanRunning());
+  }
+
+  @Test
+  public void legs_runInParallel() throws Exception {
+    cardReader.setTiming(200, 100);
+    device.setLatencyMillis(300);
+    CheckoutOrchestrator.Outcome outcome = orchestrator.start(100, FORMAT, 5000).get(5, TimeUnit.SECONDS);
+
+    assertEquals(CheckoutOrchestrator.Outcome.Status.SUCCEEDED, outcome.getStatus());
+    assertTrue(outcome.getCardResult().isApproved());
+    assertNotNull(outcome.getScanResult().getImage());
+    assertTrue(outcome.getCardMillis() >= 300);
+    assertTrue(outcome.getFingerprintMillis() >= 300);
+    // One after the other it would take 600 ms
+    assertTrue(outcome.toString(), outcome.getTotalMillis() < 550);
+    assertTrue(CaptureMetrics.getInstance().get(CaptureMetrics.Phase.CHECKOUT).getCount() > 0);
+  }
+
+  @Test
+  public void declinedCard_cancelsTheScan() throws Exception {
+    cardReader.setTiming(50, 50);
+    cardReader.setResult(new CardResult(-10, CardResult.Entry.CONTACT, CardResult.mask("5413330089020011")));
+    device.setLatencyMillis(10000);
+    CheckoutOrchestrator.Outcome outcome = orchestrator.start(100, FORMAT, 20000).get(2, TimeUnit.SECONDS);
+
+    assertEquals(CheckoutOrchestrator.Outcome.Status.FAILED, outcome.getStatus());
+    assertEquals(CheckoutOrchestrator.Leg.CARD, outcome.getFailedLeg());
+    assertEquals(-1, outcome.getFingerprintMillis());
+    awaitScanStopped(device);
+  }
+
+  @Test
+  public void failedScan_cancelsTheCard() throws Exception {
+    cardReader.setTiming(10000, 0);
+    device.dispose();
+    long start = System.nanoTime();
+    CheckoutOrchestrator.Outcome outcome = orchestrator.start(100, FORMAT, 20000).get(2, TimeUnit.SECONDS);
+
+    assertEquals(CheckoutOrchestrator.Outcome.Status.FAILED, outcome.getStatus());
+    assertEquals(CheckoutOrchestrator.Leg.FINGERPRINT, outcome.getFailedLeg());
+    assertTrue(outcome.getError() instanceof IllegalStateException);
+
+    // The card thread is free again long before the card would have been presented
+    cardReader.setTiming(0, 0);
+    device.setLatencyMillis(0);
+    SimulatedBiometricDevice second = new SimulatedBiometricDevice("SIM2", FORMAT, SimulatedBiometricDevice.syntheticFrames(FORMAT, 1, 7));
+    CheckoutOrchestrator other = new CheckoutOrchestrator(cardReader, second, commands);
+    try {
+      assertEquals(CheckoutOrchestrator.Outcome.Status.SUCCEEDED, other.start(100, FORMAT, 5000).get(2, TimeUnit.SECONDS).getStatus());
+    }
+    finally {
+      other.shutdown();
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  public void scanFailingBeforeTheCardTransactionStarts_stillCancelsIt() throws Exception {
+    final CountDownLatch transactEntered = new CountDownLatch(1);
+    final CountDownLatch checkoutFinished = new CountDownLatch(1);
+    final CountDownLatch transactEnded = new CountDownLatch(1);
+    final Throwable[] transactError = new Throwable[1];
+    SimulatedCardReader slowStart = new SimulatedCardReader() {
+      @Override
+      public CardResult transact(long amount, long timeoutMillis) throws Exception {
+        // The leg is started, finish() has already cancelled it once this returns
+        transactEntered.countDown();
+        checkoutFinished.await(2, TimeUnit.SECONDS);
+        try {
+          return super.transact(amount, timeoutMillis);
+        }
+        catch (Exception e) {
+          transactError[0] = e;
+          throw e;
+        }
+        finally {
+          transactEnded.countDown();
+        }
+      }
+    };
+    slowStart.setTiming(10000, 0);
+    device.dispose();
+    // The scan only fails once the card thread is between starting the leg and transact
+    commands.submit(DeviceCommandExecutor.Lane.SCAN, new DeviceCommandExecutor.Command<Void>() {
+      @Override
+      public Void run() throws Exception {
+        transactEntered.await(2, TimeUnit.SECONDS);
+        return null;
+      }
+    });
+    CheckoutOrchestrator slow = new CheckoutOrchestrator(slowStart, device, commands);
+    try {
+      CheckoutOrchestrator.Outcome outcome = slow.start(100, FORMAT, 20000).get(2, TimeUnit.SECONDS);
+      assertEquals(CheckoutOrchestrator.Leg.FINGERPRINT, outcome.getFailedLeg());
+      checkoutFinished.countDown();
+
+      assertTrue(transactEnded.await(1, TimeUnit.SECONDS));
+      assertTrue(String.valueOf(transactError[0]), transactError[0] instanceof CancellationException);
+    }
+    finally {
+      slow.shutdown();
+    }
+  }
+
+  @Test
+  public void deadline_cancelsBothLegs() throws Exception {
+    cardReader.setTiming(10000, 0);
+    device.setLatencyMillis(10000);
+    CheckoutOrchestrator.Outcome outcome = orchestrator.start(100, FORMAT, 300).get(2, TimeUnit.SECONDS);
+
+    assertEquals(CheckoutOrchestrator.Outcome.Status.TIMED_OUT, outcome.getStatus());
+    assertTrue(outcome.getTotalMillis() < 1000);
+    assertNull(outcome.getCardResult());
+    awaitScanStopped(device);
+  }
+
+  @Test
+  public void cardError_failsTheCheckout() throws Exception {
+    cardReader.setTiming(0, 0);
+    cardReader.setError(new IOException("Card removed"));
+    device.setLatencyMillis(10000);
+    CheckoutOrchestrator.Outcome outcome = orchestrator.start(100, FORMAT, 20000).get(2, TimeUnit.SECONDS);
+
+    assertEquals(CheckoutOrchestrator.Leg.CARD, outcome.getFailedLeg());
+    assertEquals("Card removed", outcome.getError().getMessage());
+    awaitScanStopped(device);
+  }
+
+  @Test
+  public void cancel_stopsBothLegs() throws Exception {
+    cardReader.setTiming(10000, 0);
+    device.setLatencyMillis(10000);
+    DeviceFuture<CheckoutOrchestrator.Outcome> outcome = orchestrator.start(100, FORMAT, 20000);
+    Thread.sleep(100);
+    assertTrue(device.isScanRunning());
+    outcome.cancel(false);
+    try {
+      outcome.get(1, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (CancellationException expected) {
+    }
+    awaitScanStopped(device);
+  }
+}
@@ -0,0 +1,208 @@
+package com.nextbiometrics.sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeviceCommandExecutorTest {
+  private DeviceCommandExecutor executor;
+  private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+  @Before
+  public void setUp() {
+    executor = new DeviceCommandExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  private DeviceCommandExecutor.Command<String> record(final String name) {
+    return new DeviceCommandExecutor.Command<String>() {
+      @Override
+      public String run() {
+        order.add(name);
+        return name;
+      }
+    };
+  }
+
+  /** Occupies the device thread until the returned latch is released. */
+  private CountDownLatch block() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.submit(DeviceCommandExecutor.Lane.SCAN, new DeviceCommandExecutor.Command<Void>() {
+      @Override
+      public Void run() throws Exception {
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return null;
+      }
+    });
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    return release;
+  }
+
+  @Test
+  public void lanesAreServedInPriorityOrder() throws Exception {
+    CountDownLatch release = block();
+    executor.submit(DeviceCommandExecutor.Lane.SCAN, record("scan"));
+    executor.submit(DeviceCommandExecutor.Lane.COMMAND, record("command1"));
+    executor.submit(DeviceCommandExecutor.Lane.STATUS, record("status"));
+    DeviceFuture<String> last = executor.submit(DeviceCommandExecutor.Lane.COMMAND, record("command2"));
+    DeviceFuture<String> scan = executor.submit(DeviceCommandExecutor.Lane.SCAN, record("scan2"));
+    assertFalse(last.isDone());
+    release.countDown();
+    assertEquals("scan2", scan.get(1, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("status", "command1", "command2", "scan", "scan2"), order);
+  }
+
+  @Test
+  public void controlBypassesRunningCommand() throws Exception {
+    CountDownLatch release = block();
+    DeviceFuture<String> cancel = executor.submit(DeviceCommandExecutor.Lane.CONTROL, record("cancel"));
+    assertEquals("cancel", cancel.get(1, TimeUnit.SECONDS));
+    assertEquals(1, order.size());
+    release.countDown();
+  }
+
+  @Test
+  public void queuedCommandsWithSameKeyAreCoalesced() throws Exception {
+    CountDownLatch release = block();
+    final AtomicInteger runs = new AtomicInteger();
+    DeviceCommandExecutor.Command<Integer> status = new DeviceCommandExecutor.Command<Integer>() {
+      @Override
+      public Integer run() {
+        return runs.incrementAndGet();
+      }
+    };
+    DeviceFuture<Integer> first = executor.submit(DeviceCommandExecutor.Lane.STATUS, "status", 0, status);
+    DeviceFuture<Integer> second = executor.submit(DeviceCommandExecutor.Lane.STATUS, "status", 0, status);
+    assertSame(first, second);
+    assertEquals(1, executor.getQueueLength());
+    release.countDown();
+    assertEquals(Integer.valueOf(1), first.get(1, TimeUnit.SECONDS));
+
+    // Once started the key is free again
+    DeviceFuture<Integer> third = executor.submit(DeviceCommandExecutor.Lane.STATUS, "status", 0, status);
+    assertNotSame(first, third);
+    assertEquals(Integer.valueOf(2), third.get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void queuedCommandTimesOutWithoutRunning() throws Exception {
+    CountDownLatch release = block();
+    DeviceFuture<String> status = executor.submit(DeviceCommandExecutor.Lane.STATUS, "status", 50, record("status"));
+    try {
+      status.get(1, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertEquals(0, executor.getQueueLength());
+    release.countDown();
+    assertEquals("after", executor.submit(DeviceCommandExecutor.Lane.COMMAND, record("after")).get(1, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("after"), order);
+  }
+
+  @Test
+  public void runningCommandIsToldAboutTimeout() throws Exception {
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    final AtomicBoolean timedOut = new AtomicBoolean();
+    DeviceFuture<Void> scan = executor.submit(DeviceCommandExecutor.Lane.SCAN, null, 50, new DeviceCommandExecutor.Command<Void>() {
+      @Override
+      public Void run() throws Exception {
+        cancelled.await(5, TimeUnit.SECONDS);
+        return null;
+      }
+
+      @Override
+      public void onTimeout() {
+        timedOut.set(true);
+        cancelled.countDown();
+      }
+    });
+    try {
+      scan.get(1, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+    assertTrue(timedOut.get());
+  }
+
+  @Test
+  public void futuresCompose() throws Exception {
+    DeviceFuture<Integer> length = executor.submit(DeviceCommandExecutor.Lane.COMMAND, record("status"))
+      .then(new DeviceFuture.Transform<String, Integer>() {
+        @Override
+        public Integer apply(String value) {
+          return value.length();
+        }
+      });
+    assertEquals(Integer.valueOf(6), length.get(1, TimeUnit.SECONDS));
+
+    DeviceFuture<Integer> failed = executor.submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<String>() {
+      @Override
+      public String run() {
+        throw new IllegalStateException("busy");
+      }
+    }).then(new DeviceFuture.Transform<String, Integer>() {
+      @Override
+      public Integer apply(String value) {
+        return value.length();
+      }
+    });
+    try {
+      failed.get(1, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertEquals("busy", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void cancellingTheComposedFuture_cancelsTheSource() throws Exception {
+    CountDownLatch release = block();
+    DeviceFuture<String> scan = executor.submit(DeviceCommandExecutor.Lane.SCAN, record("scan"));
+    DeviceFuture<Integer> length = scan.then(new DeviceFuture.Transform<String, Integer>() {
+      @Override
+      public Integer apply(String value) {
+        return value.length();
+      }
+    });
+    assertTrue(length.cancel(false));
+    assertTrue(scan.isCancelled());
+    release.countDown();
+    executor.submit(DeviceCommandExecutor.Lane.SCAN, record("next")).get(1, TimeUnit.SECONDS);
+    assertEquals(Collections.singletonList("next"), order);
+  }
+
+  @Test
+  public void cancelledCommandIsSkipped() throws Exception {
+    CountDownLatch release = block();
+    DeviceFuture<String> scan = executor.submit(DeviceCommandExecutor.Lane.SCAN, record("scan"));
+    assertTrue(scan.cancel(false));
+    release.countDown();
+    executor.submit(DeviceCommandExecutor.Lane.SCAN, record("next")).get(1, TimeUnit.SECONDS);
+    assertEquals(Collections.singletonList("next"), order);
+  }
+}
@@ -0,0 +1,174 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final class FakeBus implements DeviceRegistry.Bus<String> {
+    final List<String> attached = new ArrayList<String>();
+    final List<String> disposed = new ArrayList<String>();
+    int spiConnects;
+    boolean spiPresent = true;
+
+    @Override
+    public List<String> scan() {
+      // Every enumeration connects new handles
+      List<String> handles = new ArrayList<String>();
+      for (String id : attached)
+        handles.add(new String(id));
+      return handles;
+    }
+
+    @Override
+    public String connectToSpi(DeviceInfo spi) {
+      if (!spiPresent)
+        throw new IllegalStateException("No device");
+      spiConnects++;
+      return "spi-" + spi.getSpiName();
+    }
+
+    @Override
+    public String getId(String device) {
+      return device;
+    }
+
+    @Override
+    public void dispose(String device) {
+      disposed.add(device);
+    }
+  }
+
+  private FakeBus bus;
+  private File spiFile;
+  private DeviceRegistry<String> registry;
+
+  @Before
+  public void setUp() {
+    bus = new FakeBus();
+    bus.attached.add("usb-1");
+    bus.attached.add("usb-2");
+    spiFile = new File(folder.getRoot(), DeviceRegistry.SPI_FILE);
+    registry = new DeviceRegistry<String>(bus, spiFile);
+  }
+
+  @Test
+  public void scansOnceAndAnswersFromEvents() {
+    assertEquals("usb-2", registry.get(new DeviceInfo("usb-2")));
+    assertEquals("usb-1", registry.get(null));
+    assertEquals("usb-1", registry.get(new DeviceInfo("missing")));
+    assertEquals(1, registry.getScanCount());
+
+    bus.attached.add("usb-3");
+    registry.added("usb-3");
+    registry.removed("usb-1");
+    assertEquals("usb-3", registry.get(new DeviceInfo("usb-3")));
+    assertEquals("usb-2", registry.get(null));
+    assertEquals(1, registry.getScanCount());
+  }
+
+  @Test
+  public void rescanPicksUpMissedDevices() {
+    registry.get(null);
+    bus.attached.add("usb-3");
+    assertEquals("usb-1", registry.get(new DeviceInfo("usb-3")));
+    registry.rescan();
+    assertEquals("usb-3", registry.get(new DeviceInfo("usb-3")));
+    assertEquals(2, registry.getScanCount());
+  }
+
+  @Test
+  public void keepsSpiDeviceUntilDisposed() {
+    DeviceInfo spi = DeviceInfo.createDefaultSpi();
+    assertEquals("spi-" + DeviceInfo.DEFAULT_SPI_NAME, registry.get(spi));
+    assertEquals("spi-" + DeviceInfo.DEFAULT_SPI_NAME, spi.getId());
+    registry.get(DeviceInfo.createDefaultSpi());
+    assertEquals(1, bus.spiConnects);
+    assertEquals(spi.getId(), registry.get(new DeviceInfo(spi.getId())));
+
+    // SPI devices are connected again, not enumerated
+    registry.disposed(spi.getId());
+    registry.get(DeviceInfo.createDefaultSpi());
+    assertEquals(2, bus.spiConnects);
+    assertEquals(1, registry.getScanCount());
+  }
+
+  @Test
+  public void disposedDevice_isEnumeratedAgain() {
+    String first = registry.get(new DeviceInfo("usb-1"));
+    registry.disposed("usb-1");
+
+    String second = registry.get(new DeviceInfo("usb-1"));
+    assertEquals("usb-1", second);
+    assertNotSame(first, second);
+    assertEquals(2, registry.getScanCount());
+    // The disposed handle was the session's to dispose, the other one was replaced
+    assertEquals(1, bus.disposed.size());
+    assertEquals("usb-2", bus.disposed.get(0));
+  }
+
+  @Test
+  public void rescan_disposesReplacedHandlesNoSessionHolds() {
+    String inUse = registry.get(new DeviceInfo("usb-1"));
+    registry.rescan();
+
+    assertEquals(1, bus.disposed.size());
+    assertEquals("usb-2", bus.disposed.get(0));
+    assertNotSame(inUse, bus.disposed.get(0));
+
+    // Once its session disposed it, the held handle is gone, the new one is not disposed
+    registry.disposed("usb-1");
+    registry.get(new DeviceInfo("usb-1"));
+    for (String device : bus.disposed)
+      assertNotSame(inUse, device);
+  }
+
+  @Test
+  public void remembersLastSpiParameters() {
+    assertNull(registry.getLastSpi());
+    DeviceInfo spi = new DeviceInfo("/dev/spidev1.0", 10, 11, 12);
+    registry.get(spi);
+
+    DeviceInfo remembered = new DeviceRegistry<String>(bus, spiFile).getLastSpi();
+    assertNotNull(remembered);
+    assertTrue(remembered.isSpi());
+    assertEquals("/dev/spidev1.0", remembered.getSpiName());
+    assertEquals(10, remembered.getAwakePin());
+    assertEquals(11, remembered.getResetPin());
+    assertEquals(12, remembered.getChipSelectPin());
+  }
+
+  @Test
+  public void failedSpiConnectionIsNotRemembered() {
+    bus.spiPresent = false;
+    try {
+      registry.get(DeviceInfo.createDefaultSpi());
+      fail();
+    }
+    catch (IllegalStateException e) {
+    }
+    assertNull(registry.getLastSpi());
+    assertFalse(spiFile.exists());
+  }
+
+  @Test
+  public void clearDropsEverything() {
+    registry.get(DeviceInfo.createDefaultSpi());
+    registry.clear();
+    bus.attached.clear();
+    assertNull(registry.get(null));
+    assertEquals(0, registry.getDeviceCount());
+    registry.get(DeviceInfo.createDefaultSpi());
+    assertEquals(2, bus.spiConnects);
+  }
+}
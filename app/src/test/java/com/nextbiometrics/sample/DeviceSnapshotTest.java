@@ -0,0 +1,125 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+import com.nextbiometrics.devices.NBDeviceState;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DeviceSnapshotTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, 64, 48, 385, 385, (byte) 0);
+
+  private static final DeviceSnapshot.Labels LABELS = new DeviceSnapshot.Labels() {
+    @Override
+    public String get(DeviceSnapshot.Label label) {
+      return label.name() + ": ";
+    }
+  };
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  /** Counts every call made to the device. */
+  private BiometricDevice counted(final BiometricDevice device) {
+    return (BiometricDevice) Proxy.newProxyInstance(BiometricDevice.class.getClassLoader(), new Class<?>[] { BiometricDevice.class },
+      new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          calls.incrementAndGet();
+          try {
+            return method.invoke(device, args);
+          }
+          catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+  }
+
+  private static SimulatedBiometricDevice simulated() {
+    return new SimulatedBiometricDevice("SIM1", FORMAT, SimulatedBiometricDevice.syntheticFrames(FORMAT, 1, 7));
+  }
+
+  @Test
+  public void statusText_costsNoDeviceCalls() throws Exception {
+    BiometricDevice device = counted(simulated());
+    DeviceSnapshot snapshot = DeviceSnapshot.capture(device, new CalibrationStore(folder.getRoot()));
+    int captured = calls.get();
+
+    String text = snapshot.getStatusText(LABELS);
+    for (int i = 0; i < 100; i++)
+      assertSame(text, snapshot.getStatusText(LABELS));
+    assertEquals(captured, calls.get());
+    assertTrue(text.contains("SERIAL_NUMBER: SIM1\n"));
+    assertTrue(text.contains("STATE: " + NBDeviceState.AWAKE + "\n"));
+    assertTrue(text.contains("\t" + FORMAT + "\n"));
+    assertFalse(text.contains("FINGER_DETECT_VALUE"));
+  }
+
+  @Test
+  public void refresh_readsOnlyTheState() throws Exception {
+    SimulatedBiometricDevice simulated = simulated();
+    BiometricDevice device = counted(simulated);
+    DeviceSnapshot snapshot = DeviceSnapshot.capture(device, new CalibrationStore(folder.getRoot()));
+    snapshot.getStatusText(LABELS);
+
+    simulated.dispose();
+    int before = calls.get();
+    DeviceSnapshot refreshed = snapshot.refresh(device);
+    assertEquals(before + 1, calls.get());
+    assertEquals(NBDeviceState.AWAKE, snapshot.getState());
+    assertEquals(NBDeviceState.NOT_CONNECTED, refreshed.getState());
+    assertTrue(refreshed.getStatusText(LABELS).contains("STATE: " + NBDeviceState.NOT_CONNECTED + "\n"));
+    assertEquals("SIM1", refreshed.getSerialNumber());
+  }
+
+  @Test
+  public void fingerDetectValue_isShownOnceKnown() {
+    DeviceSnapshot snapshot = DeviceSnapshot.capture(simulated(), new CalibrationStore(folder.getRoot()));
+    assertNull(snapshot.getFingerDetectValue());
+
+    DeviceSnapshot detected = snapshot.withFingerDetectValue(42);
+    assertEquals(Integer.valueOf(42), detected.getFingerDetectValue());
+    assertTrue(detected.getStatusText(LABELS).contains("FINGER_DETECT_VALUE: 42\n"));
+    assertEquals(Integer.valueOf(42), detected.refresh(simulated()).getFingerDetectValue());
+  }
+
+  @Test
+  public void calibration_isOnlyLookedForWhenRefreshed() throws Exception {
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    SimulatedBiometricDevice device = simulated();
+    device.setCalibrationMillis(1);
+    DeviceSnapshot snapshot = DeviceSnapshot.capture(device, store);
+    assertTrue(snapshot.requiresExternalCalibrationData());
+    assertFalse(snapshot.isCalibrationPresent());
+    assertTrue(snapshot.getStatusText(LABELS).endsWith("Device compensation data missing!"));
+
+    File file = store.getBlobFile("SIM1");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[] { 1, 2, 3 });
+    out.close();
+    assertTrue(snapshot.getStatusText(LABELS).endsWith("Device compensation data missing!"));
+
+    DeviceSnapshot refreshed = snapshot.refreshCalibration();
+    assertTrue(refreshed.isCalibrationPresent());
+    assertTrue(refreshed.getStatusText(LABELS).contains("Device compensation data:" + file.getPath() + "\n"));
+    assertFalse(refreshed.getStatusText(LABELS).contains("missing"));
+    assertSame(refreshed, refreshed.refreshCalibration());
+  }
+}
@@ -0,0 +1,100 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class DoubleBufferTest {
+
+  @Test
+  public void consumerTakesLatestFrame() {
+    DoubleBuffer buffers = new DoubleBuffer();
+    assertEquals(DoubleBuffer.NONE, buffers.take());
+
+    int first = buffers.acquire();
+    buffers.publish(first, 10);
+    int second = buffers.acquire();
+    assertNotEquals(first, second);
+    buffers.publish(second, 20);
+
+    assertEquals(second, buffers.take());
+    assertEquals(20, buffers.getTimestamp(second));
+    assertEquals(DoubleBuffer.NONE, buffers.take());
+    assertEquals(2, buffers.getPublished());
+    assertEquals(1, buffers.getTaken());
+    assertEquals(1, buffers.getDropped());
+  }
+
+  @Test
+  public void producerNeverGetsTheSlotBeingShown() {
+    DoubleBuffer buffers = new DoubleBuffer();
+    int slot = buffers.acquire();
+    buffers.publish(slot, 1);
+    int shown = buffers.take();
+
+    // While the consumer holds its slot the producer keeps overwriting the other one
+    for (int i = 0; i < 3; i++) {
+      int next = buffers.acquire();
+      assertNotEquals(shown, next);
+      buffers.publish(next, i);
+    }
+    assertEquals(2, buffers.getDropped());
+    buffers.release(shown);
+
+    assertNotEquals(shown, buffers.take());
+    assertFalse(buffers.hasPending());
+  }
+
+  @Test
+  public void clear_forgetsPendingFrame() {
+    DoubleBuffer buffers = new DoubleBuffer();
+    buffers.publish(buffers.acquire(), 1);
+    assertTrue(buffers.hasPending());
+    buffers.clear();
+    assertEquals(DoubleBuffer.NONE, buffers.take());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void publish_requiresAcquiredSlot() {
+    new DoubleBuffer().publish(1, 0);
+  }
+
+  @Test
+  public void concurrentProducer_neverWritesShownSlot() throws Exception {
+    final DoubleBuffer buffers = new DoubleBuffer();
+    final int[][] slots = new int[2][1];
+    final AtomicBoolean torn = new AtomicBoolean();
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int frame = 1; frame <= 20000; frame++) {
+          int slot = buffers.acquire();
+          slots[slot][0] = -1;
+          slots[slot][0] = frame;
+          buffers.publish(slot, frame);
+        }
+        done.countDown();
+      }
+    });
+    producer.start();
+    long last = 0;
+    while (done.getCount() > 0 || buffers.hasPending()) {
+      int slot = buffers.take();
+      if (slot == DoubleBuffer.NONE)
+        continue;
+      int frame = slots[slot][0];
+      if (frame != buffers.getTimestamp(slot) || frame <= last)
+        torn.set(true);
+      last = frame;
+      buffers.release(slot);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertFalse(torn.get());
+    assertEquals(20000, buffers.getTaken() + buffers.getDropped());
+  }
+}
@@ -0,0 +1,147 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EnrollmentSessionTest {
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, 32, 32, 385, 385, (byte) 0);
+
+  private static SimulatedBiometricDevice device(long latencyMillis) {
+    SimulatedBiometricDevice device = new SimulatedBiometricDevice("SIM1", FORMAT, SimulatedBiometricDevice.syntheticFrames(FORMAT, 2, 3));
+    device.setLatencyMillis(latencyMillis);
+    return device;
+  }
+
+  /** Returns the given NFIQ values in capture order. */
+  private static class ScriptedAlgorithm implements QualityScorer.Algorithm {
+    private final int[] scores;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    ScriptedAlgorithm(int... scores) {
+      this.scores = scores;
+    }
+
+    @Override
+    public int score(byte[] image, int width, int height, int resolution) {
+      int call = calls.getAndIncrement();
+      return scores[Math.min(call, scores.length - 1)];
+    }
+  }
+
+  private static class RecordingListener implements EnrollmentSession.Listener {
+    final List<Integer> captured = new ArrayList<Integer>();
+    final List<EnrollmentSession.Impression> scored = new ArrayList<EnrollmentSession.Impression>();
+
+    @Override
+    public synchronized void onCaptured(int capture, ScanResult result) {
+      captured.add(capture);
+    }
+
+    @Override
+    public synchronized void onScored(EnrollmentSession.Impression impression, List<EnrollmentSession.Impression> best) {
+      scored.add(impression);
+    }
+  }
+
+  private static List<Integer> qualities(List<EnrollmentSession.Impression> impressions) {
+    List<Integer> qualities = new ArrayList<Integer>();
+    for (EnrollmentSession.Impression impression : impressions)
+      qualities.add(impression.getQuality());
+    return qualities;
+  }
+
+  @Test
+  public void stopsOnceBestImpressionsMeetTarget() {
+    RecordingListener listener = new RecordingListener();
+    EnrollmentSession session = new EnrollmentSession(device(20), FORMAT, new ScriptedAlgorithm(4, 2, 1, 2, 5, 5, 5, 5), listener, 3, 2, 8);
+    EnrollmentSession.Result result = session.run(null);
+
+    assertTrue(result.isTargetMet());
+    assertFalse(result.isCancelled());
+    assertEquals(Arrays.asList(1, 2, 2), qualities(result.getBest()));
+    assertEquals(3, result.getBest().get(0).getCapture());
+    assertEquals(2, result.getBest().get(1).getCapture());
+    assertEquals(4, result.getBest().get(2).getCapture());
+    assertTrue("captures " + result.getCaptures(), result.getCaptures() >= 4 && result.getCaptures() < 8);
+  }
+
+  @Test
+  public void givesUpAfterMaxCaptures() {
+    RecordingListener listener = new RecordingListener();
+    EnrollmentSession session = new EnrollmentSession(device(0), FORMAT, new ScriptedAlgorithm(4, 3, 5, 4, 4), listener, 3, 2, 5);
+    EnrollmentSession.Result result = session.run(null);
+
+    assertFalse(result.isTargetMet());
+    assertEquals(5, result.getCaptures());
+    assertEquals(Arrays.asList(3, 4, 4), qualities(result.getBest()));
+    assertEquals(5, listener.scored.size());
+  }
+
+  @Test
+  public void scoresWhileNextCaptureIsAcquired() {
+    final SimulatedBiometricDevice device = device(50);
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    QualityScorer.Algorithm algorithm = new QualityScorer.Algorithm() {
+      @Override
+      public int score(byte[] image, int width, int height, int resolution) {
+        if (device.isScanRunning())
+          overlapped.set(true);
+        return 3;
+      }
+    };
+    new EnrollmentSession(device, FORMAT, algorithm, new RecordingListener(), 2, 1, 3).run(null);
+    assertTrue(overlapped.get());
+  }
+
+  @Test
+  public void failedScoring_isNotKept() {
+    QualityScorer.Algorithm algorithm = new QualityScorer.Algorithm() {
+      private int calls;
+
+      @Override
+      public int score(byte[] image, int width, int height, int resolution) {
+        if (calls++ == 0)
+          throw new IllegalStateException("NFIQ failed");
+        return 1;
+      }
+    };
+    RecordingListener listener = new RecordingListener();
+    EnrollmentSession.Result result = new EnrollmentSession(device(0), FORMAT, algorithm, listener, 2, 2, 6).run(null);
+    assertTrue(result.isTargetMet());
+    assertEquals(0, listener.scored.get(0).getQuality());
+    for (EnrollmentSession.Impression impression : result.getBest())
+      assertNotEquals(1, impression.getCapture());
+  }
+
+  @Test
+  public void cancel_stopsSequence() throws Exception {
+    SimulatedBiometricDevice device = device(100);
+    final EnrollmentSession session = new EnrollmentSession(device, FORMAT, new ScriptedAlgorithm(5), new RecordingListener(), 3, 1, 50);
+    final EnrollmentSession.Result[] result = new EnrollmentSession.Result[1];
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        result[0] = session.run(null);
+      }
+    });
+    thread.start();
+    Thread.sleep(250);
+    session.cancel();
+    thread.join(2000);
+    assertFalse(thread.isAlive());
+    assertTrue(result[0].isCancelled());
+    assertTrue(result[0].getCaptures() < 50);
+  }
+}
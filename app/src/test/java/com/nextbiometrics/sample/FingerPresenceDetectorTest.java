@@ -0,0 +1,94 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FingerPresenceDetectorTest {
+
+  private static final long POLL_NANOS = 20000000L;
+
+  private final Random random = new Random(3);
+  private long nanos;
+
+  /** Feeds noisy samples around {@code level}, returns how often a finger settled. */
+  private int feed(FingerPresenceDetector detector, int level, int count) {
+    int settled = 0;
+    for (int i = 0; i < count; i++) {
+      nanos += POLL_NANOS;
+      if (detector.sample(level + random.nextInt(5) - 2, nanos) == FingerPresenceDetector.State.SETTLED)
+        settled++;
+    }
+    return settled;
+  }
+
+  @Test
+  public void noise_neverTriggers() {
+    FingerPresenceDetector detector = new FingerPresenceDetector();
+    assertEquals(0, feed(detector, 40, 500));
+    assertEquals(FingerPresenceDetector.State.IDLE, detector.getState());
+    assertEquals(40, detector.getRestingLevel(), 2);
+    assertTrue(detector.getLowThreshold() < detector.getHighThreshold());
+  }
+
+  @Test
+  public void idle_backsOffAndLandingPollsFast() {
+    FingerPresenceDetector detector = new FingerPresenceDetector();
+    feed(detector, 40, 50);
+    assertEquals(FingerPresenceDetector.MAX_IDLE_MILLIS, detector.getPollMillis());
+
+    nanos += POLL_NANOS;
+    detector.sample(80, nanos);
+    assertEquals(FingerPresenceDetector.State.LANDING, detector.getState());
+    assertEquals(FingerPresenceDetector.FAST_MILLIS, detector.getPollMillis());
+    assertEquals(nanos, detector.getLandingNanos());
+  }
+
+  @Test
+  public void settledFinger_triggersOnceUntilLifted() {
+    FingerPresenceDetector detector = new FingerPresenceDetector();
+    feed(detector, 40, 50);
+    // Pressing down, then resting
+    for (int value = 60; value < 200; value += 40) {
+      nanos += POLL_NANOS;
+      assertNotEquals(FingerPresenceDetector.State.SETTLED, detector.sample(value, nanos));
+    }
+    assertEquals(1, feed(detector, 200, 50));
+    assertEquals(FingerPresenceDetector.State.PRESENT, detector.getState());
+
+    // Wobbling around the high threshold does not count as a new finger
+    assertEquals(0, feed(detector, (int) detector.getHighThreshold(), 20));
+    feed(detector, 40, 5);
+    assertEquals(FingerPresenceDetector.State.IDLE, detector.getState());
+    assertEquals(1, feed(detector, 200, 10));
+  }
+
+  @Test
+  public void touch_withoutSettling_doesNotTrigger() {
+    FingerPresenceDetector detector = new FingerPresenceDetector();
+    feed(detector, 40, 50);
+    int settled = 0;
+    // Swiping across the sensor, the value never stays put
+    for (int i = 0; i < 20; i++) {
+      nanos += POLL_NANOS;
+      if (detector.sample(i % 2 == 0 ? 120 : 220, nanos) == FingerPresenceDetector.State.SETTLED)
+        settled++;
+    }
+    assertEquals(0, settled);
+    feed(detector, 40, 3);
+    assertEquals(FingerPresenceDetector.State.IDLE, detector.getState());
+  }
+
+  @Test
+  public void fingerLevel_raisesTheHighThreshold() {
+    FingerPresenceDetector detector = new FingerPresenceDetector();
+    feed(detector, 40, 50);
+    double before = detector.getHighThreshold();
+    feed(detector, 400, 10);
+    feed(detector, 40, 10);
+    assertTrue(detector.getHighThreshold() > before);
+    assertEquals(220, detector.getHighThreshold(), 5);
+  }
+}
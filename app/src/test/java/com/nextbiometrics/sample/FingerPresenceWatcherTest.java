@@ -0,0 +1,147 @@
+package com.nextbiometrics.sample;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FingerPresenceWatcherTest {
+
+  private final DeviceCommandExecutor commands = new DeviceCommandExecutor();
+  private final AtomicInteger fingerDetectValue = new AtomicInteger(40);
+  private final AtomicInteger polls = new AtomicInteger();
+
+  /** A device whose finger detect value the test sets. */
+  private final BiometricDevice device = (BiometricDevice) Proxy.newProxyInstance(BiometricDevice.class.getClassLoader(),
+    new Class<?>[] { BiometricDevice.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getFingerDetectValue")) {
+          polls.incrementAndGet();
+          return fingerDetectValue.get();
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+
+  @After
+  public void tearDown() {
+    commands.shutdown();
+  }
+
+  private static FingerPresenceDetector warmedUp() {
+    FingerPresenceDetector detector = new FingerPresenceDetector();
+    for (int i = 0; i < 20; i++)
+      detector.sample(40 + i % 3, System.nanoTime());
+    return detector;
+  }
+
+  @Test
+  public void settledFinger_isReportedAndPausesPolling() throws Exception {
+    final CountDownLatch settled = new CountDownLatch(1);
+    FingerPresenceWatcher watcher = new FingerPresenceWatcher(device, warmedUp(), commands, new FingerPresenceWatcher.Listener() {
+      @Override
+      public void onFingerSettled(FingerPresenceWatcher watcher) {
+        settled.countDown();
+      }
+    });
+    watcher.start();
+    try {
+      Thread.sleep(300);
+      assertEquals(1, settled.getCount());
+      fingerDetectValue.set(200);
+      assertTrue(settled.await(2, TimeUnit.SECONDS));
+      assertTrue(watcher.isPaused());
+      assertEquals(1, watcher.getTriggerCount());
+
+      int before = polls.get();
+      Thread.sleep(300);
+      assertEquals(before, polls.get());
+      assertTrue(watcher.getReport().contains("1 fingers"));
+    }
+    finally {
+      watcher.stop();
+    }
+  }
+
+  @Test
+  public void resume_needsTheFingerLifted() throws Exception {
+    final AtomicInteger settled = new AtomicInteger();
+    FingerPresenceWatcher watcher = new FingerPresenceWatcher(device, warmedUp(), commands, new FingerPresenceWatcher.Listener() {
+      @Override
+      public void onFingerSettled(FingerPresenceWatcher watcher) {
+        settled.incrementAndGet();
+      }
+    });
+    fingerDetectValue.set(200);
+    watcher.start();
+    try {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+      while (settled.get() == 0 && System.nanoTime() < deadline)
+        Thread.sleep(10);
+      assertEquals(1, settled.get());
+
+      watcher.resume();
+      Thread.sleep(400);
+      assertEquals(1, settled.get());
+      assertFalse(watcher.isPaused());
+
+      fingerDetectValue.set(40);
+      Thread.sleep(300);
+      fingerDetectValue.set(200);
+      deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+      while (settled.get() == 1 && System.nanoTime() < deadline)
+        Thread.sleep(10);
+      assertEquals(2, settled.get());
+    }
+    finally {
+      watcher.stop();
+    }
+  }
+
+  @Test
+  public void queuedCommands_goFirst() throws Exception {
+    FingerPresenceWatcher watcher = new FingerPresenceWatcher(device, warmedUp(), commands, new FingerPresenceWatcher.Listener() {
+      @Override
+      public void onFingerSettled(FingerPresenceWatcher watcher) {
+      }
+    });
+    final CountDownLatch release = new CountDownLatch(1);
+    // Keeps the device thread busy with one command and another one queued behind it
+    commands.submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+      @Override
+      public Void run() throws Exception {
+        release.await();
+        return null;
+      }
+    });
+    DeviceFuture<Void> queued = commands.submit(DeviceCommandExecutor.Lane.COMMAND, new DeviceCommandExecutor.Command<Void>() {
+      @Override
+      public Void run() {
+        return null;
+      }
+    });
+    watcher.start();
+    try {
+      Thread.sleep(300);
+      assertEquals(0, polls.get());
+      release.countDown();
+      queued.get(1, TimeUnit.SECONDS);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+      while (polls.get() == 0 && System.nanoTime() < deadline)
+        Thread.sleep(10);
+      assertTrue(polls.get() > 0);
+      assertTrue(watcher.getReport().contains("put off"));
+    }
+    finally {
+      watcher.stop();
+    }
+  }
+}
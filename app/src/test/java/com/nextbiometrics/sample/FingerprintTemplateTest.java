@@ -0,0 +1,93 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FingerprintTemplateTest {
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, 256, 360, 385, 385, (byte) 0);
+
+  private final TemplateExtractor extractor = new OrientationFieldExtractor();
+
+  private FingerprintTemplate extract(int identity, int offsetX, int offsetY, long seed) {
+    return extractor.extract(SimulatedBiometricDevice.syntheticFinger(FORMAT, identity, offsetX, offsetY, seed), 256, 360, 385);
+  }
+
+  /**
+   * A template with the same orientation and reliability in the given rectangle of cells.
+   */
+  private static FingerprintTemplate uniform(int orientation, int left, int top, int right, int bottom) {
+    byte[] orientations = new byte[FingerprintTemplate.CELLS];
+    byte[] reliabilities = new byte[FingerprintTemplate.CELLS];
+    for (int y = top; y < bottom; y++) {
+      for (int x = left; x < right; x++) {
+        orientations[y * FingerprintTemplate.GRID_WIDTH + x] = (byte) orientation;
+        reliabilities[y * FingerprintTemplate.GRID_WIDTH + x] = (byte) FingerprintTemplate.MAX_RELIABILITY;
+      }
+    }
+    return new FingerprintTemplate(orientations, reliabilities);
+  }
+
+  @Test
+  public void blankFrame_hasNoTemplate() {
+    byte[] blank = new byte[256 * 360];
+    Arrays.fill(blank, (byte) 230);
+    assertNull(extractor.extract(blank, 256, 360, 385));
+  }
+
+  @Test
+  public void sameFinger_matchesAcrossImpressions() {
+    FingerprintTemplate enrolled = extract(1, 0, 0, 1);
+    assertEquals(100, enrolled.compare(enrolled));
+    assertTrue(enrolled.getArea() > FingerprintTemplate.FULL_OVERLAP);
+
+    // Placed elsewhere on the sensor, with other noise
+    FingerprintTemplate probe = extract(1, 14, -12, 2);
+    assertTrue("genuine " + probe.compare(enrolled), probe.compare(enrolled) >= TemplateGallery.DEFAULT_THRESHOLD);
+    for (int identity = 2; identity < 8; identity++) {
+      int score = probe.compare(extract(identity, 0, 0, 1));
+      assertTrue("impostor " + identity + " " + score, score < TemplateGallery.DEFAULT_THRESHOLD);
+    }
+  }
+
+  @Test
+  public void compare_toleratesSmallShifts() {
+    FingerprintTemplate template = uniform(40, 2, 2, 14, 20);
+    assertEquals(100, template.compare(uniform(40, 4, 0, 16, 18)));
+    // Perpendicular ridges
+    assertEquals(0, template.compare(uniform(40 + 128, 2, 2, 14, 20)));
+    // Too little in common
+    assertEquals(0, template.compare(uniform(40, 0, 0, 4, 4)));
+  }
+
+  @Test
+  public void bin_followsTheDominantOrientation() {
+    assertEquals(0, uniform(0, 0, 0, 16, 22).getBin());
+    assertEquals(4, uniform(128, 0, 0, 16, 22).getBin());
+    assertEquals(7, uniform(250, 0, 0, 16, 22).getBin());
+
+    // Opposite halves cancel out
+    byte[] orientations = new byte[FingerprintTemplate.CELLS];
+    byte[] reliabilities = new byte[FingerprintTemplate.CELLS];
+    for (int cell = 0; cell < FingerprintTemplate.CELLS; cell++) {
+      orientations[cell] = (byte) (cell < FingerprintTemplate.CELLS / 2 ? 0 : 128);
+      reliabilities[cell] = 8;
+    }
+    assertEquals(FingerprintTemplate.UNBINNED, new FingerprintTemplate(orientations, reliabilities).getBin());
+    assertEquals(FingerprintTemplate.UNBINNED, new FingerprintTemplate(orientations, new byte[FingerprintTemplate.CELLS]).getBin());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void reliability_mustBeInRange() {
+    byte[] reliabilities = new byte[FingerprintTemplate.CELLS];
+    reliabilities[3] = (byte) (FingerprintTemplate.MAX_RELIABILITY + 1);
+    new FingerprintTemplate(new byte[FingerprintTemplate.CELLS], reliabilities);
+  }
+}
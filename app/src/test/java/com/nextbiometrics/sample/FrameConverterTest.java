@@ -0,0 +1,78 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link FrameConverter} produces the same pixels as the former
+ * {@code CaptureActivity.convertToBitmap} loop and reuses its buffers.
+ */
+public class FrameConverterTest {
+  private static final int WIDTH = 180;
+  private static final int HEIGHT = 256;
+
+  // Same arithmetic as android.graphics.Color.argb(255, grey, grey, grey)
+  private static int referenceArgb(byte pixel) {
+    int grey = pixel & 0x0ff;
+    return (255 << 24) | (grey << 16) | (grey << 8) | grey;
+  }
+
+  private static byte[] randomFrame(int width, int height, long seed) {
+    byte[] image = new byte[width * height];
+    new Random(seed).nextBytes(image);
+    return image;
+  }
+
+  @Test
+  public void lut_matchesReferenceForEveryGreyLevel() {
+    for (int grey = 0; grey < 256; grey++) {
+      assertEquals(referenceArgb((byte) grey), GreyscaleLut.toArgb(grey));
+    }
+  }
+
+  @Test
+  public void convertPixels_matchesReferencePerPixel() {
+    byte[] image = randomFrame(WIDTH, HEIGHT, 42);
+    int[] pixels = new FrameConverter().convertPixels(WIDTH, HEIGHT, image);
+    assertEquals(image.length, pixels.length);
+    for (int i = 0; i < image.length; i++) {
+      assertEquals("pixel " + i, referenceArgb(image[i]), pixels[i]);
+    }
+  }
+
+  @Test
+  public void convertPixels_reusesBufferPerSize() {
+    FrameConverter converter = new FrameConverter();
+    int[] first = converter.convertPixels(WIDTH, HEIGHT, randomFrame(WIDTH, HEIGHT, 1));
+    int[] second = converter.convertPixels(WIDTH, HEIGHT, randomFrame(WIDTH, HEIGHT, 2));
+    int[] other = converter.convertPixels(WIDTH / 2, HEIGHT / 2, randomFrame(WIDTH / 2, HEIGHT / 2, 3));
+    assertSame(first, second);
+    assertNotSame(first, other);
+    assertSame(other, converter.convertPixels(WIDTH / 2, HEIGHT / 2, randomFrame(WIDTH / 2, HEIGHT / 2, 4)));
+  }
+
+  @Test
+  public void convertPixels_toleratesShortImage() {
+    byte[] image = new byte[WIDTH];
+    image[0] = (byte) 0x80;
+    int[] pixels = new FrameConverter().convertPixels(WIDTH, HEIGHT, image);
+    assertEquals(referenceArgb((byte) 0x80), pixels[0]);
+  }
+
+  @Test
+  public void convertPreviewPixels_scalesForTheView() {
+    FrameConverter converter = new FrameConverter();
+    int[] full = converter.convertPixels(WIDTH, HEIGHT, randomFrame(WIDTH, HEIGHT, 5));
+    int[] preview = converter.convertPreviewPixels(WIDTH, HEIGHT, randomFrame(WIDTH, HEIGHT, 5), 60, 80, null);
+    assertEquals(60, converter.getPreviewWidth());
+    assertEquals(85, converter.getPreviewHeight());
+    assertNotSame(full, preview);
+    assertTrue(preview.length >= 60 * 85 && preview.length < full.length);
+    assertSame(preview, converter.convertPreviewPixels(WIDTH, HEIGHT, randomFrame(WIDTH, HEIGHT, 6), 60, 80, null));
+    // Too short to scale, converted as far as it goes
+    assertEquals(referenceArgb((byte) 0), converter.convertPreviewPixels(WIDTH, HEIGHT, new byte[WIDTH], 60, 80, new int[] { 0, 0, 10, 10 })[0]);
+  }
+}
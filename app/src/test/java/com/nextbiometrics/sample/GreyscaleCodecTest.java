@@ -0,0 +1,111 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GreyscaleCodecTest {
+  private final GreyscaleCodec codec = new GreyscaleCodec();
+
+  private static NBDeviceScanFormatInfo format(int width, int height) {
+    return new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_CUSTOM, NBDeviceScanFormatType.NATIVE,
+      0, 0, width, height, 385, 385, (byte) 0);
+  }
+
+  private int roundTrip(byte[] image, int width, int height) {
+    byte[] encoded = new byte[GreyscaleCodec.maxEncodedLength(width, height)];
+    int length = codec.encode(image, width, height, encoded, 0);
+    assertTrue(GreyscaleCodec.isEncoded(encoded, 0, length));
+    assertEquals(width, GreyscaleCodec.getWidth(encoded, 0));
+    assertEquals(height, GreyscaleCodec.getHeight(encoded, 0));
+    byte[] decoded = new byte[width * height];
+    assertEquals(width * height, codec.decode(encoded, 0, length, decoded));
+    assertArrayEquals(Arrays.copyOf(image, width * height), decoded);
+    return length;
+  }
+
+  @Test
+  public void roundTripsSensorFormats() {
+    // Formats reported by getSupportedScanFormats() of the NB-65 and NB-2033 modules
+    int[][] sizes = {{180, 256}, {256, 360}};
+    for (int[] size : sizes) {
+      List<byte[]> frames = SimulatedBiometricDevice.syntheticFrames(format(size[0], size[1]), 4, 7);
+      for (byte[] frame : frames) {
+        int length = roundTrip(frame, size[0], size[1]);
+        assertTrue("Encoded to " + length, length < frame.length * 3 / 4);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripsRecordedFrames() throws Exception {
+    String directory = System.getProperty("codec.frames");
+    if (directory == null)
+      return;
+    NBDeviceScanFormatInfo format = format(Integer.getInteger("codec.width", 180), Integer.getInteger("codec.height", 256));
+    for (byte[] frame : SimulatedBiometricDevice.loadFrames(new File(directory), format))
+      roundTrip(frame, format.getWidth(), format.getHeight());
+  }
+
+  @Test
+  public void roundTripsExtremes() {
+    Random random = new Random(3);
+    byte[] noise = new byte[97 * 61];
+    random.nextBytes(noise);
+    int length = roundTrip(noise, 97, 61);
+    assertTrue(length <= GreyscaleCodec.maxEncodedLength(97, 61));
+
+    byte[] edges = new byte[64 * 64];
+    for (int i = 0; i < edges.length; i++)
+      edges[i] = (byte) (((i / 64 + i % 64) & 1) == 0 ? 0 : 255);
+    roundTrip(edges, 64, 64);
+
+    byte[] flat = new byte[128 * 128];
+    Arrays.fill(flat, (byte) 200);
+    assertTrue(roundTrip(flat, 128, 128) < flat.length / 6);
+
+    roundTrip(new byte[] {(byte) 255}, 1, 1);
+    roundTrip(new byte[] {1, 2, 3, 100, (byte) 250}, 5, 1);
+    roundTrip(new byte[] {1, 2, 3, 100, (byte) 250}, 1, 5);
+  }
+
+  @Test
+  public void reusesBuffersAcrossImages() {
+    byte[] encoded = new byte[GreyscaleCodec.maxEncodedLength(180, 256) + 5];
+    byte[] decoded = new byte[180 * 256];
+    List<byte[]> frames = SimulatedBiometricDevice.syntheticFrames(format(180, 256), 3, 11);
+    for (byte[] frame : frames) {
+      int length = codec.encode(frame, 180, 256, encoded, 5);
+      codec.decode(encoded, 5, length, decoded);
+      assertArrayEquals(frame, decoded);
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedData() {
+    List<byte[]> frames = SimulatedBiometricDevice.syntheticFrames(format(64, 64), 1, 1);
+    byte[] encoded = new byte[GreyscaleCodec.maxEncodedLength(64, 64)];
+    int length = codec.encode(frames.get(0), 64, 64, encoded, 0);
+    try {
+      codec.decode(encoded, 0, length / 2, new byte[64 * 64]);
+      fail();
+    }
+    catch (IllegalArgumentException e) {
+    }
+    try {
+      codec.decode(new byte[20], 0, 20, new byte[64 * 64]);
+      fail();
+    }
+    catch (IllegalArgumentException e) {
+    }
+  }
+}
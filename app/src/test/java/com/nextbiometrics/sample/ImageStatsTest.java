@@ -0,0 +1,55 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Java fallback of the native image statistics, see also src/main/cpp/test/image_kernel_test.cpp.
+ */
+public class ImageStatsTest {
+  @Test
+  public void constantImage_hasZeroContrast() {
+    byte[] image = new byte[180 * 256];
+    Arrays.fill(image, (byte) 200);
+    ImageStats stats = new ImageStats();
+    stats.compute(image, image.length);
+    assertEquals(200.0, stats.getMean(), 0);
+    assertEquals(0.0, stats.getContrast(), 0);
+    assertEquals(image.length, stats.getHistogram()[200]);
+    assertEquals(200, stats.getMin());
+    assertEquals(200, stats.getMax());
+  }
+
+  @Test
+  public void twoLevelImage_hasExpectedMeanAndContrast() {
+    byte[] image = new byte[1000];
+    for (int i = 0; i < image.length; i++) {
+      image[i] = (byte) (i % 2 == 0 ? 50 : 250);
+    }
+    ImageStats stats = new ImageStats();
+    stats.compute(image, image.length);
+    assertEquals(150.0, stats.getMean(), 1e-9);
+    assertEquals(100.0, stats.getContrast(), 1e-9);
+    assertEquals(50, stats.getMin());
+    assertEquals(250, stats.getMax());
+  }
+
+  @Test
+  public void reuse_overwritesPreviousFrame() {
+    byte[] image = new byte[4096];
+    new Random(5).nextBytes(image);
+    ImageStats stats = new ImageStats();
+    stats.compute(image, image.length);
+    stats.compute(image, 16);
+    int total = 0;
+    for (int bin : stats.getHistogram()) {
+      total += bin;
+    }
+    assertEquals(16, total);
+    assertEquals(16, stats.getCount());
+  }
+}
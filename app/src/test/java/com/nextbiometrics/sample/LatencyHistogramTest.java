@@ -0,0 +1,102 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketBounds_containValue() {
+    Random random = new Random(3);
+    for (int i = 0; i < 10000; i++) {
+      long value = random.nextLong() & LatencyHistogram.MAX_TRACKABLE;
+      value >>>= random.nextInt(36);
+      int index = LatencyHistogram.indexOf(value);
+      assertTrue(index < LatencyHistogram.BUCKET_COUNT);
+      assertTrue(LatencyHistogram.lowestEquivalentValue(index) <= value);
+      assertTrue(LatencyHistogram.highestEquivalentValue(index) >= value);
+      long width = LatencyHistogram.highestEquivalentValue(index) - LatencyHistogram.lowestEquivalentValue(index) + 1;
+      assertTrue(value < LatencyHistogram.SUB_BUCKET_COUNT || width * 64 <= value + width);
+    }
+  }
+
+  @Test
+  public void percentiles_withinTwoPercent() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 100000; value++)
+      histogram.record(value);
+    assertEquals(100000, histogram.getCount());
+    assertEquals(1, histogram.getMin());
+    assertEquals(100000, histogram.getMax());
+    assertEquals(50000.5, histogram.getMean(), 0.001);
+    assertEquals(50000, histogram.getValueAtPercentile(50), 50000 * 0.02);
+    assertEquals(99000, histogram.getValueAtPercentile(99), 99000 * 0.02);
+    assertEquals(100000, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void hugeValues_areClampedButMaxIsExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE / 2);
+    histogram.record(-5);
+    assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+    assertEquals(0, histogram.getMin());
+    assertEquals(Long.MAX_VALUE / 2, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void emptyHistogram_reportsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99));
+    assertEquals(0, histogram.getMin());
+    assertEquals(0, histogram.getMax());
+  }
+
+  @Test
+  public void binary_roundTrip() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Random random = new Random(5);
+    for (int i = 0; i < 1000; i++)
+      histogram.record(1000 + random.nextInt(50000));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    histogram.writeTo(new DataOutputStream(bytes));
+    assertTrue(bytes.size() < 2000);
+
+    LatencyHistogram copy = new LatencyHistogram();
+    copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(histogram.getCount(), copy.getCount());
+    assertEquals(histogram.getMin(), copy.getMin());
+    assertEquals(histogram.getMax(), copy.getMax());
+    assertEquals(histogram.getMean(), copy.getMean(), 0.0);
+    for (double percentile : new double[] { 1, 50, 90, 99, 99.9 })
+      assertEquals(histogram.getValueAtPercentile(percentile), copy.getValueAtPercentile(percentile));
+  }
+
+  @Test
+  public void captureMetrics_exportsPhasesAndCommands() throws Exception {
+    CaptureMetrics metrics = new CaptureMetrics();
+    metrics.get(CaptureMetrics.Phase.FINAL_SCAN).record(250000);
+    metrics.get(CaptureMetrics.Phase.NFIQ).record(12000);
+    metrics.getCommand("GET_STATUS").record(800);
+
+    String json = metrics.toJson("Z91 \"lab\"");
+    assertTrue(json, json.startsWith("{\"terminal\":\"Z91 \\\"lab\\\"\""));
+    assertTrue(json, json.contains("\"FINAL_SCAN\":{\"count\":1"));
+    assertTrue(json, json.contains("\"command:GET_STATUS\""));
+    assertFalse(json, json.contains("CONNECT"));
+    assertTrue(metrics.report().contains("NFIQ"));
+
+    Map<String, LatencyHistogram> read = CaptureMetrics.readBinary(new ByteArrayInputStream(metrics.toBinary("Z91")));
+    assertEquals(250000, read.get("FINAL_SCAN").getMax());
+    assertEquals(1, read.get("command:GET_STATUS").getCount());
+    assertEquals(0, read.get("CONNECT").getCount());
+  }
+}
@@ -0,0 +1,84 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PreviewPipelineTest {
+  private static final NBDeviceScanFormatInfo FORMAT = new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17,
+    NBDeviceScanFormatType.NATIVE, 0, 0, 180, 256, 385, 385, (byte) 0);
+
+  @Test
+  public void offer_neverWaitsForSlowHandler() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch firstFrame = new CountDownLatch(1);
+    final long[] lastSequence = new long[1];
+    final int[] lastPixel = new int[1];
+    PreviewPipeline pipeline = new PreviewPipeline("test", new PreviewPipeline.FrameHandler() {
+      @Override
+      public void onFrame(PreviewFrame frame) {
+        firstFrame.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        lastSequence[0] = frame.getSequence();
+        lastPixel[0] = frame.getImage()[0];
+      }
+    });
+    pipeline.start();
+
+    byte[] image = new byte[180 * 256];
+    pipeline.offer(NBDeviceScanStatus.KEEP_FINGER_ON_SENSOR, 10, FORMAT, image);
+    assertTrue(firstFrame.await(5, TimeUnit.SECONDS));
+
+    long start = System.nanoTime();
+    for (int i = 2; i <= 100; i++) {
+      image[0] = (byte) i;
+      pipeline.offer(NBDeviceScanStatus.KEEP_FINGER_ON_SENSOR, i, FORMAT, image);
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("offer blocked for " + elapsedMillis + " ms", elapsedMillis < 1000);
+    assertEquals(100, pipeline.getOfferedFrames());
+    assertEquals(98, pipeline.getDroppedFrames());
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (pipeline.getProcessedFrames() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    pipeline.stop();
+    assertEquals(2, pipeline.getProcessedFrames());
+    assertEquals(100, lastSequence[0]);
+    assertEquals(100, lastPixel[0]);
+  }
+
+  @Test
+  public void offer_copiesImage() throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+    final byte[] seen = new byte[1];
+    PreviewPipeline pipeline = new PreviewPipeline("test", new PreviewPipeline.FrameHandler() {
+      @Override
+      public void onFrame(PreviewFrame frame) {
+        seen[0] = frame.getImage()[0];
+        done.countDown();
+      }
+    });
+    byte[] image = {7, 8, 9};
+    pipeline.offer(NBDeviceScanStatus.OK, 0, FORMAT, image);
+    image[0] = 42;
+    pipeline.start();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    pipeline.stop();
+    assertEquals(7, seen[0]);
+  }
+}
@@ -0,0 +1,119 @@
+package com.nextbiometrics.sample;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PreviewScalerTest {
+  private static final int WIDTH = 180;
+  private static final int HEIGHT = 256;
+
+  private static byte[] randomFrame(long seed) {
+    byte[] image = new byte[WIDTH * HEIGHT];
+    new Random(seed).nextBytes(image);
+    return image;
+  }
+
+  private static int grey(int argb) {
+    return argb & 0xff;
+  }
+
+  @Test
+  public void largeView_copiesFrame() {
+    byte[] image = randomFrame(1);
+    PreviewScaler scaler = new PreviewScaler();
+    scaler.layout(WIDTH, HEIGHT, 600, 800, null);
+    assertEquals(1, scaler.getBoxFactor());
+    assertEquals(WIDTH, scaler.getOutputWidth());
+    assertEquals(HEIGHT, scaler.getOutputHeight());
+    int[] pixels = new int[WIDTH * HEIGHT];
+    scaler.scale(image, pixels);
+    for (int i = 0; i < image.length; i++)
+      assertEquals("pixel " + i, GreyscaleLut.toArgb(image[i]), pixels[i]);
+  }
+
+  @Test
+  public void smallView_isReducedByBlocks() {
+    byte[] image = randomFrame(2);
+    PreviewScaler scaler = new PreviewScaler();
+    scaler.layout(WIDTH, HEIGHT, 60, 80, null);
+    assertEquals(3, scaler.getBoxFactor());
+    assertEquals(60, scaler.getOutputWidth());
+    assertEquals(85, scaler.getOutputHeight());
+    int[] pixels = new int[60 * 85];
+    scaler.scale(image, pixels);
+    for (int y = 0; y < 85; y++) {
+      for (int x = 0; x < 60; x++) {
+        // The 2x2 in the middle of the 3x3 block
+        int sum = 0;
+        for (int dy = 0; dy < 2; dy++)
+          for (int dx = 0; dx < 2; dx++)
+            sum += image[(y * 3 + dy) * WIDTH + x * 3 + dx] & 0xff;
+        assertEquals("pixel " + x + "," + y, GreyscaleLut.toArgb((sum + 2) / 4), pixels[y * 60 + x]);
+      }
+    }
+  }
+
+  @Test
+  public void slightlySmallerView_isResampledToFit() {
+    // Horizontal ramp: the output follows the source position of each column
+    byte[] image = new byte[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++)
+      for (int x = 0; x < WIDTH; x++)
+        image[y * WIDTH + x] = (byte) x;
+    PreviewScaler scaler = new PreviewScaler();
+    scaler.layout(WIDTH, HEIGHT, 120, 160, null);
+    assertEquals(0, scaler.getBoxFactor());
+    assertEquals(112, scaler.getOutputWidth());
+    assertEquals(160, scaler.getOutputHeight());
+    int[] pixels = new int[112 * 160];
+    scaler.scale(image, pixels);
+    for (int y = 0; y < 160; y++) {
+      for (int x = 0; x < 112; x++) {
+        double expected = Math.max(0, (x + 0.5) * WIDTH / 112 - 0.5);
+        assertEquals("pixel " + x + "," + y, expected, grey(pixels[y * 112 + x]), 1.0);
+      }
+    }
+  }
+
+  @Test
+  public void fingerBounds_zoomInAtFixedSizes() {
+    PreviewScaler scaler = new PreviewScaler();
+    scaler.layout(WIDTH, HEIGHT, 600, 800, new int[] { 60, 80, 110, 150 });
+    assertEquals(WIDTH / 2, scaler.getCropWidth());
+    assertEquals(HEIGHT / 2, scaler.getCropHeight());
+    assertEquals(40, scaler.getCropLeft());
+    assertEquals(51, scaler.getCropTop());
+    assertEquals(WIDTH / 2, scaler.getOutputWidth());
+
+    // Same zoom level near the corner: clamped to the frame, same output size
+    scaler.layout(WIDTH, HEIGHT, 600, 800, new int[] { 0, 0, 40, 40 });
+    assertEquals(0, scaler.getCropLeft());
+    assertEquals(0, scaler.getCropTop());
+    assertEquals(WIDTH / 2, scaler.getOutputWidth());
+    assertEquals(HEIGHT / 2, scaler.getOutputHeight());
+
+    scaler.layout(WIDTH, HEIGHT, 600, 800, new int[] { 30, 40, 130, 200 });
+    assertEquals(WIDTH * 6 / 8, scaler.getCropWidth());
+    scaler.layout(WIDTH, HEIGHT, 600, 800, new int[] { 0, 0, WIDTH, HEIGHT });
+    assertEquals(WIDTH, scaler.getCropWidth());
+    assertEquals(HEIGHT, scaler.getCropHeight());
+  }
+
+  @Test
+  public void croppedRegion_isCopiedFromItsOrigin() {
+    byte[] image = randomFrame(3);
+    PreviewScaler scaler = new PreviewScaler();
+    scaler.layout(WIDTH, HEIGHT, 600, 800, new int[] { 60, 80, 110, 150 });
+    int width = scaler.getOutputWidth();
+    int[] pixels = new int[width * scaler.getOutputHeight()];
+    scaler.scale(image, pixels);
+    int left = scaler.getCropLeft();
+    int top = scaler.getCropTop();
+    for (int y = 0; y < scaler.getOutputHeight(); y++)
+      for (int x = 0; x < width; x++)
+        assertEquals(GreyscaleLut.toArgb(image[(top + y) * WIDTH + left + x]), pixels[y * width + x]);
+  }
+}
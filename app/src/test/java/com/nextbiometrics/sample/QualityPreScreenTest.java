@@ -0,0 +1,163 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QualityPreScreenTest {
+  private static final int WIDTH = 256;
+  private static final int HEIGHT = 360;
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, WIDTH, HEIGHT, 385, 385, (byte) 0);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Background with diagonal ridges of the given width (out of a period of 9) in the rectangle.
+   */
+  private static byte[] frame(int left, int top, int right, int bottom, int ridgeWidth, long seed) {
+    Random random = new Random(seed);
+    byte[] frame = new byte[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        int value;
+        if (x >= left && x < right && y >= top && y < bottom)
+          value = ((x + y) % 9 < ridgeWidth ? 60 : 190) + random.nextInt(13) - 6;
+        else
+          value = 230 + random.nextInt(5) - 2;
+        frame[y * WIDTH + x] = (byte) value;
+      }
+    }
+    return frame;
+  }
+
+  @Test
+  public void blankFrame_noFinger() {
+    QualityPreScreen screen = new QualityPreScreen();
+    assertEquals(QualityPreScreen.Feedback.NO_FINGER, screen.assess(frame(0, 0, 0, 0, 4, 1), WIDTH, HEIGHT));
+    assertEquals(0, screen.getScore());
+    assertFalse(screen.isAcceptable());
+    assertEquals(230, screen.getBackground(), 2);
+  }
+
+  @Test
+  public void placedFinger_isGood() {
+    List<byte[]> frames = SimulatedBiometricDevice.syntheticFrames(FORMAT, 6, 7);
+    QualityPreScreen screen = new QualityPreScreen(Long.MAX_VALUE);
+    assertEquals(QualityPreScreen.Feedback.NO_FINGER, screen.assess(frames.get(0), WIDTH, HEIGHT));
+
+    int placing = -1;
+    for (int i = 1; i < frames.size(); i++) {
+      screen.assess(frames.get(i), WIDTH, HEIGHT);
+      assertTrue("score dropped at frame " + i, screen.getScore() >= placing);
+      placing = screen.getScore();
+    }
+    assertEquals(QualityPreScreen.Feedback.GOOD, screen.getFeedback());
+    assertTrue(screen.isAcceptable());
+    assertTrue(screen.isComplete());
+    assertEquals(0.5, screen.getCenterX(), 0.05);
+    assertEquals(0.5, screen.getCenterY(), 0.05);
+    assertTrue("coverage " + screen.getCoverage(), screen.getCoverage() > 0.5);
+  }
+
+  @Test
+  public void offCentreFinger_isMovedToTheMiddle() {
+    QualityPreScreen screen = new QualityPreScreen(Long.MAX_VALUE);
+    assertEquals(QualityPreScreen.Feedback.MOVE_DOWN, screen.assess(frame(0, 0, WIDTH, HEIGHT / 3, 4, 1), WIDTH, HEIGHT));
+    assertEquals(QualityPreScreen.Feedback.MOVE_UP, screen.assess(frame(0, HEIGHT * 2 / 3, WIDTH, HEIGHT, 4, 1), WIDTH, HEIGHT));
+    assertEquals(QualityPreScreen.Feedback.MOVE_RIGHT, screen.assess(frame(0, 0, WIDTH / 3, HEIGHT, 4, 1), WIDTH, HEIGHT));
+    assertEquals(QualityPreScreen.Feedback.MOVE_LEFT, screen.assess(frame(WIDTH * 2 / 3, 0, WIDTH, HEIGHT, 4, 1), WIDTH, HEIGHT));
+    assertEquals(QualityPreScreen.Feedback.PRESS_HARDER, screen.assess(frame(WIDTH / 4, HEIGHT / 4, WIDTH * 3 / 4, HEIGHT * 3 / 4, 4, 1), WIDTH, HEIGHT));
+    int[] bounds = new int[4];
+    assertTrue(screen.getFingerBounds(bounds));
+    assertArrayEquals(new int[] { 64, 80, 192, 272 }, bounds);
+
+    screen.assess(frame(0, 0, 0, 0, 4, 1), WIDTH, HEIGHT);
+    assertFalse(screen.getFingerBounds(bounds));
+  }
+
+  @Test
+  public void moisture_separatesWetAndDryFingers() {
+    QualityPreScreen screen = new QualityPreScreen(Long.MAX_VALUE);
+    assertEquals(QualityPreScreen.Feedback.GOOD, screen.assess(frame(24, 32, WIDTH - 24, HEIGHT - 32, 4, 1), WIDTH, HEIGHT));
+    int normal = screen.getScore();
+
+    assertEquals(QualityPreScreen.Feedback.TOO_WET, screen.assess(frame(24, 32, WIDTH - 24, HEIGHT - 32, 8, 1), WIDTH, HEIGHT));
+    assertTrue(screen.getMoisture() > QualityPreScreen.WET_ABOVE);
+    assertTrue(screen.getScore() < normal);
+
+    assertEquals(QualityPreScreen.Feedback.PRESS_HARDER, screen.assess(frame(24, 32, WIDTH - 24, HEIGHT - 32, 1, 1), WIDTH, HEIGHT));
+    assertTrue(screen.getMoisture() < QualityPreScreen.DRY_BELOW);
+    assertTrue(screen.getScore() < normal);
+  }
+
+  @Test
+  public void exhaustedBudget_samplesMoreSparsely() {
+    byte[] image = frame(24, 32, WIDTH - 24, HEIGHT - 32, 4, 1);
+    QualityPreScreen screen = new QualityPreScreen(0);
+    for (int i = 0; i < 4; i++) {
+      screen.assess(image, WIDTH, HEIGHT);
+      assertFalse(screen.isComplete());
+    }
+    assertEquals(4, screen.getStep());
+    // Only the first block row, above the finger, was assessed
+    assertEquals(QualityPreScreen.Feedback.NO_FINGER, screen.getFeedback());
+
+    screen = new QualityPreScreen(Long.MAX_VALUE);
+    screen.assess(image, WIDTH, HEIGHT);
+    assertTrue(screen.isComplete());
+    assertEquals(2, screen.getStep());
+  }
+
+  @Test
+  public void validation_correlatesWithArchivedNfiq() throws Exception {
+    CaptureArchive archive = new CaptureArchive(folder.getRoot(), CaptureArchive.DEFAULT_MAX_FILE_BYTES, 4, 64);
+    try {
+      for (int seed = 0; seed < 3; seed++) {
+        archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, frame(24, 32, WIDTH - 24, HEIGHT - 32, 4, seed), WIDTH * HEIGHT, 1, 200);
+        archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, frame(24, 32, WIDTH - 24, HEIGHT - 32, 8, seed), WIDTH * HEIGHT, 4, 200);
+        archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, frame(0, 0, WIDTH / 3, HEIGHT, 4, seed), WIDTH * HEIGHT, 4, 80);
+        archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, frame(0, 0, 0, 0, 4, seed), WIDTH * HEIGHT, 5, 0);
+        archive.append(CaptureArchive.Kind.PREVIEW, FORMAT, frame(0, 0, 0, 0, 4, seed), WIDTH * HEIGHT, QualityScore.NOT_SCORED, 0);
+      }
+      assertTrue(archive.flush());
+    }
+    finally {
+      archive.close();
+    }
+
+    QualityPreScreenValidation.Report report = QualityPreScreenValidation.validate(archive.getFiles(), new QualityPreScreen(Long.MAX_VALUE));
+    assertEquals(12, report.getFrames());
+    assertTrue(report.toString(), report.getCorrelation() < -0.8);
+    assertTrue(report.getMeanScore(1) > report.getMeanScore(4));
+    assertEquals(0, report.getMeanScore(5), 0);
+    assertEquals(6, report.getCount(4));
+    assertEquals(0, report.getCount(2));
+    assertTrue(Double.isNaN(report.getMeanScore(2)));
+    assertEquals(1.0, report.getAgreement(), 1e-9);
+  }
+
+  @Test
+  public void spearman_handlesTies() {
+    List<double[]> pairs = new ArrayList<double[]>();
+    pairs.add(new double[] { 1, 10 });
+    pairs.add(new double[] { 2, 20 });
+    pairs.add(new double[] { 2, 20 });
+    pairs.add(new double[] { 3, 30 });
+    assertEquals(1.0, QualityPreScreenValidation.spearman(pairs), 1e-9);
+    pairs.add(new double[] { 4, 0 });
+    assertTrue(QualityPreScreenValidation.spearman(pairs) < 1.0);
+    assertTrue(Double.isNaN(QualityPreScreenValidation.spearman(pairs.subList(0, 1))));
+  }
+}
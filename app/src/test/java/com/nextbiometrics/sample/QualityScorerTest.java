@@ -0,0 +1,127 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class QualityScorerTest {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 64;
+  private static final NBDeviceScanFormatInfo FORMAT = new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_CUSTOM,
+    NBDeviceScanFormatType.NATIVE, 0, 0, WIDTH, HEIGHT, 500, 500, (byte) 0);
+
+  private final AtomicInteger algorithmCalls = new AtomicInteger();
+  private final List<QualityScore> scores = new ArrayList<QualityScore>();
+  private QualityScorer scorer;
+
+  @After
+  public void tearDown() {
+    if (scorer != null) {
+      scorer.shutdown();
+    }
+  }
+
+  private QualityScorer newScorer(int interval) {
+    return new QualityScorer(new QualityScorer.Algorithm() {
+      @Override
+      public int score(byte[] image, int width, int height, int resolution) {
+        algorithmCalls.incrementAndGet();
+        return 2;
+      }
+    }, new QualityScorer.Listener() {
+      @Override
+      public void onQualityScored(QualityScore score) {
+        synchronized (scores) {
+          scores.add(score);
+          scores.notifyAll();
+        }
+      }
+    }, interval, new QualityPreFilter());
+  }
+
+  private static byte[] ridges() {
+    byte[] image = new byte[WIDTH * HEIGHT];
+    for (int i = 0; i < image.length; i++) {
+      image[i] = (byte) ((i / 3) % 2 == 0 ? 40 : 220);
+    }
+    return image;
+  }
+
+  private static PreviewFrame frame(long sequence, int detectValue, byte[] image) {
+    PreviewFrame frame = new PreviewFrame();
+    frame.set(sequence, NBDeviceScanStatus.KEEP_FINGER_ON_SENSOR, detectValue, FORMAT, image);
+    return frame;
+  }
+
+  private void awaitScores(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    synchronized (scores) {
+      while (scores.size() < count && System.currentTimeMillis() < deadline) {
+        scores.wait(50);
+      }
+      assertEquals(count, scores.size());
+    }
+  }
+
+  private void submitAndWait(PreviewFrame frame, int expectedScores) throws InterruptedException {
+    scorer.submitPreview(frame);
+    awaitScores(expectedScores);
+  }
+
+  @Test
+  public void previews_areSampledEveryNthFrameOrOnDetectChange() throws Exception {
+    scorer = newScorer(3);
+    byte[] image = ridges();
+    submitAndWait(frame(1, 50, image), 1);
+    assertFalse(scorer.submitPreview(frame(2, 50, image)));
+    assertFalse(scorer.submitPreview(frame(3, 50, image)));
+    submitAndWait(frame(4, 50, image), 2);
+    submitAndWait(frame(5, 60, image), 3);
+    assertEquals(4, scores.get(1).getFrameSequence());
+    assertEquals(5, scores.get(2).getFrameSequence());
+    assertEquals(3, algorithmCalls.get());
+  }
+
+  @Test
+  public void previewAfterShutdown_isNotQueued() throws Exception {
+    scorer = newScorer(1);
+    scorer.shutdown();
+    // Rejected by the executor, neither thrown at the preview worker nor left busy
+    assertFalse(scorer.submitPreview(frame(1, 50, ridges())));
+    assertFalse(scorer.submitPreview(frame(2, 60, ridges())));
+    assertEquals(0, algorithmCalls.get());
+  }
+
+  @Test
+  public void blankPreview_skipsAlgorithm() throws Exception {
+    scorer = newScorer(1);
+    submitAndWait(frame(1, 0, new byte[WIDTH * HEIGHT]), 1);
+    assertEquals(0, algorithmCalls.get());
+    assertFalse(scores.get(0).isScored());
+    assertEquals(QualityPreFilter.Verdict.BLANK, scores.get(0).getVerdict());
+    assertEquals(1, scorer.getFilteredFrames());
+  }
+
+  @Test
+  public void partialPreview_skipsAlgorithm() throws Exception {
+    scorer = newScorer(1);
+    byte[] image = new byte[WIDTH * HEIGHT];
+    java.util.Arrays.fill(image, (byte) 220);
+    for (int i = 0; i < image.length / 10; i++) {
+      image[i] = (byte) (i % 2 == 0 ? 20 : 220);
+    }
+    submitAndWait(frame(1, 0, image), 1);
+    assertEquals(QualityPreFilter.Verdict.PARTIAL, scores.get(0).getVerdict());
+    assertEquals(0, algorithmCalls.get());
+  }
+}
@@ -0,0 +1,140 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceSecurityModel;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionBootstrapperTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final class FakeChannel implements SessionBootstrapper.Channel {
+    final NBDeviceSecurityModel model;
+    final List<String> calls = new ArrayList<String>();
+    byte[] cdk;
+    boolean open;
+
+    FakeChannel(NBDeviceSecurityModel model) {
+      this.model = model;
+    }
+
+    @Override
+    public String getSerialNumber() {
+      return "SN1";
+    }
+
+    @Override
+    public NBDeviceSecurityModel getSecurityModel() {
+      return model;
+    }
+
+    @Override
+    public void openSession(byte[] id, byte[] key) {
+      String name = new String(id).trim();
+      calls.add("open " + name);
+      if (name.startsWith("Application Lock") && !Arrays.equals(cdk, key))
+        throw new RuntimeException("CDK rejected");
+      open = true;
+    }
+
+    @Override
+    public void closeSession() {
+      calls.add("close");
+      open = false;
+    }
+
+    @Override
+    public void setCdk(byte[] cdk) {
+      calls.add(cdk == null ? "clear" : "set");
+      this.cdk = cdk;
+    }
+  }
+
+  private File cacheFile;
+
+  @Before
+  public void setUp() {
+    cacheFile = new File(folder.getRoot(), SessionBootstrapper.CACHE_FILE);
+  }
+
+  @Test
+  public void cakCdk_secondOpenIsSingleRoundTrip() {
+    SessionBootstrapper bootstrapper = new SessionBootstrapper(cacheFile);
+    FakeChannel device = new FakeChannel(NBDeviceSecurityModel.Model65200CakCdk);
+
+    SessionBootstrapper.Result first = bootstrapper.openSession(device);
+    assertFalse(first.isFastPath());
+    assertEquals(SessionBootstrapper.Keys.CDK, first.getKeys());
+    assertTrue(device.open);
+    assertEquals(SessionBootstrapper.Keys.CDK, bootstrapper.getAcceptedKeys("SN1"));
+
+    device.closeSession();
+    device.calls.clear();
+    SessionBootstrapper.Result second = bootstrapper.openSession(device);
+    assertTrue(second.isFastPath());
+    assertEquals(Arrays.asList("open Application Lock"), device.calls);
+    assertEquals(1, second.getSteps().size());
+  }
+
+  @Test
+  public void acceptedKeys_surviveRestart() {
+    FakeChannel device = new FakeChannel(NBDeviceSecurityModel.Model65200CakCdk);
+    new SessionBootstrapper(cacheFile).openSession(device);
+    device.closeSession();
+
+    SessionBootstrapper restarted = new SessionBootstrapper(cacheFile);
+    assertTrue(restarted.openSession(device).isFastPath());
+  }
+
+  @Test
+  public void rejectedKeys_fallBackToNegotiation() {
+    SessionBootstrapper bootstrapper = new SessionBootstrapper(cacheFile);
+    FakeChannel device = new FakeChannel(NBDeviceSecurityModel.Model65200CakCdk);
+    bootstrapper.openSession(device);
+    device.closeSession();
+    device.cdk = null;
+    device.calls.clear();
+
+    SessionBootstrapper.Result result = bootstrapper.openSession(device);
+    assertFalse(result.isFastPath());
+    assertTrue(device.open);
+    assertEquals(Arrays.asList("open Application Lock", "open DefaultCAKKey1", "set", "close", "open Application Lock"), device.calls);
+    assertTrue(result.getSteps().get(0).isFailed());
+    assertEquals(SessionBootstrapper.Keys.CDK, bootstrapper.getAcceptedKeys("SN1"));
+  }
+
+  @Test
+  public void cakOnly_opensWithCak() {
+    FakeChannel device = new FakeChannel(NBDeviceSecurityModel.Model65200CakOnly);
+    SessionBootstrapper.Result result = new SessionBootstrapper(cacheFile).openSession(device);
+    assertEquals(SessionBootstrapper.Keys.CAK, result.getKeys());
+    assertEquals(Arrays.asList("open DefaultCAKKey1"), device.calls);
+  }
+
+  @Test
+  public void noSecurityModel_opensNothing() {
+    FakeChannel device = new FakeChannel(NBDeviceSecurityModel.ModelNone);
+    SessionBootstrapper.Result result = new SessionBootstrapper(cacheFile).openSession(device);
+    assertNull(result.getKeys());
+    assertTrue(device.calls.isEmpty());
+  }
+
+  @Test
+  public void forget_dropsAcceptedKeys() {
+    SessionBootstrapper bootstrapper = new SessionBootstrapper(cacheFile);
+    bootstrapper.openSession(new FakeChannel(NBDeviceSecurityModel.Model65100));
+    assertEquals(SessionBootstrapper.Keys.AUTH1, bootstrapper.getAcceptedKeys("SN1"));
+    bootstrapper.forget("SN1");
+    assertNull(new SessionBootstrapper(cacheFile).getAcceptedKeys("SN1"));
+  }
+}
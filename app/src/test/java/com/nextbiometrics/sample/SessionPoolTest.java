@@ -0,0 +1,199 @@
+package com.nextbiometrics.sample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class SessionPoolTest {
+  private static final long IDLE_MILLIS = 100;
+
+  private static final class FakeDevice {
+    final String id;
+    boolean healthy = true;
+    boolean closed;
+
+    FakeDevice(String id) {
+      this.id = id;
+    }
+  }
+
+  private static final class FakeFactory implements SessionPool.Factory<String, FakeDevice> {
+    int opened;
+
+    @Override
+    public FakeDevice open(String key) {
+      opened++;
+      return new FakeDevice(key);
+    }
+
+    @Override
+    public boolean matches(String requestedKey, String openedKey, FakeDevice device) {
+      return requestedKey == null || requestedKey.equals(device.id);
+    }
+
+    @Override
+    public boolean isHealthy(FakeDevice device) {
+      return device.healthy;
+    }
+
+    @Override
+    public void close(FakeDevice device) {
+      device.closed = true;
+    }
+  }
+
+  private ScheduledExecutorService scheduler;
+  private FakeFactory factory;
+  private SessionPool<String, FakeDevice> pool;
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    factory = new FakeFactory();
+    pool = new SessionPool<String, FakeDevice>(factory, scheduler, IDLE_MILLIS);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void handoff_reusesOpenDevice() {
+    SessionPool.Lease<FakeDevice> main = pool.acquire("A");
+    SessionPool.Lease<FakeDevice> capture = pool.acquire(null);
+    assertSame(main.get(), capture.get());
+    assertEquals(2, pool.getReferences());
+    main.release();
+    capture.release();
+    SessionPool.Lease<FakeDevice> again = pool.acquire("A");
+    assertSame(main.get(), again.get());
+    assertEquals(1, factory.opened);
+    assertEquals(2, pool.getReuseCount());
+    assertFalse(again.get().closed);
+  }
+
+  @Test
+  public void release_twiceCountsOnce() {
+    SessionPool.Lease<FakeDevice> first = pool.acquire("A");
+    SessionPool.Lease<FakeDevice> second = pool.acquire("A");
+    first.release();
+    first.release();
+    assertEquals(1, pool.getReferences());
+    second.release();
+  }
+
+  @Test
+  public void idleDevice_isClosedAfterTimeout() throws Exception {
+    SessionPool.Lease<FakeDevice> lease = pool.acquire("A");
+    FakeDevice device = lease.get();
+    lease.release();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!device.closed && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(device.closed);
+    assertNull(pool.peek());
+    assertNotSame(device, pool.acquire("A").get());
+    assertEquals(2, factory.opened);
+  }
+
+  @Test
+  public void leasedDevice_isNotClosedByIdleTimer() throws Exception {
+    SessionPool.Lease<FakeDevice> lease = pool.acquire("A");
+    lease.release();
+    SessionPool.Lease<FakeDevice> again = pool.acquire("A");
+    Thread.sleep(IDLE_MILLIS * 3);
+    assertFalse(again.get().closed);
+  }
+
+  @Test
+  public void unhealthyDevice_isReopened() {
+    SessionPool.Lease<FakeDevice> lease = pool.acquire("A");
+    FakeDevice device = lease.get();
+    lease.release();
+    device.healthy = false;
+    FakeDevice reopened = pool.acquire("A").get();
+    assertNotSame(device, reopened);
+    assertTrue(device.closed);
+  }
+
+  @Test
+  public void otherKey_replacesDevice() {
+    FakeDevice usb = pool.acquire("usb").get();
+    FakeDevice spi = pool.acquire("spi").get();
+    assertNotSame(usb, spi);
+    assertTrue(usb.closed);
+    assertEquals(1, pool.getReferences());
+  }
+
+  @Test
+  public void invalidate_closesImmediately() {
+    SessionPool.Lease<FakeDevice> lease = pool.acquire("A");
+    pool.invalidate();
+    assertTrue(lease.get().closed);
+    lease.release();
+    assertEquals(0, pool.getReferences());
+  }
+
+  @Test
+  public void idleDevice_isClosedOnTheCloser() throws Exception {
+    final List<Runnable> queued = new ArrayList<Runnable>();
+    Executor closer = new Executor() {
+      @Override
+      public synchronized void execute(Runnable command) {
+        queued.add(command);
+      }
+    };
+    pool = new SessionPool<String, FakeDevice>(factory, scheduler, closer, IDLE_MILLIS);
+    SessionPool.Lease<FakeDevice> lease = pool.acquire("A");
+    FakeDevice device = lease.get();
+    lease.release();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (closerSize(closer, queued) == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, closerSize(closer, queued));
+    assertFalse(device.closed);
+
+    queued.get(0).run();
+    assertTrue(device.closed);
+    assertNull(pool.peek());
+  }
+
+  @Test
+  public void idleClose_skipsDeviceLeasedBeforeTheCloserRan() throws Exception {
+    final List<Runnable> queued = new ArrayList<Runnable>();
+    Executor closer = new Executor() {
+      @Override
+      public synchronized void execute(Runnable command) {
+        queued.add(command);
+      }
+    };
+    pool = new SessionPool<String, FakeDevice>(factory, scheduler, closer, IDLE_MILLIS);
+    pool.acquire("A").release();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (closerSize(closer, queued) == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    SessionPool.Lease<FakeDevice> again = pool.acquire("A");
+
+    queued.get(0).run();
+    assertFalse(again.get().closed);
+    assertSame(again.get(), pool.peek());
+  }
+
+  private static int closerSize(Executor closer, List<Runnable> queued) {
+    synchronized (closer) {
+      return queued.size();
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+import com.nextbiometrics.devices.NBDeviceState;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimulatedBiometricDeviceTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, 64, 48, 385, 385, (byte) 0);
+
+  private static SimulatedBiometricDevice device(int frames) {
+    return new SimulatedBiometricDevice("SIM1", FORMAT, SimulatedBiometricDevice.syntheticFrames(FORMAT, frames, 7));
+  }
+
+  private static final class Recorder implements BiometricDevice.PreviewListener {
+    final List<Integer> fingerDetectValues = new ArrayList<Integer>();
+    final List<byte[]> images = new ArrayList<byte[]>();
+
+    @Override
+    public void preview(NBDeviceScanStatus status, int fingerDetectValue, NBDeviceScanFormatInfo format, byte[] image) {
+      fingerDetectValues.add(fingerDetectValue);
+      images.add(image);
+    }
+  }
+
+  @Test
+  public void syntheticFrames_areDeterministic() {
+    List<byte[]> first = SimulatedBiometricDevice.syntheticFrames(FORMAT, 4, 7);
+    List<byte[]> second = SimulatedBiometricDevice.syntheticFrames(FORMAT, 4, 7);
+    for (int i = 0; i < first.size(); i++)
+      assertArrayEquals(first.get(i), second.get(i));
+  }
+
+  @Test
+  public void scanEx_replaysAllFramesAndReturnsLast() {
+    SimulatedBiometricDevice device = device(6);
+    Recorder recorder = new Recorder();
+    ScanResult result = device.scanEx(FORMAT, 0, recorder);
+
+    assertEquals(NBDeviceScanStatus.OK, result.getStatus());
+    assertEquals(6, recorder.images.size());
+    for (int i = 0; i < 6; i++)
+      assertArrayEquals(device.getFrames().get(i), recorder.images.get(i));
+    assertArrayEquals(device.getFrames().get(5), result.getImage());
+    assertTrue(recorder.fingerDetectValues.get(0) < SimulatedBiometricDevice.FINGER_DETECT_THRESHOLD);
+    assertTrue(recorder.fingerDetectValues.get(5) > recorder.fingerDetectValues.get(1));
+    assertEquals((int) recorder.fingerDetectValues.get(5), device.getFingerDetectValue());
+    assertFalse(device.isScanRunning());
+  }
+
+  @Test
+  public void scanEx_isPacedByFrameRateAndLatency() {
+    SimulatedBiometricDevice device = device(5);
+    device.setFrameRate(100);
+    device.setLatencyMillis(20);
+    long start = System.nanoTime();
+    device.scanEx(FORMAT, 0, null);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 20 + 4 * 10);
+  }
+
+  @Test
+  public void scanEx_timesOut() {
+    SimulatedBiometricDevice device = device(50);
+    device.setFrameRate(100);
+    assertEquals(NBDeviceScanStatus.TIMEOUT, device.scanEx(FORMAT, 50, null).getStatus());
+  }
+
+  @Test
+  public void cancelScan_stopsScanEx() throws Exception {
+    final SimulatedBiometricDevice device = device(100);
+    device.setFrameRate(10);
+    final ScanResult[] result = new ScanResult[1];
+    Thread scanner = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        result[0] = device.scanEx(FORMAT, 0, null);
+      }
+    });
+    scanner.start();
+    while (!device.isScanRunning())
+      Thread.sleep(1);
+    device.cancelScan();
+    scanner.join(2000);
+    assertFalse(scanner.isAlive());
+    assertEquals(NBDeviceScanStatus.CANCELED, result[0].getStatus());
+  }
+
+  @Test
+  public void scan_cyclesThroughFrames() {
+    SimulatedBiometricDevice device = device(3);
+    for (int i = 0; i < 4; i++)
+      assertArrayEquals(device.getFrames().get(i % 3), device.scan(FORMAT).getImage());
+    assertEquals(4, device.getScanCount());
+  }
+
+  @Test
+  public void loadFrames_readsRawFilesInOrder() throws Exception {
+    List<byte[]> frames = SimulatedBiometricDevice.syntheticFrames(FORMAT, 3, 1);
+    for (int i = 0; i < frames.size(); i++) {
+      FileOutputStream stream = new FileOutputStream(new File(folder.getRoot(), "frame" + i + ".raw"));
+      stream.write(frames.get(i));
+      stream.close();
+    }
+    new File(folder.getRoot(), "notes.txt").createNewFile();
+    List<byte[]> loaded = SimulatedBiometricDevice.loadFrames(folder.getRoot(), FORMAT);
+    assertEquals(3, loaded.size());
+    for (int i = 0; i < frames.size(); i++)
+      assertArrayEquals(frames.get(i), loaded.get(i));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_rejectsFramesOfWrongSize() {
+    new SimulatedBiometricDevice("SIM1", FORMAT, Arrays.asList(new byte[10]));
+  }
+
+  @Test
+  public void dispose_disconnects() {
+    SimulatedBiometricDevice device = device(2);
+    device.dispose();
+    assertEquals(NBDeviceState.NOT_CONNECTED, device.getState());
+    try {
+      device.scan(FORMAT);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void calibration_isGeneratedAndUploadedOnce() throws Exception {
+    SimulatedBiometricDevice device = device(2);
+    device.setCalibrationMillis(1);
+    CalibrationStore store = new CalibrationStore(folder.getRoot());
+    assertFalse(store.upload(device));
+
+    store.save(device.getSerialNumber(), device.generateCalibrationData());
+    assertTrue(store.upload(device));
+    assertArrayEquals(store.load(device.getSerialNumber()), device.getCalibrationData());
+
+    device.setBlobParameter(0, null);
+    assertTrue(store.upload(device));
+    assertNull(device.getCalibrationData());
+  }
+}
@@ -0,0 +1,198 @@
+package com.nextbiometrics.sample;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TemplateGalleryTest {
+  private static final NBDeviceScanFormatInfo FORMAT =
+    new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_12x17, NBDeviceScanFormatType.NATIVE, 0, 0, 256, 360, 385, 385, (byte) 0);
+  private static final int IDENTITIES = 12;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final TemplateExtractor extractor = new OrientationFieldExtractor();
+  private final List<TemplateGallery> galleries = new ArrayList<TemplateGallery>();
+
+  @After
+  public void shutdown() {
+    for (TemplateGallery gallery : galleries)
+      gallery.shutdown();
+  }
+
+  private TemplateGallery gallery(File file, int parallelism) {
+    TemplateGallery gallery = new TemplateGallery(file, parallelism);
+    galleries.add(gallery);
+    return gallery;
+  }
+
+  private FingerprintTemplate extract(int identity, int offsetX, int offsetY, long seed) {
+    return extractor.extract(SimulatedBiometricDevice.syntheticFinger(FORMAT, identity, offsetX, offsetY, seed), 256, 360, 385);
+  }
+
+  /**
+   * Enrolls two impressions of each synthetic identity, identity i gets id i + 1.
+   */
+  private void enrollAll(TemplateGallery gallery) {
+    for (int identity = 0; identity < IDENTITIES; identity++) {
+      int id = gallery.enroll(Arrays.asList(extract(identity, 0, 0, 1), extract(identity, -6, 8, 2)));
+      assertEquals(identity + 1, id);
+    }
+  }
+
+  /**
+   * Random templates with a smooth field, unlike any synthetic finger.
+   */
+  private static List<FingerprintTemplate> noise(int count, long seed) {
+    Random random = new Random(seed);
+    List<FingerprintTemplate> templates = new ArrayList<FingerprintTemplate>(count);
+    byte[] orientations = new byte[FingerprintTemplate.CELLS];
+    byte[] reliabilities = new byte[FingerprintTemplate.CELLS];
+    Arrays.fill(reliabilities, (byte) FingerprintTemplate.MAX_RELIABILITY);
+    for (int i = 0; i < count; i++) {
+      int base = random.nextInt(256);
+      int slopeX = random.nextInt(41) - 20;
+      int slopeY = random.nextInt(41) - 20;
+      for (int cell = 0; cell < FingerprintTemplate.CELLS; cell++)
+        orientations[cell] = (byte) (base + slopeX * (cell % FingerprintTemplate.GRID_WIDTH) + slopeY * (cell / FingerprintTemplate.GRID_WIDTH));
+      templates.add(new FingerprintTemplate(orientations, reliabilities));
+    }
+    return templates;
+  }
+
+  @Test
+  public void identify_findsEnrolledFingers() {
+    TemplateGallery gallery = gallery(null, 2);
+    enrollAll(gallery);
+    assertEquals(IDENTITIES * 2, gallery.size());
+
+    for (int identity = 0; identity < IDENTITIES; identity++) {
+      FingerprintTemplate probe = extract(identity, 10, -14, 3);
+      TemplateGallery.SearchResult result = gallery.identify(probe, TemplateGallery.DEFAULT_THRESHOLD, 3);
+      assertNotNull("identity " + identity, result.getBest());
+      assertEquals(identity + 1, result.getBest().getId());
+      assertTrue(result.getCompared() <= result.getEntries());
+      assertEquals(identity + 1, gallery.identifyAll(probe, TemplateGallery.DEFAULT_THRESHOLD, 3).getBest().getId());
+    }
+
+    // Not enrolled
+    TemplateGallery.SearchResult result = gallery.identifyAll(extract(IDENTITIES + 5, 0, 0, 1), TemplateGallery.DEFAULT_THRESHOLD, 3);
+    assertNull(result.getBest());
+    assertEquals(IDENTITIES * 2, result.getCompared());
+  }
+
+  @Test
+  public void identify_skipsOtherBins() {
+    TemplateGallery gallery = gallery(null, 4);
+    enrollAll(gallery);
+    List<FingerprintTemplate> templates = noise(2000, 5);
+    for (int i = 0; i < templates.size(); i++)
+      gallery.add(1000 + i, templates.get(i));
+
+    int binned = 0;
+    for (int bin = 0; bin <= FingerprintTemplate.UNBINNED; bin++)
+      binned += gallery.getBinSize(bin);
+    assertEquals(gallery.size(), binned);
+
+    FingerprintTemplate probe = extract(3, -8, 6, 4);
+    TemplateGallery.SearchResult pruned = gallery.identify(probe, TemplateGallery.DEFAULT_THRESHOLD, 5);
+    TemplateGallery.SearchResult all = gallery.identifyAll(probe, TemplateGallery.DEFAULT_THRESHOLD, 5);
+    assertEquals(4, pruned.getBest().getId());
+    assertEquals(4, all.getBest().getId());
+    assertEquals(gallery.size(), all.getCompared());
+    if (probe.getBin() != FingerprintTemplate.UNBINNED)
+      assertTrue(pruned.getCompared() + " of " + all.getCompared(), pruned.getCompared() < all.getCompared());
+
+    gallery.add(5000, probe);
+    TemplateGallery.Match best = gallery.identify(probe, TemplateGallery.DEFAULT_THRESHOLD, 5).getBest();
+    assertEquals(5000, best.getId());
+    assertEquals(100, best.getScore());
+  }
+
+  @Test
+  public void matches_areBestPerIdentity() {
+    TemplateGallery gallery = gallery(null, 1);
+    FingerprintTemplate template = extract(2, 0, 0, 1);
+    gallery.add(7, template);
+    gallery.add(7, extract(2, 4, 4, 2));
+    gallery.add(9, template);
+
+    List<TemplateGallery.Match> matches = gallery.identifyAll(template, 0, 5).getMatches();
+    assertEquals(2, matches.size());
+    assertEquals(7, matches.get(0).getId());
+    assertEquals(100, matches.get(0).getScore());
+    assertEquals(9, matches.get(1).getId());
+    assertEquals(1, gallery.identifyAll(template, 0, 1).getMatches().size());
+    // New identities continue after the largest one added
+    assertEquals(10, gallery.enroll(Collections.singletonList(template)));
+  }
+
+  @Test
+  public void remove_keepsTheOtherEntries() {
+    TemplateGallery gallery = gallery(null, 2);
+    enrollAll(gallery);
+    assertEquals(2, gallery.remove(3));
+    assertEquals(0, gallery.remove(3));
+    assertEquals((IDENTITIES - 1) * 2, gallery.size());
+
+    assertNull(gallery.identifyAll(extract(2, 0, 0, 5), TemplateGallery.DEFAULT_THRESHOLD, 3).getBest());
+    for (int identity = 0; identity < IDENTITIES; identity++) {
+      if (identity == 2)
+        continue;
+      TemplateGallery.Match best = gallery.identify(extract(identity, 0, 0, 5), TemplateGallery.DEFAULT_THRESHOLD, 3).getBest();
+      assertEquals(identity + 1, best.getId());
+    }
+  }
+
+  @Test
+  public void saveAndLoad_keepTheGallery() throws Exception {
+    File file = new File(folder.getRoot(), TemplateGallery.FILE_NAME);
+    TemplateGallery gallery = gallery(file, 1);
+    enrollAll(gallery);
+    gallery.remove(5);
+    gallery.save();
+
+    TemplateGallery loaded = gallery(file, 1);
+    loaded.load();
+    assertEquals(gallery.size(), loaded.size());
+    for (int bin = 0; bin <= FingerprintTemplate.UNBINNED; bin++)
+      assertEquals(gallery.getBinSize(bin), loaded.getBinSize(bin));
+    FingerprintTemplate probe = extract(7, 6, 6, 9);
+    assertEquals(8, loaded.identify(probe, TemplateGallery.DEFAULT_THRESHOLD, 1).getBest().getId());
+    assertEquals(gallery.identifyAll(probe, 0, 1).getBest().getScore(), loaded.identifyAll(probe, 0, 1).getBest().getScore());
+    assertEquals(IDENTITIES + 1, loaded.enroll(Collections.singletonList(probe)));
+
+    // A truncated file leaves the gallery as it was
+    RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+    try {
+      truncated.setLength(truncated.length() - 1);
+    }
+    finally {
+      truncated.close();
+    }
+    try {
+      loaded.load();
+      fail();
+    }
+    catch (IOException expected) {
+    }
+    assertEquals(gallery.size() + 1, loaded.size());
+  }
+}
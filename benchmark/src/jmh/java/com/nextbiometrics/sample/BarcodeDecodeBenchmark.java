@@ -0,0 +1,173 @@
+package com.nextbiometrics.sample;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * Barcode decodes per second over a corpus of frames: the images of the directory
+ * given by the {@code benchmark.barcodes} system property, or {@value #FRAME_COUNT}
+ * synthetic 640x480 frames of QR codes, Code 128 upright and turned and EAN-13 at
+ * different places.
+ * <p>
+ * Every frame is decoded {@value #REPEATS} times in a row, like a customer holding a
+ * code in front of the camera. {@link #decode} keeps the region of the last barcode,
+ * {@link #decodeUncached} forgets it before every frame, {@link #zxingPerFrame} is the
+ * plain ZXing way with new objects for every frame and one upright pass.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BarcodeDecodeBenchmark {
+    
+    static final int FRAME_COUNT = 16;
+    static final int REPEATS = 8;
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+    
+    // 0 for one thread per core, at most one per attempt
+    @Param({"1", "0"})
+    public int parallelism;
+    
+    private BarcodeDecoder              decoder;
+    private final List<byte[]>          frames = new ArrayList<byte[]>();
+    private final List<int[]>           sizes = new ArrayList<int[]>();
+    private Map<DecodeHintType, Object> hints;
+    private int                         next;
+    
+    @Setup
+    public void setUp() throws IOException {
+        decoder = new BarcodeDecoder(BarcodeDecoder.DEFAULT_FORMATS,
+          parallelism > 0 ? parallelism : Math.min(BarcodeDecoder.ATTEMPTS, Runtime.getRuntime().availableProcessors()));
+        hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, BarcodeDecoder.DEFAULT_FORMATS);
+        String directory = System.getProperty("benchmark.barcodes");
+        if (directory != null)
+            load(new File(directory));
+        if (frames.isEmpty())
+            synthesize();
+    }
+    
+    private void load(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        Arrays.sort(files);
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null)
+                continue;
+            int width = image.getWidth();
+            int height = image.getHeight();
+            byte[] frame = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int rgb = image.getRGB(x, y);
+                    frame[y * width + x] = (byte) ((299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF)) / 1000);
+                }
+            }
+            frames.add(frame);
+            sizes.add(new int[] { width, height });
+        }
+    }
+    
+    private void synthesize() {
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            byte[] frame;
+            switch (i % 4) {
+                case 0:
+                    frame = SyntheticBarcodes.frame(BarcodeFormat.QR_CODE, "LOYALTY-" + (100000 + i), WIDTH, HEIGHT,
+                      40 + i * 25, 30 + i * 15, 140 + i * 4, 140 + i * 4, false, i);
+                    break;
+                case 1:
+                    frame = SyntheticBarcodes.frame(BarcodeFormat.CODE_128, "PAY" + (1000000 + i), WIDTH, HEIGHT,
+                      60 + i * 10, 120 + i * 5, 320, 100, false, i);
+                    break;
+                case 2:
+                    frame = SyntheticBarcodes.frame(BarcodeFormat.CODE_128, "ITEM" + (1000 + i), WIDTH, HEIGHT,
+                      200 + i * 10, 60, 340, 90, true, i);
+                    break;
+                default:
+                    frame = SyntheticBarcodes.frame(BarcodeFormat.EAN_13, "5901234123457", WIDTH, HEIGHT,
+                      100 + i * 12, 200, 300, 120, false, i);
+                    break;
+            }
+            if (decoder.decode(frame, WIDTH, HEIGHT) == null)
+                throw new IllegalStateException("Synthetic frame " + i + " does not decode");
+            frames.add(frame);
+            sizes.add(new int[] { WIDTH, HEIGHT });
+        }
+        decoder.clearCache();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        decoder.shutdown();
+    }
+    
+    private int nextFrame() {
+        int frame = (next / REPEATS) % frames.size();
+        next++;
+        return frame;
+    }
+    
+    @Benchmark
+    public BarcodeDecoder.Decoded decode() {
+        int frame = nextFrame();
+        return decoder.decode(frames.get(frame), sizes.get(frame)[0], sizes.get(frame)[1]);
+    }
+    
+    @Benchmark
+    public BarcodeDecoder.Decoded decodeUncached() {
+        int frame = nextFrame();
+        decoder.clearCache();
+        return decoder.decode(frames.get(frame), sizes.get(frame)[0], sizes.get(frame)[1]);
+    }
+    
+    @Benchmark
+    public Result zxingPerFrame() {
+        int frame = nextFrame();
+        int width = sizes.get(frame)[0];
+        int height = sizes.get(frame)[1];
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(frames.get(frame), width, height, 0, 0, width, height, false);
+        try {
+            return new MultiFormatReader().decode(new BinaryBitmap(new HybridBinarizer(source)), hints);
+        }
+        catch (NotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.nextbiometrics.sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.nextbiometrics.devices.NBDeviceScanFormat;
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanFormatType;
+
+/**
+ * Frames the benchmarks run on: the {@code .raw} files of the directory given by
+ * the {@code benchmark.frames} system property if they match the resolution,
+ * synthetic frames otherwise.
+ */
+final class BenchmarkFrames {
+    
+    static final int FRAME_COUNT = 16;
+    static final int RESOLUTION_DPI = 385;
+    
+    private BenchmarkFrames() {
+    }
+    
+    /**
+     * @param resolution {@code <width>x<height>} as reported by getSupportedScanFormats()
+     */
+    static NBDeviceScanFormatInfo format(String resolution) {
+        String[] size = resolution.split("x");
+        return new NBDeviceScanFormatInfo(NBDeviceScanFormat.FORMAT_CUSTOM, NBDeviceScanFormatType.NATIVE,
+          0, 0, Integer.parseInt(size[0]), Integer.parseInt(size[1]), RESOLUTION_DPI, RESOLUTION_DPI, (byte) 0);
+    }
+    
+    static List<byte[]> load(NBDeviceScanFormatInfo format) throws IOException {
+        String directory = System.getProperty("benchmark.frames");
+        if (directory != null) {
+            try {
+                List<byte[]> frames = SimulatedBiometricDevice.loadFrames(new File(directory), format);
+                if (!frames.isEmpty())
+                    return frames;
+            }
+            catch (IOException e) {
+                // Recorded with another resolution
+            }
+        }
+        return SimulatedBiometricDevice.syntheticFrames(format, FRAME_COUNT, 1);
+    }
+}
@@ -0,0 +1,69 @@
+package com.nextbiometrics.sample;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a calibration blob through CalibrationStore, from its cache and from disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CalibrationLoadBenchmark {
+    
+    private static final String SERIAL_NUMBER = "BENCH0001";
+    
+    @Param({"16384", "262144"})
+    public int blobSize;
+    
+    private File             directory;
+    private CalibrationStore store;
+    
+    @Setup
+    public void setUp() throws Exception {
+        directory = File.createTempFile("calbench", "");
+        directory.delete();
+        store = new CalibrationStore(directory);
+        byte[] data = new byte[blobSize];
+        new Random(blobSize).nextBytes(data);
+        store.save(SERIAL_NUMBER, data);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+    
+    @Benchmark
+    public byte[] cached() throws Exception {
+        return store.load(SERIAL_NUMBER);
+    }
+    
+    @Benchmark
+    public byte[] fromDisk() throws Exception {
+        store.evict(SERIAL_NUMBER);
+        return store.load(SERIAL_NUMBER);
+    }
+}
@@ -0,0 +1,99 @@
+package com.nextbiometrics.sample;
+
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+
+/**
+ * Raw greyscale to ARGB conversion of one frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameConversionBenchmark {
+    
+    @Param({"180x256", "256x360"})
+    public String resolution;
+    
+    private NBDeviceScanFormatInfo format;
+    private List<byte[]>           frames;
+    private int[]                  pixels;
+    private FrameConverter         converter;
+    private int[]                  fingerBounds;
+    private int                    next;
+    
+    @Setup
+    public void setUp() throws Exception {
+        format = BenchmarkFrames.format(resolution);
+        frames = BenchmarkFrames.load(format);
+        pixels = new int[format.getWidth() * format.getHeight()];
+        converter = new FrameConverter();
+        fingerBounds = new int[] { format.getWidth() / 4, format.getHeight() / 4, format.getWidth() * 3 / 4, format.getHeight() * 3 / 4 };
+    }
+    
+    private byte[] nextFrame() {
+        byte[] frame = frames.get(next);
+        next = (next + 1) % frames.size();
+        return frame;
+    }
+    
+    /**
+     * The per-pixel conversion CaptureActivity.convertToBitmap used to do, with a new
+     * buffer for every frame.
+     */
+    @Benchmark
+    public int[] allocatingLoop() {
+        byte[] image = nextFrame();
+        IntBuffer buf = IntBuffer.allocate(image.length);
+        for (byte pixel : image) {
+            int grey = pixel & 0x0ff;
+            buf.put((255 << 24) | (grey << 16) | (grey << 8) | grey);
+        }
+        return buf.array();
+    }
+    
+    @Benchmark
+    public int[] lookupTable() {
+        byte[] image = nextFrame();
+        GreyscaleLut.toArgb(image, pixels, image.length);
+        return pixels;
+    }
+    
+    @Benchmark
+    public int[] frameConverter() {
+        return converter.convertPixels(format.getWidth(), format.getHeight(), nextFrame());
+    }
+    
+    /**
+     * A preview for a view of half the frame size, a quarter of the pixels.
+     */
+    @Benchmark
+    public int[] previewHalfSize() {
+        return converter.convertPreviewPixels(format.getWidth(), format.getHeight(), nextFrame(), format.getWidth() / 2, format.getHeight() / 2, null);
+    }
+    
+    /**
+     * A preview for a view of the frame size, zoomed in on a finger in the middle.
+     */
+    @Benchmark
+    public int[] previewCropped() {
+        return converter.convertPreviewPixels(format.getWidth(), format.getHeight(), nextFrame(), format.getWidth(), format.getHeight(), fingerBounds);
+    }
+}
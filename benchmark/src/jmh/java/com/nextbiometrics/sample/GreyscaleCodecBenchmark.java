@@ -0,0 +1,85 @@
+package com.nextbiometrics.sample;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+
+/**
+ * Lossless compression of one frame, against Deflate as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GreyscaleCodecBenchmark {
+    
+    @Param({"180x256", "256x360"})
+    public String resolution;
+    
+    private NBDeviceScanFormatInfo format;
+    private List<byte[]>           frames;
+    private GreyscaleCodec         codec;
+    private Deflater               deflater;
+    private byte[]                 encoded;
+    private byte[]                 encodedFrame;
+    private byte[]                 decoded;
+    private int                    encodedLength;
+    private int                    next;
+    
+    @Setup
+    public void setUp() throws Exception {
+        format = BenchmarkFrames.format(resolution);
+        frames = BenchmarkFrames.load(format);
+        codec = new GreyscaleCodec();
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        encoded = new byte[GreyscaleCodec.maxEncodedLength(format.getWidth(), format.getHeight())];
+        decoded = new byte[format.getWidth() * format.getHeight()];
+        encodedFrame = new byte[encoded.length];
+        encodedLength = codec.encode(frames.get(0), format.getWidth(), format.getHeight(), encodedFrame, 0);
+    }
+    
+    private byte[] nextFrame() {
+        byte[] frame = frames.get(next);
+        next = (next + 1) % frames.size();
+        return frame;
+    }
+    
+    @Benchmark
+    public int encode() {
+        return codec.encode(nextFrame(), format.getWidth(), format.getHeight(), encoded, 0);
+    }
+    
+    @Benchmark
+    public byte[] decode() {
+        codec.decode(encodedFrame, 0, encodedLength, decoded);
+        return decoded;
+    }
+    
+    @Benchmark
+    public int deflate() {
+        byte[] frame = nextFrame();
+        deflater.reset();
+        deflater.setInput(frame);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished())
+            length += deflater.deflate(encoded);
+        return length;
+    }
+}
@@ -0,0 +1,81 @@
+package com.nextbiometrics.sample;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * Cost on the scanning thread of handing a preview frame to PreviewPipeline while
+ * its worker converts the frames and computes their statistics.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PreviewHandoffBenchmark {
+    
+    @Param({"180x256", "256x360"})
+    public String resolution;
+    
+    private NBDeviceScanFormatInfo format;
+    private List<byte[]>           frames;
+    private PreviewPipeline        pipeline;
+    private int                    next;
+    
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Frames {
+        public long processed;
+        public long dropped;
+    }
+    
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        format = BenchmarkFrames.format(resolution);
+        frames = BenchmarkFrames.load(format);
+        final FrameConverter converter = new FrameConverter();
+        final ImageStats stats = new ImageStats();
+        pipeline = new PreviewPipeline("PreviewBenchmark", new PreviewPipeline.FrameHandler() {
+            @Override
+            public void onFrame(PreviewFrame frame) {
+                converter.convertPixels(frame.getFormat().getWidth(), frame.getFormat().getHeight(), frame.getImage());
+                NativeImage.computeStats(frame.getImage(), frame.getLength(), stats);
+            }
+        });
+        pipeline.start();
+    }
+    
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        pipeline.stop();
+    }
+    
+    @Benchmark
+    public boolean offer(Frames counters) {
+        byte[] image = frames.get(next);
+        next = (next + 1) % frames.size();
+        boolean accepted = pipeline.offer(NBDeviceScanStatus.KEEP_FINGER_ON_SENSOR, 50, format, image);
+        counters.processed = pipeline.getProcessedFrames();
+        counters.dropped = pipeline.getDroppedFrames();
+        return accepted;
+    }
+}
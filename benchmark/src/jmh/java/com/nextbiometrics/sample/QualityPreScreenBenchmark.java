@@ -0,0 +1,65 @@
+package com.nextbiometrics.sample;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+
+/**
+ * Quality pre-screen of one preview frame, unlimited and with the default time budget.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QualityPreScreenBenchmark {
+    
+    @Param({"180x256", "256x360"})
+    public String resolution;
+    
+    private NBDeviceScanFormatInfo format;
+    private List<byte[]>           frames;
+    private QualityPreScreen       unlimited;
+    private QualityPreScreen       budgeted;
+    private int                    next;
+    
+    @Setup
+    public void setUp() throws Exception {
+        format = BenchmarkFrames.format(resolution);
+        frames = BenchmarkFrames.load(format);
+        unlimited = new QualityPreScreen(Long.MAX_VALUE);
+        budgeted = new QualityPreScreen();
+    }
+    
+    private byte[] nextFrame() {
+        byte[] frame = frames.get(next);
+        next = (next + 1) % frames.size();
+        return frame;
+    }
+    
+    @Benchmark
+    public int assess() {
+        unlimited.assess(nextFrame(), format.getWidth(), format.getHeight());
+        return unlimited.getScore();
+    }
+    
+    @Benchmark
+    public int assessWithinBudget() {
+        budgeted.assess(nextFrame(), format.getWidth(), format.getHeight());
+        return budgeted.getScore();
+    }
+}
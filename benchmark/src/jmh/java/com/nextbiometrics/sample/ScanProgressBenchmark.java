@@ -0,0 +1,67 @@
+package com.nextbiometrics.sample;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+import com.nextbiometrics.devices.NBDeviceScanStatus;
+
+/**
+ * The work of building a ScanProgress besides the bitmap: image statistics and
+ * the status text.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScanProgressBenchmark {
+    
+    private static final String STATUS_LABEL = "Scan status:";
+    private static final String DETECT_LABEL = "Finger detect value:";
+    
+    @Param({"180x256", "256x360"})
+    public String resolution;
+    
+    private List<byte[]>    frames;
+    private final ImageStats stats = new ImageStats();
+    private int             next;
+    
+    @Setup
+    public void setUp() throws Exception {
+        NBDeviceScanFormatInfo format = BenchmarkFrames.format(resolution);
+        frames = BenchmarkFrames.load(format);
+        NativeImage.computeStats(frames.get(0), frames.get(0).length, stats);
+    }
+    
+    @Benchmark
+    public ImageStats computeStats() {
+        byte[] image = frames.get(next);
+        next = (next + 1) % frames.size();
+        NativeImage.computeStats(image, image.length, stats);
+        return stats;
+    }
+    
+    @Benchmark
+    public String stringFormat() {
+        return String.format("%s %s, %s %d\n%s", STATUS_LABEL, NBDeviceScanStatus.KEEP_FINGER_ON_SENSOR, DETECT_LABEL, 57, stats);
+    }
+    
+    @Benchmark
+    public String scanMessage() {
+        return ScanMessage.format(STATUS_LABEL, NBDeviceScanStatus.KEEP_FINGER_ON_SENSOR, DETECT_LABEL, 57, stats);
+    }
+}
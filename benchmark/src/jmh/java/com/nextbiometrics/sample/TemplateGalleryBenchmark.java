@@ -0,0 +1,120 @@
+package com.nextbiometrics.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextbiometrics.devices.NBDeviceScanFormatInfo;
+
+/**
+ * 1:N search latency against the size of the gallery, pruned by bins and exhaustive,
+ * on one thread and on all cores.
+ * <p>
+ * The gallery holds templates extracted from {@value #FINGERS} synthetic fingers and
+ * variants of them, moved by a few cells and turned by up to 20 degrees, with two
+ * entries per identity. The probes are other impressions of enrolled fingers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TemplateGalleryBenchmark {
+    
+    static final int FINGERS = 32;
+    static final int PROBES = 8;
+    
+    @Param({"500", "2000", "5000"})
+    public int gallerySize;
+    
+    // 0 for one thread per core
+    @Param({"1", "0"})
+    public int parallelism;
+    
+    private TemplateGallery           gallery;
+    private List<FingerprintTemplate> probes;
+    private int                       next;
+    
+    @Setup
+    public void setUp() {
+        NBDeviceScanFormatInfo format = BenchmarkFrames.format("256x360");
+        TemplateExtractor extractor = new OrientationFieldExtractor();
+        List<FingerprintTemplate> fingers = new ArrayList<FingerprintTemplate>(FINGERS);
+        probes = new ArrayList<FingerprintTemplate>(PROBES);
+        for (int finger = 0; finger < FINGERS; finger++) {
+            fingers.add(extractor.extract(SimulatedBiometricDevice.syntheticFinger(format, finger, 0, 0, 1),
+              format.getWidth(), format.getHeight(), BenchmarkFrames.RESOLUTION_DPI));
+            if (finger < PROBES)
+                probes.add(extractor.extract(SimulatedBiometricDevice.syntheticFinger(format, finger, 10, -8, 2),
+                  format.getWidth(), format.getHeight(), BenchmarkFrames.RESOLUTION_DPI));
+        }
+        
+        gallery = new TemplateGallery(null, parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        Random random = new Random(1);
+        for (int entry = 0; entry < gallerySize; entry++) {
+            FingerprintTemplate base = fingers.get(entry % FINGERS);
+            gallery.add(entry / 2 + 1, entry < FINGERS ? base : variant(base, random));
+        }
+    }
+    
+    /**
+     * The template moved by up to two cells and turned by up to 20 degrees.
+     */
+    private static FingerprintTemplate variant(FingerprintTemplate base, Random random) {
+        int shiftX = random.nextInt(5) - 2;
+        int shiftY = random.nextInt(5) - 2;
+        // 256 steps for 180 degrees of ridge direction
+        int turn = random.nextInt(57) - 28;
+        byte[] orientations = new byte[FingerprintTemplate.CELLS];
+        byte[] reliabilities = new byte[FingerprintTemplate.CELLS];
+        for (int y = 0; y < FingerprintTemplate.GRID_HEIGHT; y++) {
+            for (int x = 0; x < FingerprintTemplate.GRID_WIDTH; x++) {
+                int sourceX = x - shiftX;
+                int sourceY = y - shiftY;
+                if (sourceX < 0 || sourceX >= FingerprintTemplate.GRID_WIDTH || sourceY < 0 || sourceY >= FingerprintTemplate.GRID_HEIGHT)
+                    continue;
+                int source = sourceY * FingerprintTemplate.GRID_WIDTH + sourceX;
+                int cell = y * FingerprintTemplate.GRID_WIDTH + x;
+                orientations[cell] = (byte) (base.getOrientation(source) + turn);
+                reliabilities[cell] = (byte) base.getReliability(source);
+            }
+        }
+        return new FingerprintTemplate(orientations, reliabilities);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        gallery.shutdown();
+    }
+    
+    private FingerprintTemplate nextProbe() {
+        FingerprintTemplate probe = probes.get(next);
+        next = (next + 1) % probes.size();
+        return probe;
+    }
+    
+    @Benchmark
+    public TemplateGallery.SearchResult identify() {
+        return gallery.identify(nextProbe(), TemplateGallery.DEFAULT_THRESHOLD, TemplateGallery.DEFAULT_MAX_RESULTS);
+    }
+    
+    @Benchmark
+    public TemplateGallery.SearchResult identifyAll() {
+        return gallery.identifyAll(nextProbe(), TemplateGallery.DEFAULT_THRESHOLD, TemplateGallery.DEFAULT_MAX_RESULTS);
+    }
+}